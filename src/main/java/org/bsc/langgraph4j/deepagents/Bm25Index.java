@@ -0,0 +1,377 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-memory inverted index ranking the items by Okapi BM25, to find the exact words and identifiers
+ * that a vector search may miss.
+ * <p>
+ * The text is split in identifiers (letters, digits and underscores), indexed lower-cased as a whole and,
+ * when compound, by their camelCase, snake_case and letter/digit parts too: {@code getUserName} matches
+ * both the query {@code getUserName} and the query {@code user name}, the former scoring higher since the
+ * whole identifier is rarer. The deleted items are skipped by the searches and dropped from the postings
+ * once they are the majority.
+ *
+ * @param <T> type of the indexed items
+ */
+final class Bm25Index<T> {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    /**
+     * Ids of the items containing a term, in increasing order, with the term frequencies
+     */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int[] frequencies = new int[4];
+        int size;
+        // items not deleted
+        int live;
+
+        void add( int id, int frequency ) {
+            if( size == ids.length ) {
+                ids = Arrays.copyOf( ids, size * 2 );
+                frequencies = Arrays.copyOf( frequencies, size * 2 );
+            }
+            ids[size] = id;
+            frequencies[size] = frequency;
+            ++size;
+            ++live;
+        }
+    }
+
+    private final Function<T,String> text;
+    private final Function<T,String> key;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String,Postings> postings = new HashMap<>();
+    private final Map<String,List<Integer>> keys = new HashMap<>();
+    private final List<T> items = new ArrayList<>();
+    private int[] lengths = new int[16];
+    private final BitSet deleted = new BitSet();
+    private long totalLength;
+
+    /**
+     * @param text text of the items
+     * @param key key of the items, to delete them. Null if they are never deleted.
+     */
+    Bm25Index( Function<T,String> text, Function<T,String> key ) {
+        this.text = requireNonNull( text, "text cannot be null" );
+        this.key = key;
+    }
+
+    /**
+     * @return number of items, not counting the deleted ones
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return items.size() - deleted.cardinality();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void add( T item ) {
+        requireNonNull( item, "item cannot be null" );
+        // tokenized outside the lock, the concurrent inserts only serialize on the postings update
+        final var frequencies = frequencies( text.apply( item ) );
+        final int length = frequencies.values().stream().mapToInt( Integer::intValue ).sum();
+        lock.writeLock().lock();
+        try {
+            insert( item, frequencies, length );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert( T item, Map<String,Integer> frequencies, int length ) {
+        final int id = items.size();
+        items.add( item );
+        if( id == lengths.length ) {
+            lengths = Arrays.copyOf( lengths, id * 2 );
+        }
+        lengths[id] = length;
+        totalLength += length;
+        frequencies.forEach( ( term, frequency ) -> postings.computeIfAbsent( term, t -> new Postings() ).add( id, frequency ) );
+        if( key != null ) {
+            keys.computeIfAbsent( key.apply( item ), k -> new ArrayList<>( 4 ) ).add( id );
+        }
+    }
+
+    /**
+     * Deletes the items of the given keys
+     */
+    void delete( Collection<String> deletedKeys ) {
+        if( key == null ) {
+            throw new IllegalStateException( "items cannot be deleted without a key" );
+        }
+        lock.writeLock().lock();
+        try {
+            for( var deletedKey : deletedKeys ) {
+                final var ids = keys.remove( deletedKey );
+                if( ids == null ) {
+                    continue;
+                }
+                for( int id : ids ) {
+                    deleted.set( id );
+                    totalLength -= lengths[id];
+                    frequencies( text.apply( items.get( id ) ) ).keySet().forEach( term -> --postings.get( term ).live );
+                }
+            }
+            if( deleted.cardinality() > items.size() / 2 ) {
+                compact();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the postings without the deleted items
+     */
+    private void compact() {
+        final var live = new ArrayList<T>( items.size() - deleted.cardinality() );
+        for( int id = deleted.nextClearBit( 0 ); id < items.size(); id = deleted.nextClearBit( id + 1 ) ) {
+            live.add( items.get( id ) );
+        }
+        reset();
+        for( var item : live ) {
+            final var frequencies = frequencies( text.apply( item ) );
+            insert( item, frequencies, frequencies.values().stream().mapToInt( Integer::intValue ).sum() );
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void reset() {
+        postings.clear();
+        keys.clear();
+        items.clear();
+        lengths = new int[16];
+        deleted.clear();
+        totalLength = 0;
+    }
+
+    /**
+     * @return the k items best matching the words of the query, best first, with their BM25 score
+     */
+    List<HnswIndex.Result<T>> search( String query, int k ) {
+        return search( query, k, null );
+    }
+
+    /**
+     * @param filter keys of the items that can be returned, null to accept all of them
+     * @return the k items best matching the words of the query, best first, with their BM25 score
+     */
+    List<HnswIndex.Result<T>> search( String query, int k, Predicate<String> filter ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        if( filter != null && key == null ) {
+            throw new IllegalStateException( "items cannot be filtered without a key" );
+        }
+        final var queryTerms = new LinkedHashSet<String>();
+        terms( query, queryTerms::add );
+
+        lock.readLock().lock();
+        try {
+            final int count = items.size() - deleted.cardinality();
+            if( count == 0 || queryTerms.isEmpty() ) {
+                return List.of();
+            }
+            final float averageLength = Math.max( 1f, (float)totalLength / count );
+
+            // the rarest terms first, they contribute the most
+            final var terms = new ArrayList<Postings>();
+            final var idfs = new HashMap<Postings,Float>();
+            for( var term : queryTerms ) {
+                final var termPostings = postings.get( term );
+                if( termPostings != null && termPostings.live > 0 ) {
+                    terms.add( termPostings );
+                    idfs.put( termPostings, (float)Math.log( 1 + ( count - termPostings.live + 0.5 ) / ( termPostings.live + 0.5 ) ) );
+                }
+            }
+            terms.sort( ( a, b ) -> Float.compare( idfs.get( b ), idfs.get( a ) ) );
+            // maximum score the terms from i on can add to an item
+            final var remaining = new float[ terms.size() + 1 ];
+            for( int i = terms.size() - 1; i >= 0; --i ) {
+                remaining[i] = remaining[ i + 1 ] + idfs.get( terms.get(i) ) * ( K1 + 1 );
+            }
+
+            // the statistics are of the whole corpus, the filter only skips items
+            var skipped = deleted;
+            if( filter != null ) {
+                skipped = new BitSet( items.size() );
+                skipped.set( 0, items.size() );
+                for( var entry : keys.entrySet() ) {
+                    if( filter.test( entry.getKey() ) ) {
+                        entry.getValue().forEach( skipped::clear );
+                    }
+                }
+                skipped.or( deleted );
+            }
+
+            final var scores = new float[ items.size() ];
+            final var matches = new BitSet( items.size() );
+            for( int t = 0; t < terms.size(); ++t ) {
+                final var termPostings = terms.get(t);
+                final float idf = idfs.get( termPostings );
+                if( t > 0 && kthScore( scores, matches, k ) >= remaining[t] ) {
+                    // MaxScore: an item matching only the remaining, common terms cannot enter the best k,
+                    // so they only add to the items already matched, looked up in their postings
+                    final var ids = termPostings.ids;
+                    matches.stream().forEach( id -> {
+                        final int i = Arrays.binarySearch( ids, 0, termPostings.size, id );
+                        if( i >= 0 ) {
+                            scores[id] += score( idf, termPostings.frequencies[i], lengths[id], averageLength );
+                        }
+                    });
+                    continue;
+                }
+                for( int i = 0; i < termPostings.size; ++i ) {
+                    final int id = termPostings.ids[i];
+                    if( !skipped.get( id ) ) {
+                        scores[id] += score( idf, termPostings.frequencies[i], lengths[id], averageLength );
+                        matches.set( id );
+                    }
+                }
+            }
+
+            // min-heap of the best k ids
+            final var best = new PriorityQueue<Integer>( k + 1, ( a, b ) -> Float.compare( scores[a], scores[b] ) );
+            matches.stream().forEach( id -> {
+                if( best.size() < k ) {
+                    best.add( id );
+                }
+                else if( scores[id] > scores[ best.peek() ] ) {
+                    best.poll();
+                    best.add( id );
+                }
+            });
+            final var results = new ArrayList<HnswIndex.Result<T>>( best.size() );
+            while( !best.isEmpty() ) {
+                final int id = best.poll();
+                results.add( new HnswIndex.Result<>( items.get( id ), scores[id] ) );
+            }
+            Collections.reverse( results );
+            return results;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static float score( float idf, float frequency, int length, float averageLength ) {
+        return idf * frequency * ( K1 + 1 ) / ( frequency + K1 * ( 1 - B + B * length / averageLength ) );
+    }
+
+    /**
+     * @return the k-th best score of the matched items, 0 if less than k items are matched
+     */
+    private static float kthScore( float[] scores, BitSet matches, int k ) {
+        if( matches.cardinality() < k ) {
+            return 0;
+        }
+        final var best = new PriorityQueue<Float>( k + 1 );
+        matches.stream().forEach( id -> {
+            best.add( scores[id] );
+            if( best.size() > k ) {
+                best.poll();
+            }
+        });
+        return best.peek();
+    }
+
+    private static Map<String,Integer> frequencies( String text ) {
+        final var result = new HashMap<String,Integer>();
+        terms( text, term -> result.merge( term, 1, Integer::sum ) );
+        return result;
+    }
+
+    /**
+     * Splits the text in lower-cased identifiers and, for the compound ones, in their parts
+     */
+    static void terms( String text, Consumer<String> consumer ) {
+        int start = -1;
+        for( int i = 0; i <= text.length(); ++i ) {
+            if( i < text.length() && isIdentifierPart( text.charAt(i) ) ) {
+                if( start < 0 ) {
+                    start = i;
+                }
+                continue;
+            }
+            if( start >= 0 ) {
+                identifier( text, start, i, consumer );
+                start = -1;
+            }
+        }
+    }
+
+    private static boolean isIdentifierPart( char c ) {
+        return Character.isLetterOrDigit( c ) || c == '_';
+    }
+
+    private static void identifier( String text, int start, int end, Consumer<String> consumer ) {
+        final var whole = text.substring( start, end ).toLowerCase();
+        consumer.accept( whole );
+        final var parts = new ArrayList<String>();
+        int partStart = start;
+        for( int i = start + 1; i <= end; ++i ) {
+            if( i == end || isBoundary( text.charAt( i - 1 ), text.charAt(i), i + 1 < end ? text.charAt( i + 1 ) : 0 ) ) {
+                final var part = text.substring( partStart, i ).replace( "_", "" );
+                if( !part.isEmpty() ) {
+                    parts.add( part.toLowerCase() );
+                }
+                partStart = i;
+            }
+        }
+        if( parts.size() > 1 ) {
+            parts.forEach( consumer );
+        }
+    }
+
+    /**
+     * @return true if an identifier part starts at current: after an underscore, at a lower to upper case change,
+     * at the last capital of an acronym followed by a lower case letter ({@code HTTPServer}), between letters and digits
+     */
+    private static boolean isBoundary( char previous, char current, char next ) {
+        if( previous == '_' || current == '_' ) {
+            return current != '_' && previous == '_';
+        }
+        if( Character.isLowerCase( previous ) && Character.isUpperCase( current ) ) {
+            return true;
+        }
+        if( Character.isUpperCase( previous ) && Character.isUpperCase( current ) && Character.isLowerCase( next ) ) {
+            return true;
+        }
+        return Character.isDigit( previous ) != Character.isDigit( current );
+    }
+}
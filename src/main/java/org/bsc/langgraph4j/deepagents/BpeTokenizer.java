@@ -0,0 +1,114 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Byte pair encoding tokenizer (tiktoken compatible).
+ * The token bytes are handled as ISO-8859-1 strings, one char per byte, to use them as map keys.
+ */
+final class BpeTokenizer implements Tokenizer {
+
+    // pre-tokenization of cl100k_base
+    private static final Pattern PATTERN = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+" );
+
+    private static final int CACHE_SIZE = 16_384;
+
+    private final Map<String,Integer> ranks;
+    // piece -> number of tokens
+    private final Map<String,Integer> cache = new ConcurrentHashMap<>();
+
+    private BpeTokenizer( Map<String,Integer> ranks ) {
+        this.ranks = ranks;
+    }
+
+    static BpeTokenizer load( Path file ) throws IOException {
+        final var ranks = new HashMap<String,Integer>();
+        try( var lines = Files.lines( file, UTF_8 ) ) {
+            lines.filter( line -> !line.isBlank() ).forEach( line -> {
+                final int separator = line.indexOf( ' ' );
+                if( separator < 0 ) {
+                    throw new IllegalArgumentException( format( "invalid BPE rank '%s'", line ) );
+                }
+                final var token = Base64.getDecoder().decode( line.substring( 0, separator ) );
+                ranks.put( new String( token, ISO_8859_1 ), Integer.parseInt( line.substring( separator + 1 ).trim() ) );
+            });
+        }
+        if( ranks.isEmpty() ) {
+            throw new IOException( format( "no BPE ranks found in '%s'", file ) );
+        }
+        return new BpeTokenizer( ranks );
+    }
+
+    @Override
+    public int count( String text ) {
+        if( text == null || text.isEmpty() ) {
+            return 0;
+        }
+        int result = 0;
+        final var matcher = PATTERN.matcher( text );
+        while( matcher.find() ) {
+            result += countPiece( new String( matcher.group().getBytes( UTF_8 ), ISO_8859_1 ) );
+        }
+        return result;
+    }
+
+    private int countPiece( String piece ) {
+        if( ranks.containsKey( piece ) ) {
+            return 1;
+        }
+        final var cached = cache.get( piece );
+        if( cached != null ) {
+            return cached;
+        }
+        final int result = merge( piece );
+        if( cache.size() >= CACHE_SIZE ) {
+            cache.clear();
+        }
+        cache.put( piece, result );
+        return result;
+    }
+
+    /**
+     * Joins the adjacent parts whose concatenation has the lowest rank, until no concatenation is a token
+     *
+     * @return the number of resulting parts
+     */
+    private int merge( String piece ) {
+        // starts[i] is the offset of the i-th part, starts[parts] is the piece length
+        final var starts = new int[ piece.length() + 1 ];
+        for( int i = 0; i < starts.length; ++i ) {
+            starts[i] = i;
+        }
+        int parts = piece.length();
+
+        while( parts > 1 ) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for( int i = 0; i < parts - 1; ++i ) {
+                final var rank = ranks.get( piece.substring( starts[i], starts[i + 2] ) );
+                if( rank != null && rank < bestRank ) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if( best < 0 ) {
+                break;
+            }
+            System.arraycopy( starts, best + 2, starts, best + 1, parts - best - 1 );
+            --parts;
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,232 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.serializer.StateSerializer;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Changes of the state channels between a checkpoint and its parent.
+ *
+ * <ul>
+ *     <li>list channels (e.g. messages) that only grew record the appended elements</li>
+ *     <li>map channels with string keys (e.g. files) record the added, changed and removed entries</li>
+ *     <li>any other changed channel records its new value</li>
+ * </ul>
+ *
+ * The recorded values have the same shape of the state values, so they are written with the state serializer.
+ * <p>
+ * The messages and the files kept by the reducers (see {@link MessageList} and {@link FileMap}) are diffed from their
+ * structural sharing, without comparing their elements: the appended messages and the files changed since the parent.
+ * The other channels are compared element by element.
+ */
+final class CheckpointDelta {
+
+    // channels replaced by a new value
+    private final Map<String,Object> values = new LinkedHashMap<>();
+    // list channels: appended elements
+    private final Map<String,Object> appended = new LinkedHashMap<>();
+    // map channels: added or changed entries
+    private final Map<String,Object> updated = new LinkedHashMap<>();
+    // removed channels
+    private final List<String> removed = new ArrayList<>();
+    // map channels: removed keys
+    private final Map<String,List<String>> removedEntries = new LinkedHashMap<>();
+
+    private CheckpointDelta() {}
+
+    private static boolean same( Object a, Object b ) {
+        return a == b || Objects.equals( a, b );
+    }
+
+    private static boolean isPrefix( List<?> prefix, List<?> list ) {
+        if( prefix.size() > list.size() ) {
+            return false;
+        }
+        for( int i = 0; i < prefix.size(); ++i ) {
+            if( !same( prefix.get(i), list.get(i) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the list starts with the elements of the prefix, compared by reference
+     */
+    private static boolean isSharedPrefix( List<?> prefix, List<?> list ) {
+        if( prefix.size() > list.size() ) {
+            return false;
+        }
+        for( int i = 0; i < prefix.size(); ++i ) {
+            if( prefix.get(i) != list.get(i) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the changes of the given map channel have been recorded, false if keys are not strings
+     */
+    private boolean diff( String channel, Map<?,?> parent, Map<?,?> state ) {
+        final var changed = new LinkedHashMap<String,Object>();
+        for( var entry : state.entrySet() ) {
+            if( !(entry.getKey() instanceof String key) ) {
+                return false;
+            }
+            if( !parent.containsKey( key ) || !same( parent.get( key ), entry.getValue() ) ) {
+                changed.put( key, entry.getValue() );
+            }
+        }
+        final var deleted = new ArrayList<String>();
+        for( var key : parent.keySet() ) {
+            if( !(key instanceof String name) ) {
+                return false;
+            }
+            if( !state.containsKey( name ) ) {
+                deleted.add( name );
+            }
+        }
+        if( !changed.isEmpty() ) {
+            updated.put( channel, changed );
+        }
+        if( !deleted.isEmpty() ) {
+            removedEntries.put( channel, deleted );
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the changes from the parent state to the given state
+     */
+    static CheckpointDelta between( Map<String,Object> parent, Map<String,Object> state ) {
+        final var delta = new CheckpointDelta();
+
+        for( var entry : state.entrySet() ) {
+            final var channel = entry.getKey();
+            final var value = entry.getValue();
+
+            if( !parent.containsKey( channel ) ) {
+                delta.values.put( channel, value );
+                continue;
+            }
+            final var previous = parent.get( channel );
+            if( previous == value ) {
+                continue;
+            }
+            // the lineage rejects a rewritten conversation at once, an append is still verified before recording it
+            if( previous instanceof MessageList before && value instanceof MessageList after
+                    && after.startsWith( before ) && isSharedPrefix( before, after ) ) {
+                if( after.size() > before.size() ) {
+                    delta.appended.put( channel, new ArrayList<>( after.subList( before.size(), after.size() ) ) );
+                }
+                continue;
+            }
+            if( previous instanceof FileMap before && value instanceof FileMap after ) {
+                final var changed = after.changedSince( before );
+                if( changed != null ) {
+                    if( !changed.isEmpty() ) {
+                        final var entries = new LinkedHashMap<String,Object>();
+                        changed.forEach( key -> entries.put( key, after.get( key ) ) );
+                        delta.updated.put( channel, entries );
+                    }
+                    continue;
+                }
+            }
+            if( previous instanceof List<?> before && value instanceof List<?> after && isPrefix( before, after ) ) {
+                if( after.size() > before.size() ) {
+                    delta.appended.put( channel, new ArrayList<>( after.subList( before.size(), after.size() ) ) );
+                }
+                continue;
+            }
+            if( previous instanceof Map<?,?> before && value instanceof Map<?,?> after && delta.diff( channel, before, after ) ) {
+                continue;
+            }
+            if( !same( previous, value ) ) {
+                delta.values.put( channel, value );
+            }
+        }
+
+        for( var channel : parent.keySet() ) {
+            if( !state.containsKey( channel ) ) {
+                delta.removed.add( channel );
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * @return a new state, result of the changes applied to the given parent state
+     */
+    @SuppressWarnings("unchecked")
+    Map<String,Object> applyTo( Map<String,Object> parent ) {
+        final var result = new LinkedHashMap<>( parent );
+        removed.forEach( result::remove );
+        result.putAll( values );
+
+        appended.forEach( ( channel, elements ) -> {
+            final var list = new ArrayList<Object>( (List<Object>)result.getOrDefault( channel, List.of() ) );
+            list.addAll( (List<Object>)elements );
+            result.put( channel, list );
+        });
+
+        final var channels = new LinkedHashSet<String>( updated.keySet() );
+        channels.addAll( removedEntries.keySet() );
+        for( var channel : channels ) {
+            final var map = new LinkedHashMap<Object,Object>( (Map<Object,Object>)result.getOrDefault( channel, Map.of() ) );
+            removedEntries.getOrDefault( channel, List.of() ).forEach( map::remove );
+            map.putAll( (Map<String,Object>)updated.getOrDefault( channel, Map.of() ) );
+            result.put( channel, map );
+        }
+
+        return result;
+    }
+
+    void write( StateSerializer<?> serializer, ObjectOutput out ) throws IOException {
+        serializer.writeData( values, out );
+        serializer.writeData( appended, out );
+        serializer.writeData( updated, out );
+
+        out.writeInt( removed.size() );
+        for( var channel : removed ) {
+            out.writeUTF( channel );
+        }
+        out.writeInt( removedEntries.size() );
+        for( var entry : removedEntries.entrySet() ) {
+            out.writeUTF( entry.getKey() );
+            out.writeInt( entry.getValue().size() );
+            for( var key : entry.getValue() ) {
+                out.writeUTF( key );
+            }
+        }
+    }
+
+    static CheckpointDelta read( StateSerializer<?> serializer, ObjectInput in ) throws IOException, ClassNotFoundException {
+        final var delta = new CheckpointDelta();
+        delta.values.putAll( serializer.readData( in ) );
+        delta.appended.putAll( serializer.readData( in ) );
+        delta.updated.putAll( serializer.readData( in ) );
+
+        for( int i = in.readInt(); i > 0; --i ) {
+            delta.removed.add( in.readUTF() );
+        }
+        for( int i = in.readInt(); i > 0; --i ) {
+            final var channel = in.readUTF();
+            final var keys = new ArrayList<String>();
+            for( int n = in.readInt(); n > 0; --n ) {
+                keys.add( in.readUTF() );
+            }
+            delta.removedEntries.put( channel, keys );
+        }
+        return delta;
+    }
+}
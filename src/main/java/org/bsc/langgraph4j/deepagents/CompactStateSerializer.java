@@ -0,0 +1,523 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.serializer.StateSerializer;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.lang.String.format;
+
+/**
+ * Binary state serializer optimized for size and speed of the deep agent state.
+ *
+ * <ul>
+ *     <li>lengths and integers are written as varint</li>
+ *     <li>short strings (map keys, tool names, ids, ...) are written once and then referenced through a dedup table</li>
+ *     <li>long strings (file contents, tool results, ...) are deflated when compression is enabled and worthwhile</li>
+ *     <li>messages and todos have a dedicated encoding; media attachments of messages are not preserved</li>
+ * </ul>
+ *
+ * Values not natively supported must be {@link Serializable} and are written using the java serialization.
+ */
+public class CompactStateSerializer extends StateSerializer<DeepAgent.State> {
+
+    // version 2: nullable ids and types of the tool calls
+    // version 3: nullable ids and names of the tool responses
+    private static final int VERSION = 3;
+
+    // strings up to this size (in bytes) are added to the dedup table
+    private static final int DEDUP_MAX_LENGTH = 64;
+
+    private static final int TAG_NULL       = 0;
+    private static final int TAG_STRING     = 1;
+    private static final int TAG_DEFLATED   = 2;
+    private static final int TAG_TRUE       = 3;
+    private static final int TAG_FALSE      = 4;
+    private static final int TAG_INT        = 5;
+    private static final int TAG_LONG       = 6;
+    private static final int TAG_DOUBLE     = 7;
+    private static final int TAG_LIST       = 8;
+    private static final int TAG_MAP        = 9;
+    private static final int TAG_ENUM       = 10;
+    private static final int TAG_TODO       = 11;
+    private static final int TAG_USER       = 12;
+    private static final int TAG_SYSTEM     = 13;
+    private static final int TAG_ASSISTANT  = 14;
+    private static final int TAG_TOOL       = 15;
+    private static final int TAG_OBJECT     = 16;
+
+    private final int compressionThreshold;
+
+    /**
+     * Serializer with compression of strings longer than 1KB
+     */
+    public CompactStateSerializer() {
+        this( 1024 );
+    }
+
+    /**
+     * @param compressionThreshold strings longer than the given number of characters are deflated,
+     *                             a value &lt;= 0 disables the compression
+     */
+    public CompactStateSerializer( int compressionThreshold ) {
+        super( DeepAgent.State::new );
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public void writeData(Map<String, Object> data, ObjectOutput out) throws IOException {
+        out.writeByte( VERSION );
+        new Encoder( out ).writeMap( data );
+    }
+
+    @Override
+    public Map<String, Object> readData(ObjectInput in) throws IOException, ClassNotFoundException {
+        final int version = in.readUnsignedByte();
+        if( version < 1 || version > VERSION ) {
+            throw new IOException( format("unsupported state format version %d", version) );
+        }
+        return new Decoder( in, version ).readMap();
+    }
+
+    /**
+     * Copies the state through the serialization, except the messages and the files kept by the reducers in
+     * immutable lists and maps (see {@link MessageList} and {@link FileMap}) that are shared with the copy.
+     * Besides saving their serialization on each checkpoint, this preserves the structural sharing from which
+     * {@link FileCheckpointSaver} evaluates the changes of a checkpoint.
+     */
+    @Override
+    public DeepAgent.State cloneObject( DeepAgent.State object ) throws IOException, ClassNotFoundException {
+        final var shared = new LinkedHashMap<String,Object>();
+        final var copied = new LinkedHashMap<String,Object>();
+        object.data().forEach( ( channel, value ) ->
+                ( value instanceof MessageList || value instanceof FileMap ? shared : copied ).put( channel, value ) );
+
+        final var bytes = new ByteArrayOutputStream();
+        try( var out = new ObjectOutputStream( bytes ) ) {
+            writeData( copied, out );
+        }
+        final Map<String,Object> restored;
+        try( var in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) {
+            restored = readData( in );
+        }
+        // keeps the channels in the order of the original state
+        final var result = new LinkedHashMap<String,Object>();
+        object.data().keySet().forEach( channel ->
+                result.put( channel, shared.containsKey( channel ) ? shared.get( channel ) : restored.get( channel ) ) );
+        return stateFactory().apply( result );
+    }
+
+    static void writeVarInt( DataOutput out, int value ) throws IOException {
+        while( (value & ~0x7F) != 0 ) {
+            out.writeByte( (value & 0x7F) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    static int readVarInt( DataInput in ) throws IOException {
+        int result = 0;
+        for( int shift = 0; shift < 32; shift += 7 ) {
+            final int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if( (b & 0x80) == 0 ) {
+                return result;
+            }
+        }
+        throw new IOException( "malformed varint" );
+    }
+
+    static void writeVarLong( DataOutput out, long value ) throws IOException {
+        while( (value & ~0x7FL) != 0 ) {
+            out.writeByte( (int)((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        out.writeByte( (int)value );
+    }
+
+    static long readVarLong( DataInput in ) throws IOException {
+        long result = 0;
+        for( int shift = 0; shift < 64; shift += 7 ) {
+            final int b = in.readUnsignedByte();
+            result |= (long)(b & 0x7F) << shift;
+            if( (b & 0x80) == 0 ) {
+                return result;
+            }
+        }
+        throw new IOException( "malformed varlong" );
+    }
+
+    private class Encoder {
+        private final ObjectOutput out;
+        private final Map<String,Integer> strings = new HashMap<>();
+
+        Encoder( ObjectOutput out ) {
+            this.out = out;
+        }
+
+        /**
+         * header: (index << 1 | 1) for a reference to the dedup table, (length << 1) for a literal
+         */
+        void writeString( String value ) throws IOException {
+            final var index = strings.get( value );
+            if( index != null ) {
+                writeVarInt( out, index << 1 | 1 );
+                return;
+            }
+            final var bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeVarInt( out, bytes.length << 1 );
+            out.write( bytes );
+            if( bytes.length <= DEDUP_MAX_LENGTH ) {
+                strings.put( value, strings.size() );
+            }
+        }
+
+        void writeText( String value ) throws IOException {
+            if( compressionThreshold > 0 && value.length() > compressionThreshold ) {
+                final var raw = value.getBytes( StandardCharsets.UTF_8 );
+                final var compressed = deflate( raw );
+                if( compressed.length < raw.length ) {
+                    out.writeByte( TAG_DEFLATED );
+                    writeVarInt( out, raw.length );
+                    writeVarInt( out, compressed.length );
+                    out.write( compressed );
+                    return;
+                }
+            }
+            out.writeByte( TAG_STRING );
+            writeString( value );
+        }
+
+        void writeMap( Map<?,?> map ) throws IOException {
+            writeVarInt( out, map.size() );
+            for( var entry : map.entrySet() ) {
+                writeString( String.valueOf( entry.getKey() ) );
+                writeValue( entry.getValue() );
+            }
+        }
+
+        void writeList( List<?> list ) throws IOException {
+            writeVarInt( out, list.size() );
+            for( var item : list ) {
+                writeValue( item );
+            }
+        }
+
+        void writeValue( Object value ) throws IOException {
+            if( value == null ) {
+                out.writeByte( TAG_NULL );
+            }
+            else if( value instanceof String s ) {
+                writeText( s );
+            }
+            else if( value instanceof Boolean b ) {
+                out.writeByte( b ? TAG_TRUE : TAG_FALSE );
+            }
+            else if( value instanceof Integer i ) {
+                out.writeByte( TAG_INT );
+                writeVarInt( out, (i << 1) ^ (i >> 31) );
+            }
+            else if( value instanceof Long l ) {
+                out.writeByte( TAG_LONG );
+                writeVarLong( out, (l << 1) ^ (l >> 63) );
+            }
+            else if( value instanceof Double d ) {
+                out.writeByte( TAG_DOUBLE );
+                out.writeDouble( d );
+            }
+            else if( value instanceof DeepAgent.ToDo todo ) {
+                out.writeByte( TAG_TODO );
+                writeText( todo.content() );
+                out.writeByte( todo.status().ordinal() );
+            }
+            else if( value instanceof Message message ) {
+                writeMessage( message );
+            }
+            else if( value instanceof List<?> list ) {
+                out.writeByte( TAG_LIST );
+                writeList( list );
+            }
+            else if( value instanceof Map<?,?> map ) {
+                out.writeByte( TAG_MAP );
+                writeMap( map );
+            }
+            else if( value instanceof Enum<?> e ) {
+                out.writeByte( TAG_ENUM );
+                writeString( e.getDeclaringClass().getName() );
+                writeString( e.name() );
+            }
+            else if( value instanceof Serializable ) {
+                out.writeByte( TAG_OBJECT );
+                out.writeObject( value );
+            }
+            else {
+                throw new IOException( format("unsupported value type '%s'", value.getClass().getName()) );
+            }
+        }
+
+        void writeMessage( Message message ) throws IOException {
+            if( message instanceof AssistantMessage assistant ) {
+                out.writeByte( TAG_ASSISTANT );
+                writeNullableText( assistant.getText() );
+                writeMetadata( assistant.getMetadata() );
+                final var toolCalls = assistant.getToolCalls();
+                writeVarInt( out, toolCalls.size() );
+                for( var toolCall : toolCalls ) {
+                    // the providers may omit them
+                    writeNullableText( toolCall.id() );
+                    writeNullableText( toolCall.type() );
+                    writeString( toolCall.name() );
+                    writeText( toolCall.arguments() );
+                }
+            }
+            else if( message instanceof ToolResponseMessage toolResponse ) {
+                out.writeByte( TAG_TOOL );
+                writeMetadata( toolResponse.getMetadata() );
+                final var responses = toolResponse.getResponses();
+                writeVarInt( out, responses.size() );
+                for( var response : responses ) {
+                    writeNullableText( response.id() );
+                    writeNullableText( response.name() );
+                    writeNullableText( response.responseData() );
+                }
+            }
+            else if( message instanceof UserMessage ) {
+                out.writeByte( TAG_USER );
+                writeNullableText( message.getText() );
+                writeMetadata( message.getMetadata() );
+            }
+            else if( message instanceof SystemMessage ) {
+                out.writeByte( TAG_SYSTEM );
+                writeNullableText( message.getText() );
+            }
+            else {
+                throw new IOException( format("unsupported message type '%s'", message.getClass().getName()) );
+            }
+        }
+
+        void writeNullableText( String value ) throws IOException {
+            if( value == null ) {
+                out.writeByte( TAG_NULL );
+            }
+            else {
+                writeText( value );
+            }
+        }
+
+        /**
+         * metadata entries that cannot be encoded are skipped
+         */
+        void writeMetadata( Map<String,Object> metadata ) throws IOException {
+            if( metadata == null || metadata.isEmpty() ) {
+                writeVarInt( out, 0 );
+                return;
+            }
+            final var supported = new LinkedHashMap<String,Object>();
+            for( var entry : metadata.entrySet() ) {
+                final var value = entry.getValue();
+                if( value == null || value instanceof String || value instanceof Number ||
+                    value instanceof Boolean || value instanceof Enum<?> ) {
+                    supported.put( entry.getKey(), value );
+                }
+            }
+            writeMap( supported );
+        }
+    }
+
+    private static class Decoder {
+        private final ObjectInput in;
+        private final int version;
+        private final List<String> strings = new ArrayList<>();
+
+        Decoder( ObjectInput in, int version ) {
+            this.in = in;
+            this.version = version;
+        }
+
+        String readString() throws IOException {
+            final int header = readVarInt( in );
+            if( (header & 1) == 1 ) {
+                return strings.get( header >>> 1 );
+            }
+            final var bytes = new byte[ header >>> 1 ];
+            in.readFully( bytes );
+            final var result = new String( bytes, StandardCharsets.UTF_8 );
+            if( bytes.length <= DEDUP_MAX_LENGTH ) {
+                strings.add( result );
+            }
+            return result;
+        }
+
+        String readText() throws IOException, ClassNotFoundException {
+            return (String)readValue();
+        }
+
+        Map<String,Object> readMap() throws IOException, ClassNotFoundException {
+            final int size = readVarInt( in );
+            final var result = new LinkedHashMap<String,Object>( Math.max( 16, size * 2 ) );
+            for( int i = 0; i < size; ++i ) {
+                final var key = readString();
+                result.put( key, readValue() );
+            }
+            return result;
+        }
+
+        List<Object> readList() throws IOException, ClassNotFoundException {
+            final int size = readVarInt( in );
+            final var result = new ArrayList<Object>( size );
+            for( int i = 0; i < size; ++i ) {
+                result.add( readValue() );
+            }
+            return result;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object readValue() throws IOException, ClassNotFoundException {
+            final int tag = in.readUnsignedByte();
+            switch( tag ) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_DEFLATED: {
+                    final var raw = new byte[ readVarInt( in ) ];
+                    final var compressed = new byte[ readVarInt( in ) ];
+                    in.readFully( compressed );
+                    inflate( compressed, raw );
+                    return new String( raw, StandardCharsets.UTF_8 );
+                }
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_INT: {
+                    final int v = readVarInt( in );
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case TAG_LONG: {
+                    final long v = readVarLong( in );
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case TAG_DOUBLE:
+                    return in.readDouble();
+                case TAG_LIST:
+                    return readList();
+                case TAG_MAP:
+                    return readMap();
+                case TAG_ENUM: {
+                    final var type = Class.forName( readString() );
+                    return Enum.valueOf( (Class)type, readString() );
+                }
+                case TAG_TODO: {
+                    final var content = readText();
+                    return new DeepAgent.ToDo( content, DeepAgent.ToDo.Status.values()[ in.readUnsignedByte() ] );
+                }
+                case TAG_USER: {
+                    final var text = readText();
+                    return UserMessage.builder()
+                            .text( text )
+                            .metadata( readMetadata() )
+                            .build();
+                }
+                case TAG_SYSTEM:
+                    return new SystemMessage( readText() );
+                case TAG_ASSISTANT: {
+                    final var text = readText();
+                    final var metadata = readMetadata();
+                    final int size = readVarInt( in );
+                    final var toolCalls = new ArrayList<AssistantMessage.ToolCall>( size );
+                    for( int i = 0; i < size; ++i ) {
+                        final var id = ( version >= 2 ) ? readText() : readString();
+                        final var type = ( version >= 2 ) ? readText() : readString();
+                        final var name = readString();
+                        toolCalls.add( new AssistantMessage.ToolCall( id, type, name, readText() ) );
+                    }
+                    return new AssistantMessage( text, metadata, toolCalls );
+                }
+                case TAG_TOOL: {
+                    final var metadata = readMetadata();
+                    final int size = readVarInt( in );
+                    final var responses = new ArrayList<ToolResponseMessage.ToolResponse>( size );
+                    for( int i = 0; i < size; ++i ) {
+                        final var id = ( version >= 3 ) ? readText() : readString();
+                        final var name = ( version >= 3 ) ? readText() : readString();
+                        responses.add( new ToolResponseMessage.ToolResponse( id, name, readText() ) );
+                    }
+                    return new ToolResponseMessage( responses, metadata );
+                }
+                case TAG_OBJECT:
+                    return in.readObject();
+                default:
+                    throw new IOException( format("unknown value tag %d", tag) );
+            }
+        }
+
+        Map<String,Object> readMetadata() throws IOException, ClassNotFoundException {
+            return readMap();
+        }
+    }
+
+    private static byte[] deflate( byte[] raw ) {
+        final var deflater = new Deflater( Deflater.BEST_SPEED );
+        try {
+            deflater.setInput( raw );
+            deflater.finish();
+            final var result = new ByteArrayOutputStream( raw.length / 2 );
+            final var buffer = new byte[ 8192 ];
+            while( !deflater.finished() ) {
+                final int n = deflater.deflate( buffer );
+                result.write( buffer, 0, n );
+            }
+            return result.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate( byte[] compressed, byte[] raw ) throws IOException {
+        final var inflater = new Inflater();
+        try {
+            inflater.setInput( compressed );
+            int offset = 0;
+            while( offset < raw.length ) {
+                final int n = inflater.inflate( raw, offset, raw.length - offset );
+                if( n == 0 && ( inflater.finished() || inflater.needsInput() ) ) {
+                    break;
+                }
+                offset += n;
+            }
+            if( offset != raw.length ) {
+                throw new IOException( "corrupted deflated string" );
+            }
+        }
+        catch( DataFormatException e ) {
+            throw new IOException( "corrupted deflated string", e );
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
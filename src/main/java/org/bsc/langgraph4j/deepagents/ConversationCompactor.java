@@ -0,0 +1,297 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * ChatModel decorator that keeps the prompt sent to the model within the configured token budget.
+ * When the estimated size exceeds {@link DeepAgent.Compaction#maxTokens()}, the older messages are replaced
+ * by a single summary system message while the most recent ones are kept verbatim.
+ * The compaction is also triggered when the estimated size (in bytes) of the messages exceeds the given limit,
+ * see {@link DeepAgent.MemoryLimits#compactionBytes()}.
+ * A tool call is never separated from its tool responses.
+ * <p>
+ * Only the prompt sent to the model is compacted: the messages channel still holds the whole conversation,
+ * so its checkpoints, {@link DeepAgent.State#estimatedTokens()} and the session memory are not reduced, see
+ * {@link DeepAgent.MemoryLimits#maxMessagesBytes()} to bound them.
+ * The summaries are cached by the hash of the messages they cover, so the compactor can be shared by
+ * concurrent sessions and by the subagents.
+ */
+class ConversationCompactor implements ChatModel {
+
+    private static final int SUMMARY_CACHE_SIZE = 64;
+    private static final int MAX_SUMMARIES_PER_ROOT = 8;
+    private static final int MAX_TRANSCRIPT_ENTRY_LENGTH = 4_000;
+
+    /**
+     * Summary of the first {@code covered} messages of a conversation, identified by their hash
+     */
+    private record Summary( int covered, int digest, String text ) {
+
+        Summary( List<Message> covered, String text ) {
+            this( covered.size(), covered.hashCode(), text );
+        }
+
+        boolean isSummaryOf( List<Message> conversation ) {
+            return covered <= conversation.size() && digest == conversation.subList( 0, covered ).hashCode();
+        }
+    }
+
+    private final ChatModel delegate;
+    private final DeepAgent.Compaction compaction;
+    private final TokenCounter tokenCounter;
+    private final long maxBytes;
+
+    // conversation root message -> last summaries of the conversations starting with it
+    private final Map<Message,List<Summary>> summaries = Collections.synchronizedMap(
+            new LinkedHashMap<>( 16, 0.75f, true ) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Message, List<Summary>> eldest) {
+                    return size() > SUMMARY_CACHE_SIZE;
+                }
+            });
+
+    ConversationCompactor(ChatModel delegate, DeepAgent.Compaction compaction) {
+        this( delegate, compaction, TokenCounter.DEFAULT );
+    }
+
+    ConversationCompactor(ChatModel delegate, DeepAgent.Compaction compaction, TokenCounter tokenCounter) {
+        this( delegate, compaction, tokenCounter, 0 );
+    }
+
+    /**
+     * @param maxBytes estimated size (in bytes) of the messages that triggers the compaction, zero disables it
+     */
+    ConversationCompactor(ChatModel delegate, DeepAgent.Compaction compaction, TokenCounter tokenCounter, long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.delegate = requireNonNull( delegate, "delegate cannot be null" );
+        this.compaction = requireNonNull( compaction, "compaction cannot be null" );
+        this.tokenCounter = requireNonNull( tokenCounter, "tokenCounter cannot be null" );
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return delegate.call( compact(prompt) );
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream( compact(prompt) );
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    Prompt compact( Prompt prompt ) {
+        final var messages = prompt.getInstructions();
+        final int toolTokens = tokenCounter.count( prompt.getOptions() );
+
+        if( fits( messages, toolTokens ) ) {
+            return prompt;
+        }
+
+        // leading system messages are always kept
+        int start = 0;
+        while( start < messages.size() && messages.get(start).getMessageType() == MessageType.SYSTEM ) {
+            ++start;
+        }
+
+        final var system = messages.subList( 0, start );
+        final var conversation = messages.subList( start, messages.size() );
+        if( conversation.isEmpty() ) {
+            return prompt;
+        }
+
+        final var root = conversation.get(0);
+
+        final var previous = lookup( root, conversation );
+
+        // reuse the previous summary until the messages appended after it exceed the budget again
+        if( previous != null ) {
+            var compacted = assemble( system, previous.text(), conversation.subList( previous.covered(), conversation.size() ));
+            if( fits( compacted, toolTokens ) ) {
+                return new Prompt( compacted, prompt.getOptions() );
+            }
+        }
+
+        final int covered = ( previous != null ) ? previous.covered() : 0;
+        final int cut = cutIndex( conversation );
+
+        if( cut <= covered ) {
+            if( previous == null ) {
+                DeepAgent.log.warn( "compaction: nothing to summarize, the prompt exceeds the budget with the most recent messages only" );
+                return prompt;
+            }
+            return new Prompt( assemble( system, previous.text(), conversation.subList( covered, conversation.size() )), prompt.getOptions() );
+        }
+
+        final String text;
+        try {
+            text = summarize( previous, conversation.subList( covered, cut ) );
+        }
+        catch( Exception ex ) {
+            DeepAgent.log.warn( "compaction: summarization failed, sending the full prompt", ex );
+            return prompt;
+        }
+
+        store( root, previous, new Summary( conversation.subList( 0, cut ), text ) );
+
+        final var compacted = assemble( system, text, conversation.subList( cut, conversation.size() ) );
+
+        DeepAgent.log.debug( "compaction: summarized {} messages, prompt reduced from ~{} to ~{} tokens",
+                cut, toolTokens + tokenCounter.count( messages ), toolTokens + tokenCounter.count( compacted ) );
+
+        return new Prompt( compacted, prompt.getOptions() );
+    }
+
+    private boolean fits( List<Message> messages, int toolTokens ) {
+        return toolTokens + tokenCounter.count( messages ) <= compaction.maxTokens() &&
+                ( maxBytes <= 0 || MemorySize.ofMessages( messages ) <= maxBytes );
+    }
+
+    /**
+     * Evaluates the index of the first message kept verbatim.
+     * The kept messages fit {@link DeepAgent.Compaction#keepTokens()} and never start with a tool response.
+     */
+    private int cutIndex( List<Message> conversation ) {
+        int cut = conversation.size();
+        int tokens = 0;
+        while( cut > 0 ) {
+            tokens += tokenCounter.count( conversation.get( cut - 1 ) );
+            if( tokens > compaction.keepTokens() ) {
+                break;
+            }
+            --cut;
+        }
+        // the last message is always kept
+        cut = Math.min( cut, conversation.size() - 1 );
+
+        // move forward so that the tool responses stay with their tool call
+        int forward = cut;
+        while( forward < conversation.size() && conversation.get(forward) instanceof ToolResponseMessage ) {
+            ++forward;
+        }
+        if( forward < conversation.size() ) {
+            return forward;
+        }
+
+        // the conversation ends with tool responses, keep the tool call that requested them
+        while( cut > 0 && conversation.get(cut) instanceof ToolResponseMessage ) {
+            --cut;
+        }
+        return cut;
+    }
+
+    /**
+     * @return the summary covering the most messages of the given conversation, null if none
+     */
+    private Summary lookup( Message root, List<Message> conversation ) {
+        Summary result = null;
+        for( var summary : summaries.getOrDefault( root, List.of() ) ) {
+            if( ( result == null || summary.covered() > result.covered() ) && summary.isSummaryOf( conversation ) ) {
+                result = summary;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches the summary along the other conversations with the same root, replacing the previous summary it extends
+     */
+    private void store( Message root, Summary previous, Summary summary ) {
+        summaries.compute( root, ( key, current ) -> {
+            final var result = new ArrayList<Summary>( ( current != null ) ? current : List.of() );
+            result.remove( previous );
+            result.add( summary );
+            return List.copyOf( result.subList( Math.max( 0, result.size() - MAX_SUMMARIES_PER_ROOT ), result.size() ) );
+        });
+    }
+
+    /**
+     * The summary is a system message following the leading system messages: as a user message it could be
+     * followed by another user message, which some providers reject
+     */
+    private List<Message> assemble( List<Message> system, String summary, List<Message> recent ) {
+        var result = new ArrayList<Message>( system.size() + recent.size() + 1 );
+        result.addAll( system );
+        result.add( new SystemMessage( Prompts.SUMMARY_PREFIX + summary ) );
+        result.addAll( recent );
+        return result;
+    }
+
+    private String summarize( Summary previous, List<Message> messages ) {
+        var transcript = new StringBuilder();
+
+        if( previous != null ) {
+            transcript.append( "Summary of the earlier conversation:\n" )
+                    .append( previous.text() )
+                    .append( "\n\nConversation that follows:\n" );
+        }
+        for( var message : messages ) {
+            appendTo( transcript, message );
+        }
+
+        var response = delegate.call( new Prompt( List.of(
+                new SystemMessage( Prompts.SUMMARY_PROMPT ),
+                new UserMessage( transcript.toString() ) )));
+
+        return requireNonNull( response.getResult().getOutput().getText(), "summary cannot be null" );
+    }
+
+    private void appendTo( StringBuilder transcript, Message message ) {
+        switch( message.getMessageType() ) {
+            case TOOL -> {
+                for( var response : ((ToolResponseMessage)message).getResponses() ) {
+                    transcript.append( "[tool ").append( response.name() ).append( "] " )
+                            .append( truncate( response.responseData() ) )
+                            .append( '\n' );
+                }
+            }
+            case ASSISTANT -> {
+                var text = message.getText();
+                if( text != null && !text.isBlank() ) {
+                    transcript.append( "[assistant] " ).append( truncate( text ) ).append( '\n' );
+                }
+                for( var toolCall : ((AssistantMessage)message).getToolCalls() ) {
+                    transcript.append( "[assistant calls ").append( toolCall.name() ).append( "] " )
+                            .append( truncate( toolCall.arguments() ) )
+                            .append( '\n' );
+                }
+            }
+            default -> transcript.append( '[' )
+                            .append( message.getMessageType().name().toLowerCase() )
+                            .append( "] " )
+                            .append( truncate( message.getText() ) )
+                            .append( '\n' );
+        }
+    }
+
+    private static String truncate( String text ) {
+        if( text == null ) {
+            return "";
+        }
+        return ( text.length() > MAX_TRANSCRIPT_ENTRY_LENGTH )
+                ? text.substring( 0, MAX_TRANSCRIPT_ENTRY_LENGTH ) + "... (truncated)"
+                : text;
+    }
+
+}
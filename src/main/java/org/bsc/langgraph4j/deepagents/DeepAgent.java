@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyDescription;
 import org.bsc.langgraph4j.spring.ai.agentexecutor.AgentExecutor;
 import org.bsc.langgraph4j.state.Channel;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -16,16 +17,49 @@ public interface DeepAgent {
 
     class State extends AgentExecutor.State {
 
-        static final Map<String, Channel<?>> SCHEMA = mergeMap( AgentExecutor.State.SCHEMA, Map.of("files", new FileChannel()));
+        static final Map<String, Channel<?>> SCHEMA = schema( null );
+
+        /**
+         * @param guard memory guard applied to the messages and files updates, if null only the accounting is done
+         */
+        static Map<String, Channel<?>> schema( SessionMemoryGuard guard ) {
+            return mergeMap( AgentExecutor.State.SCHEMA, Map.of(
+                    "messages", new MessageChannel( AgentExecutor.State.SCHEMA.get("messages"), guard ),
+                    "files", new FileChannel( guard ),
+                    "todos", new TodoChannel()),
+                    (c1, c2) -> c2 );
+        }
 
         public List<ToDo> todos() {
             return this.<List<ToDo>>value( "todos")
                     .orElseGet( List::of );
         }
 
+        /**
+         * @return the files of the virtual filesystem, the spilled contents are loaded on access
+         */
         public Map<String,String> files() {
-            return this.<Map<String,String>>value( "files")
-                    .orElseGet( Map::of );
+            return FileMap.resolve( this.<Map<String,String>>value( "files")
+                    .orElseGet( Map::of ) );
+        }
+
+        /**
+         * Estimated size (in bytes) retained by the state channels.
+         * The sizes of messages and files are updated incrementally by their channels.
+         */
+        public MemoryUsage memoryUsage() {
+            return new MemoryUsage(
+                    MemorySize.ofMessages( messages() ),
+                    MemorySize.ofFiles( this.<Map<String,String>>value( "files").orElseGet( Map::of ) ),
+                    MemorySize.ofTodos( todos() ));
+        }
+
+        /**
+         * Estimated size (in tokens) of the messages, evaluated by {@link TokenCounter#DEFAULT}.
+         * The counts are cached, so successive states of a conversation only count the new messages.
+         */
+        public int estimatedTokens() {
+            return TokenCounter.DEFAULT.count( messages() );
         }
 
         public State(Map<String, Object> initData) {
@@ -95,6 +129,162 @@ public interface DeepAgent {
             IN_PROGRESS,
             COMPLETED
         }
+
+        /**
+         * Change of a single item of the todo list.
+         * The item is addressed by its (zero based) index or, when the index is missing, by its content.
+         */
+        public record Update(
+                @JsonProperty(required = true)
+                @JsonPropertyDescription("UPDATE changes the status of an item, INSERT adds a new item, REMOVE deletes an item")
+                Action action,
+                @JsonPropertyDescription("zero based index of the item. For INSERT the position of the new item, appended when missing")
+                Integer index,
+                @JsonPropertyDescription("content of the item to insert, or of the item to update/remove when index is missing")
+                String content,
+                @JsonPropertyDescription("new status of the item, required for UPDATE. For INSERT default is PENDING")
+                Status status
+        ) {
+            public enum Action {
+                UPDATE,
+                INSERT,
+                REMOVE
+            }
+        }
+    }
+
+    /**
+     * Conversation compaction settings.
+     *
+     * @param maxTokens estimated prompt size (in tokens) that triggers the compaction
+     * @param keepTokens estimated size (in tokens) of the most recent messages kept verbatim
+     */
+    record Compaction(
+            int maxTokens,
+            int keepTokens
+    ) {
+        public Compaction {
+            if( maxTokens <= 0 ) {
+                throw new IllegalArgumentException("maxTokens must be greater than zero");
+            }
+            if( keepTokens < 0 || keepTokens >= maxTokens ) {
+                throw new IllegalArgumentException("keepTokens must be in range [0,maxTokens)");
+            }
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public static class Builder {
+
+            private int maxTokens = 64_000;
+            private int keepTokens = 16_000;
+
+            public Builder maxTokens(int maxTokens) {
+                this.maxTokens = maxTokens;
+                return this;
+            }
+
+            public Builder keepTokens(int keepTokens) {
+                this.keepTokens = keepTokens;
+                return this;
+            }
+
+            public Compaction build() {
+                return new Compaction(maxTokens, keepTokens);
+            }
+        }
+    }
+
+    /**
+     * Estimated size (in bytes) retained by a session state, see {@link State#memoryUsage()}
+     */
+    record MemoryUsage(
+            long messagesBytes,
+            long filesBytes,
+            long todosBytes
+    ) {
+        public long totalBytes() {
+            return messagesBytes + filesBytes + todosBytes;
+        }
+    }
+
+    /**
+     * Per session memory limits, a value of zero disables the limit.
+     *
+     * @param maxMessagesBytes estimated size of the messages that aborts the session
+     * @param maxFilesBytes estimated size of the files that aborts the session
+     * @param spillFilesBytes estimated size of the files above which the largest contents are moved to the spill directory
+     * @param spillDirectory directory of the spilled contents, required when spillFilesBytes is set. The contents
+     *                       are named after their hash and referred to by name, so the directory can be relocated.
+     *                       They are shared by the sessions and their checkpoints and never deleted by the agent:
+     *                       the caller owns the directory and cleans it once the sessions and the checkpoints
+     *                       referring to it are discarded
+     * @param compactionBytes estimated size of the prompt messages that triggers the conversation compaction.
+     *                        Only the prompt sent to the model is compacted, the messages of the state are kept
+     * @see SessionMemoryLimitException
+     */
+    record MemoryLimits(
+            long maxMessagesBytes,
+            long maxFilesBytes,
+            long spillFilesBytes,
+            Path spillDirectory,
+            long compactionBytes
+    ) {
+        public static final String METRIC_NAME = "deepagents.session.memory";
+        public static final String LIMIT_METRIC_NAME = "deepagents.session.memory.limit";
+
+        public MemoryLimits {
+            if( maxMessagesBytes < 0 || maxFilesBytes < 0 || spillFilesBytes < 0 || compactionBytes < 0 ) {
+                throw new IllegalArgumentException("limits cannot be negative");
+            }
+            if( spillFilesBytes > 0 && spillDirectory == null ) {
+                throw new IllegalArgumentException("spillDirectory is required to spill files");
+            }
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public static class Builder {
+
+            private long maxMessagesBytes;
+            private long maxFilesBytes;
+            private long spillFilesBytes;
+            private Path spillDirectory;
+            private long compactionBytes;
+
+            public Builder maxMessagesBytes(long maxMessagesBytes) {
+                this.maxMessagesBytes = maxMessagesBytes;
+                return this;
+            }
+
+            public Builder maxFilesBytes(long maxFilesBytes) {
+                this.maxFilesBytes = maxFilesBytes;
+                return this;
+            }
+
+            public Builder spillFilesBytes(long spillFilesBytes) {
+                this.spillFilesBytes = spillFilesBytes;
+                return this;
+            }
+
+            public Builder spillDirectory(Path spillDirectory) {
+                this.spillDirectory = spillDirectory;
+                return this;
+            }
+
+            public Builder compactionBytes(long compactionBytes) {
+                this.compactionBytes = compactionBytes;
+                return this;
+            }
+
+            public MemoryLimits build() {
+                return new MemoryLimits(maxMessagesBytes, maxFilesBytes, spillFilesBytes, spillDirectory, compactionBytes);
+            }
+        }
     }
 
     static GraphBuilder builder() {
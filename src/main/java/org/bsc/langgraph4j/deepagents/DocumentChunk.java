@@ -0,0 +1,54 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Chunk of a document indexed by the embedding tools
+ *
+ * @param filePath path of the document
+ * @param fileType type of the document, derived from the file extension
+ * @param index position of the chunk in the document
+ * @param text content of the chunk
+ */
+record DocumentChunk(
+        String filePath,
+        String fileType,
+        int index,
+        String text
+) {
+
+    /**
+     * Encodes the fields in order, the strings as length and UTF-8 bytes
+     */
+    static final IndexSegment.ItemCodec<DocumentChunk> CODEC = new IndexSegment.ItemCodec<>() {
+        @Override
+        public byte[] encode( DocumentChunk chunk ) {
+            final var path = chunk.filePath().getBytes( StandardCharsets.UTF_8 );
+            final var type = chunk.fileType().getBytes( StandardCharsets.UTF_8 );
+            final var text = chunk.text().getBytes( StandardCharsets.UTF_8 );
+            return ByteBuffer.allocate( 4 * Integer.BYTES + path.length + type.length + text.length )
+                    .order( ByteOrder.LITTLE_ENDIAN )
+                    .putInt( path.length ).put( path )
+                    .putInt( type.length ).put( type )
+                    .putInt( chunk.index() )
+                    .putInt( text.length ).put( text )
+                    .array();
+        }
+
+        @Override
+        public DocumentChunk decode( ByteBuffer buffer ) {
+            final var path = string( buffer );
+            final var type = string( buffer );
+            final int index = buffer.getInt();
+            return new DocumentChunk( path, type, index, string( buffer ) );
+        }
+
+        private String string( ByteBuffer buffer ) {
+            final var bytes = new byte[ buffer.getInt() ];
+            buffer.get( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    };
+}
@@ -0,0 +1,75 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Extracts the text of a document, streaming it to an output as it is read:
+ * the heap used does not depend on the size of the document.
+ */
+@FunctionalInterface
+interface DocumentExtractor {
+
+    Set<String> TEXT_EXTENSIONS = Set.of(
+            "txt", "md", "java", "py", "js", "ts", "json", "yaml", "yml", "xml" );
+
+    Set<String> OFFICE_EXTENSIONS = Set.of( "docx", "xlsx", "pptx" );
+
+    /**
+     * Plain text files, read as UTF-8. Malformed input is replaced.
+     */
+    DocumentExtractor TEXT = ( file, output ) -> {
+        final var decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        try( var reader = new InputStreamReader( Files.newInputStream( file ), decoder ) ) {
+            final var buffer = new char[ 8192 ];
+            int count;
+            while( ( count = reader.read( buffer ) ) >= 0 ) {
+                output.append( CharBuffer.wrap( buffer, 0, count ) );
+            }
+        }
+    };
+
+    /**
+     * Office Open XML documents: Word, Excel and PowerPoint
+     */
+    DocumentExtractor OFFICE = OfficeDocumentExtractor::extract;
+
+    /**
+     * Dispatches on the extension of the file, see {@link #supports(Path)}
+     */
+    DocumentExtractor DEFAULT = ( file, output ) -> {
+        if( OFFICE_EXTENSIONS.contains( extension( file ) ) ) {
+            OFFICE.extract( file, output );
+        }
+        else {
+            TEXT.extract( file, output );
+        }
+    };
+
+    /**
+     * @param output receives the text, in order
+     */
+    void extract( Path file, Appendable output ) throws IOException;
+
+    /**
+     * @return true if the file is a text or an Office document
+     */
+    static boolean supports( Path file ) {
+        final var extension = extension( file );
+        return TEXT_EXTENSIONS.contains( extension ) || OFFICE_EXTENSIONS.contains( extension );
+    }
+
+    static String extension( Path file ) {
+        final var fileName = file.getFileName().toString();
+        final int dot = fileName.lastIndexOf( '.' );
+        return ( dot < 0 ) ? "" : fileName.substring( dot + 1 ).toLowerCase();
+    }
+}
@@ -0,0 +1,771 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Embeds the documents of a directory into an {@link EmbeddingIndex}, incrementally, through a pipeline of stages
+ * connected by bounded queues:
+ * <ol>
+ *     <li>discovery: walks the directory and skips the files whose size and modification time are unchanged</li>
+ *     <li>extraction: skips the files whose content hash is unchanged and streams the text of the others,
+ *     in pieces, with a {@link DocumentExtractor}, in parallel</li>
+ *     <li>chunking: appends the pieces to the chunker of their file, collects the vectors of the unchanged chunks
+ *     and sends the chunks in parts</li>
+ *     <li>embedding: embeds the new chunks of several parts per call, with as many threads as concurrent calls</li>
+ *     <li>indexing: adds the chunks to the index, in parallel</li>
+ * </ol>
+ * A full queue blocks the previous stage and a file flows through the stages in bounded pieces and parts,
+ * so the text in flight is bounded whatever the size of the directory and of its files.
+ * The first failure stops all the stages. An ingester runs once, its {@link #metrics()} can be read while running.
+ */
+final class DocumentIngester {
+
+    /**
+     * @param extractionThreads threads reading the files
+     * @param chunkingThreads threads splitting the contents
+     * @param indexingThreads threads adding the chunks to the index
+     * @param queueCapacity capacity of the queue in front of each stage, in files
+     */
+    record Options( int extractionThreads, int chunkingThreads, int indexingThreads, int queueCapacity ) {
+
+        static final Options DEFAULT = builder().build();
+
+        Options {
+            if( extractionThreads <= 0 || chunkingThreads <= 0 || indexingThreads <= 0 ) {
+                throw new IllegalArgumentException( "threads must be greater than zero" );
+            }
+            if( queueCapacity <= 0 ) {
+                throw new IllegalArgumentException( "queueCapacity must be greater than zero" );
+            }
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        static class Builder {
+            private int extractionThreads = Runtime.getRuntime().availableProcessors();
+            private int chunkingThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+            private int indexingThreads = Runtime.getRuntime().availableProcessors();
+            private int queueCapacity = 64;
+
+            Builder extractionThreads( int extractionThreads ) {
+                this.extractionThreads = extractionThreads;
+                return this;
+            }
+
+            Builder chunkingThreads( int chunkingThreads ) {
+                this.chunkingThreads = chunkingThreads;
+                return this;
+            }
+
+            Builder indexingThreads( int indexingThreads ) {
+                this.indexingThreads = indexingThreads;
+                return this;
+            }
+
+            Builder queueCapacity( int queueCapacity ) {
+                this.queueCapacity = queueCapacity;
+                return this;
+            }
+
+            Options build() {
+                return new Options( extractionThreads, chunkingThreads, indexingThreads, queueCapacity );
+            }
+        }
+    }
+
+    /**
+     * @param items items processed by the stage: the directory, files, text pieces, then chunk parts
+     * @param busyNanos time spent processing the items, summed over the threads
+     * @param elapsedNanos time since the start of the pipeline, until its end once completed
+     * @param queueDepth items waiting in the queue of the stage
+     * @param maxQueueDepth highest number of items waiting in the queue
+     * @param averageQueueDepth number of items waiting in the queue, averaged over the insertions
+     */
+    record StageMetrics( String stage, int threads, long items, long busyNanos, long elapsedNanos,
+                         int queueDepth, int maxQueueDepth, double averageQueueDepth ) {
+
+        /**
+         * @return items processed per second
+         */
+        double throughput() {
+            return ( elapsedNanos > 0 ) ? items * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * @return fraction of the time the threads of the stage were busy, a saturated stage is close to 1
+         */
+        double utilization() {
+            return ( elapsedNanos > 0 ) ? (double)busyNanos / ( elapsedNanos * threads ) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%s: %d items, %.1f items/s, utilization %.2f, queue max %d avg %.1f",
+                    stage, items, throughput(), utilization(), maxQueueDepth, averageQueueDepth );
+        }
+    }
+
+    /**
+     * @param chunks chunks of the changed files
+     * @param embeddedChunks chunks sent to the embedding model, the others reuse the vectors of unchanged chunks
+     * or of the cache
+     * @param cachedChunks chunks whose vector is found in the cache
+     * @param files documents in the directory
+     * @param changedFiles files new or changed since the previous run
+     * @param deletedFiles files deleted since the previous run
+     * @param stages metrics of the stages of the pipeline
+     */
+    record Summary( int chunks, int embeddedChunks, int cachedChunks, int files, int changedFiles, int deletedFiles, List<StageMetrics> stages ) {}
+
+    private record Candidate( Path file, BasicFileAttributes attributes, FileManifest.Entry previous ) {}
+
+    /**
+     * A changed file, shared by its text pieces and chunk parts flowing through the stages
+     */
+    private static final class ChangedFile {
+        final Candidate candidate;
+        final String path;
+        final String hash;
+        final String fileType;
+        // pieces taken out of order by the chunking threads, by sequence number
+        final Map<Integer, Piece> pieces = new HashMap<>();
+        int nextPiece;
+        TextChunker.Sink sink;
+        // chunks not yet sent in a part
+        final List<String> texts = new ArrayList<>();
+        final List<String> chunkHashes = new ArrayList<>();
+        // vectors of the previous version of the file, by chunk hash
+        Map<String, float[]> reused = Map.of();
+        final AtomicInteger pendingParts = new AtomicInteger();
+        final AtomicBoolean committed = new AtomicBoolean();
+        // all the parts have been sent
+        volatile boolean complete;
+        // the extraction has failed, the file is embedded again by the next run
+        volatile boolean failed;
+
+        ChangedFile( Candidate candidate, String hash, String fileType ) {
+            this.candidate = candidate;
+            this.path = candidate.file().toString();
+            this.hash = hash;
+            this.fileType = fileType;
+        }
+    }
+
+    /**
+     * Text extracted from a file, in order of sequence
+     */
+    private record Piece( ChangedFile file, int sequence, String text, boolean last ) {}
+
+    /**
+     * Consecutive chunks of a file and their vectors by chunk hash: the reused ones, then completed by the embedding stage
+     *
+     * @param missing chunks without a vector
+     */
+    private record Part( ChangedFile file, int firstChunk, List<String> texts, List<String> chunkHashes,
+                         Map<String, float[]> vectors, int missing ) {}
+
+    // length of the text pieces, in chars
+    static final int PIECE_LENGTH = 1 << 16;
+    // chunks of a part
+    static final int PART_SIZE = 64;
+
+    private static final Object END = new Object();
+
+    private final EmbeddingIndex<DocumentChunk> index;
+    private final FileManifest manifest;
+    private final TextChunker chunker;
+    private final EmbeddingBatcher batcher;
+    private final EmbeddingCache cache;
+    private final DocumentExtractor extractor;
+    private final Predicate<Path> fileFilter;
+    private final Function<Path, String> fileType;
+    private final Options options;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Set<String> found = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final AtomicInteger embeddedChunks = new AtomicInteger();
+    private final AtomicInteger cachedChunks = new AtomicInteger();
+    private final AtomicInteger changedFiles = new AtomicInteger();
+    private final List<Stage<?>> stages = new CopyOnWriteArrayList<>();
+    private volatile long start;
+    private volatile long end;
+
+    private DocumentIngester( Builder builder ) {
+        this.index = requireNonNull( builder.index, "index cannot be null" );
+        this.manifest = requireNonNull( builder.manifest, "manifest cannot be null" );
+        this.chunker = requireNonNull( builder.chunker, "chunker cannot be null" );
+        this.batcher = requireNonNull( builder.batcher, "batcher cannot be null" );
+        this.cache = builder.cache;
+        this.extractor = requireNonNull( builder.extractor, "extractor cannot be null" );
+        this.fileFilter = requireNonNull( builder.fileFilter, "fileFilter cannot be null" );
+        this.fileType = requireNonNull( builder.fileType, "fileType cannot be null" );
+        this.options = requireNonNull( builder.options, "options cannot be null" );
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static class Builder {
+        private EmbeddingIndex<DocumentChunk> index;
+        private FileManifest manifest;
+        private TextChunker chunker;
+        private EmbeddingBatcher batcher;
+        private EmbeddingCache cache;
+        private DocumentExtractor extractor = DocumentExtractor.DEFAULT;
+        private Predicate<Path> fileFilter = Files::isRegularFile;
+        private Function<Path, String> fileType = file -> "text";
+        private Options options = Options.DEFAULT;
+
+        Builder index( EmbeddingIndex<DocumentChunk> index ) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * @param manifest files embedded by the previous runs, updated by this one
+         */
+        Builder manifest( FileManifest manifest ) {
+            this.manifest = manifest;
+            return this;
+        }
+
+        Builder chunker( TextChunker chunker ) {
+            this.chunker = chunker;
+            return this;
+        }
+
+        Builder batcher( EmbeddingBatcher batcher ) {
+            this.batcher = batcher;
+            return this;
+        }
+
+        /**
+         * @param cache vectors looked up before embedding a chunk, and updated with the embedded ones. Null for none.
+         */
+        Builder cache( EmbeddingCache cache ) {
+            this.cache = cache;
+            return this;
+        }
+
+        Builder extractor( DocumentExtractor extractor ) {
+            this.extractor = extractor;
+            return this;
+        }
+
+        /**
+         * @param fileFilter files of the directory to embed
+         */
+        Builder fileFilter( Predicate<Path> fileFilter ) {
+            this.fileFilter = fileFilter;
+            return this;
+        }
+
+        /**
+         * @param fileType file type recorded in the chunks of a file
+         */
+        Builder fileType( Function<Path, String> fileType ) {
+            this.fileType = fileType;
+            return this;
+        }
+
+        Builder options( Options options ) {
+            this.options = options;
+            return this;
+        }
+
+        DocumentIngester build() {
+            return new DocumentIngester( this );
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody<I> {
+        void accept( List<I> items ) throws Exception;
+    }
+
+    /**
+     * Threads taking the items of a bounded queue. Once all the threads have ended, the next stage is ended.
+     */
+    private final class Stage<I> {
+        private final String name;
+        private final int threads;
+        private final BlockingQueue<Object> queue;
+        private final StageBody<I> body;
+        // items taken together until their total weight reaches the maximum, null to take them one at a time
+        private final ToIntFunction<I> weight;
+        private final int maxWeight;
+        private final Stage<?> next;
+        private final AtomicInteger running;
+        private final LongAdder items = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder puts = new LongAdder();
+        private final LongAdder depths = new LongAdder();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final Object assembly = new Object();
+
+        Stage( String name, int threads, Stage<?> next, StageBody<I> body, ToIntFunction<I> weight, int maxWeight ) {
+            this.name = name;
+            this.threads = threads;
+            this.queue = new ArrayBlockingQueue<>( options.queueCapacity() );
+            this.next = next;
+            this.body = body;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+            this.running = new AtomicInteger( threads );
+            stages.add( 0, this );
+        }
+
+        Stage( String name, int threads, Stage<?> next, StageBody<I> body ) {
+            this( name, threads, next, body, null, 0 );
+        }
+
+        /**
+         * Waits for room in the queue
+         *
+         * @throws CancellationException if the pipeline has failed
+         */
+        void put( I item ) throws InterruptedException {
+            offer( item );
+            final int depth = queue.size();
+            puts.increment();
+            depths.add( depth );
+            maxDepth.accumulateAndGet( depth, Math::max );
+        }
+
+        private void offer( Object item ) throws InterruptedException {
+            while( !queue.offer( item, 100, TimeUnit.MILLISECONDS ) ) {
+                if( failure.get() != null ) {
+                    throw new CancellationException( "ingestion failed" );
+                }
+            }
+        }
+
+        /**
+         * Ends the stage once the items in the queue are processed
+         */
+        void end() throws InterruptedException {
+            for( int i = 0; i < threads; ++i ) {
+                offer( END );
+            }
+        }
+
+        /**
+         * @return the next item, or null if the pipeline has failed
+         */
+        private Object take() throws InterruptedException {
+            Object result;
+            while( ( result = queue.poll( 100, TimeUnit.MILLISECONDS ) ) == null ) {
+                if( failure.get() != null ) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        void work() {
+            try {
+                final var batch = new ArrayList<I>();
+                boolean ended = false;
+                while( !ended ) {
+                    if( weight != null ) {
+                        ended = fill( batch );
+                    }
+                    else {
+                        final var item = take();
+                        ended = ( item == null || item == END );
+                        if( !ended ) {
+                            batch.add( (I)item );
+                        }
+                    }
+                    if( batch.isEmpty() || failure.get() != null ) {
+                        break;
+                    }
+                    final long started = System.nanoTime();
+                    body.accept( batch );
+                    busyNanos.add( System.nanoTime() - started );
+                    items.add( batch.size() );
+                    batch.clear();
+                }
+                if( running.decrementAndGet() == 0 && next != null && failure.get() == null ) {
+                    next.end();
+                }
+            }
+            catch( Throwable e ) {
+                failure.compareAndSet( null, e );
+            }
+        }
+
+        /**
+         * Takes items until their total weight reaches the maximum. The batches are filled one at a time,
+         * so the items are not scattered in partial batches across the threads.
+         *
+         * @return true if the stage has ended
+         */
+        @SuppressWarnings("unchecked")
+        private boolean fill( List<I> batch ) throws InterruptedException {
+            synchronized( assembly ) {
+                int total = 0;
+                while( total < maxWeight ) {
+                    final var item = take();
+                    if( item == null || item == END ) {
+                        return true;
+                    }
+                    batch.add( (I)item );
+                    total += weight.applyAsInt( (I)item );
+                }
+                return false;
+            }
+        }
+
+        StageMetrics metrics() {
+            final long count = puts.sum();
+            final long stop = ( end != 0 ) ? end : System.nanoTime();
+            return new StageMetrics( name, threads, items.sum(), busyNanos.sum(), ( start != 0 ) ? stop - start : 0,
+                    queue.size(), maxDepth.get(), ( count > 0 ) ? (double)depths.sum() / count : 0 );
+        }
+    }
+
+    /**
+     * @return the metrics of the stages, in pipeline order
+     */
+    List<StageMetrics> metrics() {
+        return stages.stream().map( Stage::metrics ).toList();
+    }
+
+    /**
+     * Embeds the changed files of the given directory and removes the deleted ones from the index and the manifest.
+     * The index is not flushed and the manifest is not saved.
+     */
+    Summary run( Path directory ) throws IOException {
+        if( start != 0 ) {
+            throw new IllegalStateException( "ingester already run" );
+        }
+        final var indexing = new Stage<Part>( "indexing", options.indexingThreads(), null,
+                parts -> index( parts.get(0) ) );
+        final var embedding = new Stage<Part>( "embedding", batcher.options().concurrency(), indexing,
+                parts -> embed( parts, indexing ), Part::missing, batcher.options().batchSize() );
+        final var chunking = new Stage<Piece>( "chunking", options.chunkingThreads(), embedding,
+                pieces -> chunk( pieces.get(0), embedding ) );
+        final var extraction = new Stage<Candidate>( "extraction", options.extractionThreads(), chunking,
+                candidates -> extract( candidates.get(0), chunking ) );
+        final var discovery = new Stage<Path>( "discovery", 1, extraction,
+                directories -> discover( directories.get(0), extraction ) );
+
+        start = System.nanoTime();
+        final var threads = new ArrayList<Thread>();
+        for( var stage : stages ) {
+            for( int i = 0; i < stage.threads; ++i ) {
+                final var thread = new Thread( stage::work, "ingestion-" + stage.name + "-" + i );
+                thread.setDaemon( true );
+                threads.add( thread );
+                thread.start();
+            }
+        }
+        try {
+            discovery.put( directory );
+            discovery.end();
+            for( var thread : threads ) {
+                thread.join();
+            }
+        }
+        catch( InterruptedException e ) {
+            // the stages stop at the next item
+            failure.compareAndSet( null, new CancellationException( "ingestion interrupted" ) );
+            Thread.currentThread().interrupt();
+        }
+        end = System.nanoTime();
+
+        final var error = failure.get();
+        if( error instanceof IOException e ) {
+            throw e;
+        }
+        if( error instanceof UncheckedIOException e ) {
+            throw e.getCause();
+        }
+        if( error instanceof RuntimeException e ) {
+            throw e;
+        }
+        if( error != null ) {
+            throw new IllegalStateException( error );
+        }
+
+        final var deleted = manifest.paths().stream().filter( path -> !found.contains( path ) ).toList();
+        index.delete( deleted );
+        deleted.forEach( manifest::remove );
+
+        final var metrics = metrics();
+        metrics.forEach( stage -> DeepAgent.log.debug( "embedding: {}", stage ) );
+        return new Summary( chunks.get(), embeddedChunks.get(), cachedChunks.get(), found.size(), changedFiles.get(), deleted.size(), metrics );
+    }
+
+    private void discover( Path directory, Stage<Candidate> extraction ) throws IOException, InterruptedException {
+        final var files = new ArrayList<Path>();
+        try( var paths = Files.walk( directory ) ) {
+            paths.filter( fileFilter ).forEach( files::add );
+        }
+        for( var file : files ) {
+            final var path = file.toString();
+            found.add( path );
+            final var previous = manifest.get( path );
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes( file, BasicFileAttributes.class );
+            }
+            catch( IOException e ) {
+                DeepAgent.log.warn( "embedding: failed to read file: {}", file, e );
+                continue;
+            }
+            if( previous != null && previous.size() == attributes.size() &&
+                    previous.lastModified() == attributes.lastModifiedTime().toMillis() ) {
+                continue;
+            }
+            extraction.put( new Candidate( file, attributes, previous ) );
+        }
+    }
+
+    private void extract( Candidate candidate, Stage<Piece> chunking ) throws InterruptedException {
+        final String hash;
+        try {
+            hash = FileManifest.hash( candidate.file() );
+        }
+        catch( IOException e ) {
+            DeepAgent.log.warn( "embedding: failed to read file: {}", candidate.file(), e );
+            return;
+        }
+        final var previous = candidate.previous();
+        if( previous != null && previous.hash().equals( hash ) ) {
+            // touched but not changed
+            manifest.put( entry( candidate, hash, previous.chunkHashes() ) );
+            return;
+        }
+
+        final var file = new ChangedFile( candidate, hash, fileType.apply( candidate.file() ) );
+        final var pieces = new PieceWriter( file, chunking );
+        try {
+            extractor.extract( candidate.file(), pieces );
+        }
+        catch( InterruptedIOException e ) {
+            throw new InterruptedException( e.getMessage() );
+        }
+        catch( IOException e ) {
+            DeepAgent.log.warn( "embedding: failed to extract file: {}", candidate.file(), e );
+            file.failed = true;
+        }
+        pieces.send( true );
+    }
+
+    /**
+     * Cuts the extracted text in pieces sent to the chunking stage, so that the text of a file is never held as a whole
+     */
+    private static final class PieceWriter implements Appendable {
+        private final ChangedFile file;
+        private final Stage<Piece> chunking;
+        private final StringBuilder buffer = new StringBuilder();
+        private int sequence;
+
+        PieceWriter( ChangedFile file, Stage<Piece> chunking ) {
+            this.file = file;
+            this.chunking = chunking;
+        }
+
+        @Override
+        public Appendable append( CharSequence text ) throws IOException {
+            buffer.append( text );
+            return sendIfFull();
+        }
+
+        @Override
+        public Appendable append( CharSequence text, int start, int end ) throws IOException {
+            buffer.append( text, start, end );
+            return sendIfFull();
+        }
+
+        @Override
+        public Appendable append( char c ) throws IOException {
+            buffer.append( c );
+            return sendIfFull();
+        }
+
+        private Appendable sendIfFull() throws IOException {
+            if( buffer.length() >= PIECE_LENGTH ) {
+                try {
+                    send( false );
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "ingestion interrupted" );
+                }
+            }
+            return this;
+        }
+
+        void send( boolean last ) throws InterruptedException {
+            chunking.put( new Piece( file, sequence++, buffer.toString(), last ) );
+            buffer.setLength( 0 );
+        }
+    }
+
+    /**
+     * Appends the pieces of a file to its chunker in order of sequence, whatever the thread that took them
+     */
+    private void chunk( Piece piece, Stage<Part> embedding ) throws IOException, InterruptedException {
+        final var file = piece.file();
+        synchronized( file ) {
+            file.pieces.put( piece.sequence(), piece );
+            Piece next;
+            while( ( next = file.pieces.remove( file.nextPiece ) ) != null ) {
+                ++file.nextPiece;
+                split( next, embedding );
+            }
+        }
+    }
+
+    private void split( Piece piece, Stage<Part> embedding ) throws IOException, InterruptedException {
+        final var file = piece.file();
+        if( piece.sequence() == 0 ) {
+            if( file.candidate.previous() != null ) {
+                final var reused = new HashMap<String, float[]>();
+                for( var chunk : index.get( file.path ) ) {
+                    reused.put( FileManifest.hash( chunk.item().text() ), chunk.vector() );
+                }
+                // the chunks of the new version are added after the deletion
+                index.delete( List.of( file.path ) );
+                file.reused = reused;
+            }
+            file.sink = chunker.open( file.texts::add );
+        }
+        file.sink.append( piece.text() );
+        if( piece.last() ) {
+            file.sink.close();
+        }
+        while( file.texts.size() >= PART_SIZE || ( piece.last() && !file.texts.isEmpty() ) ) {
+            final var head = file.texts.subList( 0, Math.min( PART_SIZE, file.texts.size() ) );
+            final var texts = List.copyOf( head );
+            head.clear();
+            final var chunkHashes = texts.stream().map( FileManifest::hash ).toList();
+            final var vectors = new HashMap<String, float[]>();
+            int missing = 0;
+            for( int i = 0; i < texts.size(); ++i ) {
+                final var hash = chunkHashes.get(i);
+                var vector = file.reused.get( hash );
+                if( vector == null && cache != null && !vectors.containsKey( hash ) ) {
+                    vector = cache.get( texts.get(i) );
+                    if( vector != null ) {
+                        cachedChunks.incrementAndGet();
+                    }
+                }
+                if( vector != null ) {
+                    vectors.put( hash, vector );
+                }
+                else if( !vectors.containsKey( hash ) ) {
+                    ++missing;
+                }
+            }
+            final int firstChunk = file.chunkHashes.size();
+            file.chunkHashes.addAll( chunkHashes );
+            file.pendingParts.incrementAndGet();
+            embedding.put( new Part( file, firstChunk, texts, chunkHashes, vectors, missing ) );
+        }
+        if( piece.last() ) {
+            file.complete = true;
+            commitIfIndexed( file );
+        }
+    }
+
+    /**
+     * Embeds the missing chunks of the given parts in one call, when they fit in a batch
+     */
+    private void embed( List<Part> parts, Stage<Part> indexing ) throws IOException, InterruptedException {
+        // chunks repeated within or across files are embedded once
+        final var missing = new LinkedHashMap<String,String>();
+        for( var part : parts ) {
+            for( int i = 0; i < part.texts().size(); ++i ) {
+                if( !part.vectors().containsKey( part.chunkHashes().get(i) ) ) {
+                    missing.putIfAbsent( part.chunkHashes().get(i), part.texts().get(i) );
+                }
+            }
+        }
+        if( !missing.isEmpty() ) {
+            final var hashes = List.copyOf( missing.keySet() );
+            final var vectors = batcher.embed( List.copyOf( missing.values() ) );
+            final var embedded = new HashMap<String, float[]>();
+            for( int i = 0; i < hashes.size(); ++i ) {
+                embedded.put( hashes.get(i), vectors.get(i) );
+                if( cache != null ) {
+                    cache.put( missing.get( hashes.get(i) ), vectors.get(i) );
+                }
+            }
+            for( var part : parts ) {
+                for( var hash : part.chunkHashes() ) {
+                    part.vectors().computeIfAbsent( hash, embedded::get );
+                }
+            }
+            embeddedChunks.addAndGet( missing.size() );
+        }
+        for( var part : parts ) {
+            indexing.put( part );
+        }
+    }
+
+    private void index( Part part ) throws IOException {
+        final var file = part.file();
+        final var texts = part.texts();
+        for( int i = 0; i < texts.size(); ++i ) {
+            index.add( part.vectors().get( part.chunkHashes().get(i) ),
+                    new DocumentChunk( file.path, file.fileType, part.firstChunk() + i, texts.get(i) ) );
+        }
+        chunks.addAndGet( texts.size() );
+        file.pendingParts.decrementAndGet();
+        commitIfIndexed( file );
+    }
+
+    /**
+     * Records the file in the manifest once all its parts are indexed
+     */
+    private void commitIfIndexed( ChangedFile file ) {
+        if( !file.complete || file.pendingParts.get() > 0 || !file.committed.compareAndSet( false, true ) ) {
+            return;
+        }
+        if( !file.failed ) {
+            manifest.put( entry( file.candidate, file.hash, List.copyOf( file.chunkHashes ) ) );
+            changedFiles.incrementAndGet();
+        }
+        DeepAgent.log.debug( "embedding: file {} ({} chunks)", file.path, file.chunkHashes.size() );
+    }
+
+    private static FileManifest.Entry entry( Candidate candidate, String hash, List<String> chunkHashes ) {
+        return new FileManifest.Entry( candidate.file().toString(), candidate.attributes().size(),
+                candidate.attributes().lastModifiedTime().toMillis(), hash, chunkHashes );
+    }
+}
@@ -0,0 +1,195 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Embeds texts with an {@link EmbeddingModel} in batches of up to {@code batchSize} texts per call,
+ * with up to {@code concurrency} calls in flight. A failed call is retried with an exponential backoff.
+ * <p>
+ * The calls of all the callers share the same threads, so the concurrency limit holds across them.
+ */
+final class EmbeddingBatcher {
+
+    /**
+     * @param batchSize maximum number of texts of an embedding call
+     * @param concurrency maximum number of concurrent embedding calls
+     * @param maxAttempts attempts of an embedding call before giving up
+     * @param backoff delay before the first retry, doubled at each following one
+     */
+    record Options( int batchSize, int concurrency, int maxAttempts, Duration backoff ) {
+
+        static final Options DEFAULT = builder().build();
+
+        Options {
+            if( batchSize <= 0 ) {
+                throw new IllegalArgumentException( "batchSize must be greater than zero" );
+            }
+            if( concurrency <= 0 ) {
+                throw new IllegalArgumentException( "concurrency must be greater than zero" );
+            }
+            if( maxAttempts <= 0 ) {
+                throw new IllegalArgumentException( "maxAttempts must be greater than zero" );
+            }
+            requireNonNull( backoff, "backoff cannot be null" );
+        }
+
+        /**
+         * @return number of texts embedded by a full round of concurrent calls
+         */
+        int window() {
+            return batchSize * concurrency;
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        static class Builder {
+            private int batchSize = 64;
+            private int concurrency = 4;
+            private int maxAttempts = 3;
+            private Duration backoff = Duration.ofMillis( 500 );
+
+            Builder batchSize( int batchSize ) {
+                this.batchSize = batchSize;
+                return this;
+            }
+
+            Builder concurrency( int concurrency ) {
+                this.concurrency = concurrency;
+                return this;
+            }
+
+            Builder maxAttempts( int maxAttempts ) {
+                this.maxAttempts = maxAttempts;
+                return this;
+            }
+
+            Builder backoff( Duration backoff ) {
+                this.backoff = backoff;
+                return this;
+            }
+
+            Options build() {
+                return new Options( batchSize, concurrency, maxAttempts, backoff );
+            }
+        }
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final EmbeddingModel embeddingModel;
+    private final Options options;
+    // null when the calls are made one at a time by the caller
+    private final ExecutorService executor;
+
+    EmbeddingBatcher( EmbeddingModel embeddingModel, Options options ) {
+        this.embeddingModel = requireNonNull( embeddingModel, "embeddingModel cannot be null" );
+        this.options = requireNonNull( options, "options cannot be null" );
+        this.executor = ( options.concurrency() > 1 ) ?
+                newExecutor( options.concurrency() ) :
+                null;
+    }
+
+    /**
+     * @return a pool of daemon threads, stopped when idle
+     */
+    private static ExecutorService newExecutor( int threads ) {
+        final var result = new ThreadPoolExecutor( threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread( runnable, "embedding-" + THREAD_COUNT.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        });
+        result.allowCoreThreadTimeOut( true );
+        return result;
+    }
+
+    Options options() {
+        return options;
+    }
+
+    /**
+     * @return the embeddings of the given texts, in order
+     * @throws RuntimeException the error of the last attempt of a failed call
+     */
+    List<float[]> embed( List<String> texts ) {
+        requireNonNull( texts, "texts cannot be null" );
+        final int batchSize = options.batchSize();
+        if( executor == null ) {
+            final var result = new ArrayList<float[]>( texts.size() );
+            for( int from = 0; from < texts.size(); from += batchSize ) {
+                result.addAll( embedBatch( texts.subList( from, Math.min( texts.size(), from + batchSize ) ) ) );
+            }
+            return result;
+        }
+
+        final var batches = new ArrayList<Future<List<float[]>>>();
+        for( int from = 0; from < texts.size(); from += batchSize ) {
+            final var batch = texts.subList( from, Math.min( texts.size(), from + batchSize ) );
+            batches.add( executor.submit( () -> embedBatch( batch ) ) );
+        }
+        final var result = new ArrayList<float[]>( texts.size() );
+        try {
+            for( var batch : batches ) {
+                result.addAll( batch.get() );
+            }
+            return result;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "embedding interrupted" );
+        }
+        catch( ExecutionException e ) {
+            if( e.getCause() instanceof RuntimeException cause ) {
+                throw cause;
+            }
+            throw new IllegalStateException( e.getCause() );
+        }
+        finally {
+            batches.forEach( batch -> batch.cancel( true ) );
+        }
+    }
+
+    private List<float[]> embedBatch( List<String> batch ) {
+        long delay = options.backoff().toMillis();
+        for( int attempt = 1; ; ++attempt ) {
+            try {
+                final var result = embeddingModel.embed( batch );
+                if( result.size() != batch.size() ) {
+                    throw new IllegalStateException( format( "%d embeddings returned for %d texts", result.size(), batch.size() ) );
+                }
+                return result;
+            }
+            catch( RuntimeException e ) {
+                if( attempt >= options.maxAttempts() ) {
+                    throw e;
+                }
+                DeepAgent.log.warn( "embedding: call of {} texts failed (attempt {} of {}), retrying in {} ms",
+                        batch.size(), attempt, options.maxAttempts(), delay, e );
+            }
+            try {
+                Thread.sleep( delay );
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException( "embedding interrupted" );
+            }
+            delay *= 2;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Vectors of the embedded chunks by model and content, shared by all the directories: the same content
+ * embedded under another directory, or after a move, reuses its vector instead of calling the model again.
+ *
+ * <ul>
+ *     <li>the key is the hash of the model id and of the normalized text (NFC, whitespace runs collapsed, trimmed)</li>
+ *     <li>the most recently used vectors are kept in memory, up to a maximum count</li>
+ *     <li>with a file, all the vectors are appended to it as {@code [length][crc32][key][vector]} records;
+ *     only their locations are kept in memory, rebuilt scanning the file on open.
+ *     A truncated or corrupted tail (e.g. after a crash) is discarded.</li>
+ * </ul>
+ */
+final class EmbeddingCache implements Closeable {
+
+    static final String NAME = "embeddings.cache";
+    private static final int MAGIC = 0x44414543; // DAEC
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int KEY_SIZE = 2 * Long.BYTES;
+
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+    /**
+     * @param modelId id of the embedding model, part of the key. Null to use the class name of the model:
+     *                set it when the same class serves several models.
+     * @param memoryEntries maximum number of vectors kept in memory
+     */
+    record Options( String modelId, int memoryEntries ) {
+
+        static final Options DEFAULT = builder().build();
+
+        Options {
+            if( memoryEntries < 0 ) {
+                throw new IllegalArgumentException( "memoryEntries cannot be negative" );
+            }
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        static class Builder {
+            private String modelId;
+            private int memoryEntries = 10_000;
+
+            Builder modelId( String modelId ) {
+                this.modelId = modelId;
+                return this;
+            }
+
+            Builder memoryEntries( int memoryEntries ) {
+                this.memoryEntries = memoryEntries;
+                return this;
+            }
+
+            Options build() {
+                return new Options( modelId, memoryEntries );
+            }
+        }
+    }
+
+    private record Key( long high, long low ) {}
+
+    private final String modelId;
+    private final Path file;
+    private final java.nio.channels.FileChannel channel;
+    // key -> offset of the vector << 24 | its length in bytes
+    private final Map<Key,Long> locations = new ConcurrentHashMap<>();
+    private final Map<Key,float[]> memory;
+    private long size;
+
+    /**
+     * @param file file of the cache, null to keep it in memory only
+     */
+    EmbeddingCache( String modelId, Path file, int memoryEntries ) throws IOException {
+        this.modelId = requireNonNull( modelId, "modelId cannot be null" );
+        this.file = file;
+        this.memory = new LinkedHashMap<>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Key,float[]> eldest ) {
+                return size() > memoryEntries;
+            }
+        };
+        if( file == null ) {
+            channel = null;
+            return;
+        }
+        Files.createDirectories( file.toAbsolutePath().getParent() );
+        channel = java.nio.channels.FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        try {
+            size = channel.size();
+            if( size == 0 ) {
+                final var header = ByteBuffer.allocate( FILE_HEADER_SIZE ).putInt( MAGIC ).putInt( VERSION ).flip();
+                while( header.hasRemaining() ) {
+                    size += channel.write( header, size );
+                }
+            }
+            else {
+                scan();
+            }
+        }
+        catch( IOException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void scan() throws IOException {
+        final var header = read( 0, FILE_HEADER_SIZE );
+        if( header.remaining() < FILE_HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION ) {
+            throw new IOException( format( "%s: unsupported embedding cache", file ) );
+        }
+        long position = FILE_HEADER_SIZE;
+        while( position + RECORD_HEADER_SIZE <= size ) {
+            final var recordHeader = read( position, RECORD_HEADER_SIZE );
+            final int length = recordHeader.getInt();
+            final int checksum = recordHeader.getInt();
+            if( length < KEY_SIZE || position + RECORD_HEADER_SIZE + length > size ) {
+                break;
+            }
+            final var payload = read( position + RECORD_HEADER_SIZE, length );
+            final var crc = new CRC32();
+            crc.update( payload.duplicate() );
+            if( (int)crc.getValue() != checksum ) {
+                break;
+            }
+            final var key = new Key( payload.getLong(), payload.getLong() );
+            locations.put( key, location( position + RECORD_HEADER_SIZE + KEY_SIZE, length - KEY_SIZE ) );
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if( position < size ) {
+            DeepAgent.log.warn( "embedding cache: discarded {} bytes of truncated or corrupted records at the end of '{}'",
+                    size - position, file );
+            channel.truncate( position );
+            size = position;
+        }
+        DeepAgent.log.debug( "embedding cache: {} vectors in '{}'", locations.size(), file );
+    }
+
+    private static long location( long offset, int length ) {
+        return ( offset << 24 ) | length;
+    }
+
+    private ByteBuffer read( long position, int length ) throws IOException {
+        final var buffer = ByteBuffer.allocate( length );
+        while( buffer.hasRemaining() ) {
+            if( channel.read( buffer, position + buffer.position() ) < 0 ) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * @return text with the differences that do not change its meaning removed
+     */
+    static String normalize( String text ) {
+        return WHITESPACE.matcher( Normalizer.normalize( text, Normalizer.Form.NFC ) ).replaceAll( " " ).strip();
+    }
+
+    private Key key( String text ) {
+        final var digest = FileManifest.digest();
+        digest.update( modelId.getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( (byte)0 );
+        digest.update( normalize( text ).getBytes( StandardCharsets.UTF_8 ) );
+        final var hash = ByteBuffer.wrap( digest.digest() );
+        return new Key( hash.getLong(), hash.getLong() );
+    }
+
+    /**
+     * @return number of cached vectors, the ones in the file or only in memory
+     */
+    int size() {
+        synchronized( memory ) {
+            return channel != null ? locations.size() : memory.size();
+        }
+    }
+
+    /**
+     * @return the vector of the given text, or null if not cached
+     */
+    float[] get( String text ) throws IOException {
+        final var key = key( text );
+        synchronized( memory ) {
+            final var vector = memory.get( key );
+            if( vector != null ) {
+                return vector;
+            }
+        }
+        final var location = locations.get( key );
+        if( location == null ) {
+            return null;
+        }
+        final var vector = new float[ (int)( location & 0xFFFFFF ) / Float.BYTES ];
+        read( location >>> 24, vector.length * Float.BYTES ).order( ByteOrder.LITTLE_ENDIAN ).asFloatBuffer().get( vector );
+        synchronized( memory ) {
+            memory.put( key, vector );
+        }
+        return vector;
+    }
+
+    void put( String text, float[] vector ) throws IOException {
+        requireNonNull( vector, "vector cannot be null" );
+        final var key = key( text );
+        synchronized( memory ) {
+            memory.put( key, vector );
+        }
+        if( channel == null ) {
+            return;
+        }
+        synchronized( this ) {
+            if( locations.containsKey( key ) ) {
+                return;
+            }
+            final var payload = ByteBuffer.allocate( KEY_SIZE + vector.length * Float.BYTES );
+            payload.putLong( key.high() ).putLong( key.low() );
+            payload.order( ByteOrder.LITTLE_ENDIAN ).asFloatBuffer().put( vector );
+            final var crc = new CRC32();
+            crc.update( payload.array() );
+            final var record = ByteBuffer.allocate( RECORD_HEADER_SIZE + payload.capacity() )
+                    .putInt( payload.capacity() )
+                    .putInt( (int)crc.getValue() )
+                    .put( payload.array() )
+                    .flip();
+            long position = size;
+            while( record.hasRemaining() ) {
+                position += channel.write( record, position );
+            }
+            locations.put( key, location( size + RECORD_HEADER_SIZE + KEY_SIZE, vector.length * Float.BYTES ) );
+            size = position;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( channel != null ) {
+            channel.close();
+        }
+    }
+}
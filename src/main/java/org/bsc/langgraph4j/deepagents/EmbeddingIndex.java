@@ -0,0 +1,860 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Vector index persisted in a directory as a log of immutable {@link IndexSegment}s.
+ *
+ * <ul>
+ *     <li>inserts go to an in-memory {@link HnswIndex}, written as a new segment when it reaches the flush size or on {@link #flush()}</li>
+ *     <li>the manifest lists the live segments, it is replaced atomically after every change;
+ *     on open the segments are memory mapped, so a large index loads without reading it</li>
+ *     <li>when the segments exceed the maximum count, the smallest ones are merged in background</li>
+ *     <li>searches run on the in-memory index and on every segment, and the results are merged</li>
+ *     <li>the items are deleted by key (see {@link Builder#key(Function)}): the manifest records a tombstone per key,
+ *     that hides the items of the key in the segments written before it, until a compaction drops them</li>
+ *     <li>with the text of the items (see {@link Builder#text(Function)}) they are indexed by keywords too, by an
+ *     in-memory {@link Bm25Index} rebuilt from the segments on open, and the hybrid search fuses both rankings</li>
+ * </ul>
+ * Without a directory the index is kept in memory only.
+ *
+ * @param <T> type of the item associated to each vector
+ */
+final class EmbeddingIndex<T> implements Closeable {
+
+    static final String MANIFEST = "index.manifest";
+    static final String MANIFEST_HEADER = "deepagents-embedding-index";
+    static final int MANIFEST_VERSION = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final BitSet NONE_DELETED = new BitSet();
+
+    // reciprocal rank fusion: constant damping the top ranks, and number of candidates taken from each ranking
+    static final int RRF_K = 60;
+    private static final int FUSION_CANDIDATES = 50;
+    // filters accepting at most this fraction of the items of a segment are scanned exhaustively
+    private static final double EXACT_FILTER_RATIO = 0.1;
+
+    /**
+     * @param segments live segments
+     * @param memtable in-memory index receiving the inserts, null until the dimensions are known
+     * @param flushing in-memory index being written as a segment, still searched until the segment is live
+     * @param tombstones deleted key -> id of the last segment written before the deletion
+     * @param memtableDeleted ids of the deleted items of the in-memory index, when kept in memory only
+     * @param deleted ids of the deleted items of each segment, evaluated on demand from the tombstones
+     */
+    private record Snapshot<T>( List<IndexSegment<T>> segments,
+                                HnswIndex<T> memtable,
+                                HnswIndex<T> flushing,
+                                Map<String,Long> tombstones,
+                                BitSet memtableDeleted,
+                                Map<IndexSegment<T>,BitSet> deleted ) {
+
+        Snapshot( List<IndexSegment<T>> segments, HnswIndex<T> memtable, HnswIndex<T> flushing,
+                  Map<String,Long> tombstones, BitSet memtableDeleted ) {
+            this( segments, memtable, flushing, tombstones, memtableDeleted, new ConcurrentHashMap<>() );
+        }
+
+        Snapshot<T> withSegments( List<IndexSegment<T>> segments, HnswIndex<T> memtable, HnswIndex<T> flushing,
+                                  Map<String,Long> tombstones ) {
+            // the deleted ids of the segments still live are kept, as long as the tombstones are the same
+            final var result = new Snapshot<>( segments, memtable, flushing, tombstones, memtableDeleted );
+            if( tombstones.equals( this.tombstones ) ) {
+                deleted.forEach( ( segment, ids ) -> {
+                    if( segments.contains( segment ) ) {
+                        result.deleted.put( segment, ids );
+                    }
+                });
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Item stored in the index, with its normalized vector
+     */
+    record Entry<T>( float[] vector, T item ) {}
+
+    private final Path directory;
+    private final IndexSegment.ItemCodec<T> codec;
+    private final Function<T,String> key;
+    private final Bm25Index<T> lexical;
+    private final HnswIndex.Options indexOptions;
+    private final int flushSize;
+    private final int maxSegments;
+    private final boolean sync;
+
+    // inserts hold the read lock, swapping the in-memory index needs the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final Object compactionLock = new Object();
+    private final AtomicLong lastSegmentId = new AtomicLong();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    // segment -> ids of its items by key, evaluated on demand
+    private final Map<IndexSegment<T>,Map<String,int[]>> segmentKeys = new ConcurrentHashMap<>();
+    private final ExecutorService compactor;
+    private volatile Snapshot<T> snapshot;
+    private volatile int dimensions;
+
+    static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    static class Builder<T> {
+        private Path directory;
+        private IndexSegment.ItemCodec<T> codec;
+        private Function<T,String> key;
+        private Function<T,String> text;
+        private HnswIndex.Options indexOptions = HnswIndex.Options.DEFAULT;
+        private int flushSize = 50_000;
+        private int maxSegments = 8;
+        private boolean sync = true;
+
+        /**
+         * Directory of the index, null to keep it in memory only
+         */
+        Builder<T> directory( Path directory ) {
+            this.directory = directory;
+            return this;
+        }
+
+        Builder<T> codec( IndexSegment.ItemCodec<T> codec ) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Key of the items, required to delete them
+         */
+        Builder<T> key( Function<T,String> key ) {
+            this.key = key;
+            return this;
+        }
+
+        /**
+         * Text of the items, to index them by keywords too and search them with {@link #search(float[], String, int, double)}
+         */
+        Builder<T> text( Function<T,String> text ) {
+            this.text = text;
+            return this;
+        }
+
+        Builder<T> indexOptions( HnswIndex.Options indexOptions ) {
+            this.indexOptions = indexOptions;
+            return this;
+        }
+
+        /**
+         * Number of inserts kept in memory before writing a segment
+         */
+        Builder<T> flushSize( int flushSize ) {
+            this.flushSize = flushSize;
+            return this;
+        }
+
+        /**
+         * Number of segments above which they are compacted in background
+         */
+        Builder<T> maxSegments( int maxSegments ) {
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * If true (default) the segments and the manifest are forced to the storage device
+         */
+        Builder<T> sync( boolean sync ) {
+            this.sync = sync;
+            return this;
+        }
+
+        EmbeddingIndex<T> build() throws IOException {
+            return new EmbeddingIndex<>( this );
+        }
+    }
+
+    private EmbeddingIndex( Builder<T> builder ) throws IOException {
+        this.directory = builder.directory;
+        this.codec = requireNonNull( builder.codec, "codec cannot be null" );
+        this.key = builder.key;
+        this.lexical = ( builder.text != null ) ? new Bm25Index<>( builder.text, builder.key ) : null;
+        this.indexOptions = requireNonNull( builder.indexOptions, "indexOptions cannot be null" );
+        if( builder.flushSize <= 0 ) {
+            throw new IllegalArgumentException( "flushSize must be greater than zero" );
+        }
+        this.flushSize = builder.flushSize;
+        if( builder.maxSegments < 1 ) {
+            throw new IllegalArgumentException( "maxSegments must be greater than zero" );
+        }
+        this.maxSegments = builder.maxSegments;
+        this.sync = builder.sync;
+
+        final var segments = new ArrayList<IndexSegment<T>>();
+        final var tombstones = new HashMap<String,Long>();
+        if( directory != null ) {
+            Files.createDirectories( directory );
+            recover( segments, tombstones );
+            compactor = Executors.newSingleThreadExecutor( runnable -> {
+                var thread = new Thread( runnable, "embedding-compactor" );
+                thread.setDaemon( true );
+                return thread;
+            });
+        }
+        else {
+            compactor = null;
+        }
+        this.snapshot = new Snapshot<>( List.copyOf( segments ), dimensions > 0 ? newMemtable() : null, null,
+                Map.copyOf( tombstones ), NONE_DELETED );
+        if( lexical != null && !segments.isEmpty() ) {
+            final var current = snapshot;
+            for( var segment : current.segments() ) {
+                final var deleted = deleted( current, segment );
+                IntStream.range( 0, segment.size() ).parallel()
+                        .filter( id -> !deleted.get( id ) )
+                        .forEach( id -> lexical.add( segment.item( id ) ) );
+            }
+            DeepAgent.log.debug( "embedding index: indexed {} items by keywords in {}", lexical.size(), directory );
+        }
+    }
+
+    /**
+     * Opens the segments listed by the manifest and deletes the files left by an interrupted flush or compaction
+     */
+    private void recover( List<IndexSegment<T>> segments, Map<String,Long> tombstones ) throws IOException {
+        final var manifest = directory.resolve( MANIFEST );
+        final var live = new ArrayList<String>();
+        if( Files.exists( manifest ) ) {
+            final var lines = Files.readAllLines( manifest );
+            final var header = lines.isEmpty() ? "" : lines.get(0);
+            if( !header.equals( MANIFEST_HEADER + " " + MANIFEST_VERSION ) ) {
+                throw new IOException( format( "%s: unsupported manifest '%s'", manifest, header ) );
+            }
+            for( var line : lines.subList( 1, lines.size() ) ) {
+                if( line.startsWith( "dimensions " ) ) {
+                    dimensions = Integer.parseInt( line.substring( "dimensions ".length() ) );
+                }
+                else if( line.startsWith( "last-segment " ) ) {
+                    lastSegmentId.accumulateAndGet( Long.parseLong( line.substring( "last-segment ".length() ) ), Math::max );
+                }
+                else if( line.startsWith( "tombstone " ) ) {
+                    final var fields = line.split( " ", 3 );
+                    tombstones.put( URLDecoder.decode( fields[2], StandardCharsets.UTF_8 ), Long.parseLong( fields[1] ) );
+                }
+                else if( !line.isBlank() ) {
+                    live.add( line );
+                }
+            }
+        }
+        for( var name : live ) {
+            final var segment = IndexSegment.open( directory.resolve( name ), codec );
+            if( segment.dimensions() != dimensions ) {
+                throw new IOException( format( "%s has %d dimensions, expected %d", name, segment.dimensions(), dimensions ) );
+            }
+            segments.add( segment );
+            lastSegmentId.accumulateAndGet( segmentId( name ), Math::max );
+        }
+        try( var files = Files.list( directory ) ) {
+            for( var file : files.toList() ) {
+                final var name = file.getFileName().toString();
+                if( name.startsWith( SEGMENT_PREFIX ) && !live.contains( name ) ) {
+                    Files.deleteIfExists( file );
+                }
+            }
+        }
+        DeepAgent.log.debug( "embedding index: opened {} segments in {}", segments.size(), directory );
+    }
+
+    private static long segmentId( String name ) {
+        return Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) );
+    }
+
+    private Path segmentPath( long id ) {
+        return directory.resolve( format( "%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX ) );
+    }
+
+    /**
+     * @return dimensions of the vectors, 0 if no vector has been added yet
+     */
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return number of items, in memory and in the segments, including the deleted ones not yet compacted
+     */
+    int size() {
+        final var current = snapshot;
+        int result = current.segments().stream().mapToInt( IndexSegment::size ).sum();
+        if( current.memtable() != null ) {
+            result += current.memtable().size();
+        }
+        if( current.flushing() != null ) {
+            result += current.flushing().size();
+        }
+        return result;
+    }
+
+    /**
+     * @return number of live segments
+     */
+    int segmentCount() {
+        return snapshot.segments().size();
+    }
+
+    /**
+     * Inserts a vector and its item, writing a segment when the in-memory index is full
+     */
+    void add( float[] vector, T item ) throws IOException {
+        requireNonNull( vector, "vector cannot be null" );
+        if( snapshot.memtable() == null ) {
+            initialize( vector.length );
+        }
+        final HnswIndex<T> memtable;
+        lock.readLock().lock();
+        try {
+            memtable = snapshot.memtable();
+            memtable.add( vector, item );
+            if( lexical != null ) {
+                lexical.add( item );
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        if( directory != null && memtable.size() >= flushSize ) {
+            flush( memtable );
+        }
+    }
+
+    private void initialize( int vectorDimensions ) {
+        lock.writeLock().lock();
+        try {
+            final var current = snapshot;
+            if( current.memtable() == null ) {
+                dimensions = vectorDimensions;
+                snapshot = current.withSegments( current.segments(), newMemtable(), null, current.tombstones() );
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private HnswIndex<T> newMemtable() {
+        return new HnswIndex<>( dimensions, indexOptions );
+    }
+
+    /**
+     * @return the k items most similar to the query, best first
+     */
+    List<HnswIndex.Result<T>> search( float[] query, int k ) {
+        return search( query, k, null );
+    }
+
+    /**
+     * Filtered search: the items are pre-filtered by key during the traversal of the graphs, not after it.
+     * The ids of the accepted keys are taken from the bitmaps of the segments by key; when they are few,
+     * they are scanned exhaustively rather than searched in the graph, so selective filters keep the recall.
+     *
+     * @param filter keys of the items that can be returned, null to accept all of them
+     * @return the k items most similar to the query, best first
+     */
+    List<HnswIndex.Result<T>> search( float[] query, int k, Predicate<String> filter ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        if( filter != null && key == null ) {
+            throw new IllegalStateException( "items cannot be filtered without a key" );
+        }
+        final var current = snapshot;
+        if( current.memtable() == null ) {
+            return List.of();
+        }
+        final var normalized = HnswIndex.normalize( query, dimensions );
+        final var results = new ArrayList<HnswIndex.Result<T>>();
+        final var memtableDeleted = current.memtableDeleted();
+        if( filter == null ) {
+            results.addAll( current.memtable().search( query, k, indexOptions.efSearch(),
+                    memtableDeleted.isEmpty() ? null : id -> !memtableDeleted.get( id ) ) );
+            if( current.flushing() != null ) {
+                results.addAll( current.flushing().search( query, k ) );
+            }
+        }
+        else {
+            for( var index : Arrays.asList( current.memtable(), current.flushing() ) ) {
+                if( index == null ) {
+                    continue;
+                }
+                final var accepted = ids( index, filter );
+                if( index == current.memtable() ) {
+                    accepted.andNot( memtableDeleted );
+                }
+                if( accepted.isEmpty() ) {
+                    continue;
+                }
+                results.addAll( isSelective( accepted, index.size() ) ?
+                        index.exactSearch( query, k, accepted ) :
+                        index.search( query, k, indexOptions.efSearch(), accepted::get ) );
+            }
+        }
+        for( var segment : current.segments() ) {
+            final var deleted = deleted( current, segment );
+            if( filter == null ) {
+                results.addAll( segment.search( normalized, k, indexOptions.efSearch(),
+                        deleted.isEmpty() ? null : id -> !deleted.get( id ) ) );
+                continue;
+            }
+            final var accepted = new BitSet( segment.size() );
+            keys( segment ).forEach( ( itemKey, ids ) -> {
+                if( filter.test( itemKey ) ) {
+                    for( int id : ids ) {
+                        accepted.set( id );
+                    }
+                }
+            });
+            accepted.andNot( deleted );
+            if( accepted.isEmpty() ) {
+                continue;
+            }
+            results.addAll( isSelective( accepted, segment.size() ) ?
+                    segment.exactSearch( normalized, k, accepted ) :
+                    segment.search( normalized, k, indexOptions.efSearch(), accepted::get ) );
+        }
+        results.sort( Comparator.comparingDouble( ( HnswIndex.Result<T> result ) -> result.score() ).reversed() );
+        return ( results.size() > k ) ? List.copyOf( results.subList( 0, k ) ) : results;
+    }
+
+    /**
+     * Hybrid search: fuses the ranking by similarity to the query vector and the ranking by the keywords of the
+     * query text with the reciprocal rank fusion, each item scoring {@code weight / (RRF_K + rank)} per ranking.
+     * The scores are scaled so that an item ranked first by both scores 1.
+     *
+     * @param lexicalWeight weight of the keyword ranking, from 0 (similarity only) to 1 (keywords only)
+     * @return the k best items, best first
+     */
+    List<HnswIndex.Result<T>> search( float[] query, String text, int k, double lexicalWeight ) {
+        return search( query, text, k, lexicalWeight, null );
+    }
+
+    /**
+     * @param filter keys of the items that can be returned, null to accept all of them. See {@link #search(float[], int, Predicate)}
+     */
+    List<HnswIndex.Result<T>> search( float[] query, String text, int k, double lexicalWeight, Predicate<String> filter ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        if( lexical == null ) {
+            throw new IllegalStateException( "items cannot be searched by keywords without a text" );
+        }
+        if( lexicalWeight < 0 || lexicalWeight > 1 ) {
+            throw new IllegalArgumentException( "lexicalWeight must be between 0 and 1" );
+        }
+        final int candidates = Math.max( k, FUSION_CANDIDATES );
+        final var vectorResults = ( lexicalWeight < 1 ) ? search( query, candidates, filter ) : List.<HnswIndex.Result<T>>of();
+        final var lexicalResults = ( lexicalWeight > 0 ) ? lexical.search( text, candidates, filter ) : List.<HnswIndex.Result<T>>of();
+        return fuse( vectorResults, lexicalResults, lexicalWeight, k );
+    }
+
+    /**
+     * Reciprocal rank fusion of two rankings, the items being matched by equality
+     */
+    static <T> List<HnswIndex.Result<T>> fuse( List<HnswIndex.Result<T>> vectorResults, List<HnswIndex.Result<T>> lexicalResults,
+                                               double lexicalWeight, int k ) {
+        final var scores = new LinkedHashMap<T,Double>();
+        for( int rank = 0; rank < vectorResults.size(); ++rank ) {
+            scores.merge( vectorResults.get( rank ).item(), ( 1 - lexicalWeight ) / ( RRF_K + rank + 1 ), Double::sum );
+        }
+        for( int rank = 0; rank < lexicalResults.size(); ++rank ) {
+            scores.merge( lexicalResults.get( rank ).item(), lexicalWeight / ( RRF_K + rank + 1 ), Double::sum );
+        }
+        return scores.entrySet().stream()
+                .filter( entry -> entry.getValue() > 0 )
+                .sorted( Map.Entry.<T,Double>comparingByValue().reversed() )
+                .limit( k )
+                .map( entry -> new HnswIndex.Result<>( entry.getKey(), (float)( entry.getValue() * ( RRF_K + 1 ) ) ) )
+                .toList();
+    }
+
+    /**
+     * @return true if the accepted ids are few enough to be scanned, rather than searched in the graph:
+     * the traversal of a graph filtered that much explores most of it and may miss the accepted nodes it cannot reach
+     */
+    private static boolean isSelective( BitSet accepted, int size ) {
+        final int count = accepted.cardinality();
+        return count <= HnswIndex.EXACT_SEARCH_THRESHOLD || count <= size * EXACT_FILTER_RATIO;
+    }
+
+    /**
+     * Writes the in-memory index as a new segment. Does nothing when the index is kept in memory only.
+     */
+    void flush() throws IOException {
+        flush( null );
+    }
+
+    /**
+     * @param full the in-memory index found full, or null to flush unconditionally
+     */
+    private void flush( HnswIndex<T> full ) throws IOException {
+        if( directory == null ) {
+            return;
+        }
+        synchronized( flushLock ) {
+            final HnswIndex<T> memtable;
+            lock.writeLock().lock();
+            try {
+                final var current = snapshot;
+                if( current.flushing() != null ) {
+                    // a previous flush failed, retries it first
+                    memtable = current.flushing();
+                }
+                else {
+                    memtable = current.memtable();
+                    if( memtable == null || memtable.size() == 0 || ( full != null && memtable != full ) ) {
+                        return;
+                    }
+                    snapshot = current.withSegments( current.segments(), newMemtable(), memtable, current.tombstones() );
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+
+            final var path = segmentPath( lastSegmentId.incrementAndGet() );
+            IndexSegment.write( path, memtable, codec, sync );
+            final var segment = IndexSegment.open( path, codec );
+
+            lock.writeLock().lock();
+            try {
+                final var current = snapshot;
+                final var segments = Stream.concat( current.segments().stream(), Stream.of( segment ) ).toList();
+                writeManifest( segments, current.tombstones() );
+                snapshot = current.withSegments( segments, current.memtable(), null, current.tombstones() );
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            memtable.close();
+            DeepAgent.log.debug( "embedding index: flushed {} vectors to {}", segment.size(), path.getFileName() );
+        }
+        if( snapshot.segments().size() > maxSegments && compactionScheduled.compareAndSet( false, true ) ) {
+            compactor.execute( this::compactQuietly );
+        }
+    }
+
+    /**
+     * Merges the smallest segments into one, up to the maximum count and as long as the merged vectors fit a segment.
+     * The merged segment replaces them in the manifest, then their files are deleted.
+     */
+    void compact() throws IOException {
+        if( directory == null ) {
+            return;
+        }
+        synchronized( compactionLock ) {
+            final long maxVectors = Integer.MAX_VALUE / ( (long)dimensions * Float.BYTES );
+            final var start = snapshot;
+            final var merged = new ArrayList<IndexSegment<T>>();
+            long total = 0;
+            for( var segment : start.segments().stream().sorted( Comparator.comparingInt( IndexSegment::size ) ).toList() ) {
+                if( merged.size() == maxSegments || total + segment.size() > maxVectors ) {
+                    break;
+                }
+                merged.add( segment );
+                total += segment.size();
+            }
+            if( merged.size() < 2 ) {
+                return;
+            }
+
+            final var path = segmentPath( lastSegmentId.incrementAndGet() );
+            try( var index = new HnswIndex<T>( dimensions, indexOptions ) ) {
+                for( var segment : merged ) {
+                    // the deleted items are dropped
+                    final var deleted = deleted( start, segment );
+                    IntStream.range( 0, segment.size() ).parallel()
+                            .filter( id -> !deleted.get( id ) )
+                            .forEach( id -> index.add( segment.vector( id ), segment.item( id ) ) );
+                }
+                IndexSegment.write( path, index, codec, sync );
+            }
+            final var segment = IndexSegment.open( path, codec );
+
+            lock.writeLock().lock();
+            try {
+                final var current = snapshot;
+                final var segments = new ArrayList<IndexSegment<T>>();
+                segments.add( segment );
+                current.segments().stream().filter( s -> !merged.contains( s ) ).forEach( segments::add );
+                // a tombstone is dropped when no segment written before it is left
+                final var tombstones = new HashMap<String,Long>();
+                current.tombstones().forEach( ( deletedKey, watermark ) -> {
+                    if( segments.stream().anyMatch( s -> segmentId( s ) <= watermark ) ) {
+                        tombstones.put( deletedKey, watermark );
+                    }
+                });
+                writeManifest( segments, tombstones );
+                snapshot = current.withSegments( List.copyOf( segments ), current.memtable(), current.flushing(), Map.copyOf( tombstones ) );
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            // searches still running on the merged segments keep their mapped buffers
+            for( var old : merged ) {
+                segmentKeys.remove( old );
+                Files.deleteIfExists( old.path() );
+            }
+            DeepAgent.log.debug( "embedding index: compacted {} segments ({} vectors) into {}", merged.size(), total, path.getFileName() );
+        }
+    }
+
+    private void compactQuietly() {
+        compactionScheduled.set( false );
+        try {
+            compact();
+        }
+        catch( Exception e ) {
+            DeepAgent.log.warn( "embedding index: compaction failed", e );
+        }
+    }
+
+    /**
+     * Deletes the items of the given keys. The items are hidden from the searches at once and dropped by the compactions.
+     */
+    void delete( Collection<String> keys ) throws IOException {
+        if( key == null ) {
+            throw new IllegalStateException( "items cannot be deleted without a key" );
+        }
+        if( keys.isEmpty() ) {
+            return;
+        }
+        final var deletedKeys = Set.copyOf( keys );
+        synchronized( flushLock ) {
+            // the tombstones apply to the segments, so the in-memory items to delete are written first
+            if( directory != null && !ids( snapshot.memtable(), deletedKeys ).isEmpty() ) {
+                flush();
+            }
+            lock.writeLock().lock();
+            try {
+                if( lexical != null ) {
+                    lexical.delete( deletedKeys );
+                }
+                final var current = snapshot;
+                if( directory == null ) {
+                    final var memtableDeleted = (BitSet)current.memtableDeleted().clone();
+                    memtableDeleted.or( ids( current.memtable(), deletedKeys ) );
+                    snapshot = new Snapshot<>( current.segments(), current.memtable(), current.flushing(),
+                            current.tombstones(), memtableDeleted );
+                    return;
+                }
+                if( current.segments().isEmpty() ) {
+                    return;
+                }
+                final var tombstones = new HashMap<>( current.tombstones() );
+                final long watermark = lastSegmentId.get();
+                deletedKeys.forEach( deletedKey -> tombstones.put( deletedKey, watermark ) );
+                writeManifest( current.segments(), tombstones );
+                snapshot = current.withSegments( current.segments(), current.memtable(), current.flushing(), Map.copyOf( tombstones ) );
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the items of the given key that are not deleted, with their vectors
+     */
+    List<Entry<T>> get( String itemKey ) {
+        if( key == null ) {
+            throw new IllegalStateException( "items cannot be looked up without a key" );
+        }
+        final var current = snapshot;
+        final var result = new ArrayList<Entry<T>>();
+        for( var index : Arrays.asList( current.memtable(), current.flushing() ) ) {
+            final var ids = ids( index, Set.of( itemKey ) );
+            if( index == current.memtable() ) {
+                ids.andNot( current.memtableDeleted() );
+            }
+            ids.stream().forEach( id -> result.add( new Entry<>( index.normalizedVector( id ), index.item( id ) ) ) );
+        }
+        for( var segment : current.segments() ) {
+            final int[] ids = keys( segment ).get( itemKey );
+            if( ids == null ) {
+                continue;
+            }
+            final var deleted = deleted( current, segment );
+            for( int id : ids ) {
+                if( !deleted.get( id ) ) {
+                    result.add( new Entry<>( segment.vector( id ), segment.item( id ) ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return ids of the items of the in-memory index having one of the given keys
+     */
+    private BitSet ids( HnswIndex<T> index, Set<String> keys ) {
+        return ids( index, keys::contains );
+    }
+
+    private BitSet ids( HnswIndex<T> index, Predicate<String> keys ) {
+        final var result = new BitSet();
+        if( index != null ) {
+            for( int id = 0, count = index.size(); id < count; ++id ) {
+                if( keys.test( key.apply( index.item( id ) ) ) ) {
+                    result.set( id );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return ids of the items of the segment by key
+     */
+    private Map<String,int[]> keys( IndexSegment<T> segment ) {
+        return segmentKeys.computeIfAbsent( segment, s -> {
+            final var ids = new HashMap<String,BitSet>();
+            for( int id = 0; id < s.size(); ++id ) {
+                ids.computeIfAbsent( key.apply( s.item( id ) ), k -> new BitSet() ).set( id );
+            }
+            final var result = new HashMap<String,int[]>();
+            ids.forEach( ( itemKey, bits ) -> result.put( itemKey, bits.stream().toArray() ) );
+            return result;
+        });
+    }
+
+    /**
+     * @return ids of the deleted items of the segment, according to the tombstones of the given snapshot
+     */
+    private BitSet deleted( Snapshot<T> current, IndexSegment<T> segment ) {
+        if( current.tombstones().isEmpty() ) {
+            return NONE_DELETED;
+        }
+        return current.deleted().computeIfAbsent( segment, s -> {
+            final long id = segmentId( s );
+            final var keys = keys( s );
+            final var result = new BitSet();
+            current.tombstones().forEach( ( deletedKey, watermark ) -> {
+                final int[] ids = keys.get( deletedKey );
+                if( ids != null && id <= watermark ) {
+                    for( int i : ids ) {
+                        result.set( i );
+                    }
+                }
+            });
+            return result.isEmpty() ? NONE_DELETED : result;
+        });
+    }
+
+    private long segmentId( IndexSegment<T> segment ) {
+        return segmentId( segment.path().getFileName().toString() );
+    }
+
+    /**
+     * Removes all the items and segments
+     */
+    void clear() throws IOException {
+        synchronized( flushLock ) {
+            synchronized( compactionLock ) {
+                final List<IndexSegment<T>> removed;
+                lock.writeLock().lock();
+                try {
+                    final var current = snapshot;
+                    removed = current.segments();
+                    if( directory != null ) {
+                        writeManifest( List.of(), Map.of() );
+                    }
+                    snapshot = new Snapshot<>( List.of(), current.memtable() != null ? newMemtable() : null, null, Map.of(), NONE_DELETED );
+                    if( lexical != null ) {
+                        lexical.clear();
+                    }
+                    if( current.memtable() != null ) {
+                        current.memtable().close();
+                    }
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+                for( var segment : removed ) {
+                    segmentKeys.remove( segment );
+                    Files.deleteIfExists( segment.path() );
+                }
+            }
+        }
+    }
+
+    private void writeManifest( List<IndexSegment<T>> segments, Map<String,Long> tombstones ) throws IOException {
+        final var lines = new ArrayList<String>();
+        lines.add( MANIFEST_HEADER + " " + MANIFEST_VERSION );
+        lines.add( "dimensions " + dimensions );
+        lines.add( "last-segment " + lastSegmentId.get() );
+        segments.forEach( segment -> lines.add( segment.path().getFileName().toString() ) );
+        tombstones.forEach( ( deletedKey, watermark ) ->
+                lines.add( format( "tombstone %d %s", watermark, URLEncoder.encode( deletedKey, StandardCharsets.UTF_8 ) ) ) );
+
+        final var manifest = directory.resolve( MANIFEST );
+        final var temp = directory.resolve( MANIFEST + ".tmp" );
+        Files.write( temp, lines );
+        if( sync ) {
+            try( var channel = java.nio.channels.FileChannel.open( temp, java.nio.file.StandardOpenOption.WRITE ) ) {
+                channel.force( true );
+            }
+        }
+        Files.move( temp, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * Flushes the in-memory index and stops the background compaction
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if( compactor != null ) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination( 1, TimeUnit.MINUTES );
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final var current = snapshot;
+        if( current.memtable() != null ) {
+            current.memtable().close();
+        }
+    }
+}
@@ -7,11 +7,14 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
 
-import static org.bsc.langgraph4j.utils.CollectionsUtils.mergeMap;
-
+/**
+ * Channel of the virtual filesystem. Files are added or replaced, the estimated size of the content
+ * is updated incrementally, see {@link FileMap}
+ */
 class FileChannel implements Channel<Map<String,String>>  {
 
     private final Reducer<Map<String,String>> reducer;
+    private final SessionMemoryGuard guard;
 
     @Override
     public Optional<Reducer<Map<String, String>>> getReducer() {
@@ -24,10 +27,16 @@ class FileChannel implements Channel<Map<String,String>>  {
     }
 
     public FileChannel() {
+        this( null );
+    }
+
+    FileChannel( SessionMemoryGuard guard ) {
+        this.guard = guard;
         reducer = this::reduce;
     }
 
     private Map<String,String> reduce( Map<String,String> map1, Map<String,String> map2 ) {
-        return mergeMap( map1, map2, (v1,v2) -> v2 );
+        final var result = FileMap.of( map1 != null ? map1 : Map.of() ).merge( map2 );
+        return ( guard != null ) ? guard.checkFiles( result ) : result;
     }
 }
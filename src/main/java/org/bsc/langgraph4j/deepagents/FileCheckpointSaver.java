@@ -0,0 +1,907 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.RunnableConfig;
+import org.bsc.langgraph4j.checkpoint.BaseCheckpointSaver;
+import org.bsc.langgraph4j.checkpoint.Checkpoint;
+import org.bsc.langgraph4j.serializer.StateSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Durable checkpoint saver that appends the checkpoints to segmented log files in a local directory.
+ *
+ * <ul>
+ *     <li>every record is {@code [length][crc32][payload]}, a truncated or corrupted tail (e.g. after a crash) is discarded on recovery</li>
+ *     <li>an in-memory index keeps, for each thread id, the location of its checkpoints; the index is rebuilt scanning the segments on startup</li>
+ *     <li>segments are memory mapped for reads</li>
+ *     <li>sealed segments holding mostly dead records (replaced or cleared checkpoints) are compacted in background</li>
+ *     <li>optionally (see {@link Builder#snapshotInterval(int)}) a checkpoint records only the changes against its parent,
+ *     e.g. the appended messages and the changed files, and a full snapshot is written periodically</li>
+ * </ul>
+ *
+ * Usage:
+ * <pre>{@code
+ * var saver = FileCheckpointSaver.builder()
+ *                 .directory( Path.of("checkpoints") )
+ *                 .stateSerializer( new CompactStateSerializer() )
+ *                 .build();
+ *
+ * var agent = DeepAgent.builder()
+ *                 ...
+ *                 .build()
+ *                 .compile( CompileConfig.builder().checkpointSaver( saver ).build() );
+ * }</pre>
+ */
+public class FileCheckpointSaver implements BaseCheckpointSaver, Closeable {
+
+    private static final String SEGMENT_PREFIX = "checkpoints-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OBSOLETE_SUFFIX = ".obsolete";
+
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_CLEAR = 2;
+    private static final byte RECORD_DELTA = 3;
+
+    /**
+     * Log file. The last one is the active segment, the others are sealed.
+     */
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final java.nio.channels.FileChannel channel;
+        // threads having at least a record in this segment
+        final Set<String> threads = new HashSet<>();
+        long size;
+        long liveBytes;
+        MappedByteBuffer mapped;
+
+        Segment( long id, Path path, java.nio.channels.FileChannel channel, long size ) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * @return read only view of the given range, backed by the memory mapped segment
+         */
+        synchronized ByteBuffer slice( long offset, int length ) throws IOException {
+            if( mapped == null || mapped.capacity() < offset + length ) {
+                mapped = channel.map( java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, size );
+            }
+            return mapped.duplicate()
+                    .position( (int)offset )
+                    .limit( (int)(offset + length) )
+                    .slice()
+                    .asReadOnlyBuffer();
+        }
+
+        void append( ByteBuffer buffer ) throws IOException {
+            long position = size;
+            while( buffer.hasRemaining() ) {
+                position += channel.write( buffer, position );
+            }
+            size = position;
+        }
+    }
+
+    /**
+     * Position of a record payload
+     */
+    private record Location( Segment segment, long offset, int length ) {}
+
+    /**
+     * Record payload sliced from a segment
+     */
+    private record Slice( Location location, ByteBuffer buffer ) {}
+
+    private static final class Entry {
+        final long seq;
+        final String checkpointId;
+        Location location;
+        // number of deltas to apply to the full snapshot to rebuild the state
+        int depth;
+
+        Entry( long seq, String checkpointId, Location location, int depth ) {
+            this.seq = seq;
+            this.checkpointId = checkpointId;
+            this.location = location;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Index of a thread: checkpoints ordered from the newest to the oldest.
+     * A replaced checkpoint keeps the sequence number of the original one.
+     */
+    private static final class ThreadIndex {
+        final TreeMap<Long,Entry> entries = new TreeMap<>( java.util.Comparator.reverseOrder() );
+        // last written checkpoint and its state, parent of the next delta. The state is held by reference:
+        // the checkpointed values are not changed in place and the ones kept by the reducers are immutable
+        Entry head;
+        Map<String,Object> headState;
+
+        Optional<Entry> find( String checkpointId ) {
+            return entries.values().stream()
+                    .filter( e -> e.checkpointId.equals( checkpointId ) )
+                    .findFirst();
+        }
+    }
+
+    /**
+     * Header of a record payload, followed by the serialized state for a {@link #RECORD_PUT}
+     * or by the changes against the base record for a {@link #RECORD_DELTA}
+     */
+    private record RecordHeader(
+            byte type,
+            String threadId,
+            long seq,
+            String checkpointId,
+            String nodeId,
+            String nextNodeId,
+            long baseSegment,
+            long baseOffset,
+            int baseLength,
+            int depth
+    ) {
+        RecordHeader( byte type, String threadId, long seq, String checkpointId, String nodeId, String nextNodeId ) {
+            this( type, threadId, seq, checkpointId, nodeId, nextNodeId, -1, -1, -1, 0 );
+        }
+    }
+
+    private final Path directory;
+    private final StateSerializer<DeepAgent.State> stateSerializer;
+    private final long segmentSize;
+    private final double compactionThreshold;
+    private final int snapshotInterval;
+    private final boolean sync;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String,ThreadIndex> threads = new HashMap<>();
+    // thread id -> sequence of the last clear, checkpoints with a lower or equal sequence have been cleared
+    private final Map<String,Long> clearedThreads = new HashMap<>();
+    private final ScheduledExecutorService compactor;
+    private long lastSeq;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path directory;
+        private StateSerializer<DeepAgent.State> stateSerializer;
+        private long segmentSize = 64L * 1024 * 1024;
+        private double compactionThreshold = 0.5;
+        private Duration compactionInterval = Duration.ofMinutes(1);
+        private int snapshotInterval = 1;
+        private boolean sync = true;
+
+        public Builder directory( Path directory ) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder stateSerializer( StateSerializer<DeepAgent.State> stateSerializer ) {
+            this.stateSerializer = stateSerializer;
+            return this;
+        }
+
+        /**
+         * Size (in bytes) after which the active segment is sealed and a new one is started
+         */
+        public Builder segmentSize( long segmentSize ) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * A sealed segment is compacted when its ratio of live bytes falls below the given value
+         */
+        public Builder compactionThreshold( double compactionThreshold ) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Interval of the background compaction, {@code null} or zero disables it
+         */
+        public Builder compactionInterval( Duration compactionInterval ) {
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        /**
+         * Every given number of checkpoints of a thread a full snapshot is written, the checkpoints in between
+         * record only the changes against their parent. The default (1) writes full snapshots only.
+         */
+        public Builder snapshotInterval( int snapshotInterval ) {
+            this.snapshotInterval = snapshotInterval;
+            return this;
+        }
+
+        /**
+         * If true (default) every write is forced to the storage device
+         */
+        public Builder sync( boolean sync ) {
+            this.sync = sync;
+            return this;
+        }
+
+        public FileCheckpointSaver build() throws IOException {
+            return new FileCheckpointSaver( this );
+        }
+    }
+
+    private FileCheckpointSaver( Builder builder ) throws IOException {
+        this.directory = requireNonNull( builder.directory, "directory cannot be null" );
+        this.stateSerializer = requireNonNull( builder.stateSerializer, "stateSerializer cannot be null" );
+        if( builder.segmentSize <= 0 || builder.segmentSize > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "segmentSize must be in range (0,2GB)" );
+        }
+        this.segmentSize = builder.segmentSize;
+        this.compactionThreshold = builder.compactionThreshold;
+        if( builder.snapshotInterval < 1 ) {
+            throw new IllegalArgumentException( "snapshotInterval must be greater than 0" );
+        }
+        this.snapshotInterval = builder.snapshotInterval;
+        this.sync = builder.sync;
+
+        Files.createDirectories( directory );
+        recover();
+
+        if( builder.compactionInterval != null && !builder.compactionInterval.isZero() ) {
+            compactor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                var thread = new Thread( runnable, "checkpoint-compactor" );
+                thread.setDaemon( true );
+                return thread;
+            });
+            final long interval = builder.compactionInterval.toMillis();
+            compactor.scheduleWithFixedDelay( this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS );
+        }
+        else {
+            compactor = null;
+        }
+    }
+
+    private static String threadId( RunnableConfig config ) {
+        return config.threadId().orElse( THREAD_ID_DEFAULT );
+    }
+
+    @Override
+    public Collection<Checkpoint> list( RunnableConfig config ) {
+        // records are sliced while holding the lock, the mapped buffers stay valid after a compaction
+        final List<List<Slice>> records;
+        synchronized( this ) {
+            var index = threads.get( threadId(config) );
+            if( index == null ) {
+                return List.of();
+            }
+            records = index.entries.values().stream()
+                    .map( entry -> chain( entry.location ) )
+                    .toList();
+        }
+        // the checkpoints share their bases, every record is decoded once
+        final var states = new HashMap<Location,Map<String,Object>>();
+        return records.stream()
+                .map( chain -> readCheckpoint( chain, states ) )
+                .toList();
+    }
+
+    @Override
+    public Optional<Checkpoint> get( RunnableConfig config ) {
+        final Optional<List<Slice>> record;
+        synchronized( this ) {
+            var index = threads.get( threadId(config) );
+            if( index == null || index.entries.isEmpty() ) {
+                return Optional.empty();
+            }
+            record = config.checkPointId()
+                    .map( index::find )
+                    .orElseGet( () -> Optional.of( index.entries.firstEntry().getValue() ) )
+                    .map( entry -> chain( entry.location ) );
+        }
+        return record.map( chain -> readCheckpoint( chain, new HashMap<>() ) );
+    }
+
+    @Override
+    public synchronized RunnableConfig put( RunnableConfig config, Checkpoint checkpoint ) throws Exception {
+        final var threadId = threadId(config);
+        final var index = threads.computeIfAbsent( threadId, key -> new ThreadIndex() );
+
+        if( config.checkPointId().isPresent() ) { // Replace Checkpoint
+            final var checkPointId = config.checkPointId().get();
+            final var replaced = index.find( checkPointId )
+                    .orElseThrow( () -> new NoSuchElementException( format("Checkpoint with id %s not found!", checkPointId) ) );
+
+            // a replacement is always a full snapshot, the deltas based on the replaced record still refer to it
+            final var location = append( encodePut( threadId, replaced.seq, checkpoint, checkpoint.getState() ), threadId );
+            release( replaced.location );
+            final var entry = new Entry( replaced.seq, checkpoint.getId(), location, 0 );
+            index.entries.put( replaced.seq, entry );
+            if( index.head == replaced ) {
+                setHead( index, entry, checkpoint.getState() );
+            }
+            return config;
+        }
+
+        final long seq = ++lastSeq;
+        final var parent = index.entries.isEmpty() ? null : index.entries.firstEntry().getValue();
+        final Entry entry;
+        if( parent != null && parent == index.head && index.headState != null && parent.depth + 1 < snapshotInterval ) {
+            final var delta = CheckpointDelta.between( index.headState, checkpoint.getState() );
+            final var location = append( encodeDelta( threadId, seq, checkpoint, parent.location, parent.depth + 1, delta ), threadId );
+            entry = new Entry( seq, checkpoint.getId(), location, parent.depth + 1 );
+        }
+        else {
+            final var location = append( encodePut( threadId, seq, checkpoint, checkpoint.getState() ), threadId );
+            entry = new Entry( seq, checkpoint.getId(), location, 0 );
+        }
+        index.entries.put( seq, entry );
+        setHead( index, entry, checkpoint.getState() );
+
+        return RunnableConfig.builder(config)
+                .checkPointId( checkpoint.getId() )
+                .build();
+    }
+
+    private void setHead( ThreadIndex index, Entry entry, Map<String,Object> state ) {
+        index.head = entry;
+        index.headState = snapshotInterval > 1 ? state : null;
+    }
+
+    @Override
+    public synchronized boolean clear( RunnableConfig config ) {
+        final var threadId = threadId(config);
+        final var index = threads.remove( threadId );
+        if( index == null ) {
+            return false;
+        }
+        try {
+            appendTombstone( threadId, lastSeq );
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        clearedThreads.put( threadId, lastSeq );
+        index.entries.values().forEach( entry -> release( entry.location ) );
+        return true;
+    }
+
+    /**
+     * Compacts the sealed segments whose ratio of live bytes is below the compaction threshold.
+     * The threads having records in those segments are rewritten at the end of the log, then the segments are deleted.
+     */
+    public synchronized void compact() throws IOException {
+        final var active = activeSegment();
+        final var candidates = segments.stream()
+                .filter( segment -> segment != active )
+                .filter( segment -> segment.liveBytes < segment.size * compactionThreshold )
+                .toList();
+        if( candidates.isEmpty() ) {
+            return;
+        }
+
+        final var rewrite = new HashSet<String>();
+        candidates.forEach( segment -> rewrite.addAll( segment.threads ) );
+
+        for( var threadId : rewrite ) {
+            var index = threads.get( threadId );
+            if( index != null ) {
+                rewriteThread( threadId, index );
+            }
+            // keep the tombstone while older records of the thread survive in other segments
+            final long clearSeq = clearedThreads.getOrDefault( threadId, 0L );
+            if( clearSeq > 0 && segments.stream()
+                                    .filter( segment -> !candidates.contains(segment) && segment != activeSegment() )
+                                    .anyMatch( segment -> segment.threads.contains( threadId ) ) ) {
+                appendTombstone( threadId, clearSeq );
+            }
+        }
+
+        for( var segment : candidates ) {
+            segments.remove( segment );
+            dispose( segment );
+        }
+
+        DeepAgent.log.debug( "checkpoint saver: compacted {} segments, rewritten {} threads", candidates.size(), rewrite.size() );
+    }
+
+    /**
+     * Appends again all the live checkpoints of the given thread, from the oldest to the newest.
+     * Full snapshots are copied as they are, deltas are evaluated again against the previous checkpoint
+     * because their base record could be in a compacted segment.
+     */
+    private void rewriteThread( String threadId, ThreadIndex index ) throws IOException {
+        final var states = new HashMap<Location,Map<String,Object>>();
+        Entry parent = null;
+        Location parentLocation = null;
+
+        for( var entry : index.entries.descendingMap().values() ) {
+            final var current = entry.location;
+            final var buffer = read( current );
+            final var header = decodeHeader( new ByteBufferInputStream( buffer.duplicate() ) );
+
+            final byte[] payload;
+            if( header.type() == RECORD_PUT ) {
+                payload = new byte[ current.length() ];
+                buffer.get( payload );
+                entry.depth = 0;
+            }
+            else if( parent != null && parent.depth + 1 < snapshotInterval ) {
+                final var delta = CheckpointDelta.between( materialize( chain( parentLocation ), 0, states ),
+                                                            materialize( chain( current ), 0, states ) );
+                payload = encodeDelta( threadId, entry.seq, header, parent.location, parent.depth + 1, delta );
+                entry.depth = parent.depth + 1;
+            }
+            else {
+                payload = encodePut( threadId, entry.seq, header, materialize( chain( current ), 0, states ) );
+                entry.depth = 0;
+            }
+
+            entry.location = append( payload, threadId );
+            release( current );
+            parent = entry;
+            parentLocation = current;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        }
+        catch( Exception e ) {
+            DeepAgent.log.warn( "checkpoint saver: compaction failed", e );
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if( compactor != null ) {
+            compactor.shutdownNow();
+        }
+        for( var segment : segments ) {
+            segment.channel.close();
+        }
+        segments.clear();
+        threads.clear();
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // LOG
+    /////////////////////////////////////////////////////////////////
+
+    private Segment activeSegment() {
+        return segments.get( segments.size() - 1 );
+    }
+
+    private Path segmentPath( long id ) {
+        return directory.resolve( format( "%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX ) );
+    }
+
+    private Segment openSegment( long id ) throws IOException {
+        final var path = segmentPath( id );
+        final var channel = java.nio.channels.FileChannel.open( path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        return new Segment( id, path, channel, channel.size() );
+    }
+
+    private Location append( byte[] payload, String threadId ) throws IOException {
+        final int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        var segment = activeSegment();
+        if( segment.size > 0 && segment.size + recordSize > segmentSize ) {
+            segment = openSegment( segment.id + 1 );
+            segments.add( segment );
+        }
+
+        final var crc = new CRC32();
+        crc.update( payload );
+
+        final var record = ByteBuffer.allocate( recordSize )
+                .putInt( payload.length )
+                .putInt( (int)crc.getValue() )
+                .put( payload )
+                .flip();
+
+        final long offset = segment.size + RECORD_HEADER_SIZE;
+        segment.append( record );
+        if( sync ) {
+            segment.channel.force( false );
+        }
+        segment.threads.add( threadId );
+        segment.liveBytes += recordSize;
+
+        return new Location( segment, offset, payload.length );
+    }
+
+    /**
+     * Appends a clear record. It is not counted as live: a segment holding only tombstones can be compacted,
+     * the tombstone being written again while older records of the thread survive in other segments.
+     */
+    private void appendTombstone( String threadId, long clearSeq ) throws IOException {
+        release( append( encodeClear( threadId, clearSeq ), threadId ) );
+    }
+
+    private Segment segment( long id ) {
+        for( var segment : segments ) {
+            if( segment.id == id ) {
+                return segment;
+            }
+        }
+        throw new IllegalStateException( format( "segment %d not found", id ) );
+    }
+
+    private void release( Location location ) {
+        location.segment().liveBytes -= RECORD_HEADER_SIZE + location.length();
+    }
+
+    private ByteBuffer read( Location location ) {
+        try {
+            return location.segment().slice( location.offset(), location.length() );
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void dispose( Segment segment ) {
+        try {
+            segment.channel.close();
+            Files.delete( segment.path );
+        }
+        catch( IOException e ) {
+            // e.g. the file is still mapped on windows, it will be removed on the next startup
+            DeepAgent.log.warn( "checkpoint saver: cannot delete segment '{}'", segment.path, e );
+            try {
+                Files.createFile( segment.path.resolveSibling( segment.path.getFileName() + OBSOLETE_SUFFIX ) );
+            }
+            catch( IOException ex ) {
+                DeepAgent.log.error( "checkpoint saver: cannot mark segment '{}' as obsolete", segment.path, ex );
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // RECOVERY
+    /////////////////////////////////////////////////////////////////
+
+    private void recover() throws IOException {
+        final List<Path> paths;
+        try( Stream<Path> files = Files.list( directory ) ) {
+            paths = files.filter( path -> {
+                        var name = path.getFileName().toString();
+                        return name.startsWith( SEGMENT_PREFIX ) && name.endsWith( SEGMENT_SUFFIX );
+                    })
+                    .sorted()
+                    .toList();
+        }
+
+        for( var path : paths ) {
+            final var obsolete = path.resolveSibling( path.getFileName() + OBSOLETE_SUFFIX );
+            if( Files.exists( obsolete ) ) {
+                Files.deleteIfExists( path );
+                Files.deleteIfExists( obsolete );
+                continue;
+            }
+            var name = path.getFileName().toString();
+            var id = Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) );
+            segments.add( openSegment( id ) );
+        }
+
+        if( segments.isEmpty() ) {
+            segments.add( openSegment( 0 ) );
+        }
+
+        for( var segment : segments ) {
+            scan( segment, segment == activeSegment() );
+        }
+
+        // evaluate live bytes from the rebuilt index
+        threads.values().stream()
+                .flatMap( index -> index.entries.values().stream() )
+                .forEach( entry -> entry.location.segment().liveBytes += RECORD_HEADER_SIZE + entry.location.length() );
+
+        DeepAgent.log.debug( "checkpoint saver: recovered {} threads from {} segments in '{}'", threads.size(), segments.size(), directory );
+    }
+
+    private void scan( Segment segment, boolean active ) throws IOException {
+        long position = 0;
+        while( position + RECORD_HEADER_SIZE <= segment.size ) {
+            final var header = segment.slice( position, RECORD_HEADER_SIZE );
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+
+            if( length < 0 || position + RECORD_HEADER_SIZE + length > segment.size ) {
+                break;
+            }
+
+            final var location = new Location( segment, position + RECORD_HEADER_SIZE, length );
+            final var crc = new CRC32();
+            crc.update( read( location ) );
+            if( (int)crc.getValue() != checksum ) {
+                break;
+            }
+
+            replay( decodeHeader( new ByteBufferInputStream( read( location ) ) ), location );
+
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if( position < segment.size ) {
+            DeepAgent.log.warn( "checkpoint saver: discarded {} bytes of truncated or corrupted records at the end of segment '{}'",
+                    segment.size - position, segment.path );
+            if( active ) {
+                segment.channel.truncate( position );
+                segment.size = position;
+                segment.mapped = null;
+            }
+        }
+    }
+
+    private void replay( RecordHeader header, Location location ) {
+        final var threadId = header.threadId();
+        location.segment().threads.add( threadId );
+        lastSeq = Math.max( lastSeq, header.seq() );
+
+        if( header.type() == RECORD_CLEAR ) {
+            final long clearSeq = Math.max( header.seq(), clearedThreads.getOrDefault( threadId, 0L ) );
+            clearedThreads.put( threadId, clearSeq );
+            // a tombstone rewritten by the compaction may follow newer checkpoints of the same thread
+            final var index = threads.get( threadId );
+            if( index != null ) {
+                index.entries.tailMap( clearSeq, true ).clear();
+                if( index.entries.isEmpty() ) {
+                    threads.remove( threadId );
+                }
+            }
+            return;
+        }
+
+        if( header.seq() <= clearedThreads.getOrDefault( threadId, 0L ) ) {
+            return;
+        }
+        final var index = threads.computeIfAbsent( threadId, key -> new ThreadIndex() );
+        // a later record with the same sequence replaces the previous one
+        index.entries.put( header.seq(), new Entry( header.seq(), header.checkpointId(), location, header.depth() ) );
+    }
+
+    /////////////////////////////////////////////////////////////////
+    // ENCODING
+    /////////////////////////////////////////////////////////////////
+
+    private static void writeNullable( DataOutputStream out, String value ) throws IOException {
+        out.writeBoolean( value != null );
+        if( value != null ) {
+            out.writeUTF( value );
+        }
+    }
+
+    private static String readNullable( DataInputStream in ) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static DataOutputStream writeHeader( ByteArrayOutputStream bytes, byte type, String threadId, long seq,
+                                                 String checkpointId, String nodeId, String nextNodeId ) throws IOException {
+        final var out = new DataOutputStream( bytes );
+        out.writeByte( type );
+        out.writeUTF( threadId );
+        out.writeLong( seq );
+        out.writeUTF( checkpointId );
+        writeNullable( out, nodeId );
+        writeNullable( out, nextNodeId );
+        return out;
+    }
+
+    private byte[] encodePut( String threadId, long seq, String checkpointId, String nodeId, String nextNodeId,
+                              Map<String,Object> state ) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        writeHeader( bytes, RECORD_PUT, threadId, seq, checkpointId, nodeId, nextNodeId ).flush();
+
+        final var objectOut = new ObjectOutputStream( bytes );
+        stateSerializer.writeData( state, objectOut );
+        objectOut.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodePut( String threadId, long seq, Checkpoint checkpoint, Map<String,Object> state ) throws IOException {
+        return encodePut( threadId, seq, checkpoint.getId(), checkpoint.getNodeId(), checkpoint.getNextNodeId(), state );
+    }
+
+    private byte[] encodePut( String threadId, long seq, RecordHeader header, Map<String,Object> state ) throws IOException {
+        return encodePut( threadId, seq, header.checkpointId(), header.nodeId(), header.nextNodeId(), state );
+    }
+
+    private byte[] encodeDelta( String threadId, long seq, String checkpointId, String nodeId, String nextNodeId,
+                                Location base, int depth, CheckpointDelta delta ) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        final var out = writeHeader( bytes, RECORD_DELTA, threadId, seq, checkpointId, nodeId, nextNodeId );
+        out.writeLong( base.segment().id );
+        out.writeLong( base.offset() );
+        out.writeInt( base.length() );
+        out.writeInt( depth );
+        out.flush();
+
+        final var objectOut = new ObjectOutputStream( bytes );
+        delta.write( stateSerializer, objectOut );
+        objectOut.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeDelta( String threadId, long seq, Checkpoint checkpoint, Location base, int depth, CheckpointDelta delta ) throws IOException {
+        return encodeDelta( threadId, seq, checkpoint.getId(), checkpoint.getNodeId(), checkpoint.getNextNodeId(), base, depth, delta );
+    }
+
+    private byte[] encodeDelta( String threadId, long seq, RecordHeader header, Location base, int depth, CheckpointDelta delta ) throws IOException {
+        return encodeDelta( threadId, seq, header.checkpointId(), header.nodeId(), header.nextNodeId(), base, depth, delta );
+    }
+
+    private byte[] encodeClear( String threadId, long seq ) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        final var out = new DataOutputStream( bytes );
+        out.writeByte( RECORD_CLEAR );
+        out.writeUTF( threadId );
+        out.writeLong( seq );
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static RecordHeader decodeHeader( InputStream input ) throws IOException {
+        final var in = new DataInputStream( input );
+        final byte type = in.readByte();
+        final var threadId = in.readUTF();
+        final long seq = in.readLong();
+        if( type == RECORD_CLEAR ) {
+            return new RecordHeader( type, threadId, seq, null, null, null );
+        }
+        if( type != RECORD_PUT && type != RECORD_DELTA ) {
+            throw new IOException( format( "unknown record type %d", type ) );
+        }
+        final var checkpointId = in.readUTF();
+        final var nodeId = readNullable( in );
+        final var nextNodeId = readNullable( in );
+        if( type == RECORD_PUT ) {
+            return new RecordHeader( type, threadId, seq, checkpointId, nodeId, nextNodeId );
+        }
+        return new RecordHeader( type, threadId, seq, checkpointId, nodeId, nextNodeId,
+                                in.readLong(), in.readLong(), in.readInt(), in.readInt() );
+    }
+
+    /**
+     * @return the record at the given location followed by its bases, up to the full snapshot
+     */
+    private List<Slice> chain( Location location ) {
+        final var result = new ArrayList<Slice>();
+        try {
+            for( var current = location; current != null; ) {
+                final var buffer = read( current );
+                result.add( new Slice( current, buffer ) );
+                final var header = decodeHeader( new ByteBufferInputStream( buffer.duplicate() ) );
+                current = ( header.type() == RECORD_DELTA ) ?
+                        new Location( segment( header.baseSegment() ), header.baseOffset(), header.baseLength() ) :
+                        null;
+            }
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the state of the record at the given position of the chain, applying the deltas to the full snapshot
+     */
+    private Map<String,Object> materialize( List<Slice> chain, int position, Map<Location,Map<String,Object>> states ) {
+        final var slice = chain.get( position );
+        final var cached = states.get( slice.location() );
+        if( cached != null ) {
+            return cached;
+        }
+        try {
+            final var input = new ByteBufferInputStream( slice.buffer().duplicate() );
+            final var header = decodeHeader( input );
+            final var objectIn = new ObjectInputStream( input );
+            final var state = ( header.type() == RECORD_PUT ) ?
+                    stateSerializer.readData( objectIn ) :
+                    CheckpointDelta.read( stateSerializer, objectIn ).applyTo( materialize( chain, position + 1, states ) );
+            states.put( slice.location(), state );
+            return state;
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        catch( ClassNotFoundException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private Checkpoint readCheckpoint( List<Slice> chain, Map<Location,Map<String,Object>> states ) {
+        try {
+            final var header = decodeHeader( new ByteBufferInputStream( chain.get(0).buffer().duplicate() ) );
+            final var state = materialize( chain, 0, states );
+
+            var builder = Checkpoint.builder()
+                    .id( header.checkpointId() )
+                    .state( state );
+            if( header.nodeId() != null ) {
+                builder = builder.nodeId( header.nodeId() );
+            }
+            if( header.nextNodeId() != null ) {
+                builder = builder.nextNodeId( header.nextNodeId() );
+            }
+            return builder.build();
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * InputStream over a (memory mapped) buffer, avoiding the copy of the record in the heap
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream( ByteBuffer buffer ) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read( byte[] bytes, int offset, int length ) {
+            if( length == 0 ) {
+                return 0;
+            }
+            if( !buffer.hasRemaining() ) {
+                return -1;
+            }
+            final int n = Math.min( length, buffer.remaining() );
+            buffer.get( bytes, offset, n );
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
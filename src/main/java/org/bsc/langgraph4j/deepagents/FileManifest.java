@@ -0,0 +1,158 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Files embedded from a directory, with the size, modification time and content hash of each file and the hash of each chunk.
+ * A file whose size and modification time are unchanged is not read again, a file whose content hash is unchanged is not chunked again.
+ * <p>
+ * Stored as text, one file per line: {@code path size lastModified hash chunkHash,chunkHash,...}
+ */
+final class FileManifest {
+
+    static final String NAME = "files.manifest";
+    static final String HEADER = "deepagents-embedding-files";
+    static final int VERSION = 1;
+
+    /**
+     * @param chunkHashes hashes of the chunks, in order
+     */
+    record Entry( String path, long size, long lastModified, String hash, List<String> chunkHashes ) {
+        Entry {
+            requireNonNull( path, "path cannot be null" );
+            requireNonNull( hash, "hash cannot be null" );
+            chunkHashes = List.copyOf( chunkHashes );
+        }
+    }
+
+    // chunking parameters, the embedded chunks are valid only for the same ones
+    private final String chunking;
+    // updated concurrently by the ingestion stages
+    private final Map<String,Entry> entries = new ConcurrentSkipListMap<>();
+
+    FileManifest( String chunking ) {
+        this.chunking = requireNonNull( chunking, "chunking cannot be null" );
+    }
+
+    String chunking() {
+        return chunking;
+    }
+
+    /**
+     * @return the manifest stored in the given file, or null if missing
+     */
+    static FileManifest load( Path file ) throws IOException {
+        if( !Files.exists( file ) ) {
+            return null;
+        }
+        final var lines = Files.readAllLines( file );
+        if( lines.size() < 2 || !lines.get(0).equals( HEADER + " " + VERSION ) || !lines.get(1).startsWith( "chunking " ) ) {
+            throw new IOException( format( "%s: unsupported manifest", file ) );
+        }
+        final var result = new FileManifest( lines.get(1).substring( "chunking ".length() ) );
+        for( var line : lines.subList( 2, lines.size() ) ) {
+            if( line.isBlank() ) {
+                continue;
+            }
+            final var fields = line.split( " ", -1 );
+            if( fields.length != 5 ) {
+                throw new IOException( format( "%s: invalid entry '%s'", file, line ) );
+            }
+            result.put( new Entry( URLDecoder.decode( fields[0], StandardCharsets.UTF_8 ),
+                    Long.parseLong( fields[1] ),
+                    Long.parseLong( fields[2] ),
+                    fields[3],
+                    fields[4].isEmpty() ? List.of() : Arrays.asList( fields[4].split( "," ) ) ) );
+        }
+        return result;
+    }
+
+    /**
+     * Writes the manifest aside and moves it in place
+     */
+    void save( Path file ) throws IOException {
+        final var lines = new ArrayList<String>( entries.size() + 2 );
+        lines.add( HEADER + " " + VERSION );
+        lines.add( "chunking " + chunking );
+        for( var entry : entries.values() ) {
+            lines.add( format( "%s %d %d %s %s", URLEncoder.encode( entry.path(), StandardCharsets.UTF_8 ),
+                    entry.size(), entry.lastModified(), entry.hash(), String.join( ",", entry.chunkHashes() ) ) );
+        }
+        final var temp = file.resolveSibling( file.getFileName() + ".tmp" );
+        Files.write( temp, lines );
+        Files.move( temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    Entry get( String path ) {
+        return entries.get( path );
+    }
+
+    void put( Entry entry ) {
+        entries.put( entry.path(), entry );
+    }
+
+    Entry remove( String path ) {
+        return entries.remove( path );
+    }
+
+    Set<String> paths() {
+        return entries.keySet();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static String hash( String content ) {
+        final var digest = digest();
+        digest.update( content.getBytes( StandardCharsets.UTF_8 ) );
+        return hex( digest );
+    }
+
+    /**
+     * @return hash of the bytes of the given file, read as a stream
+     */
+    static String hash( Path file ) throws IOException {
+        final var digest = digest();
+        try( var input = Files.newInputStream( file ) ) {
+            final var buffer = new byte[ 1 << 16 ];
+            int count;
+            while( ( count = input.read( buffer ) ) >= 0 ) {
+                digest.update( buffer, 0, count );
+            }
+        }
+        return hex( digest );
+    }
+
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static String hex( MessageDigest digest ) {
+        // 128 bits are plenty to tell the contents apart
+        return HexFormat.of().formatHex( digest.digest(), 0, 16 );
+    }
+}
@@ -0,0 +1,258 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable map of the virtual filesystem that keeps the estimated size of its content,
+ * updated incrementally on merge.
+ * <p>
+ * The content of a file could be spilled to disk, in that case the map holds a reference to the spill file
+ * that is resolved by {@link #resolve(Map)}. The reference is the name of the spill file, looked up in the spill
+ * directories of the sessions (see {@link #registerSpillDirectory(Path)}), so the states saved in the checkpoints
+ * don't depend on where the directory is. Only the names of the spill files (the SHA-256 of their content) are
+ * accepted, resolved inside the spill directories; the tools cannot write a content taken for a reference,
+ * see {@link #isReserved(String)}.
+ */
+final class FileMap extends AbstractMap<String,String> implements Serializable {
+
+    private static final String SPILLED_PREFIX = "\u0000spilled:";
+    // name of a spill file, the SHA-256 of its content: see SessionMemoryGuard
+    private static final Pattern SPILL_FILE_NAME = Pattern.compile( "[0-9a-f]{64}\\.txt" );
+
+    // configured spill directories, the spill files are named after their content so any directory holding one will do
+    private static final Set<Path> spillDirectories = new CopyOnWriteArraySet<>();
+
+    private final Map<String,String> files;
+    private final long retainedBytes;
+    private final int spilled;
+    // shared by the maps merged from the same map
+    private final transient Object lineage;
+    private final transient Version version = new Version();
+    // the map this one has been merged from and the files added or replaced by the merge
+    private final transient Version mergedFrom;
+    private final transient Set<String> mergedFiles;
+
+    // identity of a map, held in place of the map so that a map doesn't retain its predecessors
+    private static final class Version {}
+
+    private FileMap( Map<String,String> files, long retainedBytes, int spilled, Object lineage,
+                     Version mergedFrom, Set<String> mergedFiles ) {
+        this.files = Collections.unmodifiableMap( files );
+        this.retainedBytes = retainedBytes;
+        this.spilled = spilled;
+        this.lineage = lineage;
+        this.mergedFrom = mergedFrom;
+        this.mergedFiles = mergedFiles;
+    }
+
+    static FileMap of( Map<String,String> files ) {
+        if( files instanceof FileMap map ) {
+            return map;
+        }
+        return new FileMap( new LinkedHashMap<>( files ),
+                MemorySize.ofFiles( files ),
+                (int)files.values().stream().filter( FileMap::isSpilled ).count(),
+                new Object(), null, Set.of() );
+    }
+
+    static boolean isSpilled( String content ) {
+        return isReserved( content )
+                && SPILL_FILE_NAME.matcher( content ).region( SPILLED_PREFIX.length(), content.length() ).matches();
+    }
+
+    /**
+     * @return true if the given content starts as a reference to a spill file: such a content is not accepted
+     * from the tools, since reading it would read the referenced file
+     */
+    static boolean isReserved( String content ) {
+        return content != null && content.startsWith( SPILLED_PREFIX );
+    }
+
+    /**
+     * Adds a directory where the spill files are looked up
+     */
+    static void registerSpillDirectory( Path directory ) {
+        spillDirectories.add( directory.toAbsolutePath().normalize() );
+    }
+
+    /**
+     * @return reference to the given spill file of a spill directory, stored in place of the file content
+     */
+    static String spilledTo( Path file ) {
+        return SPILLED_PREFIX + file.getFileName();
+    }
+
+    /**
+     * @return the spill file of the given name, in one of the registered spill directories
+     */
+    private static Path spillFile( String name ) throws NoSuchFileException {
+        for( var directory : spillDirectories ) {
+            final var file = directory.resolve( name ).normalize();
+            if( file.startsWith( directory ) && Files.exists( file ) ) {
+                return file;
+            }
+        }
+        throw new NoSuchFileException( name, null, "spill file not found in " + spillDirectories );
+    }
+
+    /**
+     * @return the given content, loaded from the spill file when it has been spilled
+     */
+    static String load( String content ) {
+        if( !isSpilled( content ) ) {
+            return content;
+        }
+        try {
+            return Files.readString( spillFile( content.substring( SPILLED_PREFIX.length() ) ) );
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * @return a view of the given files that loads the spilled contents on access
+     */
+    static Map<String,String> resolve( Map<String,String> files ) {
+        if( files instanceof FileMap map && map.spilled == 0 ) {
+            return map;
+        }
+        return new AbstractMap<>() {
+            @Override
+            public String get( Object key ) {
+                return load( files.get( key ) );
+            }
+
+            @Override
+            public boolean containsKey( Object key ) {
+                return files.containsKey( key );
+            }
+
+            @Override
+            public int size() {
+                return files.size();
+            }
+
+            @Override
+            public Set<String> keySet() {
+                return files.keySet();
+            }
+
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                return files.entrySet().stream()
+                        .map( entry -> (Entry<String,String>)new SimpleImmutableEntry<>( entry.getKey(), load( entry.getValue() ) ) )
+                        .collect( Collectors.toCollection( LinkedHashSet::new ) );
+            }
+        };
+    }
+
+    /**
+     * @return a new map with the given files added or replaced, or this map when no file has changed
+     */
+    FileMap merge( Map<String,String> updates ) {
+        // updates often carry back files already known (e.g. the files returned by a sub-agent)
+        boolean changed = false;
+        for( var update : updates.entrySet() ) {
+            if( update.getValue() != files.get( update.getKey() ) ) {
+                changed = true;
+                break;
+            }
+        }
+        if( !changed ) {
+            return this;
+        }
+        final var result = new LinkedHashMap<>( files );
+        final var changedFiles = new LinkedHashSet<String>();
+        long bytes = retainedBytes;
+        int spilledFiles = spilled;
+        for( var update : updates.entrySet() ) {
+            final var previous = result.put( update.getKey(), update.getValue() );
+            if( previous != update.getValue() || !files.containsKey( update.getKey() ) ) {
+                changedFiles.add( update.getKey() );
+            }
+            if( previous != null ) {
+                bytes -= MemorySize.ofFile( update.getKey(), previous );
+                spilledFiles -= isSpilled( previous ) ? 1 : 0;
+            }
+            bytes += MemorySize.ofFile( update.getKey(), update.getValue() );
+            spilledFiles += isSpilled( update.getValue() ) ? 1 : 0;
+        }
+        return new FileMap( result, bytes, spilledFiles, lineage, version, Collections.unmodifiableSet( changedFiles ) );
+    }
+
+    /**
+     * Evaluates the files added or replaced since the given map of the same lineage, without comparing their
+     * contents: the files changed by the merge when this map has been merged from the given one, otherwise the
+     * files whose content is not the same instance. The files of a lineage are never removed.
+     *
+     * @return the changed files, null if the given map belongs to another lineage
+     */
+    Set<String> changedSince( FileMap previous ) {
+        if( previous.lineage != lineage ) {
+            return null;
+        }
+        if( mergedFrom == previous.version ) {
+            return mergedFiles;
+        }
+        final var result = new LinkedHashSet<String>();
+        for( var entry : files.entrySet() ) {
+            final var key = entry.getKey();
+            if( entry.getValue() != previous.files.get( key ) || !previous.files.containsKey( key ) ) {
+                result.add( key );
+            }
+        }
+        return result;
+    }
+
+    long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * @return identity of the maps derived by {@link #merge} from the same map: the successive files of a session.
+     * A map restored from a checkpoint starts a new lineage.
+     */
+    Object lineage() {
+        return lineage;
+    }
+
+    @Override
+    public String get( Object key ) {
+        return files.get( key );
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        return files.containsKey( key );
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return files.entrySet();
+    }
+
+    // serialized as a plain map
+    private Object writeReplace() {
+        return new LinkedHashMap<>( files );
+    }
+}
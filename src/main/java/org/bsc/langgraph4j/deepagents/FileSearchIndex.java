@@ -0,0 +1,205 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Embedding index of the files of the virtual filesystem of a session, to search the agent notes by meaning.
+ * <p>
+ * The index follows the file maps produced by the {@link FileChannel} reductions: before a search it is synced to
+ * the files of the state, skipping the files whose content is the same instance as the indexed one (the reductions
+ * keep the unchanged contents, see {@link FileMap#merge}). A changed file is chunked again but only the chunks whose
+ * text is new are embedded, so an edit only embeds the chunks covering the edited lines. The vectors are looked up
+ * in a cache too, shared by the indexes of all the sessions.
+ */
+final class FileSearchIndex {
+
+    /**
+     * Indexed file
+     *
+     * @param content content of the file as held by the state, possibly a reference to the spill file
+     */
+    private record Indexed( String content, List<DocumentChunk> chunks, List<float[]> vectors ) {}
+
+    private final EmbeddingBatcher batcher;
+    private final EmbeddingCache cache;
+    private final TextChunker chunker;
+    private final HnswIndex.Options indexOptions;
+    private final Map<String,Indexed> files = new HashMap<>();
+    // not a strong reference: the map of the state holds its lineage, that could be the key of this index
+    private WeakReference<Map<String,String>> synced = new WeakReference<>( null );
+    private EmbeddingIndex<DocumentChunk> index;
+    private int chunkCount;
+    private long embeddedChunks;
+
+    FileSearchIndex( EmbeddingBatcher batcher, EmbeddingCache cache, TextChunker chunker, HnswIndex.Options indexOptions ) throws IOException {
+        this.batcher = requireNonNull( batcher, "batcher cannot be null" );
+        this.cache = requireNonNull( cache, "cache cannot be null" );
+        this.chunker = requireNonNull( chunker, "chunker cannot be null" );
+        this.indexOptions = requireNonNull( indexOptions, "indexOptions cannot be null" );
+        this.index = newIndex();
+    }
+
+    private EmbeddingIndex<DocumentChunk> newIndex() throws IOException {
+        return EmbeddingIndex.<DocumentChunk>builder()
+                .codec( DocumentChunk.CODEC )
+                .key( DocumentChunk::filePath )
+                .text( DocumentChunk::text )
+                .indexOptions( indexOptions )
+                .build();
+    }
+
+    private static String fileType( String path ) {
+        final int dot = path.lastIndexOf( '.' );
+        if( dot < 0 || dot < path.lastIndexOf( '/' ) ) {
+            return "text";
+        }
+        final var extension = path.substring( dot + 1 ).toLowerCase();
+        return extension.equals( "md" ) ? "markdown" : extension;
+    }
+
+    /**
+     * @return number of chunks embedded by the model since the creation of the index, the other ones being reused
+     */
+    synchronized long embeddedChunks() {
+        return embeddedChunks;
+    }
+
+    /**
+     * @return number of indexed chunks
+     */
+    synchronized int size() {
+        return chunkCount;
+    }
+
+    /**
+     * Updates the index to the given files of the state: the changed files are indexed again,
+     * the files no longer in the state are removed
+     */
+    synchronized void sync( Map<String,String> state ) throws IOException {
+        if( synced.get() == state ) {
+            return;
+        }
+        final var deleted = new LinkedHashSet<String>();
+        files.keySet().stream().filter( path -> !state.containsKey( path ) ).forEach( deleted::add );
+
+        // path -> chunks of the changed files
+        final var changed = new LinkedHashMap<String,List<DocumentChunk>>();
+        for( var entry : state.entrySet() ) {
+            final var previous = files.get( entry.getKey() );
+            if( entry.getValue() == null || ( previous != null && previous.content() == entry.getValue() ) ) {
+                continue;
+            }
+            final var texts = chunker.split( FileMap.load( entry.getValue() ) );
+            if( previous != null && texts.equals( previous.chunks().stream().map( DocumentChunk::text ).toList() ) ) {
+                // e.g. the content has been spilled, or written again unchanged
+                files.put( entry.getKey(), new Indexed( entry.getValue(), previous.chunks(), previous.vectors() ) );
+                continue;
+            }
+            final var chunks = new ArrayList<DocumentChunk>( texts.size() );
+            for( var text : texts ) {
+                chunks.add( new DocumentChunk( entry.getKey(), fileType( entry.getKey() ), chunks.size(), text ) );
+            }
+            changed.put( entry.getKey(), chunks );
+        }
+        if( deleted.isEmpty() && changed.isEmpty() ) {
+            synced = new WeakReference<>( state );
+            return;
+        }
+
+        // the vectors of the unchanged chunks of the changed files are reused, the other ones are taken from the cache or embedded
+        final var vectors = new HashMap<String,float[]>();
+        for( var path : changed.keySet() ) {
+            final var previous = files.get( path );
+            if( previous != null ) {
+                for( int i = 0; i < previous.chunks().size(); ++i ) {
+                    vectors.put( previous.chunks().get(i).text(), previous.vectors().get(i) );
+                }
+            }
+        }
+        final var missing = new ArrayList<String>();
+        for( var chunks : changed.values() ) {
+            for( var chunk : chunks ) {
+                if( !vectors.containsKey( chunk.text() ) ) {
+                    final var cached = cache.get( chunk.text() );
+                    if( cached == null ) {
+                        missing.add( chunk.text() );
+                    }
+                    vectors.put( chunk.text(), cached );
+                }
+            }
+        }
+        if( !missing.isEmpty() ) {
+            final var embeddings = batcher.embed( missing );
+            for( int i = 0; i < missing.size(); ++i ) {
+                vectors.put( missing.get(i), embeddings.get(i) );
+                cache.put( missing.get(i), embeddings.get(i) );
+            }
+            embeddedChunks += missing.size();
+        }
+
+        final int deletedFiles = deleted.size();
+        deleted.addAll( changed.keySet() );
+        index.delete( deleted );
+        for( var path : deleted ) {
+            final var previous = files.remove( path );
+            if( previous != null ) {
+                chunkCount -= previous.chunks().size();
+            }
+        }
+        for( var entry : changed.entrySet() ) {
+            final var chunkVectors = new ArrayList<float[]>( entry.getValue().size() );
+            for( var chunk : entry.getValue() ) {
+                final var vector = vectors.get( chunk.text() );
+                index.add( vector, chunk );
+                chunkVectors.add( vector );
+            }
+            files.put( entry.getKey(), new Indexed( state.get( entry.getKey() ), entry.getValue(), chunkVectors ) );
+            chunkCount += entry.getValue().size();
+        }
+        // the in-memory index only hides the deleted chunks, it is rebuilt once they are the majority
+        if( index.size() > 2 * chunkCount ) {
+            rebuild();
+        }
+        synced = new WeakReference<>( state );
+        DeepAgent.log.debug( "file search: {} files changed, {} deleted, {} chunks embedded",
+                changed.size(), deletedFiles, missing.size() );
+    }
+
+    private void rebuild() throws IOException {
+        final var rebuilt = newIndex();
+        for( var file : files.values() ) {
+            for( int i = 0; i < file.chunks().size(); ++i ) {
+                rebuilt.add( file.vectors().get(i), file.chunks().get(i) );
+            }
+        }
+        index.close();
+        index = rebuilt;
+    }
+
+    /**
+     * @param keywordWeight weight of the keyword matches versus the semantic similarity, from 0 to 1
+     * @return the chunks most relevant to the query, best first
+     */
+    synchronized List<HnswIndex.Result<DocumentChunk>> search( float[] query, String text, int k, double keywordWeight ) {
+        if( chunkCount == 0 ) {
+            return List.of();
+        }
+        return index.search( query, text, k, keywordWeight );
+    }
+
+    /**
+     * @return dimensions of the vectors, 0 if no chunk has been indexed yet
+     */
+    synchronized int dimensions() {
+        return index.dimensions();
+    }
+}
@@ -1,10 +1,13 @@
 package org.bsc.langgraph4j.deepagents;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.bsc.langgraph4j.GraphStateException;
 import org.bsc.langgraph4j.StateGraph;
+import org.bsc.langgraph4j.serializer.StateSerializer;
 import org.bsc.langgraph4j.spring.ai.agent.ReactAgent;
 import org.bsc.langgraph4j.spring.ai.serializer.std.SpringAIStateSerializer;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.tool.ToolCallback;
 
 import java.util.ArrayList;
@@ -21,6 +24,13 @@ public class GraphBuilder {
     private ChatModel chatModel;
     private List<DeepAgent.SubAgent> subAgents;
     private List<String> builtinTools;
+    private DeepAgent.Compaction compaction;
+    private int toolResultLimit;
+    private StateSerializer<DeepAgent.State> stateSerializer;
+    private TokenCounter tokenCounter;
+    private DeepAgent.MemoryLimits memoryLimits;
+    private MeterRegistry meterRegistry;
+    private EmbeddingModel fileSearchModel;
 
     public GraphBuilder subAgents(List<DeepAgent.SubAgent> subAgents ) {
         this.subAgents = List.copyOf( requireNonNull(subAgents,"subAgents cannot be null") );
@@ -48,33 +58,134 @@ public class GraphBuilder {
         return this;
     }
 
+    /**
+     * Enable the conversation compaction: once the prompt exceeds the given budget
+     * the older messages are summarized into a single message.
+     * Only the prompt sent to the model is compacted, the messages of the state are kept
+     */
+    public GraphBuilder compaction( DeepAgent.Compaction compaction ) {
+        this.compaction = compaction;
+        return this;
+    }
+
+    /**
+     * Tool results longer than the given number of characters are saved in the virtual filesystem
+     * and replaced in the message history by a short preview with the file path
+     */
+    public GraphBuilder offloadToolResults( int maxLength ) {
+        if( maxLength <= 0 ) {
+            throw new IllegalArgumentException("maxLength must be greater than zero");
+        }
+        this.toolResultLimit = maxLength;
+        return this;
+    }
+
+    /**
+     * State serializer used by the agent and its sub-agents.
+     * Default is {@link SpringAIStateSerializer}, see also {@link CompactStateSerializer}
+     */
+    public GraphBuilder stateSerializer( StateSerializer<DeepAgent.State> stateSerializer ) {
+        this.stateSerializer = requireNonNull( stateSerializer, "stateSerializer cannot be null" );
+        return this;
+    }
+
+    /**
+     * Token counter used to estimate the prompt size for the compaction and to track the size
+     * of the prompts sent to the model, see {@link TokenCounter#lastPromptTokens()}
+     */
+    public GraphBuilder tokenCounter( TokenCounter tokenCounter ) {
+        this.tokenCounter = requireNonNull( tokenCounter, "tokenCounter cannot be null" );
+        return this;
+    }
+
+    /**
+     * Per session memory limits, see {@link DeepAgent.MemoryLimits}
+     */
+    public GraphBuilder memoryLimits( DeepAgent.MemoryLimits memoryLimits ) {
+        this.memoryLimits = requireNonNull( memoryLimits, "memoryLimits cannot be null" );
+        return this;
+    }
+
+    /**
+     * Registry of the session memory metrics, see {@link DeepAgent.MemoryLimits#METRIC_NAME}
+     */
+    public GraphBuilder meterRegistry( MeterRegistry meterRegistry ) {
+        this.meterRegistry = requireNonNull( meterRegistry, "meterRegistry cannot be null" );
+        return this;
+    }
+
+    /**
+     * Add the {@code semantic_search_files} built-in tool, searching the files of the virtual filesystem
+     * by meaning with the given embedding model. Each session indexes its own files, incrementally as they change.
+     */
+    public GraphBuilder semanticFileSearch( EmbeddingModel embeddingModel ) {
+        this.fileSearchModel = requireNonNull( embeddingModel, "embeddingModel cannot be null" );
+        return this;
+    }
+
     StateGraph<DeepAgent.State> build() throws GraphStateException {
         if( tools == null ) {
             tools = List.of();
         }
 
+        final var customTools = ( toolResultLimit > 0 )
+                ? tools.stream()
+                        .map( tool -> (ToolCallback)new ToolResultOffloader( tool, toolResultLimit ) )
+                        .toList()
+                : tools;
+
+        final var serializer = ( stateSerializer != null )
+                ? stateSerializer
+                : new SpringAIStateSerializer<>( DeepAgent.State::new );
+
+        final var trackedModel = ( tokenCounter != null )
+                ? new TokenTrackingChatModel( chatModel, tokenCounter )
+                : chatModel;
+
+        final long compactionBytes = ( memoryLimits != null ) ? memoryLimits.compactionBytes() : 0;
+
+        final var model = ( compaction != null || compactionBytes > 0 )
+                ? new ConversationCompactor( trackedModel,
+                        compaction != null ? compaction : DeepAgent.Compaction.builder().build(),
+                        tokenCounter != null ? tokenCounter : TokenCounter.DEFAULT,
+                        compactionBytes )
+                : trackedModel;
+
+        final var schema = ( memoryLimits != null || meterRegistry != null )
+                ? DeepAgent.State.schema( new SessionMemoryGuard(
+                        memoryLimits != null ? memoryLimits : DeepAgent.MemoryLimits.builder().build(),
+                        meterRegistry ) )
+                : DeepAgent.State.SCHEMA;
+
+        final var availableBuiltinTools = new ArrayList<>( Tools.BUILTIN );
+        if( fileSearchModel != null ) {
+            availableBuiltinTools.add( Tools.semanticSearchFiles( fileSearchModel ) );
+        }
+
         // Filter built-in tools if builtinTools parameter is provided
         var  selectedBuiltinTools = (builtinTools!=null)
-                ? Tools.BUILTIN.stream().filter(tool ->
+                ? availableBuiltinTools.stream().filter(tool ->
                         builtinTools.stream()
                                 .anyMatch(bt ->  bt.equals( tool.getToolDefinition().name() )))
                         .toList()
-                : Tools.BUILTIN;
+                : availableBuiltinTools;
 
         // Combine built-in tools with provided tools
         final var allTools = new ArrayList<>( selectedBuiltinTools );
-        allTools.addAll( tools );
+        allTools.addAll( customTools );
 
         // Create task tool using createTaskTool() if subagents are provided
         if ( subAgents!= null && !subAgents.isEmpty()) {
             // Create tools map for task tool creation
-            var toolsMap = Stream.concat(selectedBuiltinTools.stream(), tools.stream() )
+            var toolsMap = Stream.concat(selectedBuiltinTools.stream(), customTools.stream() )
                                 .collect( Collectors.toUnmodifiableMap(
                                         tool -> tool.getToolDefinition().name(),
                                         tool -> tool));
 
             var taskTool = new TaskToolBuilder()
-                        .model(chatModel)
+                        .model(model)
+                        .stateSerializer( serializer )
+                        .schema( schema )
                         .subAgents( subAgents )
                         .tools( toolsMap )
                         .build();
@@ -89,10 +200,10 @@ public class GraphBuilder {
 
 
         return ReactAgent.<DeepAgent.State>builder()
-                .stateSerializer( new SpringAIStateSerializer<>( DeepAgent.State::new ))
-                .chatModel(chatModel)
+                .stateSerializer( serializer )
+                .chatModel(model)
                 .tools( allTools )
-                .schema( DeepAgent.State.SCHEMA )
+                .schema( schema )
                 .defaultSystem( finalInstructions )
                 .build();
     }
@@ -0,0 +1,120 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Deterministic local {@link EmbeddingModel}, a stand-in for a remote one to test and benchmark the ingestion offline.
+ * <p>
+ * The lower-cased words and word pairs of a text are hashed into a signed bag of features, normalized to unit length:
+ * texts sharing words are similar. An optional latency is added to each call, to simulate the round trip of a remote model.
+ */
+final class HashEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+    private final Duration latency;
+
+    HashEmbeddingModel( int dimensions, Duration latency ) {
+        if( dimensions <= 0 ) {
+            throw new IllegalArgumentException( "dimensions must be greater than zero" );
+        }
+        this.dimensions = dimensions;
+        this.latency = requireNonNull( latency, "latency cannot be null" );
+    }
+
+    HashEmbeddingModel( int dimensions ) {
+        this( dimensions, Duration.ZERO );
+    }
+
+    @Override
+    public EmbeddingResponse call( EmbeddingRequest request ) {
+        if( !latency.isZero() ) {
+            try {
+                Thread.sleep( latency.toMillis() );
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException( "embedding interrupted" );
+            }
+        }
+        final var texts = request.getInstructions();
+        final var results = new ArrayList<Embedding>( texts.size() );
+        for( var text : texts ) {
+            results.add( new Embedding( embedText( text ), results.size() ) );
+        }
+        return new EmbeddingResponse( results );
+    }
+
+    @Override
+    public float[] embed( Document document ) {
+        return embed( document.getText() );
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private float[] embedText( String text ) {
+        final var result = new float[ dimensions ];
+        int previous = 0;
+        int start = -1;
+        for( int i = 0; i <= text.length(); ++i ) {
+            if( i < text.length() && Character.isLetterOrDigit( text.charAt(i) ) ) {
+                if( start < 0 ) {
+                    start = i;
+                }
+                continue;
+            }
+            if( start >= 0 ) {
+                int word = 0;
+                for( int j = start; j < i; ++j ) {
+                    word = 31 * word + Character.toLowerCase( text.charAt(j) );
+                }
+                add( result, mix( word ) );
+                if( previous != 0 ) {
+                    add( result, mix( previous * 0x9E3779B1 + word ) );
+                }
+                previous = word;
+                start = -1;
+            }
+        }
+        double norm = 0;
+        for( float value : result ) {
+            norm += value * value;
+        }
+        if( norm > 0 ) {
+            final float scale = (float)( 1.0 / Math.sqrt( norm ) );
+            for( int i = 0; i < dimensions; ++i ) {
+                result[i] *= scale;
+            }
+        }
+        return result;
+    }
+
+    private void add( float[] vector, int hash ) {
+        // the lowest bit is the sign, so that the features cancel out on average
+        vector[ Math.floorMod( hash >>> 1, dimensions ) ] += ( hash & 1 ) == 0 ? 1f : -1f;
+    }
+
+    /**
+     * Finalizer of murmur3, spreads the bits of the hash
+     */
+    private static int mix( int hash ) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
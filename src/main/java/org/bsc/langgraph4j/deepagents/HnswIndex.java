@@ -0,0 +1,823 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-process approximate nearest neighbour index based on Hierarchical Navigable Small World graphs
+ * (Malkov and Yashunin, 2016). Vectors are normalized, so the similarity is the cosine similarity.
+ * <p>
+ * Inserts are thread safe and can run concurrently with each other and with the searches:
+ * a node is fully built before being linked and the neighbour lists are replaced (copy on write) under the lock of their node.
+ * <p>
+ * With a {@link Quantization} other than {@code NONE} only the quantized codes are kept on the heap: the graph is navigated
+ * comparing the codes, then the candidates are reranked with the full precision vectors, stored in a memory mapped file.
+ * The graph itself is built with the full precision vectors.
+ *
+ * @param <T> type of the item associated to each vector
+ */
+final class HnswIndex<T> implements Closeable {
+
+    enum Quantization {
+        /** full precision vectors on the heap */
+        NONE( 1 ),
+        /** one byte per component, 4x smaller than the full precision vectors */
+        INT8( 1 ),
+        /** one bit per component, 32x smaller than the full precision vectors */
+        BINARY( 4 );
+
+        // the candidate list is widened by this factor, to compensate for the coarser scores before reranking
+        final int oversampling;
+
+        Quantization( int oversampling ) {
+            this.oversampling = oversampling;
+        }
+    }
+
+    /**
+     * @param m maximum number of links of a node on the upper layers, twice as many on the bottom layer
+     * @param efConstruction size of the candidate list while inserting, higher values give a better graph and slower inserts
+     * @param efSearch default size of the candidate list while searching, higher values give a better recall and slower searches.
+     *                 With quantized vectors, the candidates reranked with the full precision vectors are
+     *                 efSearch times the oversampling of the quantization
+     * @param quantization encoding of the vectors kept on the heap
+     * @param storageDirectory directory of the full precision vectors file when quantized, null for the temporary directory
+     */
+    record Options( int m, int efConstruction, int efSearch, Quantization quantization, Path storageDirectory ) {
+
+        static final Options DEFAULT = builder().build();
+
+        Options {
+            if( m < 2 ) {
+                throw new IllegalArgumentException( "m must be at least 2" );
+            }
+            if( efConstruction < m ) {
+                throw new IllegalArgumentException( "efConstruction must be at least m" );
+            }
+            if( efSearch <= 0 ) {
+                throw new IllegalArgumentException( "efSearch must be greater than zero" );
+            }
+            requireNonNull( quantization, "quantization cannot be null" );
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        static class Builder {
+            private int m = 16;
+            private int efConstruction = 200;
+            private int efSearch = 64;
+            private Quantization quantization = Quantization.NONE;
+            private Path storageDirectory;
+
+            Builder m( int m ) {
+                this.m = m;
+                return this;
+            }
+
+            Builder efConstruction( int efConstruction ) {
+                this.efConstruction = efConstruction;
+                return this;
+            }
+
+            Builder efSearch( int efSearch ) {
+                this.efSearch = efSearch;
+                return this;
+            }
+
+            Builder quantization( Quantization quantization ) {
+                this.quantization = quantization;
+                return this;
+            }
+
+            Builder storageDirectory( Path storageDirectory ) {
+                this.storageDirectory = storageDirectory;
+                return this;
+            }
+
+            Options build() {
+                return new Options( m, efConstruction, efSearch, quantization, storageDirectory );
+            }
+        }
+    }
+
+    record Result<T>( T item, float score ) {}
+
+    /**
+     * Neighbours of a node on a layer, sorted by similarity (best first)
+     */
+    private record Links( int[] ids, float[] scores ) {
+        static final Links EMPTY = new Links( new int[0], new float[0] );
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * @return a copy with the given neighbour inserted at its position
+         */
+        Links insert( int id, float score ) {
+            final int size = ids.length;
+            int position = size;
+            while( position > 0 && scores[ position - 1 ] < score ) {
+                --position;
+            }
+            final int[] newIds = new int[ size + 1 ];
+            final float[] newScores = new float[ size + 1 ];
+            System.arraycopy( ids, 0, newIds, 0, position );
+            System.arraycopy( scores, 0, newScores, 0, position );
+            newIds[ position ] = id;
+            newScores[ position ] = score;
+            System.arraycopy( ids, position, newIds, position + 1, size - position );
+            System.arraycopy( scores, position, newScores, position + 1, size - position );
+            return new Links( newIds, newScores );
+        }
+
+        /**
+         * @return a copy without the neighbour at the given position
+         */
+        Links remove( int position ) {
+            final int size = ids.length;
+            final int[] newIds = new int[ size - 1 ];
+            final float[] newScores = new float[ size - 1 ];
+            System.arraycopy( ids, 0, newIds, 0, position );
+            System.arraycopy( scores, 0, newScores, 0, position );
+            System.arraycopy( ids, position + 1, newIds, position, size - position - 1 );
+            System.arraycopy( scores, position + 1, newScores, position, size - position - 1 );
+            return new Links( newIds, newScores );
+        }
+    }
+    private static final VectorKernels KERNELS = VectorKernels.INSTANCE;
+    // below this size an exhaustive scan is as fast as the graph traversal, and exact
+    static final int EXACT_SEARCH_THRESHOLD = 2048;
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << ( 31 - PAGE_BITS );
+
+    private static final class Node<T> {
+        final int id;
+        // full precision vector, null when quantized
+        final float[] vector;
+        // quantized code, null when not quantized
+        final Object code;
+        final T item;
+        // neighbour ids per layer, replaced as a whole under the node lock
+        final AtomicReferenceArray<Links> links;
+
+        Node( int id, float[] vector, Object code, T item, int level ) {
+            this.id = id;
+            this.vector = vector;
+            this.code = code;
+            this.item = item;
+            this.links = new AtomicReferenceArray<>( level + 1 );
+            for( int i = 0; i <= level; ++i ) {
+                links.set( i, Links.EMPTY );
+            }
+        }
+
+        int level() {
+            return links.length() - 1;
+        }
+    }
+
+    /**
+     * Marks the nodes visited by a search, cleared in constant time by bumping the epoch
+     */
+    static final class Visited {
+        int[] marks = new int[ PAGE_SIZE ];
+        int epoch;
+
+        void reset( int capacity ) {
+            if( marks.length < capacity ) {
+                marks = new int[ Math.max( capacity, marks.length * 2 ) ];
+                epoch = 0;
+            }
+            if( ++epoch == Integer.MAX_VALUE ) {
+                Arrays.fill( marks, 0 );
+                epoch = 1;
+            }
+        }
+
+        boolean add( int id ) {
+            if( id >= marks.length ) {
+                // node inserted concurrently after the reset
+                marks = Arrays.copyOf( marks, Math.max( id + 1, marks.length * 2 ) );
+            }
+            if( marks[id] == epoch ) {
+                return false;
+            }
+            marks[id] = epoch;
+            return true;
+        }
+    }
+
+    /**
+     * Similarity of a node with the vector being searched
+     */
+    @FunctionalInterface
+    private interface NodeScorer<T> {
+        float score( Node<T> node );
+    }
+
+    private final int dimensions;
+    private final Options options;
+    private final Quantizer quantizer;
+    private final VectorFile vectors;
+    private final double levelMultiplier;
+    private final AtomicReferenceArray<Node<T>[]> pages = new AtomicReferenceArray<>( MAX_PAGES );
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Object entryLock = new Object();
+    private volatile Node<T> entryPoint;
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial( Visited::new );
+
+    HnswIndex( int dimensions, Options options ) {
+        if( dimensions <= 0 ) {
+            throw new IllegalArgumentException( "dimensions must be greater than zero" );
+        }
+        this.dimensions = dimensions;
+        this.options = requireNonNull( options, "options cannot be null" );
+        this.levelMultiplier = 1.0 / Math.log( options.m() );
+        if( options.quantization() == Quantization.NONE ) {
+            this.quantizer = null;
+            this.vectors = null;
+        }
+        else {
+            this.quantizer = Quantizer.of( options.quantization(), dimensions );
+            try {
+                this.vectors = VectorFile.createTemp( options.storageDirectory(), dimensions );
+            }
+            catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    Options options() {
+        return options;
+    }
+
+    /**
+     * @return number of items completely inserted
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * @return number of ids assigned, the nodes of a completely built index have ids in [0, count)
+     */
+    int count() {
+        return nextId.get();
+    }
+
+    /**
+     * @return id of the entry point of the graph, -1 if empty
+     */
+    int entryPointId() {
+        final var entry = entryPoint;
+        return ( entry != null ) ? entry.id : -1;
+    }
+
+    int level( int id ) {
+        return node( id ).level();
+    }
+
+    /**
+     * @return ids of the neighbours of the node on the given layer, best first
+     */
+    int[] links( int id, int layer ) {
+        return node( id ).links.get( layer ).ids();
+    }
+
+    /**
+     * @return the normalized full precision vector of the node
+     */
+    float[] normalizedVector( int id ) {
+        final var node = node( id );
+        return ( node.vector != null ) ? node.vector.clone() : vectors.get( id, new float[ dimensions ] );
+    }
+
+    T item( int id ) {
+        return node( id ).item;
+    }
+
+    /**
+     * @return estimated heap retained by the nodes: vectors or codes, neighbour lists and node objects.
+     * The items and the full precision vectors on disk are not counted.
+     */
+    long memoryBytes() {
+        long result = 0;
+        final int count = nextId.get();
+        for( int id = 0; id < count; ++id ) {
+            final var node = nodeOrNull( id );
+            if( node == null ) {
+                continue;
+            }
+            // node object and links array
+            result += 32 + 16 + 4L * node.links.length();
+            result += ( node.vector != null ) ? 16 + 4L * dimensions : quantizer.bytes( node.code );
+            for( int layer = 0; layer < node.links.length(); ++layer ) {
+                // links record and its two arrays
+                result += 16 + 2 * ( 16 + 4L * node.links.get( layer ).size() );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inserts a vector and its item
+     *
+     * @return the id of the new node
+     */
+    int add( float[] vector, T item ) {
+        final var normalized = normalize( vector );
+        final int id = nextId.getAndIncrement();
+        final int level = (int)( -Math.log( 1.0 - ThreadLocalRandom.current().nextDouble() ) * levelMultiplier );
+        final Node<T> node;
+        if( quantizer == null ) {
+            node = new Node<>( id, normalized, null, item, level );
+        }
+        else {
+            vectors.put( id, normalized );
+            node = new Node<>( id, null, quantizer.encode( normalized ), item, level );
+        }
+        store( node );
+        // the graph is built with the full precision vectors
+        final NodeScorer<T> scorer = n -> score( normalized, n );
+
+        var entry = entryPoint;
+        if( entry == null ) {
+            synchronized( entryLock ) {
+                entry = entryPoint;
+                if( entry == null ) {
+                    entryPoint = node;
+                    size.incrementAndGet();
+                    return id;
+                }
+            }
+        }
+
+        var current = greedySearch( scorer, entry, level );
+
+        for( int layer = Math.min( level, entry.level() ); layer >= 0; --layer ) {
+            final var candidates = searchLayer( scorer, current, options.efConstruction(), layer, null );
+            final int maxLinks = maxLinks( layer );
+            final var neighbours = selectNeighbours( candidates, maxLinks );
+
+            synchronized( node ) {
+                node.links.set( layer, neighbours );
+            }
+            for( int i = 0; i < neighbours.size(); ++i ) {
+                link( node( neighbours.ids()[i] ), id, neighbours.scores()[i], layer, maxLinks );
+            }
+            current = node( candidates.topId() );
+        }
+
+        if( level > entry.level() ) {
+            synchronized( entryLock ) {
+                if( level > entryPoint.level() ) {
+                    entryPoint = node;
+                }
+            }
+        }
+        size.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * @return the k items most similar to the query, best first
+     */
+    List<Result<T>> search( float[] query, int k ) {
+        return search( query, k, options.efSearch() );
+    }
+
+    List<Result<T>> search( float[] query, int k, int ef ) {
+        return search( query, k, ef, null );
+    }
+
+    /**
+     * @param accept ids of the nodes that can be returned, null to accept all of them.
+     *               The rejected nodes are still traversed, so the graph stays connected.
+     */
+    List<Result<T>> search( float[] query, int k, int ef, IntPredicate accept ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        final var entry = entryPoint;
+        if( entry == null ) {
+            return List.of();
+        }
+        if( size.get() <= EXACT_SEARCH_THRESHOLD ) {
+            return exactSearch( query, k, accept );
+        }
+        final var normalized = normalize( query );
+
+        if( quantizer == null ) {
+            final NodeScorer<T> scorer = n -> score( normalized, n );
+            final var current = greedySearch( scorer, entry, 0 );
+            return results( searchLayer( scorer, current, Math.max( ef, k ), 0, accept ), k );
+        }
+
+        final var code = quantizer.encode( normalized );
+        final NodeScorer<T> scorer = n -> quantizer.score( code, n.code );
+        final var current = greedySearch( scorer, entry, 0 );
+        final var candidates = searchLayer( scorer, current, Math.max( ef, k ) * options.quantization().oversampling, 0, accept );
+
+        // reranks the candidates with the full precision vectors
+        final var results = new ScoreQueue( k + 1, false );
+        while( candidates.size() > 0 ) {
+            final int id = candidates.topId();
+            candidates.pop();
+            final float s = vectors.dot( normalized, id );
+            if( results.size() < k || s > results.topScore() ) {
+                results.push( id, s );
+                if( results.size() > k ) {
+                    results.pop();
+                }
+            }
+        }
+        return results( results, k );
+    }
+
+    /**
+     * Exhaustive search, comparing the query with every vector
+     */
+    List<Result<T>> exactSearch( float[] query, int k ) {
+        return exactSearch( query, k, (IntPredicate)null );
+    }
+
+    /**
+     * Exhaustive search of the given ids only, for the filters too selective for the graph
+     */
+    List<Result<T>> exactSearch( float[] query, int k, BitSet ids ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        final var normalized = normalize( query );
+        final var results = new ScoreQueue( k + 1, false );
+        final int count = nextId.get();
+        for( int id = ids.nextSetBit( 0 ); id >= 0 && id < count; id = ids.nextSetBit( id + 1 ) ) {
+            final var node = nodeOrNull( id );
+            if( node == null ) {
+                continue;
+            }
+            final float s = score( normalized, node );
+            if( results.size() < k || s > results.topScore() ) {
+                results.push( id, s );
+                if( results.size() > k ) {
+                    results.pop();
+                }
+            }
+        }
+        return results( results, k );
+    }
+
+    private List<Result<T>> exactSearch( float[] query, int k, IntPredicate accept ) {
+        if( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be greater than zero" );
+        }
+        final var normalized = normalize( query );
+        final var results = new ScoreQueue( k + 1, false );
+        final int count = nextId.get();
+        for( int id = 0; id < count; ++id ) {
+            final var node = nodeOrNull( id );
+            if( node == null || ( accept != null && !accept.test( id ) ) ) {
+                continue;
+            }
+            final float s = score( normalized, node );
+            if( results.size() < k || s > results.topScore() ) {
+                results.push( id, s );
+                if( results.size() > k ) {
+                    results.pop();
+                }
+            }
+        }
+        return results( results, k );
+    }
+
+    private List<Result<T>> results( ScoreQueue results, int k ) {
+        while( results.size() > k ) {
+            results.pop();
+        }
+        final var output = new ArrayList<Result<T>>( results.size() );
+        while( results.size() > 0 ) {
+            output.add( new Result<>( node( results.topId() ).item, results.topScore() ) );
+            results.pop();
+        }
+        // the queue pops the worst result first
+        Collections.reverse( output );
+        return output;
+    }
+
+    /**
+     * Descends the layers above the given one, moving to the closest neighbour until no neighbour is closer
+     */
+    private Node<T> greedySearch( NodeScorer<T> scorer, Node<T> entry, int toLayer ) {
+        var current = entry;
+        float currentScore = scorer.score( current );
+        for( int layer = entry.level(); layer > toLayer; --layer ) {
+            boolean changed = true;
+            while( changed ) {
+                changed = false;
+                for( int neighbour : current.links.get( layer ).ids() ) {
+                    final var candidate = node( neighbour );
+                    final float s = scorer.score( candidate );
+                    if( s > currentScore ) {
+                        current = candidate;
+                        currentScore = s;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Beam search of the given layer
+     *
+     * @param accept ids of the nodes that can be returned, null to accept all of them
+     * @return the best {@code ef} nodes found, in a queue where the worst is on top
+     */
+    private ScoreQueue searchLayer( NodeScorer<T> scorer, Node<T> entry, int ef, int layer, IntPredicate accept ) {
+        final var seen = visited.get();
+        seen.reset( nextId.get() );
+
+        final var candidates = new ScoreQueue( ef * 2, true );
+        final var results = new ScoreQueue( ef + 1, false );
+
+        final float entryScore = scorer.score( entry );
+        seen.add( entry.id );
+        candidates.push( entry.id, entryScore );
+        if( accept == null || accept.test( entry.id ) ) {
+            results.push( entry.id, entryScore );
+        }
+
+        while( candidates.size() > 0 ) {
+            final float candidateScore = candidates.topScore();
+            final int candidate = candidates.topId();
+            candidates.pop();
+            if( results.size() >= ef && candidateScore < results.topScore() ) {
+                break;
+            }
+            for( int neighbour : node( candidate ).links.get( layer ).ids() ) {
+                if( !seen.add( neighbour ) ) {
+                    continue;
+                }
+                final float s = scorer.score( node( neighbour ) );
+                if( results.size() < ef || s > results.topScore() ) {
+                    candidates.push( neighbour, s );
+                    if( accept == null || accept.test( neighbour ) ) {
+                        results.push( neighbour, s );
+                        if( results.size() > ef ) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Heuristic selection (algorithm 4 of the paper): a candidate is kept only if it is closer to the base node
+     * than to any neighbour already selected, so the links spread in different directions.
+     */
+    private Links selectNeighbours( ScoreQueue candidates, int maxLinks ) {
+        // the queue pops the worst first, so the sorted arrays are filled from the end
+        final int count = candidates.size();
+        final int[] ids = new int[ count ];
+        final float[] scores = new float[ count ];
+        for( int i = count - 1; i >= 0; --i ) {
+            ids[i] = candidates.topId();
+            scores[i] = candidates.topScore();
+            candidates.pop();
+        }
+        // keep the best candidate on top of the queue for the next layer
+        candidates.push( ids[0], scores[0] );
+
+        final int[] selected = new int[ Math.min( count, maxLinks ) ];
+        final float[] selectedScores = new float[ selected.length ];
+        final float[] scratch = ( vectors != null ) ? new float[ dimensions ] : null;
+        int size = 0;
+        for( int i = 0; i < count && size < selected.length; ++i ) {
+            if( isDiverse( vector( node( ids[i] ), scratch ), scores[i], selected, size ) ) {
+                selected[ size ] = ids[i];
+                selectedScores[ size++ ] = scores[i];
+            }
+        }
+        return new Links( Arrays.copyOf( selected, size ), Arrays.copyOf( selectedScores, size ) );
+    }
+
+    /**
+     * @return true if the candidate is closer to the base node (score) than to any of the given neighbours
+     */
+    private boolean isDiverse( float[] candidate, float score, int[] neighbours, int count ) {
+        for( int j = 0; j < count; ++j ) {
+            if( score( candidate, node( neighbours[j] ) ) > score ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a back link to the given node. When the links exceed the maximum, the worst neighbour that
+     * fails the diversity check is removed, or the worst neighbour if all of them pass it.
+     */
+    private void link( Node<T> node, int id, float score, int layer, int maxLinks ) {
+        synchronized( node ) {
+            final var links = node.links.get( layer ).insert( id, score );
+            if( links.size() <= maxLinks ) {
+                node.links.set( layer, links );
+                return;
+            }
+            final float[] scratch = ( vectors != null ) ? new float[ dimensions ] : null;
+            for( int i = links.size() - 1; i > 0; --i ) {
+                if( !isDiverse( vector( node( links.ids()[i] ), scratch ), links.scores()[i], links.ids(), i ) ) {
+                    node.links.set( layer, links.remove( i ) );
+                    return;
+                }
+            }
+            node.links.set( layer, links.remove( links.size() - 1 ) );
+        }
+    }
+
+    private int maxLinks( int layer ) {
+        return ( layer == 0 ) ? options.m() * 2 : options.m();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void store( Node<T> node ) {
+        final int page = node.id >>> PAGE_BITS;
+        if( page >= MAX_PAGES ) {
+            throw new IllegalStateException( "index is full" );
+        }
+        var nodes = pages.get( page );
+        if( nodes == null ) {
+            pages.compareAndSet( page, null, (Node<T>[])new Node[ PAGE_SIZE ] );
+            nodes = pages.get( page );
+        }
+        nodes[ node.id & ( PAGE_SIZE - 1 ) ] = node;
+    }
+
+    private Node<T> node( int id ) {
+        return pages.get( id >>> PAGE_BITS )[ id & ( PAGE_SIZE - 1 ) ];
+    }
+
+    /**
+     * @return the node, or null if its insert has just started
+     */
+    private Node<T> nodeOrNull( int id ) {
+        final var nodes = pages.get( id >>> PAGE_BITS );
+        return ( nodes != null ) ? nodes[ id & ( PAGE_SIZE - 1 ) ] : null;
+    }
+
+    private float[] normalize( float[] vector ) {
+        return normalize( vector, dimensions );
+    }
+
+    /**
+     * @return a copy of the vector scaled to unit length, or the zero vector
+     */
+    static float[] normalize( float[] vector, int dimensions ) {
+        requireNonNull( vector, "vector cannot be null" );
+        if( vector.length != dimensions ) {
+            throw new IllegalArgumentException( format( "vector has %d dimensions, expected %d", vector.length, dimensions ) );
+        }
+        final double norm = KERNELS.dot( vector, vector );
+        final var result = new float[ dimensions ];
+        if( norm == 0 ) {
+            return result;
+        }
+        final float scale = (float)( 1.0 / Math.sqrt( norm ) );
+        for( int i = 0; i < dimensions; ++i ) {
+            result[i] = vector[i] * scale;
+        }
+        return result;
+    }
+
+    /**
+     * @return full precision similarity of the given normalized vector and the node
+     */
+    private float score( float[] vector, Node<T> node ) {
+        return ( node.vector != null ) ? KERNELS.dot( vector, node.vector ) : vectors.dot( vector, node.id );
+    }
+
+    /**
+     * @return full precision vector of the node, read into the given array when stored on disk
+     */
+    private float[] vector( Node<T> node, float[] scratch ) {
+        return ( node.vector != null ) ? node.vector : vectors.get( node.id, scratch );
+    }
+
+    /**
+     * Releases the full precision vectors file, the index must not be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        if( vectors != null ) {
+            vectors.close();
+        }
+    }
+
+    /**
+     * Binary heap of (id, score) pairs packed in a long, the score in the upper bits so that longs compare as scores
+     */
+    static final class ScoreQueue {
+        private long[] heap;
+        private int size;
+        private final boolean maxOnTop;
+
+        ScoreQueue( int capacity, boolean maxOnTop ) {
+            this.heap = new long[ Math.max( capacity, 8 ) ];
+            this.maxOnTop = maxOnTop;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void push( int id, float score ) {
+            if( size == heap.length ) {
+                heap = Arrays.copyOf( heap, size * 2 );
+            }
+            long value = encode( id, score );
+            int i = size++;
+            while( i > 0 ) {
+                final int parent = ( i - 1 ) >>> 1;
+                if( !above( value, heap[parent] ) ) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        void pop() {
+            final long value = heap[ --size ];
+            int i = 0;
+            while( true ) {
+                int child = 2 * i + 1;
+                if( child >= size ) {
+                    break;
+                }
+                if( child + 1 < size && above( heap[ child + 1 ], heap[child] ) ) {
+                    ++child;
+                }
+                if( !above( heap[child], value ) ) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = value;
+        }
+
+        int topId() {
+            return (int)heap[0];
+        }
+
+        float topScore() {
+            return decode( heap[0] );
+        }
+
+        private boolean above( long a, long b ) {
+            return maxOnTop ? a > b : a < b;
+        }
+
+        private static long encode( int id, float score ) {
+            int bits = Float.floatToIntBits( score );
+            // makes the float bits sortable as signed ints
+            bits ^= ( bits >> 31 ) & 0x7fffffff;
+            return ( (long)bits << 32 ) | ( id & 0xffffffffL );
+        }
+
+        private static float decode( long value ) {
+            int bits = (int)( value >> 32 );
+            bits ^= ( bits >> 31 ) & 0x7fffffff;
+            return Float.intBitsToFloat( bits );
+        }
+    }
+}
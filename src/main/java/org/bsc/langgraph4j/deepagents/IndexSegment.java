@@ -0,0 +1,445 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable HNSW graph stored in a file, searched in place through memory mapped buffers:
+ * opening a segment only maps the file, and a search reads the vectors and the links it visits and decodes the items it returns.
+ * <p>
+ * Format (version 1, little endian), every section aligned to 64 bytes:
+ * <pre>
+ * header   magic "DAIX", version, dimensions, count, entry point, reserved,
+ *          offsets of the vectors, links, items and nodes sections, file length
+ * vectors  count x dimensions floats, normalized
+ * links    per node: level, then per layer from 0 to level: number of neighbours, neighbour ids
+ * items    encoded items, see {@link ItemCodec}
+ * nodes    per node: position of its links (in ints), position of its item (in bytes); then the end of the items
+ * </pre>
+ * Each section must fit a mapped buffer (2GB).
+ *
+ * @param <T> type of the item associated to each vector
+ */
+final class IndexSegment<T> {
+
+    static final int MAGIC = 0x44414958; // "DAIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int ALIGNMENT = 64;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private static final VectorKernels KERNELS = VectorKernels.INSTANCE;
+    private static final ThreadLocal<HnswIndex.Visited> VISITED = ThreadLocal.withInitial( HnswIndex.Visited::new );
+
+    /**
+     * Binary encoding of the items stored with the vectors
+     */
+    interface ItemCodec<T> {
+
+        byte[] encode( T item );
+
+        /**
+         * @param buffer the encoded item, from its position to its limit
+         */
+        T decode( ByteBuffer buffer );
+    }
+
+    private final Path path;
+    private final ItemCodec<T> codec;
+    private final int dimensions;
+    private final int count;
+    private final int entryPoint;
+    private final FloatBuffer vectors;
+    private final IntBuffer links;
+    private final ByteBuffer items;
+    private final IntBuffer nodes;
+
+    private IndexSegment( Path path, ItemCodec<T> codec, int dimensions, int count, int entryPoint,
+                          FloatBuffer vectors, IntBuffer links, ByteBuffer items, IntBuffer nodes ) {
+        this.path = path;
+        this.codec = codec;
+        this.dimensions = dimensions;
+        this.count = count;
+        this.entryPoint = entryPoint;
+        this.vectors = vectors;
+        this.links = links;
+        this.items = items;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Writes the given index, that must be completely built and not modified while writing.
+     * The file is written aside and moved in place, so it is either complete or missing.
+     */
+    static <T> void write( Path file, HnswIndex<T> index, ItemCodec<T> codec, boolean sync ) throws IOException {
+        requireNonNull( file, "file cannot be null" );
+        requireNonNull( index, "index cannot be null" );
+        requireNonNull( codec, "codec cannot be null" );
+        final int count = index.count();
+        final int dimensions = index.dimensions();
+        if( (long)count * dimensions * Float.BYTES > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "vectors exceed the maximum section size" );
+        }
+
+        final var temp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try( var channel = java.nio.channels.FileChannel.open( temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+            final var output = new Output( channel );
+
+            final long vectorsOffset = output.align();
+            for( int id = 0; id < count; ++id ) {
+                for( float value : index.normalizedVector( id ) ) {
+                    output.buffer( Float.BYTES ).putFloat( value );
+                }
+            }
+
+            final long linksOffset = output.align();
+            final int[] linkPositions = new int[ count ];
+            long linkPosition = 0;
+            for( int id = 0; id < count; ++id ) {
+                linkPositions[id] = (int)linkPosition;
+                final int level = index.level( id );
+                output.buffer( Integer.BYTES ).putInt( level );
+                ++linkPosition;
+                for( int layer = 0; layer <= level; ++layer ) {
+                    final int[] ids = index.links( id, layer );
+                    output.buffer( Integer.BYTES ).putInt( ids.length );
+                    for( int neighbour : ids ) {
+                        output.buffer( Integer.BYTES ).putInt( neighbour );
+                    }
+                    linkPosition += 1 + ids.length;
+                }
+                checkSectionSize( linkPosition * Integer.BYTES, "links" );
+            }
+
+            final long itemsOffset = output.align();
+            final int[] itemPositions = new int[ count + 1 ];
+            long itemPosition = 0;
+            for( int id = 0; id < count; ++id ) {
+                itemPositions[id] = (int)itemPosition;
+                final byte[] bytes = codec.encode( index.item( id ) );
+                output.write( bytes );
+                itemPosition += bytes.length;
+                checkSectionSize( itemPosition, "items" );
+            }
+            itemPositions[ count ] = (int)itemPosition;
+
+            final long nodesOffset = output.align();
+            for( int id = 0; id < count; ++id ) {
+                output.buffer( 2 * Integer.BYTES ).putInt( linkPositions[id] ).putInt( itemPositions[id] );
+            }
+            output.buffer( Integer.BYTES ).putInt( itemPositions[ count ] );
+            final long length = output.align();
+            output.flush();
+
+            final var header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN )
+                    .putInt( MAGIC )
+                    .putInt( VERSION )
+                    .putInt( dimensions )
+                    .putInt( count )
+                    .putInt( index.entryPointId() )
+                    .putInt( 0 )
+                    .putLong( vectorsOffset )
+                    .putLong( linksOffset )
+                    .putLong( itemsOffset )
+                    .putLong( nodesOffset )
+                    .putLong( length )
+                    .flip();
+            long position = 0;
+            while( header.hasRemaining() ) {
+                position += channel.write( header, position );
+            }
+            if( sync ) {
+                channel.force( true );
+            }
+        }
+        Files.move( temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    private static void checkSectionSize( long size, String section ) {
+        if( size > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( format( "%s exceed the maximum section size", section ) );
+        }
+    }
+
+    /**
+     * Maps the given segment file
+     */
+    static <T> IndexSegment<T> open( Path file, ItemCodec<T> codec ) throws IOException {
+        requireNonNull( codec, "codec cannot be null" );
+        try( var channel = java.nio.channels.FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final long size = channel.size();
+            if( size < HEADER_SIZE ) {
+                throw new IOException( format( "%s is not an index segment", file ) );
+            }
+            final var header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            while( header.hasRemaining() ) {
+                if( channel.read( header, header.position() ) < 0 ) {
+                    throw new IOException( format( "%s is truncated", file ) );
+                }
+            }
+            header.flip();
+            if( header.getInt() != MAGIC ) {
+                throw new IOException( format( "%s is not an index segment", file ) );
+            }
+            final int version = header.getInt();
+            if( version != VERSION ) {
+                throw new IOException( format( "%s has unsupported version %d", file, version ) );
+            }
+            final int dimensions = header.getInt();
+            final int count = header.getInt();
+            final int entryPoint = header.getInt();
+            header.getInt();
+            final long vectorsOffset = header.getLong();
+            final long linksOffset = header.getLong();
+            final long itemsOffset = header.getLong();
+            final long nodesOffset = header.getLong();
+            final long length = header.getLong();
+            if( length != size ) {
+                throw new IOException( format( "%s is truncated", file ) );
+            }
+            // the mappings stay valid after the channel is closed
+            return new IndexSegment<>( file, codec, dimensions, count, entryPoint,
+                    map( channel, vectorsOffset, linksOffset ).asFloatBuffer(),
+                    map( channel, linksOffset, itemsOffset ).asIntBuffer(),
+                    map( channel, itemsOffset, nodesOffset ),
+                    map( channel, nodesOffset, length ).asIntBuffer() );
+        }
+    }
+
+    private static ByteBuffer map( java.nio.channels.FileChannel channel, long from, long to ) throws IOException {
+        return channel.map( java.nio.channels.FileChannel.MapMode.READ_ONLY, from, to - from ).order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return a copy of the normalized vector of the node
+     */
+    float[] vector( int id ) {
+        final var result = new float[ dimensions ];
+        vectors.get( id * dimensions, result );
+        return result;
+    }
+
+    T item( int id ) {
+        final int from = nodes.get( 2 * id + 1 );
+        // the end of the last item follows the node table
+        final int to = nodes.get( ( id + 1 < count ) ? 2 * id + 3 : 2 * count );
+        return codec.decode( items.slice( from, to - from ).order( ByteOrder.LITTLE_ENDIAN ) );
+    }
+
+    /**
+     * @param query normalized query
+     * @param accept ids of the nodes that can be returned, null to accept all of them.
+     *               The rejected nodes are still traversed, so the graph stays connected.
+     * @return the k items most similar to the query, best first
+     */
+    List<HnswIndex.Result<T>> search( float[] query, int k, int ef, IntPredicate accept ) {
+        if( query.length != dimensions ) {
+            throw new IllegalArgumentException( format( "vector has %d dimensions, expected %d", query.length, dimensions ) );
+        }
+        if( count == 0 ) {
+            return List.of();
+        }
+        if( count <= HnswIndex.EXACT_SEARCH_THRESHOLD ) {
+            final var results = new HnswIndex.ScoreQueue( k + 1, false );
+            for( int id = 0; id < count; ++id ) {
+                if( accept == null || accept.test( id ) ) {
+                    offer( results, id, score( query, id ), k );
+                }
+            }
+            return results( results, k );
+        }
+
+        // descends the upper layers greedily
+        int current = entryPoint;
+        float currentScore = score( query, current );
+        for( int layer = level( entryPoint ); layer > 0; --layer ) {
+            boolean changed = true;
+            while( changed ) {
+                changed = false;
+                final int position = linksPosition( current, layer );
+                for( int i = 1, size = links.get( position ); i <= size; ++i ) {
+                    final int neighbour = links.get( position + i );
+                    final float s = score( query, neighbour );
+                    if( s > currentScore ) {
+                        current = neighbour;
+                        currentScore = s;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // beam search of the bottom layer
+        ef = Math.max( ef, k );
+        final var seen = VISITED.get();
+        seen.reset( count );
+        final var candidates = new HnswIndex.ScoreQueue( ef * 2, true );
+        final var results = new HnswIndex.ScoreQueue( ef + 1, false );
+        seen.add( current );
+        candidates.push( current, currentScore );
+        if( accept == null || accept.test( current ) ) {
+            results.push( current, currentScore );
+        }
+        while( candidates.size() > 0 ) {
+            final float candidateScore = candidates.topScore();
+            final int candidate = candidates.topId();
+            candidates.pop();
+            if( results.size() >= ef && candidateScore < results.topScore() ) {
+                break;
+            }
+            final int position = linksPosition( candidate, 0 );
+            for( int i = 1, size = links.get( position ); i <= size; ++i ) {
+                final int neighbour = links.get( position + i );
+                if( !seen.add( neighbour ) ) {
+                    continue;
+                }
+                final float s = score( query, neighbour );
+                if( results.size() < ef || s > results.topScore() ) {
+                    candidates.push( neighbour, s );
+                    if( accept == null || accept.test( neighbour ) ) {
+                        offer( results, neighbour, s, ef );
+                    }
+                }
+            }
+        }
+        return results( results, k );
+    }
+
+    /**
+     * Exhaustive search of the given ids only, for the filters too selective for the graph
+     *
+     * @param query normalized query
+     */
+    List<HnswIndex.Result<T>> exactSearch( float[] query, int k, BitSet ids ) {
+        if( query.length != dimensions ) {
+            throw new IllegalArgumentException( format( "vector has %d dimensions, expected %d", query.length, dimensions ) );
+        }
+        final var results = new HnswIndex.ScoreQueue( k + 1, false );
+        for( int id = ids.nextSetBit( 0 ); id >= 0 && id < count; id = ids.nextSetBit( id + 1 ) ) {
+            offer( results, id, score( query, id ), k );
+        }
+        return results( results, k );
+    }
+
+    private static void offer( HnswIndex.ScoreQueue results, int id, float score, int k ) {
+        if( results.size() < k || score > results.topScore() ) {
+            results.push( id, score );
+            if( results.size() > k ) {
+                results.pop();
+            }
+        }
+    }
+
+    private List<HnswIndex.Result<T>> results( HnswIndex.ScoreQueue results, int k ) {
+        while( results.size() > k ) {
+            results.pop();
+        }
+        final var output = new ArrayList<HnswIndex.Result<T>>( results.size() );
+        while( results.size() > 0 ) {
+            output.add( new HnswIndex.Result<>( item( results.topId() ), results.topScore() ) );
+            results.pop();
+        }
+        // the queue pops the worst result first
+        Collections.reverse( output );
+        return output;
+    }
+
+    private float score( float[] query, int id ) {
+        return KERNELS.dot( query, vectors, id * dimensions );
+    }
+
+    private int level( int id ) {
+        return links.get( nodes.get( 2 * id ) );
+    }
+
+    /**
+     * @return position of the neighbours count of the node on the given layer, followed by the neighbour ids
+     */
+    private int linksPosition( int id, int layer ) {
+        int position = nodes.get( 2 * id ) + 1;
+        for( int i = 0; i < layer; ++i ) {
+            position += 1 + links.get( position );
+        }
+        return position;
+    }
+
+    /**
+     * Buffered writer of little endian values
+     */
+    private static final class Output {
+        final java.nio.channels.FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect( WRITE_BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        long position = HEADER_SIZE;
+
+        Output( java.nio.channels.FileChannel channel ) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return the buffer, with room for the given number of bytes
+         */
+        ByteBuffer buffer( int bytes ) throws IOException {
+            if( buffer.remaining() < bytes ) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void write( byte[] bytes ) throws IOException {
+            int offset = 0;
+            while( offset < bytes.length ) {
+                final int length = Math.min( bytes.length - offset, buffer( 1 ).remaining() );
+                buffer.put( bytes, offset, length );
+                offset += length;
+            }
+        }
+
+        /**
+         * Pads to the alignment
+         *
+         * @return the aligned offset
+         */
+        long align() throws IOException {
+            final long offset = position + buffer.position();
+            final long aligned = ( offset + ALIGNMENT - 1 ) & -ALIGNMENT;
+            buffer( ALIGNMENT ).put( new byte[ (int)( aligned - offset ) ] );
+            return aligned;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while( buffer.hasRemaining() ) {
+                position += channel.write( buffer, position );
+            }
+            buffer.clear();
+        }
+    }
+}
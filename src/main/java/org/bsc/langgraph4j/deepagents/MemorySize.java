@@ -0,0 +1,99 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rough estimation (in bytes) of the heap retained by the state values,
+ * assuming a 64 bit JVM with compressed references and compact strings.
+ */
+final class MemorySize {
+
+    // object header, fields and backing array header
+    static final long STRING_OVERHEAD = 40;
+    // message object, metadata map, media and tool call lists
+    static final long MESSAGE_OVERHEAD = 160;
+    // map node or list slot, plus the referencing object when it is not a string
+    static final long ENTRY_OVERHEAD = 32;
+
+    // chars checked to guess whether a string is latin-1 (one byte per char) or utf-16
+    private static final int CODER_SAMPLE = 64;
+
+    private MemorySize() {}
+
+    static long of( String text ) {
+        if( text == null ) {
+            return 0;
+        }
+        final int sample = Math.min( text.length(), CODER_SAMPLE );
+        for( int i = 0; i < sample; ++i ) {
+            if( text.charAt(i) > 0xFF ) {
+                return STRING_OVERHEAD + 2L * text.length();
+            }
+        }
+        return STRING_OVERHEAD + text.length();
+    }
+
+    static long of( Message message ) {
+        long result = MESSAGE_OVERHEAD + of( message.getText() );
+        if( message instanceof AssistantMessage assistant && assistant.hasToolCalls() ) {
+            for( var toolCall : assistant.getToolCalls() ) {
+                result += ENTRY_OVERHEAD + of( toolCall.id() ) + of( toolCall.type() ) + of( toolCall.name() ) + of( toolCall.arguments() );
+            }
+        }
+        else if( message instanceof ToolResponseMessage toolResponse ) {
+            for( var response : toolResponse.getResponses() ) {
+                result += ENTRY_OVERHEAD + of( response.id() ) + of( response.name() ) + of( response.responseData() );
+            }
+        }
+        return result;
+    }
+
+    static long ofElement( Object element ) {
+        if( element instanceof Message message ) {
+            return ENTRY_OVERHEAD + of( message );
+        }
+        if( element instanceof String text ) {
+            return ENTRY_OVERHEAD + of( text );
+        }
+        return ENTRY_OVERHEAD;
+    }
+
+    static long ofFile( String path, String content ) {
+        return ENTRY_OVERHEAD + of( path ) + of( content );
+    }
+
+    static long ofMessages( List<?> messages ) {
+        if( messages instanceof MessageList list ) {
+            return list.retainedBytes();
+        }
+        long result = 0;
+        for( var message : messages ) {
+            result += ofElement( message );
+        }
+        return result;
+    }
+
+    static long ofFiles( Map<String,String> files ) {
+        if( files instanceof FileMap map ) {
+            return map.retainedBytes();
+        }
+        long result = 0;
+        for( var entry : files.entrySet() ) {
+            result += ofFile( entry.getKey(), entry.getValue() );
+        }
+        return result;
+    }
+
+    static long ofTodos( List<DeepAgent.ToDo> todos ) {
+        long result = 0;
+        for( var todo : todos ) {
+            result += ENTRY_OVERHEAD + of( todo.content() );
+        }
+        return result;
+    }
+}
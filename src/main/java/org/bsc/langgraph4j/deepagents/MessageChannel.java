@@ -0,0 +1,46 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.state.Channel;
+import org.bsc.langgraph4j.state.Reducer;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Decorates the messages channel to keep the estimated size of the messages, see {@link MessageList}
+ */
+class MessageChannel implements Channel<Object> {
+
+    private final Channel<Object> delegate;
+    private final SessionMemoryGuard guard;
+
+    @SuppressWarnings("unchecked")
+    MessageChannel( Channel<?> delegate, SessionMemoryGuard guard ) {
+        this.delegate = (Channel<Object>)delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public Optional<Reducer<Object>> getReducer() {
+        return delegate.getReducer();
+    }
+
+    @Override
+    public Optional<Supplier<Object>> getDefault() {
+        return delegate.getDefault();
+    }
+
+    @Override
+    public Object update(String key, Object oldValue, Object newValue) {
+        final var result = delegate.update( key, oldValue, newValue );
+        if( !(result instanceof List<?> messages) || result == oldValue ) {
+            return result;
+        }
+        final var list = MessageList.of( messages, oldValue );
+        if( guard != null ) {
+            guard.checkMessages( list );
+        }
+        return list;
+    }
+}
@@ -0,0 +1,79 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of the messages that keeps their estimated size, updated incrementally on append
+ */
+final class MessageList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    private final List<?> messages;
+    private final long retainedBytes;
+    // shared by the lists verified to only append messages to the same list
+    private final transient Object lineage;
+
+    private MessageList( List<?> messages, long retainedBytes, Object lineage ) {
+        this.messages = messages;
+        this.retainedBytes = retainedBytes;
+        this.lineage = lineage;
+    }
+
+    /**
+     * @param messages new messages list
+     * @param previous previous value of the channel, its size is reused for the messages in common
+     */
+    static MessageList of( List<?> messages, Object previous ) {
+        if( messages instanceof MessageList list ) {
+            return list;
+        }
+        if( !(previous instanceof MessageList list) ) {
+            return new MessageList( messages, MemorySize.ofMessages( messages ), new Object() );
+        }
+        // messages are usually appended, those in common are compared by reference and only the others are sized
+        int common = 0;
+        while( common < list.size() && common < messages.size() && list.get(common) == messages.get(common) ) {
+            ++common;
+        }
+        long bytes = list.retainedBytes;
+        for( int i = common; i < list.size(); ++i ) {
+            bytes -= MemorySize.ofElement( list.get(i) );
+        }
+        for( int i = common; i < messages.size(); ++i ) {
+            bytes += MemorySize.ofElement( messages.get(i) );
+        }
+        return new MessageList( messages, bytes, ( common == list.size() ) ? list.lineage : new Object() );
+    }
+
+    long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * @return true if this list has been derived from the given one by appending messages, as verified by
+     * reference when the lists have been built
+     */
+    boolean startsWith( MessageList prefix ) {
+        final int size = prefix.size();
+        return lineage == prefix.lineage && size <= size()
+                && ( size == 0 || get( size - 1 ) == prefix.get( size - 1 ) );
+    }
+
+    @Override
+    public Object get( int index ) {
+        return messages.get( index );
+    }
+
+    @Override
+    public int size() {
+        return messages.size();
+    }
+
+    // serialized as a plain list
+    private Object writeReplace() {
+        return new ArrayList<>( messages );
+    }
+}
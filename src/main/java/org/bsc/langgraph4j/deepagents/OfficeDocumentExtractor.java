@@ -0,0 +1,454 @@
+package org.bsc.langgraph4j.deepagents;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import static java.lang.String.format;
+
+/**
+ * Streaming text extraction of Office Open XML documents (.docx, .xlsx, .pptx).
+ * <p>
+ * The XML parts are read from the zip archive with a StAX parser, as the event model of Apache POI does,
+ * instead of building the object model of the whole document: the text is emitted paragraph by paragraph
+ * and row by row. The shared strings of a workbook are kept on the heap up to a budget, then spilled to a temporary file.
+ */
+final class OfficeDocumentExtractor {
+
+    // shared strings kept on the heap, in chars
+    static final long SHARED_STRINGS_HEAP_BUDGET = 1L << 23;
+
+    private static final XMLInputFactory XML = newInputFactory();
+
+    private OfficeDocumentExtractor() {}
+
+    private static XMLInputFactory newInputFactory() {
+        final var result = XMLInputFactory.newInstance();
+        // no DTD nor external entities
+        result.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+        result.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+        return result;
+    }
+
+    static void extract( Path file, Appendable output ) throws IOException {
+        try( var zip = new ZipFile( file.toFile() ) ) {
+            switch( DocumentExtractor.extension( file ) ) {
+                case "docx" -> extractDocument( zip, output );
+                case "xlsx" -> extractWorkbook( zip, output );
+                case "pptx" -> extractPresentation( zip, output );
+                default -> throw new IOException( format( "%s: unsupported document", file ) );
+            }
+        }
+        catch( XMLStreamException e ) {
+            throw new IOException( format( "%s: invalid document", file ), e );
+        }
+    }
+
+    /**
+     * Paragraphs of the body, one per line
+     */
+    private static void extractDocument( ZipFile zip, Appendable output ) throws IOException, XMLStreamException {
+        parse( zip, "word/document.xml", reader -> {
+            int runs = 0;
+            while( reader.hasNext() ) {
+                switch( reader.next() ) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        switch( reader.getLocalName() ) {
+                            case "r" -> ++runs;
+                            case "Fallback" -> skip( reader );
+                            case "t" -> { if( runs > 0 ) output.append( reader.getElementText() ); }
+                            case "tab" -> { if( runs > 0 ) output.append( '\t' ); }
+                            case "br", "cr" -> { if( runs > 0 ) output.append( '\n' ); }
+                            default -> {}
+                        }
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        switch( reader.getLocalName() ) {
+                            case "r" -> --runs;
+                            case "p" -> output.append( '\n' );
+                            default -> {}
+                        }
+                    }
+                    default -> {}
+                }
+            }
+        });
+    }
+
+    /**
+     * Sheets in workbook order, the cells of a row separated by tabs, one row per line
+     */
+    private static void extractWorkbook( ZipFile zip, Appendable output ) throws IOException, XMLStreamException {
+        final var workbook = "xl/workbook.xml";
+        final var relationships = relationships( zip, workbook );
+        final var sheets = new ArrayList<String[]>();
+        parse( zip, workbook, reader -> {
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals( "sheet" ) ) {
+                    sheets.add( new String[] { attribute( reader, "name" ), relationships.get( relationshipId( reader ) ) } );
+                }
+            }
+        });
+
+        try( var sharedStrings = new SharedStrings() ) {
+            if( zip.getEntry( "xl/sharedStrings.xml" ) != null ) {
+                parse( zip, "xl/sharedStrings.xml", reader -> {
+                    final var text = new StringBuilder();
+                    int phonetic = 0;
+                    while( reader.hasNext() ) {
+                        switch( reader.next() ) {
+                            case XMLStreamConstants.START_ELEMENT -> {
+                                switch( reader.getLocalName() ) {
+                                    case "si" -> text.setLength( 0 );
+                                    case "rPh" -> ++phonetic;
+                                    case "t" -> {
+                                        final var value = reader.getElementText();
+                                        if( phonetic == 0 ) {
+                                            text.append( value );
+                                        }
+                                    }
+                                    default -> {}
+                                }
+                            }
+                            case XMLStreamConstants.END_ELEMENT -> {
+                                switch( reader.getLocalName() ) {
+                                    case "si" -> sharedStrings.add( text.toString() );
+                                    case "rPh" -> --phonetic;
+                                    default -> {}
+                                }
+                            }
+                            default -> {}
+                        }
+                    }
+                });
+            }
+            sharedStrings.seal();
+
+            for( var sheet : sheets ) {
+                if( sheet[1] == null || zip.getEntry( sheet[1] ) == null ) {
+                    continue;
+                }
+                output.append( "Sheet: " ).append( sheet[0] ).append( '\n' );
+                parse( zip, sheet[1], reader -> extractSheet( reader, sharedStrings, output ) );
+                output.append( '\n' );
+            }
+        }
+    }
+
+    private static void extractSheet( XMLStreamReader reader, SharedStrings sharedStrings, Appendable output ) throws IOException, XMLStreamException {
+        final var row = new StringBuilder();
+        final var value = new StringBuilder();
+        String type = null;
+        boolean inValue = false;
+        while( reader.hasNext() ) {
+            switch( reader.next() ) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    switch( reader.getLocalName() ) {
+                        case "row" -> row.setLength( 0 );
+                        case "c" -> {
+                            type = attribute( reader, "t" );
+                            value.setLength( 0 );
+                        }
+                        // the value of a cell, or the text of an inline string
+                        case "v", "t" -> inValue = true;
+                        default -> {}
+                    }
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> {
+                    if( inValue ) {
+                        value.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    }
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    switch( reader.getLocalName() ) {
+                        case "v", "t" -> inValue = false;
+                        case "c" -> {
+                            if( !value.isEmpty() ) {
+                                if( "s".equals( type ) ) {
+                                    row.append( sharedStrings.get( sharedStringIndex( value ) ) );
+                                }
+                                else {
+                                    row.append( value );
+                                }
+                                row.append( '\t' );
+                            }
+                        }
+                        case "row" -> {
+                            final var text = row.toString().trim();
+                            if( !text.isEmpty() ) {
+                                output.append( text ).append( '\n' );
+                            }
+                        }
+                        default -> {}
+                    }
+                }
+                default -> {}
+            }
+        }
+    }
+
+    private static int sharedStringIndex( CharSequence value ) throws IOException {
+        try {
+            return Integer.parseInt( value.toString().trim() );
+        }
+        catch( NumberFormatException e ) {
+            throw new IOException( format( "invalid shared string index '%s'", value ) );
+        }
+    }
+
+    /**
+     * Slides in presentation order, one paragraph per line
+     */
+    private static void extractPresentation( ZipFile zip, Appendable output ) throws IOException, XMLStreamException {
+        final var presentation = "ppt/presentation.xml";
+        final var relationships = relationships( zip, presentation );
+        final var slides = new ArrayList<String>();
+        parse( zip, presentation, reader -> {
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals( "sldId" ) ) {
+                    slides.add( relationships.get( relationshipId( reader ) ) );
+                }
+            }
+        });
+
+        int number = 0;
+        for( var slide : slides ) {
+            ++number;
+            if( slide == null || zip.getEntry( slide ) == null ) {
+                continue;
+            }
+            output.append( "Slide " ).append( String.valueOf( number ) ).append( ":\n" );
+            parse( zip, slide, reader -> {
+                boolean text = false;
+                while( reader.hasNext() ) {
+                    switch( reader.next() ) {
+                        case XMLStreamConstants.START_ELEMENT -> {
+                            switch( reader.getLocalName() ) {
+                                case "Fallback" -> skip( reader );
+                                case "t" -> {
+                                    output.append( reader.getElementText() );
+                                    text = true;
+                                }
+                                default -> {}
+                            }
+                        }
+                        case XMLStreamConstants.END_ELEMENT -> {
+                            if( reader.getLocalName().equals( "p" ) && text ) {
+                                output.append( '\n' );
+                                text = false;
+                            }
+                        }
+                        default -> {}
+                    }
+                }
+            });
+            output.append( '\n' );
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartHandler {
+        void handle( XMLStreamReader reader ) throws IOException, XMLStreamException;
+    }
+
+    private static void parse( ZipFile zip, String part, PartHandler handler ) throws IOException, XMLStreamException {
+        final var entry = zip.getEntry( part );
+        if( entry == null ) {
+            throw new IOException( format( "missing part '%s'", part ) );
+        }
+        try( var input = zip.getInputStream( entry ) ) {
+            final var reader = XML.createXMLStreamReader( input );
+            try {
+                handler.handle( reader );
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Skips the current element. The alternate content of a document has a fallback copy of the same text.
+     */
+    private static void skip( XMLStreamReader reader ) throws XMLStreamException {
+        int depth = 1;
+        while( depth > 0 && reader.hasNext() ) {
+            switch( reader.next() ) {
+                case XMLStreamConstants.START_ELEMENT -> ++depth;
+                case XMLStreamConstants.END_ELEMENT -> --depth;
+                default -> {}
+            }
+        }
+    }
+
+    /**
+     * @return the targets of the relationships of the given part, by id, as part names
+     */
+    private static Map<String,String> relationships( ZipFile zip, String part ) throws IOException, XMLStreamException {
+        final int slash = part.lastIndexOf( '/' );
+        final var directory = part.substring( 0, slash + 1 );
+        final var result = new HashMap<String,String>();
+        final var name = directory + "_rels/" + part.substring( slash + 1 ) + ".rels";
+        if( zip.getEntry( name ) == null ) {
+            return result;
+        }
+        parse( zip, name, reader -> {
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals( "Relationship" ) ) {
+                    final var target = attribute( reader, "Target" );
+                    if( target != null ) {
+                        result.put( attribute( reader, "Id" ), resolve( directory, target ) );
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    private static String resolve( String directory, String target ) {
+        final var segments = new ArrayList<String>();
+        if( !target.startsWith( "/" ) ) {
+            segments.addAll( Arrays.asList( directory.split( "/" ) ) );
+        }
+        for( var segment : target.split( "/" ) ) {
+            if( segment.equals( ".." ) ) {
+                if( !segments.isEmpty() ) {
+                    segments.remove( segments.size() - 1 );
+                }
+            }
+            else if( !segment.isEmpty() && !segment.equals( "." ) ) {
+                segments.add( segment );
+            }
+        }
+        return String.join( "/", segments );
+    }
+
+    /**
+     * @return the value of the attribute with the given local name, in any namespace
+     */
+    private static String attribute( XMLStreamReader reader, String localName ) {
+        for( int i = 0; i < reader.getAttributeCount(); ++i ) {
+            if( reader.getAttributeLocalName(i).equals( localName ) ) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the relationship id of a sheet or slide, the {@code r:id} attribute
+     */
+    private static String relationshipId( XMLStreamReader reader ) {
+        for( int i = 0; i < reader.getAttributeCount(); ++i ) {
+            final var prefix = reader.getAttributePrefix(i);
+            if( reader.getAttributeLocalName(i).equals( "id" ) && prefix != null && !prefix.isEmpty() ) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shared strings of a workbook, looked up by index. Beyond the heap budget they are written to a temporary file.
+     */
+    static final class SharedStrings implements Closeable {
+        private final List<String> heap = new ArrayList<>();
+        private final long heapBudget;
+        private long heapChars;
+        private Path spill;
+        private OutputStream spillOutput;
+        private java.nio.channels.FileChannel spillChannel;
+        // offsets of the spilled strings in the file, followed by the end of the last one
+        private long[] offsets = new long[] { 0 };
+        private int spilled;
+
+        SharedStrings( long heapBudget ) {
+            this.heapBudget = heapBudget;
+        }
+
+        SharedStrings() {
+            this( SHARED_STRINGS_HEAP_BUDGET );
+        }
+
+        void add( String value ) throws IOException {
+            if( spill == null && heapChars + value.length() <= heapBudget ) {
+                heap.add( value );
+                heapChars += value.length();
+                return;
+            }
+            if( spill == null ) {
+                spill = Files.createTempFile( "shared-strings-", ".bin" );
+                spillOutput = new BufferedOutputStream( Files.newOutputStream( spill ), 1 << 16 );
+            }
+            final var bytes = value.getBytes( StandardCharsets.UTF_8 );
+            spillOutput.write( bytes );
+            if( spilled + 1 == offsets.length ) {
+                offsets = Arrays.copyOf( offsets, offsets.length * 2 );
+            }
+            offsets[ spilled + 1 ] = offsets[ spilled ] + bytes.length;
+            ++spilled;
+        }
+
+        /**
+         * Ends the insertions
+         */
+        void seal() throws IOException {
+            if( spillOutput != null ) {
+                spillOutput.close();
+                spillOutput = null;
+                spillChannel = java.nio.channels.FileChannel.open( spill, StandardOpenOption.READ );
+            }
+        }
+
+        int size() {
+            return heap.size() + spilled;
+        }
+
+        String get( int index ) throws IOException {
+            if( index < 0 || index >= size() ) {
+                throw new IOException( format( "shared string %d out of range [0,%d)", index, size() ) );
+            }
+            if( index < heap.size() ) {
+                return heap.get( index );
+            }
+            final int i = index - heap.size();
+            final var buffer = ByteBuffer.allocate( (int)( offsets[ i + 1 ] - offsets[i] ) );
+            while( buffer.hasRemaining() ) {
+                final int count = spillChannel.read( buffer, offsets[i] + buffer.position() );
+                if( count < 0 ) {
+                    throw new IOException( "truncated shared strings" );
+                }
+            }
+            return new String( buffer.array(), StandardCharsets.UTF_8 );
+        }
+
+        @Override
+        public void close() throws IOException {
+            if( spillOutput != null ) {
+                spillOutput.close();
+            }
+            if( spillChannel != null ) {
+                spillChannel.close();
+            }
+            if( spill != null ) {
+                Files.deleteIfExists( spill );
+            }
+        }
+    }
+}
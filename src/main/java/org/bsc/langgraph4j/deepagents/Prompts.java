@@ -16,12 +16,27 @@ interface Prompts {
             
             It is critical that you mark todos as completed as soon as you are done with a task. Do not batch up multiple tasks before marking them as completed.
             
+            Once the todo list exists, use `update_todos` to change the status of single items, or to insert and remove items, instead of rewriting the whole list with `write_todos`.
+            
             ## `task`
             
             - When doing web search, prefer to use the `task` tool in order to reduce context usage.`;
             """;
 
 
+    /**
+     * Description for the update_todos tool
+     */
+    String UPDATE_TODOS_DESCRIPTION = """
+            Use this tool to change items of the existing todo list without rewriting it.
+            Each update addresses an item by its zero based index (or by its exact content when index is omitted):
+            - UPDATE: set the status of the item (PENDING, IN_PROGRESS, COMPLETED)
+            - INSERT: add a new item with the given content at index (appended when index is omitted)
+            - REMOVE: delete the item
+            Updates are applied in order, so indexes refer to the list as changed by the previous updates.
+            If any update is invalid, none is applied.
+            """;
+
     /**
      * Description for the write_todos tool
      * Ported exactly from Python WRITE_TODOS_DESCRIPTION
@@ -314,4 +329,27 @@ interface Prompts {
                 Results are returned using cat -n format, with line numbers starting at 1
                 You have the capability to call multiple tools in a single response. It is always better to speculatively read multiple files as a batch that are potentially useful.
                 If you read a file that exists but has empty contents you will receive a system reminder warning in place of file contents.""";
-}
\ No newline at end of file
+
+    /**
+     * System prompt used to summarize the older part of a conversation
+     * when the conversation compaction is enabled
+     */
+    String SUMMARY_PROMPT = """
+            You are summarizing the earlier part of a conversation between a user and an AI agent so that the agent can continue its work with a smaller context.
+            
+            Write a concise but complete summary that preserves:
+            - the original user request and any constraints or preferences stated by the user
+            - decisions taken, results obtained and facts learned (including names of files written to the virtual filesystem)
+            - the current plan and which steps are already done
+            - any open question or error that still needs attention
+            
+            Do not add information that is not present in the conversation. Do not address the user. Reply with the summary only.""";
+
+    /**
+     * Prefix of the message that replaces the summarized part of a conversation
+     */
+    String SUMMARY_PREFIX = """
+            Here is a summary of the conversation to date:
+            
+            """;
+}
@@ -0,0 +1,139 @@
+package org.bsc.langgraph4j.deepagents;
+
+/**
+ * Compact encoding of normalized vectors, whose codes are compared to estimate the dot product of the vectors.
+ * <p>
+ * The estimates are used to navigate the index, the candidates found are then reranked with the full precision vectors.
+ */
+interface Quantizer {
+
+    /**
+     * @return the code of the given normalized vector
+     */
+    Object encode( float[] vector );
+
+    /**
+     * @return an estimate of the dot product of the vectors of the given codes
+     */
+    float score( Object a, Object b );
+
+    /**
+     * @return heap retained by the given code
+     */
+    long bytes( Object code );
+
+    static Quantizer of( HnswIndex.Quantization quantization, int dimensions ) {
+        return switch( quantization ) {
+            case NONE -> throw new IllegalArgumentException( "vectors are not quantized" );
+            case INT8 -> new Int8( dimensions );
+            case BINARY -> new Binary( dimensions );
+        };
+    }
+
+    // array header, rounded to 8 bytes
+    private static long arrayBytes( long contentBytes ) {
+        return ( 16 + contentBytes + 7 ) & ~7L;
+    }
+
+    /**
+     * Scalar quantization: each component is scaled to [-127, 127] by the largest absolute component of its vector.
+     * The code is a byte array with the components followed by the scale (4 bytes).
+     */
+    final class Int8 implements Quantizer {
+        private final int dimensions;
+
+        Int8( int dimensions ) {
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public Object encode( float[] vector ) {
+            float max = 0f;
+            for( float v : vector ) {
+                max = Math.max( max, Math.abs( v ) );
+            }
+            final var code = new byte[ dimensions + Float.BYTES ];
+            final float scale = ( max == 0f ) ? 0f : max / 127f;
+            if( scale != 0f ) {
+                for( int i = 0; i < dimensions; ++i ) {
+                    code[i] = (byte)Math.round( vector[i] / scale );
+                }
+            }
+            final int bits = Float.floatToIntBits( scale );
+            code[ dimensions ] = (byte)( bits >>> 24 );
+            code[ dimensions + 1 ] = (byte)( bits >>> 16 );
+            code[ dimensions + 2 ] = (byte)( bits >>> 8 );
+            code[ dimensions + 3 ] = (byte)bits;
+            return code;
+        }
+
+        @Override
+        public float score( Object a, Object b ) {
+            final byte[] x = (byte[])a;
+            final byte[] y = (byte[])b;
+            int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int i = 0;
+            for( final int bound = dimensions & ~3; i < bound; i += 4 ) {
+                s0 += x[i] * y[i];
+                s1 += x[i + 1] * y[i + 1];
+                s2 += x[i + 2] * y[i + 2];
+                s3 += x[i + 3] * y[i + 3];
+            }
+            for( ; i < dimensions; ++i ) {
+                s0 += x[i] * y[i];
+            }
+            return ( s0 + s1 + s2 + s3 ) * scale( x ) * scale( y );
+        }
+
+        private float scale( byte[] code ) {
+            return Float.intBitsToFloat( ( code[ dimensions ] << 24 ) |
+                    ( ( code[ dimensions + 1 ] & 0xff ) << 16 ) |
+                    ( ( code[ dimensions + 2 ] & 0xff ) << 8 ) |
+                    ( code[ dimensions + 3 ] & 0xff ) );
+        }
+
+        @Override
+        public long bytes( Object code ) {
+            return arrayBytes( ((byte[])code).length );
+        }
+    }
+
+    /**
+     * Binary quantization: one bit per component, set when the component is positive.
+     * The score is 1 - 2 * hamming distance / dimensions, which decreases with the angle between the vectors.
+     */
+    final class Binary implements Quantizer {
+        private final int dimensions;
+
+        Binary( int dimensions ) {
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public Object encode( float[] vector ) {
+            final var code = new long[ ( dimensions + 63 ) >>> 6 ];
+            for( int i = 0; i < dimensions; ++i ) {
+                if( vector[i] > 0f ) {
+                    code[ i >>> 6 ] |= 1L << i;
+                }
+            }
+            return code;
+        }
+
+        @Override
+        public float score( Object a, Object b ) {
+            final long[] x = (long[])a;
+            final long[] y = (long[])b;
+            int hamming = 0;
+            for( int i = 0; i < x.length; ++i ) {
+                hamming += Long.bitCount( x[i] ^ y[i] );
+            }
+            return 1f - ( 2f * hamming ) / dimensions;
+        }
+
+        @Override
+        public long bytes( Object code ) {
+            return arrayBytes( (long)((long[])code).length * Long.BYTES );
+        }
+    }
+}
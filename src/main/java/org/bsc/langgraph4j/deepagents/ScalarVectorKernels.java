@@ -0,0 +1,108 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Portable kernels. The loops use independent accumulators, so the additions are not serialized.
+ */
+final class ScalarVectorKernels implements VectorKernels {
+
+    static final ScalarVectorKernels INSTANCE = new ScalarVectorKernels();
+
+    private ScalarVectorKernels() {}
+
+    @Override
+    public float dot( float[] a, float[] b ) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for( final int bound = a.length & ~3; i < bound; i += 4 ) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for( ; i < a.length; ++i ) {
+            s0 += a[i] * b[i];
+        }
+        return ( s0 + s1 ) + ( s2 + s3 );
+    }
+
+    @Override
+    public float cosine( float[] a, float[] b ) {
+        float dot0 = 0, dot1 = 0, na0 = 0, na1 = 0, nb0 = 0, nb1 = 0;
+        int i = 0;
+        for( final int bound = a.length & ~1; i < bound; i += 2 ) {
+            dot0 += a[i] * b[i];
+            na0 += a[i] * a[i];
+            nb0 += b[i] * b[i];
+            dot1 += a[i + 1] * b[i + 1];
+            na1 += a[i + 1] * a[i + 1];
+            nb1 += b[i + 1] * b[i + 1];
+        }
+        for( ; i < a.length; ++i ) {
+            dot0 += a[i] * b[i];
+            na0 += a[i] * a[i];
+            nb0 += b[i] * b[i];
+        }
+        return cosine( dot0 + dot1, na0 + na1, nb0 + nb1 );
+    }
+
+    static float cosine( float dot, float normA, float normB ) {
+        final double norms = (double)normA * normB;
+        return ( norms == 0 ) ? 0 : (float)( dot / Math.sqrt( norms ) );
+    }
+
+    @Override
+    public float squareDistance( float[] a, float[] b ) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for( final int bound = a.length & ~3; i < bound; i += 4 ) {
+            final float d0 = a[i] - b[i];
+            final float d1 = a[i + 1] - b[i + 1];
+            final float d2 = a[i + 2] - b[i + 2];
+            final float d3 = a[i + 3] - b[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for( ; i < a.length; ++i ) {
+            final float d = a[i] - b[i];
+            s0 += d * d;
+        }
+        return ( s0 + s1 ) + ( s2 + s3 );
+    }
+
+    @Override
+    public float dot( float[] a, FloatBuffer b, int index ) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for( final int bound = a.length & ~3; i < bound; i += 4 ) {
+            s0 += a[i] * b.get( index + i );
+            s1 += a[i + 1] * b.get( index + i + 1 );
+            s2 += a[i + 2] * b.get( index + i + 2 );
+            s3 += a[i + 3] * b.get( index + i + 3 );
+        }
+        for( ; i < a.length; ++i ) {
+            s0 += a[i] * b.get( index + i );
+        }
+        return ( s0 + s1 ) + ( s2 + s3 );
+    }
+
+    @Override
+    public float squareDistance( float[] a, FloatBuffer b, int index ) {
+        float s0 = 0, s1 = 0;
+        int i = 0;
+        for( final int bound = a.length & ~1; i < bound; i += 2 ) {
+            final float d0 = a[i] - b.get( index + i );
+            final float d1 = a[i + 1] - b.get( index + i + 1 );
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+        }
+        for( ; i < a.length; ++i ) {
+            final float d = a[i] - b.get( index + i );
+            s0 += d * d;
+        }
+        return s0 + s1;
+    }
+}
@@ -0,0 +1,167 @@
+package org.bsc.langgraph4j.deepagents;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Applies the {@link DeepAgent.MemoryLimits} to the state updates of a session and publishes the estimated
+ * retained size of the channels.
+ *
+ * <ul>
+ *     <li>the {@value DeepAgent.MemoryLimits#METRIC_NAME} distribution summary records the size of each update, tagged by channel</li>
+ *     <li>the {@value DeepAgent.MemoryLimits#LIMIT_METRIC_NAME} counter counts the limits applied, tagged by action (spill or abort)</li>
+ * </ul>
+ */
+class SessionMemoryGuard {
+
+    private final DeepAgent.MemoryLimits limits;
+    private final DistributionSummary messagesSummary;
+    private final DistributionSummary filesSummary;
+    private final Counter spillCounter;
+    private final Counter abortCounter;
+
+    SessionMemoryGuard( DeepAgent.MemoryLimits limits, MeterRegistry meterRegistry ) {
+        this.limits = requireNonNull( limits, "limits cannot be null" );
+        if( limits.spillDirectory() != null ) {
+            FileMap.registerSpillDirectory( limits.spillDirectory() );
+        }
+        if( meterRegistry != null ) {
+            messagesSummary = summary( "messages", meterRegistry );
+            filesSummary = summary( "files", meterRegistry );
+            spillCounter = counter( "spill", meterRegistry );
+            abortCounter = counter( "abort", meterRegistry );
+        }
+        else {
+            messagesSummary = filesSummary = null;
+            spillCounter = abortCounter = null;
+        }
+    }
+
+    private static DistributionSummary summary( String channel, MeterRegistry meterRegistry ) {
+        return DistributionSummary.builder( DeepAgent.MemoryLimits.METRIC_NAME )
+                .description( "Estimated size of a session channel" )
+                .baseUnit( "bytes" )
+                .tag( "channel", channel )
+                .register( meterRegistry );
+    }
+
+    private static Counter counter( String action, MeterRegistry meterRegistry ) {
+        return Counter.builder( DeepAgent.MemoryLimits.LIMIT_METRIC_NAME )
+                .description( "Session memory limits applied" )
+                .tag( "action", action )
+                .register( meterRegistry );
+    }
+
+    DeepAgent.MemoryLimits limits() {
+        return limits;
+    }
+
+    void checkMessages( MessageList messages ) {
+        final long bytes = messages.retainedBytes();
+        if( messagesSummary != null ) {
+            messagesSummary.record( bytes );
+        }
+        check( "messages", bytes, limits.maxMessagesBytes() );
+    }
+
+    FileMap checkFiles( FileMap files ) {
+        var result = files;
+        if( limits.spillFilesBytes() > 0 && result.retainedBytes() > limits.spillFilesBytes() ) {
+            result = spill( result );
+        }
+        if( filesSummary != null ) {
+            filesSummary.record( result.retainedBytes() );
+        }
+        check( "files", result.retainedBytes(), limits.maxFilesBytes() );
+        return result;
+    }
+
+    private void check( String channel, long bytes, long maxBytes ) {
+        if( maxBytes > 0 && bytes > maxBytes ) {
+            if( abortCounter != null ) {
+                abortCounter.increment();
+            }
+            throw new SessionMemoryLimitException( channel, bytes, maxBytes );
+        }
+    }
+
+    /**
+     * Moves the largest file contents to the spill directory until the files fit the spill threshold
+     */
+    private FileMap spill( FileMap files ) {
+        final var candidates = new ArrayList<Map.Entry<String,String>>();
+        for( var entry : files.entrySet() ) {
+            if( entry.getValue() != null && !FileMap.isSpilled( entry.getValue() ) ) {
+                candidates.add( entry );
+            }
+        }
+        candidates.sort( Comparator.comparingLong( (Map.Entry<String,String> e) -> MemorySize.of( e.getValue() ) ).reversed() );
+
+        final var spilled = new LinkedHashMap<String,String>();
+        long bytes = files.retainedBytes();
+        for( var entry : candidates ) {
+            if( bytes <= limits.spillFilesBytes() ) {
+                break;
+            }
+            final String reference;
+            try {
+                reference = write( entry.getValue() );
+            }
+            catch( IOException e ) {
+                DeepAgent.log.warn( "memory: file '{}' cannot be spilled", entry.getKey(), e );
+                break;
+            }
+            bytes += MemorySize.of( reference ) - MemorySize.of( entry.getValue() );
+            spilled.put( entry.getKey(), reference );
+        }
+        if( spilled.isEmpty() ) {
+            return files;
+        }
+        if( spillCounter != null ) {
+            spillCounter.increment( spilled.size() );
+        }
+        DeepAgent.log.debug( "memory: spilled {} files, files reduced from ~{} to ~{} bytes",
+                spilled.size(), files.retainedBytes(), bytes );
+        return files.merge( spilled );
+    }
+
+    /**
+     * Writes the content to a file named after its hash, so the same content is written only once.
+     * The spill files are shared by the sessions and their checkpoints, they are never deleted.
+     */
+    private String write( String content ) throws IOException {
+        final var data = content.getBytes( StandardCharsets.UTF_8 );
+        final var file = limits.spillDirectory().resolve( sha256( data ) + ".txt" );
+        if( !Files.exists( file ) ) {
+            Files.createDirectories( limits.spillDirectory() );
+            final var temp = Files.createTempFile( limits.spillDirectory(), "spill", ".tmp" );
+            Files.write( temp, data );
+            Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        return FileMap.spilledTo( file );
+    }
+
+    static String sha256( byte[] data ) {
+        try {
+            return HexFormat.of().formatHex( MessageDigest.getInstance( "SHA-256" ).digest( data ) );
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
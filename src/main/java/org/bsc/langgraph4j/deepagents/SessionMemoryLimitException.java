@@ -0,0 +1,31 @@
+package org.bsc.langgraph4j.deepagents;
+
+/**
+ * Thrown when the state of a session exceeds one of the configured {@link DeepAgent.MemoryLimits}.
+ * The update that exceeds the limit is discarded, so the session can be resumed from its last checkpoint.
+ */
+public class SessionMemoryLimitException extends RuntimeException {
+
+    private final String channel;
+    private final long retainedBytes;
+    private final long maxBytes;
+
+    public SessionMemoryLimitException( String channel, long retainedBytes, long maxBytes ) {
+        super( String.format( "session memory limit exceeded on '%s': ~%d bytes, limit is %d bytes", channel, retainedBytes, maxBytes ) );
+        this.channel = channel;
+        this.retainedBytes = retainedBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public String channel() {
+        return channel;
+    }
+
+    public long retainedBytes() {
+        return retainedBytes;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,105 @@
+package org.bsc.langgraph4j.deepagents;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Kernels based on the incubating Vector API, loaded reflectively by {@link VectorKernels#INSTANCE}
+ * so that this class is never touched when the module is not enabled.
+ * <p>
+ * The buffer variants copy the vector into a per thread array with a single bulk get, since the
+ * Vector API has no portable way (across JDK versions) to load lanes straight from a buffer.
+ */
+final class SimdVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial( () -> new float[ 1024 ] );
+
+    static boolean isSupported() {
+        return SPECIES.vectorBitSize() >= 128;
+    }
+
+    @Override
+    public float dot( float[] a, float[] b ) {
+        var acc0 = FloatVector.zero( SPECIES );
+        var acc1 = FloatVector.zero( SPECIES );
+        final int step = SPECIES.length();
+        int i = 0;
+        for( final int bound = SPECIES.loopBound( a.length ) - step; i < bound; i += 2 * step ) {
+            acc0 = FloatVector.fromArray( SPECIES, a, i ).fma( FloatVector.fromArray( SPECIES, b, i ), acc0 );
+            acc1 = FloatVector.fromArray( SPECIES, a, i + step ).fma( FloatVector.fromArray( SPECIES, b, i + step ), acc1 );
+        }
+        for( final int bound = SPECIES.loopBound( a.length ); i < bound; i += step ) {
+            acc0 = FloatVector.fromArray( SPECIES, a, i ).fma( FloatVector.fromArray( SPECIES, b, i ), acc0 );
+        }
+        float result = acc0.add( acc1 ).reduceLanes( VectorOperators.ADD );
+        for( ; i < a.length; ++i ) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public float cosine( float[] a, float[] b ) {
+        var dot = FloatVector.zero( SPECIES );
+        var normA = FloatVector.zero( SPECIES );
+        var normB = FloatVector.zero( SPECIES );
+        int i = 0;
+        for( final int bound = SPECIES.loopBound( a.length ); i < bound; i += SPECIES.length() ) {
+            final var va = FloatVector.fromArray( SPECIES, a, i );
+            final var vb = FloatVector.fromArray( SPECIES, b, i );
+            dot = va.fma( vb, dot );
+            normA = va.fma( va, normA );
+            normB = vb.fma( vb, normB );
+        }
+        float d = dot.reduceLanes( VectorOperators.ADD );
+        float na = normA.reduceLanes( VectorOperators.ADD );
+        float nb = normB.reduceLanes( VectorOperators.ADD );
+        for( ; i < a.length; ++i ) {
+            d += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return ScalarVectorKernels.cosine( d, na, nb );
+    }
+
+    @Override
+    public float squareDistance( float[] a, float[] b ) {
+        var acc = FloatVector.zero( SPECIES );
+        int i = 0;
+        for( final int bound = SPECIES.loopBound( a.length ); i < bound; i += SPECIES.length() ) {
+            final var diff = FloatVector.fromArray( SPECIES, a, i ).sub( FloatVector.fromArray( SPECIES, b, i ) );
+            acc = diff.fma( diff, acc );
+        }
+        float result = acc.reduceLanes( VectorOperators.ADD );
+        for( ; i < a.length; ++i ) {
+            final float diff = a[i] - b[i];
+            result += diff * diff;
+        }
+        return result;
+    }
+
+    @Override
+    public float dot( float[] a, FloatBuffer b, int index ) {
+        return dot( a, load( b, index, a.length ) );
+    }
+
+    @Override
+    public float squareDistance( float[] a, FloatBuffer b, int index ) {
+        return squareDistance( a, load( b, index, a.length ) );
+    }
+
+    private float[] load( FloatBuffer buffer, int index, int length ) {
+        var result = scratch.get();
+        if( result.length != length ) {
+            result = new float[ length ];
+            scratch.set( result );
+        }
+        buffer.get( index, result, 0, length );
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Read only view of the agent state, used by the tools to read the channels straight from the tool context
+ * without building a {@link DeepAgent.State} (that copies the whole state) or copying the channel values.
+ * The returned values are the ones held by the state, so they must not be modified.
+ */
+public interface StateView {
+
+    /**
+     * @return the state data, not copied
+     */
+    Map<String,Object> data();
+
+    static StateView of( Map<String,Object> data ) {
+        requireNonNull( data, "data cannot be null" );
+        return () -> data;
+    }
+
+    static StateView of( ToolContext context ) {
+        return of( requireNonNull( context, "context cannot be null" ).getContext() );
+    }
+
+    @SuppressWarnings("unchecked")
+    default <T> Optional<T> value( String key ) {
+        return Optional.ofNullable( (T)data().get( key ) );
+    }
+
+    @SuppressWarnings("unchecked")
+    default List<Message> messages() {
+        final var messages = data().get( "messages" );
+        return ( messages != null ) ? (List<Message>)messages : List.of();
+    }
+
+    @SuppressWarnings("unchecked")
+    default List<DeepAgent.ToDo> todos() {
+        final var todos = data().get( "todos" );
+        return ( todos != null ) ? (List<DeepAgent.ToDo>)todos : List.of();
+    }
+
+    /**
+     * @return the files of the virtual filesystem, the spilled contents are loaded on access
+     */
+    default Map<String,String> files() {
+        return FileMap.resolve( rawFiles() );
+    }
+
+    default Set<String> fileNames() {
+        return rawFiles().keySet();
+    }
+
+    default boolean hasFile( String path ) {
+        return rawFiles().containsKey( path );
+    }
+
+    /**
+     * @return the content of the given file, loaded from disk when it has been spilled, or null if the file doesn't exist
+     */
+    default String file( String path ) {
+        return FileMap.load( rawFiles().get( path ) );
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String,String> rawFiles() {
+        final var files = data().get( "files" );
+        return ( files != null ) ? (Map<String,String>)files : Map.of();
+    }
+}
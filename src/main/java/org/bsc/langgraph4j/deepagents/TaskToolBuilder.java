@@ -4,9 +4,11 @@ import org.bsc.langgraph4j.GraphInput;
 import org.bsc.langgraph4j.GraphStateException;
 import org.bsc.langgraph4j.RunnableConfig;
 import org.bsc.langgraph4j.StateGraph;
+import org.bsc.langgraph4j.serializer.StateSerializer;
 import org.bsc.langgraph4j.spring.ai.agent.ReactAgent;
 import org.bsc.langgraph4j.spring.ai.serializer.std.SpringAIStateSerializer;
 import org.bsc.langgraph4j.spring.ai.tool.SpringAIToolResponseBuilder;
+import org.bsc.langgraph4j.state.Channel;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
@@ -25,6 +27,8 @@ class TaskToolBuilder {
     private List<DeepAgent.SubAgent> subAgents;
     private Map<String, ToolCallback> tools;
     private ChatModel model;
+    private StateSerializer<DeepAgent.State> stateSerializer;
+    private Map<String, Channel<?>> schema = DeepAgent.State.SCHEMA;
 
     public TaskToolBuilder subAgents(List<DeepAgent.SubAgent> subAgents ) {
         this.subAgents = List.copyOf( requireNonNull(subAgents,"subAgents cannot be null") );
@@ -41,6 +45,16 @@ class TaskToolBuilder {
         return this;
     }
 
+    public TaskToolBuilder stateSerializer( StateSerializer<DeepAgent.State> stateSerializer ) {
+        this.stateSerializer = requireNonNull( stateSerializer, "stateSerializer cannot be null" );
+        return this;
+    }
+
+    TaskToolBuilder schema( Map<String, Channel<?>> schema ) {
+        this.schema = requireNonNull( schema, "schema cannot be null" );
+        return this;
+    }
+
     record TaskToolArgs(
             String description,
             String subAgentType
@@ -61,6 +75,10 @@ class TaskToolBuilder {
                         Tools.editFile(),
                         Tools.writeTodos()));
         */
+        final var serializer = ( stateSerializer != null )
+                ? stateSerializer
+                : new SpringAIStateSerializer<>( DeepAgent.State::new );
+
         var agentsMap = new HashMap<String, StateGraph<DeepAgent.State>>();
 
         for( var subAgent : subAgents ) {
@@ -84,10 +102,10 @@ class TaskToolBuilder {
             }
 
             var reactAgent = ReactAgent.<DeepAgent.State>builder()
-                    .stateSerializer( new SpringAIStateSerializer<>( DeepAgent.State::new ) )
+                    .stateSerializer( serializer )
                     .chatModel( model )
                     .tools( subAgentTools )
-                    .schema( DeepAgent.State.SCHEMA )
+                    .schema( schema )
                     .defaultSystem( subAgent.prompt() )
                     .build();
 
@@ -0,0 +1,132 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits a text into chunks of about {@code chunkSize} tokens on line boundaries.
+ * Consecutive chunks share up to {@code chunkOverlap} tokens of whole lines, lines longer than a chunk are split.
+ * The text can be appended incrementally, see {@link #open(Consumer)}.
+ */
+final class TextChunker {
+
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final Tokenizer tokenizer;
+
+    TextChunker( int chunkSize, int chunkOverlap, Tokenizer tokenizer ) {
+        if( chunkSize <= 0 ) {
+            throw new IllegalArgumentException( "chunkSize must be greater than zero" );
+        }
+        if( chunkOverlap < 0 || chunkOverlap >= chunkSize ) {
+            throw new IllegalArgumentException( "chunkOverlap must be in range [0,chunkSize)" );
+        }
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.tokenizer = requireNonNull( tokenizer, "tokenizer cannot be null" );
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    int chunkOverlap() {
+        return chunkOverlap;
+    }
+
+    List<String> split( String text ) {
+        final var result = new ArrayList<String>();
+        try( var sink = open( result::add ) ) {
+            sink.append( text );
+        }
+        return result;
+    }
+
+    /**
+     * @return a sink that emits the chunks to the given consumer as soon as they are complete
+     */
+    Sink open( Consumer<String> output ) {
+        return new Sink( requireNonNull( output, "output cannot be null" ) );
+    }
+
+    final class Sink implements AutoCloseable {
+        private final Consumer<String> output;
+        private final StringBuilder partialLine = new StringBuilder();
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private final ArrayDeque<Integer> lineTokens = new ArrayDeque<>();
+        private int tokens;
+        // lines added after the last emitted chunk
+        private boolean pending;
+
+        private Sink( Consumer<String> output ) {
+            this.output = output;
+        }
+
+        Sink append( CharSequence text ) {
+            int start = 0;
+            for( int i = 0; i < text.length(); ++i ) {
+                if( text.charAt(i) == '\n' ) {
+                    partialLine.append( text, start, i );
+                    line( partialLine.toString() );
+                    partialLine.setLength( 0 );
+                    start = i + 1;
+                }
+            }
+            partialLine.append( text, start, text.length() );
+            return this;
+        }
+
+        private void line( String line ) {
+            final int count = tokenizer.count( line ) + 1;
+            if( count > chunkSize && line.length() > 1 ) {
+                // splits the line in pieces of about chunkSize tokens
+                final int pieceLength = Math.max( 1, (int)( (long)line.length() * chunkSize / count ) );
+                for( int i = 0; i < line.length(); i += pieceLength ) {
+                    line( line.substring( i, Math.min( line.length(), i + pieceLength ) ) );
+                }
+                return;
+            }
+            if( tokens + count > chunkSize && pending ) {
+                emit();
+            }
+            while( !lines.isEmpty() && tokens + count > chunkSize ) {
+                removeFirst();
+            }
+            lines.addLast( line );
+            lineTokens.addLast( count );
+            tokens += count;
+            pending = true;
+        }
+
+        private void emit() {
+            output.accept( String.join( "\n", lines ) );
+            pending = false;
+            while( !lines.isEmpty() && tokens > chunkOverlap ) {
+                removeFirst();
+            }
+        }
+
+        private void removeFirst() {
+            lines.removeFirst();
+            tokens -= lineTokens.removeFirst();
+        }
+
+        @Override
+        public void close() {
+            if( !partialLine.isEmpty() ) {
+                line( partialLine.toString() );
+                partialLine.setLength( 0 );
+            }
+            if( pending && lines.stream().anyMatch( line -> !line.isBlank() ) ) {
+                emit();
+            }
+            lines.clear();
+            lineTokens.clear();
+            tokens = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.state.Channel;
+import org.bsc.langgraph4j.state.Reducer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Channel of the todo list. A new list replaces the current one, while a {@link Patch} is applied to it,
+ * so that a single item can be changed without sending the whole list.
+ */
+class TodoChannel implements Channel<List<DeepAgent.ToDo>> {
+
+    /**
+     * Updates applied, in order, to the current todo list
+     */
+    record Patch( List<DeepAgent.ToDo.Update> updates ) {}
+
+    private final Reducer<List<DeepAgent.ToDo>> reducer;
+
+    @Override
+    public Optional<Reducer<List<DeepAgent.ToDo>>> getReducer() {
+        return Optional.of(reducer);
+    }
+
+    @Override
+    public Optional<Supplier<List<DeepAgent.ToDo>>> getDefault() {
+        return Optional.of(List::of);
+    }
+
+    public TodoChannel() {
+        reducer = (current, todos) -> todos;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object update(String key, Object oldValue, Object newValue) {
+        if( newValue instanceof Patch patch ) {
+            final var current = ( oldValue != null ) ? (List<DeepAgent.ToDo>)oldValue : List.<DeepAgent.ToDo>of();
+            // updates have been validated by the tool, an invalid one is due to concurrent changes
+            return apply( current, patch.updates(), false );
+        }
+        return Channel.super.update(key, oldValue, newValue);
+    }
+
+    /**
+     * Applies the updates to the given todo list
+     *
+     * @param strict if true an invalid update throws {@link IllegalArgumentException}, otherwise it is skipped
+     * @return a new todo list
+     */
+    static List<DeepAgent.ToDo> apply( List<DeepAgent.ToDo> todos, List<DeepAgent.ToDo.Update> updates, boolean strict ) {
+        final var result = new ArrayList<>( todos );
+        for( var update : updates ) {
+            try {
+                apply( result, update );
+            }
+            catch( IllegalArgumentException e ) {
+                if( strict ) {
+                    throw e;
+                }
+                DeepAgent.log.warn( "todos: update {} skipped: {}", update, e.getMessage() );
+            }
+        }
+        return List.copyOf( result );
+    }
+
+    private static void apply( List<DeepAgent.ToDo> todos, DeepAgent.ToDo.Update update ) {
+        if( update.action() == null ) {
+            throw new IllegalArgumentException( "action is required" );
+        }
+        switch( update.action() ) {
+            case INSERT -> {
+                if( update.content() == null || update.content().isBlank() ) {
+                    throw new IllegalArgumentException( "content is required to insert an item" );
+                }
+                final int index = ( update.index() != null ) ? update.index() : todos.size();
+                if( index < 0 || index > todos.size() ) {
+                    throw new IllegalArgumentException( format( "index %d out of range [0,%d]", index, todos.size() ) );
+                }
+                todos.add( index, new DeepAgent.ToDo( update.content(),
+                        update.status() != null ? update.status() : DeepAgent.ToDo.Status.PENDING ) );
+            }
+            case UPDATE -> {
+                if( update.status() == null ) {
+                    throw new IllegalArgumentException( "status is required to update an item" );
+                }
+                final int index = indexOf( todos, update );
+                todos.set( index, new DeepAgent.ToDo( todos.get(index).content(), update.status() ) );
+            }
+            case REMOVE -> todos.remove( indexOf( todos, update ) );
+        }
+    }
+
+    private static int indexOf( List<DeepAgent.ToDo> todos, DeepAgent.ToDo.Update update ) {
+        if( update.index() != null ) {
+            if( update.index() < 0 || update.index() >= todos.size() ) {
+                throw new IllegalArgumentException( format( "index %d out of range [0,%d)", update.index(), todos.size() ) );
+            }
+            return update.index();
+        }
+        if( update.content() != null ) {
+            for( int i = 0; i < todos.size(); ++i ) {
+                if( todos.get(i).content().equals( update.content() ) ) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException( format( "item '%s' not found", update.content() ) );
+        }
+        throw new IllegalArgumentException( "index or content is required" );
+    }
+}
@@ -0,0 +1,225 @@
+package org.bsc.langgraph4j.deepagents;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Estimates the size (in tokens) of the prompts sent to the model: messages, system prompt and tool definitions.
+ *
+ * <ul>
+ *     <li>running totals are cached per conversation, when a conversation grows only the appended messages are tokenized</li>
+ *     <li>the size of the tool definitions is cached per tool</li>
+ *     <li>the size of the last prompt sent to the model is published as the {@value #METRIC_NAME} gauge</li>
+ * </ul>
+ */
+public class TokenCounter {
+
+    public static final String METRIC_NAME = "deepagents.prompt.tokens";
+
+    /**
+     * Counter using the heuristic tokenizer
+     */
+    public static final TokenCounter DEFAULT = builder().build();
+
+    // role and separators of a message in the chat format
+    private static final int MESSAGE_OVERHEAD = 4;
+    private static final int CONVERSATION_CACHE_SIZE = 64;
+
+    /**
+     * Messages of a conversation and their running totals
+     */
+    private static final class Conversation {
+        final List<Message> messages = new ArrayList<>();
+        int[] totals = new int[16];
+
+        /**
+         * @return the number of cached messages still at the same position in the given list.
+         * Messages are compared by reference, only the messages after the common prefix are tokenized.
+         * A conversation usually grows by appending messages: when the given list still holds the first and the last
+         * cached messages at their position, the cached messages are taken as a prefix without walking them.
+         */
+        int commonPrefix( List<Message> list ) {
+            final int size = messages.size();
+            if( size > 0 && size <= list.size()
+                    && list.get( size - 1 ) == messages.get( size - 1 ) && list.get( 0 ) == messages.get( 0 ) ) {
+                return size;
+            }
+            int result = 0;
+            while( result < size && result < list.size() && list.get(result) == messages.get(result) ) {
+                ++result;
+            }
+            return result;
+        }
+
+        int count( List<Message> list, TokenCounter counter ) {
+            final int prefix = commonPrefix( list );
+            messages.subList( prefix, messages.size() ).clear();
+
+            for( int i = prefix; i < list.size(); ++i ) {
+                final var message = list.get(i);
+                if( i == totals.length ) {
+                    totals = Arrays.copyOf( totals, totals.length * 2 );
+                }
+                totals[i] = ( i > 0 ? totals[i - 1] : 0 ) + counter.count( message );
+                messages.add( message );
+            }
+            return list.isEmpty() ? 0 : totals[ list.size() - 1 ];
+        }
+    }
+
+    private final Tokenizer tokenizer;
+    private final AtomicInteger lastPromptTokens = new AtomicInteger();
+    private final Map<String,Integer> toolTokens = new ConcurrentHashMap<>();
+    // first conversation message -> running totals
+    private final Map<Message,Conversation> conversations = Collections.synchronizedMap(
+            new LinkedHashMap<>( 16, 0.75f, true ) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Message, Conversation> eldest) {
+                    return size() > CONVERSATION_CACHE_SIZE;
+                }
+            });
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Tokenizer tokenizer = Tokenizer.heuristic();
+        private MeterRegistry meterRegistry;
+
+        /**
+         * Tokenizer, default is {@link Tokenizer#heuristic()}
+         */
+        public Builder tokenizer( Tokenizer tokenizer ) {
+            this.tokenizer = requireNonNull( tokenizer, "tokenizer cannot be null" );
+            return this;
+        }
+
+        /**
+         * Registry of the {@value #METRIC_NAME} gauge
+         */
+        public Builder meterRegistry( MeterRegistry meterRegistry ) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public TokenCounter build() {
+            return new TokenCounter( this );
+        }
+    }
+
+    private TokenCounter( Builder builder ) {
+        this.tokenizer = builder.tokenizer;
+        if( builder.meterRegistry != null ) {
+            Gauge.builder( METRIC_NAME, lastPromptTokens, AtomicInteger::get )
+                    .description( "Estimated size of the last prompt sent to the model" )
+                    .baseUnit( "tokens" )
+                    .register( builder.meterRegistry );
+        }
+    }
+
+    public Tokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    public int count( String text ) {
+        return ( text == null || text.isEmpty() ) ? 0 : tokenizer.count( text );
+    }
+
+    public int count( Message message ) {
+        int result = MESSAGE_OVERHEAD;
+        if( message instanceof ToolResponseMessage toolResponse ) {
+            for( var response : toolResponse.getResponses() ) {
+                result += count( response.name() ) + count( response.responseData() );
+            }
+            return result;
+        }
+        result += count( message.getText() );
+        if( message instanceof AssistantMessage assistant && assistant.hasToolCalls() ) {
+            for( var toolCall : assistant.getToolCalls() ) {
+                result += count( toolCall.name() ) + count( toolCall.arguments() );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the given messages, reusing the running totals of the same conversation.
+     * The conversation is identified by its first non system message.
+     */
+    public int count( List<Message> messages ) {
+        if( messages.isEmpty() ) {
+            return 0;
+        }
+        var key = messages.get(0);
+        for( var message : messages ) {
+            if( message.getMessageType() != MessageType.SYSTEM ) {
+                key = message;
+                break;
+            }
+        }
+        final var conversation = conversations.computeIfAbsent( key, k -> new Conversation() );
+        synchronized( conversation ) {
+            return conversation.count( messages, this );
+        }
+    }
+
+    /**
+     * @return the size of the tool definitions of the given options
+     */
+    public int count( ChatOptions options ) {
+        if( !(options instanceof ToolCallingChatOptions toolOptions) || toolOptions.getToolCallbacks() == null ) {
+            return 0;
+        }
+        int result = 0;
+        for( var tool : toolOptions.getToolCallbacks() ) {
+            result += count( tool );
+        }
+        return result;
+    }
+
+    public int count( ToolCallback tool ) {
+        final var definition = tool.getToolDefinition();
+        return toolTokens.computeIfAbsent( definition.name(), name ->
+                MESSAGE_OVERHEAD + count( name ) + count( definition.description() ) + count( definition.inputSchema() ) );
+    }
+
+    public int count( Prompt prompt ) {
+        return count( prompt.getInstructions() ) + count( prompt.getOptions() );
+    }
+
+    /**
+     * Counts the prompt about to be sent to the model and publishes its size
+     */
+    int track( Prompt prompt ) {
+        final int result = count( prompt );
+        lastPromptTokens.set( result );
+        return result;
+    }
+
+    /**
+     * @return estimated size of the last prompt sent to the model
+     */
+    public int lastPromptTokens() {
+        return lastPromptTokens.get();
+    }
+}
@@ -0,0 +1,40 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * ChatModel decorator that tracks, through the {@link TokenCounter}, the size of the prompts sent to the model
+ */
+class TokenTrackingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final TokenCounter tokenCounter;
+
+    TokenTrackingChatModel(ChatModel delegate, TokenCounter tokenCounter) {
+        this.delegate = requireNonNull( delegate, "delegate cannot be null" );
+        this.tokenCounter = requireNonNull( tokenCounter, "tokenCounter cannot be null" );
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        tokenCounter.track( prompt );
+        return delegate.call( prompt );
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        tokenCounter.track( prompt );
+        return delegate.stream( prompt );
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
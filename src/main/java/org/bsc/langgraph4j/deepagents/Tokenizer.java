@@ -0,0 +1,69 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Counts the tokens of a text. See {@link TokenCounter}
+ */
+@FunctionalInterface
+public interface Tokenizer {
+
+    int count( String text );
+
+    /**
+     * Fast approximation that doesn't need a vocabulary:
+     * one token for short words and ~4 characters per token for longer ones, ~3 digits per token for numbers
+     * and one token for any other symbol
+     */
+    static Tokenizer heuristic() {
+        return Tokenizer::estimate;
+    }
+
+    /**
+     * Byte pair encoding tokenizer using the ranks of the given file, in the tiktoken format
+     * (a base64 encoded token and its rank per line, e.g. {@code cl100k_base.tiktoken})
+     */
+    static Tokenizer bpe( Path ranks ) throws IOException {
+        return BpeTokenizer.load( ranks );
+    }
+
+    private static int estimate( String text ) {
+        if( text == null ) {
+            return 0;
+        }
+        final int length = text.length();
+        int result = 0;
+        int i = 0;
+        while( i < length ) {
+            final char c = text.charAt(i);
+            if( Character.isWhitespace(c) ) {
+                ++i;
+            }
+            else if( isAsciiLetter(c) ) {
+                final int start = i;
+                while( i < length && isAsciiLetter( text.charAt(i) ) ) {
+                    ++i;
+                }
+                // common words are a single token
+                result += ( i - start <= 6 ) ? 1 : ( i - start + 3 ) / 4;
+            }
+            else if( c >= '0' && c <= '9' ) {
+                final int start = i;
+                while( i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9' ) {
+                    ++i;
+                }
+                result += ( i - start + 2 ) / 3;
+            }
+            else {
+                ++result;
+                ++i;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isAsciiLetter( char c ) {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+    }
+}
@@ -0,0 +1,122 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.spring.ai.tool.SpringAIToolResponseBuilder;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * ToolCallback decorator that moves oversized tool results out of the message history.
+ * A result longer than {@code maxLength} is written to the virtual filesystem ({@code files} channel)
+ * and the model receives a short preview plus the path of the file to read.
+ */
+class ToolResultOffloader implements ToolCallback {
+
+    static final String RESULTS_DIR = "tool_results/";
+
+    private final ToolCallback delegate;
+    private final int maxLength;
+    private final int previewLength;
+
+    ToolResultOffloader( ToolCallback delegate, int maxLength ) {
+        this.delegate = requireNonNull( delegate, "delegate cannot be null" );
+        if( maxLength <= 0 ) {
+            throw new IllegalArgumentException( "maxLength must be greater than zero" );
+        }
+        this.maxLength = maxLength;
+        this.previewLength = Math.min( maxLength, 1_000 );
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return call( toolInput, null );
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        final var result = delegate.call( toolInput, toolContext );
+
+        // without a context the state cannot be updated
+        if( result == null || toolContext == null ) {
+            return result;
+        }
+        final var offloaded = offload( result );
+        if( offloaded == null ) {
+            return result;
+        }
+        return SpringAIToolResponseBuilder.of( toolContext )
+                .update( offloaded.update() )
+                .buildAndReturn( offloaded.message() );
+    }
+
+    /**
+     * Result moved to the virtual filesystem
+     *
+     * @param update update of the state adding the file
+     * @param message message returned to the model instead of the result
+     */
+    record Offloaded( String path, Map<String,Object> update, String message ) {}
+
+    /**
+     * @return the result moved to a file named after the tool and the hash of the result, or null if it is not too large
+     * or it would be taken for a spilled file (see {@link FileMap#isReserved(String)})
+     */
+    Offloaded offload( String result ) {
+        if( result.length() <= maxLength || FileMap.isReserved( result ) ) {
+            return null;
+        }
+        final var name = delegate.getToolDefinition().name();
+        final var hash = SessionMemoryGuard.sha256( result.getBytes( StandardCharsets.UTF_8 ) ).substring( 0, 32 );
+        final var path = format( "%s%s_%s.txt", RESULTS_DIR, name, hash );
+
+        DeepAgent.log.debug( "tool: '{}' result of {} characters offloaded to '{}'", name, result.length(), path );
+
+        return new Offloaded( path,
+                Map.of( "files", Map.of( path, wrapLines( result ) ) ),
+                format( """
+                        The result of '%s' is too large (%d characters) and has been saved to the file '%s'.
+                        Use `read_file` to read it. The first %d characters follow:
+
+                        %s""", name, result.length(), path, previewLength, result.substring( 0, previewLength ) ) );
+    }
+
+    /**
+     * Breaks lines longer than {@link Tools#MAX_LINE_LENGTH} so the whole content remains readable with {@code read_file}
+     */
+    static String wrapLines( String content ) {
+        final var result = new StringBuilder( content.length() + content.length() / Tools.MAX_LINE_LENGTH );
+        int lineLength = 0;
+        for( int i = 0; i < content.length(); ++i ) {
+            final char c = content.charAt(i);
+            if( c == '\n' ) {
+                lineLength = 0;
+            }
+            else if( lineLength == Tools.MAX_LINE_LENGTH ) {
+                result.append( '\n' );
+                lineLength = 1;
+            }
+            else {
+                ++lineLength;
+            }
+            result.append( c );
+        }
+        return result.toString();
+    }
+}
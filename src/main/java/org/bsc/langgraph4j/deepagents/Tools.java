@@ -2,48 +2,32 @@ package org.bsc.langgraph4j.deepagents;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyDescription;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.bsc.langgraph4j.spring.ai.tool.SpringAIToolResponseBuilder;
-// Note: Embedding and Vector Store imports - requires Spring AI dependencies
-// Uncomment when Spring AI embedding dependencies are available
-// import org.springframework.ai.document.Document;
-// import org.springframework.ai.embedding.EmbeddingClient;
-// import org.springframework.ai.transformer.splitter.TextSplitter;
-// import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-// import org.springframework.ai.vectorstore.SimpleVectorStore;
-// import org.springframework.ai.vectorstore.VectorStore;
-// import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.function.FunctionToolCallback;
 import org.springframework.ai.util.json.schema.JsonSchemaGenerator;
 
-// Embedding tools imports (uncomment when using embedding functionality)
-// import java.io.IOException;
-// import java.io.FileInputStream;
-// import java.nio.file.Files;
-// import java.nio.file.Path;
-// import java.nio.file.Paths;
-// import java.util.concurrent.ConcurrentHashMap;
-// import java.util.stream.Collectors;
-// import java.util.stream.Stream;
-// 
-// Apache POI imports for Microsoft Office documents (uncomment when using)
-// import org.apache.poi.xwpf.usermodel.XWPFDocument;
-// import org.apache.poi.xwpf.usermodel.XWPFParagraph;
-// import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-// import org.apache.poi.xssf.usermodel.XSSFSheet;
-// import org.apache.poi.xssf.usermodel.XSSFRow;
-// import org.apache.poi.xssf.usermodel.XSSFCell;
-// import org.apache.poi.xslf.usermodel.XMLSlideShow;
-// import org.apache.poi.xslf.usermodel.XSLFSlide;
-// import org.apache.poi.xslf.usermodel.XSLFTextShape;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
@@ -52,11 +36,19 @@ import static org.bsc.langgraph4j.deepagents.Prompts.EDIT_DESCRIPTION;
 
 interface Tools {
 
+    /**
+     * Lines longer than this are truncated by the read_file tool
+     */
+    int MAX_LINE_LENGTH = 2000;
+
+    /**
+     * Returned by write_file and edit_file for a content that would be taken for a spilled file, see {@link FileMap#isReserved(String)}
+     */
+    String RESERVED_CONTENT_ERROR = "Error: the content of file %s cannot start with a NUL character followed by 'spilled:'";
+
     static ToolCallback ls() {
         return  FunctionToolCallback.<Void, Collection<String>>builder( "ls", ( noArgs, context ) -> {
-            var state = new DeepAgent.State(context.getContext());
-
-            var result = state.files().keySet();
+            var result = StateView.of(context).fileNames();
 
             DeepAgent.log.debug( "tool: 'ls' call: {}", result );
 
@@ -73,26 +65,67 @@ interface Tools {
             List<DeepAgent.ToDo> toDos
     ) {}
 
+    /**
+     * @return short summary of the todo list, used as acknowledgement instead of echoing the whole list
+     */
+    private static String todosSummary( List<DeepAgent.ToDo> todos ) {
+        final var count = new int[ DeepAgent.ToDo.Status.values().length ];
+        todos.forEach( todo -> ++count[ todo.status().ordinal() ] );
+        return format( "%d items: %d pending, %d in progress, %d completed",
+                todos.size(),
+                count[ DeepAgent.ToDo.Status.PENDING.ordinal() ],
+                count[ DeepAgent.ToDo.Status.IN_PROGRESS.ordinal() ],
+                count[ DeepAgent.ToDo.Status.COMPLETED.ordinal() ] );
+    }
+
     static ToolCallback writeTodos() {
 
         final var typeRef = new TypeReference<writeTodosArgs>() {};
-        final var mapper = new ObjectMapper();
 
         return FunctionToolCallback.<writeTodosArgs, String>builder( "write_todos", (input, context ) -> {
-            try {
-                DeepAgent.log.debug( "tool: 'writeTodos' call: {}", input);
+            DeepAgent.log.debug( "tool: 'writeTodos' call: {}", input);
+
+            return SpringAIToolResponseBuilder.of(context)
+                    .update(Map.of("todos", input.toDos()))
+                    .buildAndReturn( format("Updated todo list (%s)", todosSummary( input.toDos() )) );
+        })
+        .inputSchema( JsonSchemaGenerator.generateForType(requireNonNull(typeRef.getType())) )
+        .inputType(requireNonNull(typeRef.getType()))
+        .description(Prompts.WRITE_TODOS_DESCRIPTION)
+        .build();
+
+    }
+
+    record UpdateTodosArgs(
+            @JsonProperty(required = true)
+            @JsonPropertyDescription("updates applied in order to the todo list, indexes refer to the list as changed by the previous updates")
+            List<DeepAgent.ToDo.Update> updates
+    ) {}
 
-                return SpringAIToolResponseBuilder.of(context)
-                        .update(Map.of("todos", input.toDos()))
-                        .buildAndReturn( format("Updated todo list to %s", mapper.writeValueAsString(input)) );
+    static ToolCallback updateTodos() {
 
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
+        final var typeRef = new TypeReference<UpdateTodosArgs>() {};
+
+        return FunctionToolCallback.<UpdateTodosArgs, String>builder( "update_todos", (input, context ) -> {
+            DeepAgent.log.debug( "tool: 'update_todos' call: {}", input);
+
+            final var state = StateView.of(context);
+
+            final List<DeepAgent.ToDo> todos;
+            try {
+                todos = TodoChannel.apply( state.todos(), input.updates(), true );
+            }
+            catch( IllegalArgumentException e ) {
+                return format("Error: %s. No update has been applied", e.getMessage());
             }
+
+            return SpringAIToolResponseBuilder.of(context)
+                    .update(Map.of("todos", new TodoChannel.Patch( input.updates() )))
+                    .buildAndReturn( format("Applied %d updates to the todo list (%s)", input.updates().size(), todosSummary( todos )) );
         })
         .inputSchema( JsonSchemaGenerator.generateForType(requireNonNull(typeRef.getType())) )
         .inputType(requireNonNull(typeRef.getType()))
-        .description(Prompts.WRITE_TODOS_DESCRIPTION)
+        .description(Prompts.UPDATE_TODOS_DESCRIPTION)
         .build();
 
     }
@@ -113,17 +146,15 @@ interface Tools {
         return FunctionToolCallback.<ReadFileArgs, String>builder( "read_file", ( input, context ) -> {
                     DeepAgent.log.debug( "tool: 'read_file' call: {}", input);
 
-                    final var state = new DeepAgent.State(context.getContext());
+                    final var state = StateView.of(context);
 
-                    final var mockFilesystem = state.files();
+                    // Get file content
+                    final var content = state.file(input.filePath());
 
-                    if( !mockFilesystem.containsKey( input.filePath() ) ) {
+                    if( content == null ) {
                         return format("Error: File '%s' not found", input.filePath());
                     }
 
-                    // Get file content
-                    final var content = mockFilesystem.get(input.filePath());
-
                     // Handle empty file
                     if (content.isEmpty()) {
                         return "System reminder: File exists but has empty contents";
@@ -155,8 +186,8 @@ interface Tools {
                     for (int i = startIdx; i < endIdx; i++) {
                         var lineContent = lines[i];
                         // Truncate lines longer than 2000 characters
-                        if (lineContent.length() > 2000) {
-                            lineContent = lineContent.substring(0, 2000);
+                        if (lineContent.length() > MAX_LINE_LENGTH) {
+                            lineContent = lineContent.substring(0, MAX_LINE_LENGTH);
                         }
                         // Line numbers start at 1, so add 1 to the index
                         resultLines.add( format("%6d\t%s", i + 1, lineContent));
@@ -182,6 +213,9 @@ interface Tools {
         return FunctionToolCallback.<WriteFileArgs, String>builder( "write_file", ( input, context ) -> {
                 DeepAgent.log.debug( "tool: 'write_file' call: {}", input);
 
+                if( FileMap.isReserved( input.content() ) ) {
+                    return format( RESERVED_CONTENT_ERROR, input.filePath() );
+                }
                 return SpringAIToolResponseBuilder.of( context )
                             .update( Map.of( "files", Map.of( input.filePath(), input.content() )))
                             .buildAndReturn( format("Updated file %s", input.filePath()) );
@@ -209,17 +243,15 @@ interface Tools {
         return FunctionToolCallback.<EditFileArgs, String>builder( "edit_file", ( input, context ) -> {
                     DeepAgent.log.debug( "tool: 'edit_file' call: {}", input);
 
-                    final var state = new DeepAgent.State(context.getContext());
+                    final var state = StateView.of(context);
 
-                    final var mockFilesystem = state.files();
+                    // Get file content
+                    final var content = state.file(input.filePath());
 
-                    if( !mockFilesystem.containsKey( input.filePath() ) ) {
+                    if( content == null ) {
                         return format("Error: File '%s' not found", input.filePath());
                     }
 
-                    // Get file content
-                    final var content = mockFilesystem.get(input.filePath());
-
                     // Check if old_string exists in the file
                     if (!content.contains( input.oldString())) {
                         return format("Error: String not found in file: '%s'", input.oldString());
@@ -254,6 +286,9 @@ interface Tools {
                         content.replaceAll( escapedOldString, input.newString()) :
                         content.replaceFirst( escapedOldString, input.newString());
 
+                    if( FileMap.isReserved( newContent ) ) {
+                        return format( RESERVED_CONTENT_ERROR, input.filePath() );
+                    }
 
                     return SpringAIToolResponseBuilder.of(context)
                             .update(Map.of("files", Map.of(input.filePath(), newContent)))
@@ -265,134 +300,264 @@ interface Tools {
                 .build();
     }
 
-    // Vector store cache: directory path -> vector store
-    // Note: This requires Spring AI vector store implementation
-    // private static final Map<String, VectorStore> vectorStoreCache = new ConcurrentHashMap<>();
-
     /**
-     * Create embedding tools that require EmbeddingClient
-     * These tools need to be created with an EmbeddingClient instance
-     * 
-     * NOTE: This implementation requires Spring AI embedding and vector store dependencies.
-     * Add the following to pom.xml:
-     *   <dependency>
-     *     <groupId>org.springframework.ai</groupId>
-     *     <artifactId>spring-ai-openai</artifactId> <!-- or spring-ai-ollama, etc. -->
-     *   </dependency>
-     * 
-     * The EmbeddingClient will be automatically available from ChatModel configuration.
+     * Semantic search tools over the documents of a directory.
+     * The documents are split in chunks, embedded by the given {@link EmbeddingModel} and indexed by an
+     * {@link EmbeddingIndex}, one per directory, by vector and by keywords: the searches fuse both rankings.
+     * The vectors of the chunks are cached by content across the directories, see {@link EmbeddingCache}. With a storage directory the indexes are persisted,
+     * and reopened on the first search after a restart.
      */
     static class EmbeddingTools {
-        
-        // Note: Uncomment when EmbeddingClient is available
-        // private final EmbeddingClient embeddingClient;
-        
-        EmbeddingTools(Object embeddingClient) {
-            // this.embeddingClient = requireNonNull((EmbeddingClient) embeddingClient, "EmbeddingClient cannot be null");
-        }
+
+        private static final int DEFAULT_CHUNK_SIZE = 1000;
+        private static final int DEFAULT_CHUNK_OVERLAP = 200;
+        static final int DEFAULT_MAX_RESULTS = 5;
+        static final double DEFAULT_KEYWORD_WEIGHT = 0.5;
+        private static final int MAX_RESULT_LENGTH = 2000;
+
+        private final EmbeddingModel embeddingModel;
+        private final EmbeddingBatcher batcher;
+        private final DocumentIngester.Options ingestionOptions;
+        private final EmbeddingCache.Options cacheOptions;
+        private final HnswIndex.Options indexOptions;
+        private final Path storageDirectory;
+
+        // directory path -> index of its documents
+        private final Map<String, EmbeddingIndex<DocumentChunk>> indexes = new ConcurrentHashMap<>();
+        // directory path -> embedded files, loaded from the storage when persisted
+        private final Map<String, FileManifest> manifests = new ConcurrentHashMap<>();
+        // opened on the first embedding
+        private EmbeddingCache cache;
 
         /**
-         * Read text content from Microsoft Office documents
-         * Supports: .docx, .xlsx, .pptx
-         * Uncomment when Apache POI is available
+         * @param storageDirectory directory of the persisted indexes, null to keep them in memory only
+         * @param batching batch size, concurrency and retries of the embedding calls of the documents
+         * @param ingestionOptions threads and queues of the ingestion pipeline
+         * @param cacheOptions model id and memory size of the cache of the chunk vectors, stored along the indexes when persisted
          */
-        /*
-        private String readOfficeDocument(Path filePath) throws IOException {
-            String fileName = filePath.getFileName().toString().toLowerCase();
-            
-            if (fileName.endsWith(".docx")) {
-                return readDocx(filePath);
-            } else if (fileName.endsWith(".xlsx")) {
-                return readXlsx(filePath);
-            } else if (fileName.endsWith(".pptx")) {
-                return readPptx(filePath);
+        EmbeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory,
+                        EmbeddingBatcher.Options batching, DocumentIngester.Options ingestionOptions, EmbeddingCache.Options cacheOptions ) {
+            this.embeddingModel = requireNonNull( embeddingModel, "embeddingModel cannot be null" );
+            this.batcher = new EmbeddingBatcher( embeddingModel, batching );
+            this.ingestionOptions = requireNonNull( ingestionOptions, "ingestionOptions cannot be null" );
+            this.cacheOptions = requireNonNull( cacheOptions, "cacheOptions cannot be null" );
+            this.indexOptions = requireNonNull( indexOptions, "indexOptions cannot be null" );
+            this.storageDirectory = storageDirectory;
+        }
+
+        EmbeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory,
+                        EmbeddingBatcher.Options batching, DocumentIngester.Options ingestionOptions ) {
+            this( embeddingModel, indexOptions, storageDirectory, batching, ingestionOptions, EmbeddingCache.Options.DEFAULT );
+        }
+
+        EmbeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory, EmbeddingBatcher.Options batching ) {
+            this( embeddingModel, indexOptions, storageDirectory, batching, DocumentIngester.Options.DEFAULT );
+        }
+
+        EmbeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory ) {
+            this( embeddingModel, indexOptions, storageDirectory, EmbeddingBatcher.Options.DEFAULT );
+        }
+
+        EmbeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions ) {
+            this( embeddingModel, indexOptions, null );
+        }
+
+        private static String getFileType( Path file ) {
+            return switch( DocumentExtractor.extension( file ) ) {
+                case "docx", "xlsx", "pptx", "txt" -> DocumentExtractor.extension( file );
+                case "md" -> "markdown";
+                default -> "text";
+            };
+        }
+
+        private static String directoryKey( String directoryPath ) {
+            return Path.of( directoryPath ).toAbsolutePath().normalize().toString();
+        }
+
+        private Path location( String directoryKey ) {
+            return ( storageDirectory != null ) ?
+                    storageDirectory.resolve( UUID.nameUUIDFromBytes( directoryKey.getBytes( StandardCharsets.UTF_8 ) ).toString() ) :
+                    null;
+        }
+
+        private synchronized EmbeddingCache cache() throws IOException {
+            if( cache == null ) {
+                final var modelId = ( cacheOptions.modelId() != null ) ? cacheOptions.modelId() : embeddingModel.getClass().getName();
+                cache = new EmbeddingCache( modelId, storageDirectory != null ? storageDirectory.resolve( EmbeddingCache.NAME ) : null,
+                        cacheOptions.memoryEntries() );
             }
-            return "";
+            return cache;
         }
 
-        private String readDocx(Path filePath) throws IOException {
-            StringBuilder text = new StringBuilder();
-            try (FileInputStream fis = new FileInputStream(filePath.toFile());
-                 XWPFDocument document = new XWPFDocument(fis)) {
-                
-                for (XWPFParagraph para : document.getParagraphs()) {
-                    String paraText = para.getText();
-                    if (paraText != null && !paraText.trim().isEmpty()) {
-                        text.append(paraText).append("\n");
-                    }
+        /**
+         * @return the index of the given directory, opened from the storage when persisted.
+         * Null if the directory has not been embedded and create is false.
+         */
+        private EmbeddingIndex<DocumentChunk> index( String directoryKey, boolean create ) throws IOException {
+            var index = indexes.get( directoryKey );
+            if( index != null ) {
+                return index;
+            }
+            final var location = location( directoryKey );
+            if( !create && ( location == null || !Files.exists( location.resolve( EmbeddingIndex.MANIFEST ) ) ) ) {
+                return null;
+            }
+            synchronized( indexes ) {
+                index = indexes.get( directoryKey );
+                if( index == null ) {
+                    index = EmbeddingIndex.<DocumentChunk>builder()
+                            .directory( location )
+                            .codec( DocumentChunk.CODEC )
+                            .key( DocumentChunk::filePath )
+                            .text( DocumentChunk::text )
+                            .indexOptions( indexOptions )
+                            .build();
+                    indexes.put( directoryKey, index );
                 }
+                return index;
             }
-            return text.toString();
         }
 
-        private String readXlsx(Path filePath) throws IOException {
-            StringBuilder text = new StringBuilder();
-            try (FileInputStream fis = new FileInputStream(filePath.toFile());
-                 XSSFWorkbook workbook = new XSSFWorkbook(fis)) {
-                
-                for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
-                    XSSFSheet sheet = workbook.getSheetAt(i);
-                    text.append("Sheet: ").append(sheet.getSheetName()).append("\n");
-                    
-                    for (XSSFRow row : sheet) {
-                        StringBuilder rowText = new StringBuilder();
-                        for (XSSFCell cell : row) {
-                            if (cell != null) {
-                                switch (cell.getCellType()) {
-                                    case STRING:
-                                        rowText.append(cell.getStringCellValue()).append("\t");
-                                        break;
-                                    case NUMERIC:
-                                        rowText.append(cell.getNumericCellValue()).append("\t");
-                                        break;
-                                    case BOOLEAN:
-                                        rowText.append(cell.getBooleanCellValue()).append("\t");
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
-                        }
-                        if (rowText.length() > 0) {
-                            text.append(rowText.toString().trim()).append("\n");
-                        }
-                    }
-                    text.append("\n");
+        /**
+         * Embeds the documents of the given directory, incrementally: only the files changed since the previous run
+         * are read and chunked again, the unchanged chunks reuse their vectors and the deleted files are removed from the index.
+         * The chunks already embedded, e.g. under another directory, take their vectors from the cache.
+         */
+        DocumentIngester.Summary embedDirectory( Path directory, TextChunker chunker ) throws IOException {
+            final var key = directoryKey( directory.toString() );
+            final var location = location( key );
+            final var index = index( key, true );
+            synchronized( index ) {
+                final var chunking = chunker.chunkSize() + " " + chunker.chunkOverlap();
+                var manifest = manifests.get( key );
+                if( manifest == null && location != null ) {
+                    manifest = FileManifest.load( location.resolve( FileManifest.NAME ) );
+                }
+                if( manifest == null || !manifest.chunking().equals( chunking ) ) {
+                    // the chunks depend on the chunking parameters
+                    index.clear();
+                    manifest = new FileManifest( chunking );
+                }
+                manifests.put( key, manifest );
+
+                final var summary = DocumentIngester.builder()
+                        .index( index )
+                        .manifest( manifest )
+                        .chunker( chunker )
+                        .batcher( batcher )
+                        .cache( cache() )
+                        .fileFilter( path -> Files.isRegularFile( path ) && DocumentExtractor.supports( path ) )
+                        .fileType( EmbeddingTools::getFileType )
+                        .options( ingestionOptions )
+                        .build()
+                        .run( directory );
+
+                // the index is written before the manifest: after a crash in between the files are just embedded again
+                index.flush();
+                if( location != null ) {
+                    manifest.save( location.resolve( FileManifest.NAME ) );
                 }
+                return summary;
             }
-            return text.toString();
         }
 
-        private String readPptx(Path filePath) throws IOException {
-            StringBuilder text = new StringBuilder();
-            try (FileInputStream fis = new FileInputStream(filePath.toFile());
-                 XMLSlideShow ppt = new XMLSlideShow(fis)) {
-                
-                for (XSLFSlide slide : ppt.getSlides()) {
-                    text.append("Slide ").append(slide.getSlideNumber()).append(":\n");
-                    for (XSLFTextShape shape : slide.getShapes()) {
-                        if (shape instanceof XSLFTextShape) {
-                            String shapeText = ((XSLFTextShape) shape).getText();
-                            if (shapeText != null && !shapeText.trim().isEmpty()) {
-                                text.append(shapeText).append("\n");
-                            }
-                        }
-                    }
-                    text.append("\n");
+        /**
+         * @return the chunks most relevant to the query, or null if the directory has not been embedded
+         */
+        List<HnswIndex.Result<DocumentChunk>> search( String directoryPath, String query, int maxResults ) throws IOException {
+            return search( directoryPath, query, maxResults, DEFAULT_KEYWORD_WEIGHT );
+        }
+
+        /**
+         * @param keywordWeight weight of the keyword matches versus the semantic similarity, from 0 to 1
+         * @return the chunks most relevant to the query, or null if the directory has not been embedded
+         */
+        List<HnswIndex.Result<DocumentChunk>> search( String directoryPath, String query, int maxResults, double keywordWeight ) throws IOException {
+            return search( directoryPath, query, maxResults, keywordWeight, null );
+        }
+
+        /**
+         * @param filter paths of the files to search, null to search all of them. See {@link #fileFilter}
+         * @return the chunks most relevant to the query, or null if the directory has not been embedded
+         */
+        List<HnswIndex.Result<DocumentChunk>> search( String directoryPath, String query, int maxResults, double keywordWeight,
+                                                      Predicate<String> filter ) throws IOException {
+            final var index = index( directoryKey( directoryPath ), false );
+            if( index == null ) {
+                return null;
+            }
+            final var vector = ( keywordWeight < 1 ) ? embeddingModel.embed( query ) : new float[ index.dimensions() ];
+            return index.search( vector, query, maxResults, keywordWeight, filter );
+        }
+
+        /**
+         * Filter of the embedded files of a directory by their metadata, the modification time being taken from the manifest.
+         * The criteria are combined, the null ones are ignored.
+         *
+         * @param fileType type or extension of the files, e.g. {@code markdown} or {@code md}
+         * @param pathPrefix directory (or file) of the files, relative to the directory or absolute
+         * @param modifiedAfter files modified at or after this time
+         * @param modifiedBefore files modified before this time
+         * @return the filter, null if there are no criteria
+         */
+        Predicate<String> fileFilter( String directoryPath, String fileType, String pathPrefix,
+                                      Instant modifiedAfter, Instant modifiedBefore ) throws IOException {
+            Predicate<Path> result = null;
+            if( fileType != null && !fileType.isBlank() ) {
+                final var type = fileType.strip().toLowerCase();
+                result = and( result, file -> getFileType( file ).equals( type ) || DocumentExtractor.extension( file ).equals( type ) );
+            }
+            if( pathPrefix != null && !pathPrefix.isBlank() ) {
+                // compared by path components: the prefix src doesn't match src2/App.java
+                final var prefix = Path.of( directoryPath ).resolve( pathPrefix.strip() ).toAbsolutePath().normalize();
+                result = and( result, file -> file.toAbsolutePath().normalize().startsWith( prefix ) );
+            }
+            if( modifiedAfter != null || modifiedBefore != null ) {
+                final var key = directoryKey( directoryPath );
+                var manifest = manifests.get( key );
+                if( manifest == null && location( key ) != null ) {
+                    manifest = FileManifest.load( location( key ).resolve( FileManifest.NAME ) );
                 }
+                final var files = manifest;
+                result = and( result, file -> {
+                    final var entry = ( files != null ) ? files.get( file.toString() ) : null;
+                    return entry != null &&
+                            ( modifiedAfter == null || entry.lastModified() >= modifiedAfter.toEpochMilli() ) &&
+                            ( modifiedBefore == null || entry.lastModified() < modifiedBefore.toEpochMilli() );
+                });
+            }
+            if( result == null ) {
+                return null;
             }
-            return text.toString();
+            // evaluated once per file, the same file having chunks in several segments
+            final var filter = result;
+            final var evaluated = new HashMap<String,Boolean>();
+            return path -> evaluated.computeIfAbsent( path, p -> filter.test( Path.of( p ) ) );
         }
 
-        private String getFileType(String fileName) {
-            if (fileName.endsWith(".docx")) return "docx";
-            if (fileName.endsWith(".xlsx")) return "xlsx";
-            if (fileName.endsWith(".pptx")) return "pptx";
-            if (fileName.endsWith(".txt")) return "txt";
-            if (fileName.endsWith(".md")) return "markdown";
-            return "text";
+        private static Predicate<Path> and( Predicate<Path> first, Predicate<Path> second ) {
+            return ( first != null ) ? first.and( second ) : second;
+        }
+
+        /**
+         * @return the instant of an ISO-8601 date-time, or of the start of an ISO-8601 date in UTC. Null if blank.
+         */
+        private static Instant parseTime( String value ) {
+            if( value == null || value.isBlank() ) {
+                return null;
+            }
+            try {
+                return Instant.parse( value.strip() );
+            }
+            catch( DateTimeParseException e ) {
+                try {
+                    return LocalDate.parse( value.strip() ).atStartOfDay( ZoneOffset.UTC ).toInstant();
+                }
+                catch( DateTimeParseException e2 ) {
+                    throw new IllegalArgumentException( format( "invalid date '%s', expected e.g. 2024-01-31 or 2024-01-31T10:15:30Z", value ) );
+                }
+            }
         }
-        */
 
         record EmbedDocumentsArgs(
                 @JsonProperty(required = true)
@@ -411,145 +576,40 @@ interface Tools {
 
             return FunctionToolCallback.<EmbedDocumentsArgs, String>builder(
                     "embed_documents", (input, context) -> {
-                        return "Error: Embedding functionality requires Spring AI embedding dependencies. " +
-                               "Please add spring-ai-openai (or similar) dependency and ensure EmbeddingClient bean is configured.";
-                        
-                        /* Uncomment when EmbeddingClient is available:
-                        DeepAgent.log.info("Embedding documents in directory: {}", input.directoryPath());
+                        DeepAgent.log.debug( "tool: 'embed_documents' call: {}", input );
 
-                        try {
-                            Path dirPath = Paths.get(input.directoryPath());
-                            
-                            if (!Files.exists(dirPath) || !Files.isDirectory(dirPath)) {
-                                return format("Error: Directory '%s' does not exist or is not a directory", input.directoryPath());
-                            }
+                        final var directory = Path.of( input.directoryPath() );
+                        if( !Files.isDirectory( directory ) ) {
+                            return format("Error: Directory '%s' does not exist or is not a directory", input.directoryPath());
+                        }
 
-                            // Get or create vector store for this directory
-                            VectorStore vectorStore = vectorStoreCache.computeIfAbsent(
-                                    input.directoryPath(),
-                                    path -> new SimpleVectorStore(embeddingClient)
-                            );
+                        // missing arguments are deserialized as zero
+                        final int chunkSize = ( input.chunkSize() > 0 ) ? input.chunkSize() : DEFAULT_CHUNK_SIZE;
+                        final int chunkOverlap = Math.min( ( input.chunkOverlap() > 0 ) ? input.chunkOverlap() : DEFAULT_CHUNK_OVERLAP, chunkSize / 2 );
 
-                            // Find all text files and Office documents in directory
-                            List<Path> textFiles;
-                            try (Stream<Path> paths = Files.walk(dirPath)) {
-                                textFiles = paths
-                                        .filter(Files::isRegularFile)
-                                        .filter(path -> {
-                                            String fileName = path.getFileName().toString().toLowerCase();
-                                            return fileName.endsWith(".txt") ||
-                                                   fileName.endsWith(".md") ||
-                                                   fileName.endsWith(".java") ||
-                                                   fileName.endsWith(".py") ||
-                                                   fileName.endsWith(".js") ||
-                                                   fileName.endsWith(".ts") ||
-                                                   fileName.endsWith(".json") ||
-                                                   fileName.endsWith(".yaml") ||
-                                                   fileName.endsWith(".yml") ||
-                                                   fileName.endsWith(".xml") ||
-                                                   fileName.endsWith(".docx") ||
-                                                   fileName.endsWith(".xlsx") ||
-                                                   fileName.endsWith(".pptx");
-                                        })
-                                        .collect(Collectors.toList());
-                            }
+                        try {
+                            final var result = embedDirectory( directory, new TextChunker( chunkSize, chunkOverlap, Tokenizer.heuristic() ) );
 
-                            if (textFiles.isEmpty()) {
+                            if( result.files() == 0 ) {
                                 return format("No text files found in directory: %s", input.directoryPath());
                             }
-
-                            // Process each file
-                            int totalDocuments = 0;
-                            TextSplitter textSplitter = new TokenTextSplitter(input.chunkSize(), input.chunkOverlap());
-
-                            for (Path filePath : textFiles) {
-                                try {
-                                    String content;
-                                    String fileName = filePath.getFileName().toString().toLowerCase();
-                                    
-                                    // Read content based on file type
-                                    if (fileName.endsWith(".docx") || fileName.endsWith(".xlsx") || fileName.endsWith(".pptx")) {
-                                        // Read Office documents using Apache POI
-                                        content = readOfficeDocument(filePath);
-                                        if (content == null || content.trim().isEmpty()) {
-                                            DeepAgent.log.warn("Failed to extract content from Office document: {}", filePath);
-                                            continue;
-                                        }
-                                    } else {
-                                        // Read text files
-                                        content = Files.readString(filePath);
-                                    }
-                                    
-                                    // Create document with metadata
-                                    Document document = new Document(
-                                            content,
-                                            Map.of(
-                                                    "filePath", filePath.toString(),
-                                                    "fileName", filePath.getFileName().toString(),
-                                                    "directory", input.directoryPath(),
-                                                    "fileType", getFileType(fileName)
-                                            )
-                                    );
-
-                                    // Split document into chunks
-                                    List<Document> chunks = textSplitter.apply(List.of(document));
-                                    
-                                    // Add chunks to vector store
-                                    vectorStore.add(chunks);
-                                    totalDocuments += chunks.size();
-
-                                    DeepAgent.log.debug("Embedded file: {} ({} chunks)", filePath, chunks.size());
-                                } catch (IOException e) {
-                                    DeepAgent.log.warn("Failed to read file: {}", filePath, e);
-                                }
-                            }
-
-                            return format("Successfully embedded %d documents from %d files in directory: %s", 
-                                    totalDocuments, textFiles.size(), input.directoryPath());
-
-                        } catch (Exception e) {
-                            DeepAgent.log.error("Error embedding documents", e);
-                            return format("Error embedding documents: %s", e.getMessage());
+                            return format("Successfully embedded %d chunks from %d changed files in directory: %s " +
+                                            "(%d files unchanged, %d deleted, %d chunks from the cache)",
+                                    result.chunks(), result.changedFiles(), input.directoryPath(),
+                                    result.files() - result.changedFiles(), result.deletedFiles(), result.cachedChunks());
                         }
-
-                                    // Split document into chunks
-                                    List<Document> chunks = textSplitter.apply(List.of(document));
-                                    
-                                    // Add chunks to vector store
-                                    vectorStore.add(chunks);
-                                    totalDocuments += chunks.size();
-
-                                    DeepAgent.log.debug("Embedded file: {} ({} chunks)", filePath, chunks.size());
-                                } catch (IOException e) {
-                                    DeepAgent.log.warn("Failed to read file: {}", filePath, e);
-                                }
-                            }
-
-                            return format("Successfully embedded %d documents from %d files in directory: %s", 
-                                    totalDocuments, textFiles.size(), input.directoryPath());
-
-                        } catch (Exception e) {
-                            DeepAgent.log.error("Error embedding documents", e);
+                        catch( Exception e ) {
+                            DeepAgent.log.error( "embedding: error embedding documents", e );
                             return format("Error embedding documents: %s", e.getMessage());
-        }
-
-        private String getFileType(String fileName) {
-            if (fileName.endsWith(".docx")) return "docx";
-            if (fileName.endsWith(".xlsx")) return "xlsx";
-            if (fileName.endsWith(".pptx")) return "pptx";
-            if (fileName.endsWith(".txt")) return "txt";
-            if (fileName.endsWith(".md")) return "markdown";
-            return "text";
-        }
-        */
+                        }
                     })
                     .inputSchema(JsonSchemaGenerator.generateForType(requireNonNull(typeRef.getType())))
                     .description("Embed all documents in a directory for semantic search. " +
                                "Reads text files (.txt, .md, .java, .py, .js, .ts, .json, .yaml, .xml) " +
-                               "and Microsoft Office documents (.docx, .xlsx, .pptx) " +
+                               "and Office documents (.docx, .xlsx, .pptx) " +
                                "from the specified directory, splits them into chunks, and creates embeddings. " +
                                "The embeddings are stored and can be searched using the search_embeddings tool. " +
-                               "Requires EmbeddingClient and Apache POI to be configured.")
+                               "Running it again on the same directory only embeds the files changed since the previous run.")
                     .inputType(requireNonNull(typeRef.getType()))
                     .build();
         }
@@ -563,7 +623,19 @@ interface Tools {
                 String directoryPath,
                 @JsonProperty(defaultValue = "5")
                 @JsonPropertyDescription("Maximum number of results to return")
-                int maxResults
+                int maxResults,
+                @JsonProperty(defaultValue = "0.5")
+                @JsonPropertyDescription("Weight of the exact keyword matches versus the semantic similarity, from 0 to 1. " +
+                        "Raise it to find exact identifiers, lower it for conceptual queries")
+                Double keywordWeight,
+                @JsonPropertyDescription("Only search the files of this type or extension, e.g. java, markdown, docx")
+                String fileType,
+                @JsonPropertyDescription("Only search the files under this directory (or this file), relative to directoryPath")
+                String pathPrefix,
+                @JsonPropertyDescription("Only search the files modified at or after this date, e.g. 2024-01-31 or 2024-01-31T10:15:30Z")
+                String modifiedAfter,
+                @JsonPropertyDescription("Only search the files modified before this date, e.g. 2024-01-31 or 2024-01-31T10:15:30Z")
+                String modifiedBefore
         ) {}
 
         ToolCallback searchEmbeddings() {
@@ -571,71 +643,175 @@ interface Tools {
 
             return FunctionToolCallback.<SearchEmbeddingsArgs, String>builder(
                     "search_embeddings", (input, context) -> {
-                        return "Error: Embedding search functionality requires Spring AI embedding dependencies. " +
-                               "Please add spring-ai-openai (or similar) dependency and ensure EmbeddingClient bean is configured.";
-                        
-                        /* Uncomment when EmbeddingClient is available:
-                        DeepAgent.log.info("Searching embeddings for query: '{}' in directory: {}", 
-                                input.query(), input.directoryPath());
+                        DeepAgent.log.debug( "tool: 'search_embeddings' call: {}", input );
 
+                        final List<HnswIndex.Result<DocumentChunk>> results;
                         try {
-                            // Get vector store for this directory
-                            VectorStore vectorStore = vectorStoreCache.get(input.directoryPath());
+                            final var filter = fileFilter( input.directoryPath(), input.fileType(), input.pathPrefix(),
+                                    parseTime( input.modifiedAfter() ), parseTime( input.modifiedBefore() ) );
+                            results = search( input.directoryPath(), input.query(),
+                                    input.maxResults() > 0 ? input.maxResults() : DEFAULT_MAX_RESULTS,
+                                    input.keywordWeight() != null ? input.keywordWeight() : DEFAULT_KEYWORD_WEIGHT,
+                                    filter );
+                        }
+                        catch( Exception e ) {
+                            DeepAgent.log.error( "embedding: error searching embeddings", e );
+                            return format("Error searching embeddings: %s", e.getMessage());
+                        }
+
+                        if( results == null ) {
+                            return format("Error: No embeddings found for directory '%s'. " +
+                                        "Please run embed_documents first for this directory.",
+                                        input.directoryPath());
+                        }
+                        if( results.isEmpty() ) {
+                            return format("No documents found matching query: '%s' in directory: %s",
+                                    input.query(), input.directoryPath());
+                        }
+
+                        final var output = new StringBuilder()
+                                .append( format("Found %d relevant documents for query: '%s'\n\n", results.size(), input.query()) );
 
-                            if (vectorStore == null) {
-                                return format("Error: No embeddings found for directory '%s'. " +
-                                            "Please run embed_documents first for this directory.", 
-                                            input.directoryPath());
+                        for( int i = 0; i < results.size(); i++ ) {
+                            final var chunk = results.get(i).item();
+                            var content = chunk.text();
+                            if( content.length() > MAX_RESULT_LENGTH ) {
+                                content = content.substring( 0, MAX_RESULT_LENGTH ) + "... (truncated)";
                             }
+                            output.append( format("--- Result %d (score %.3f) ---\n", i + 1, results.get(i).score()) )
+                                    .append( format("File: %s (chunk %d)\n", chunk.filePath(), chunk.index()) )
+                                    .append( format("Content:\n%s\n\n", content) );
+                        }
+                        return output.toString();
+                    })
+                    .inputSchema(JsonSchemaGenerator.generateForType(requireNonNull(typeRef.getType())))
+                    .description("Search embedded documents using semantic similarity and keyword matching. " +
+                               "Returns the most relevant document chunks for the given query. " +
+                               "The directoryPath must match the one used in embed_documents. " +
+                               "This tool performs semantic search, so it can find documents even if they don't " +
+                               "contain the exact keywords from the query, and it also ranks the exact words and " +
+                               "identifiers of the query (e.g. class or function names) high. " +
+                               "The search can be restricted to files by type, path prefix and modification date.")
+                    .inputType(requireNonNull(typeRef.getType()))
+                    .build();
+        }
+    }
 
-                            // Search for similar documents
-                            SearchRequest searchRequest = SearchRequest.query(input.query())
-                                    .withTopK(input.maxResults());
+    /**
+     * Semantic search over the files of the virtual filesystem, to let the agent find its own notes.
+     * Each session has its own {@link FileSearchIndex}, identified by the lineage of its files (see {@link FileMap#lineage()})
+     * and dropped with them; the vectors are cached by content across the sessions.
+     */
+    static class FileSearchTools {
+
+        private static final int CHUNK_SIZE = 500;
+        private static final int CHUNK_OVERLAP = 100;
+        private static final int CACHE_ENTRIES = 10_000;
+
+        private final EmbeddingModel embeddingModel;
+        private final EmbeddingBatcher batcher;
+        private final EmbeddingCache cache;
+        private final TextChunker chunker = new TextChunker( CHUNK_SIZE, CHUNK_OVERLAP, Tokenizer.heuristic() );
+        private final HnswIndex.Options indexOptions;
+        // lineage of the files of a session -> its index
+        private final Map<Object,FileSearchIndex> sessions = Collections.synchronizedMap( new WeakHashMap<>() );
+
+        FileSearchTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions ) {
+            this.embeddingModel = requireNonNull( embeddingModel, "embeddingModel cannot be null" );
+            this.indexOptions = requireNonNull( indexOptions, "indexOptions cannot be null" );
+            this.batcher = new EmbeddingBatcher( embeddingModel, EmbeddingBatcher.Options.DEFAULT );
+            try {
+                this.cache = new EmbeddingCache( embeddingModel.getClass().getName(), null, CACHE_ENTRIES );
+            }
+            catch( IOException e ) {
+                // an in-memory cache does not do any I/O
+                throw new UncheckedIOException( e );
+            }
+        }
 
-                            List<Document> results = vectorStore.similaritySearch(searchRequest);
+        /**
+         * @return the index of the session of the given state, synced to its files
+         */
+        FileSearchIndex index( StateView state ) throws IOException {
+            final Map<String,String> files = state.<Map<String,String>>value( "files" ).orElseGet( Map::of );
+            final FileSearchIndex index;
+            if( files instanceof FileMap map ) {
+                index = sessions.computeIfAbsent( map.lineage(), lineage -> newIndex() );
+            }
+            else {
+                // files not reduced by the channel yet, e.g. restored from a checkpoint: the vectors come from the cache
+                index = newIndex();
+            }
+            index.sync( files );
+            return index;
+        }
 
-                            if (results.isEmpty()) {
-                                return format("No documents found matching query: '%s' in directory: %s", 
-                                        input.query(), input.directoryPath());
-                            }
+        private FileSearchIndex newIndex() {
+            try {
+                return new FileSearchIndex( batcher, cache, chunker, indexOptions );
+            }
+            catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
 
-                            // Format results
-                            StringBuilder resultBuilder = new StringBuilder();
-                            resultBuilder.append(format("Found %d relevant documents for query: '%s'\n\n", 
-                                    results.size(), input.query()));
-
-                            for (int i = 0; i < results.size(); i++) {
-                                Document doc = results.get(i);
-                                resultBuilder.append(format("--- Result %d ---\n", i + 1));
-                                
-                                // Add metadata
-                                if (doc.getMetadata().containsKey("filePath")) {
-                                    resultBuilder.append(format("File: %s\n", doc.getMetadata().get("filePath")));
-                                }
-                                
-                                // Add content (truncate if too long)
-                                String content = doc.getContent();
-                                if (content.length() > 2000) {
-                                    content = content.substring(0, 2000) + "... (truncated)";
-                                }
-                                resultBuilder.append(format("Content:\n%s\n\n", content));
-                            }
+        /**
+         * @return the chunks of the files of the session most relevant to the query
+         */
+        List<HnswIndex.Result<DocumentChunk>> search( StateView state, String query, int maxResults ) throws IOException {
+            final var index = index( state );
+            if( index.size() == 0 ) {
+                return List.of();
+            }
+            return index.search( embeddingModel.embed( query ), query, maxResults, EmbeddingTools.DEFAULT_KEYWORD_WEIGHT );
+        }
+
+        record SemanticSearchFilesArgs(
+                @JsonProperty(required = true)
+                @JsonPropertyDescription("Search query describing the content to find")
+                String query,
+                @JsonProperty(defaultValue = "5")
+                @JsonPropertyDescription("Maximum number of results to return")
+                int maxResults
+        ) {}
 
-                            return resultBuilder.toString();
+        ToolCallback semanticSearchFiles() {
+            final var typeRef = new TypeReference<SemanticSearchFilesArgs>() {};
 
-                        } catch (Exception e) {
-                            DeepAgent.log.error("Error searching embeddings", e);
-                            return format("Error searching embeddings: %s", e.getMessage());
+            return FunctionToolCallback.<SemanticSearchFilesArgs, String>builder(
+                    "semantic_search_files", (input, context) -> {
+                        DeepAgent.log.debug( "tool: 'semantic_search_files' call: {}", input );
+
+                        final List<HnswIndex.Result<DocumentChunk>> results;
+                        try {
+                            results = search( StateView.of( context ), input.query(),
+                                    input.maxResults() > 0 ? input.maxResults() : EmbeddingTools.DEFAULT_MAX_RESULTS );
+                        }
+                        catch( Exception e ) {
+                            DeepAgent.log.error( "file search: error searching files", e );
+                            return format("Error searching files: %s", e.getMessage());
+                        }
+
+                        if( results.isEmpty() ) {
+                            return format("No files found matching query: '%s'", input.query());
+                        }
+
+                        final var output = new StringBuilder()
+                                .append( format("Found %d relevant passages for query: '%s'\n\n", results.size(), input.query()) );
+
+                        for( int i = 0; i < results.size(); i++ ) {
+                            final var chunk = results.get(i).item();
+                            output.append( format("--- Result %d (score %.3f) ---\n", i + 1, results.get(i).score()) )
+                                    .append( format("File: %s (chunk %d)\n", chunk.filePath(), chunk.index()) )
+                                    .append( format("Content:\n%s\n\n", chunk.text()) );
                         }
-                        */
+                        return output.toString();
                     })
                     .inputSchema(JsonSchemaGenerator.generateForType(requireNonNull(typeRef.getType())))
-                    .description("Search embedded documents using semantic similarity. " +
-                               "Returns the most relevant document chunks for the given query. " +
-                               "The directoryPath must match the one used in embed_documents. " +
-                               "This tool performs semantic search, so it can find documents even if they don't " +
-                               "contain the exact keywords from the query. " +
-                               "Requires EmbeddingClient to be configured.")
+                    .description("Search the files of the mock filesystem by meaning and keywords. " +
+                               "Returns the passages of the files most relevant to the query, with their file path, " +
+                               "so the notes written before can be found without reading every file. " +
+                               "Use read_file to read a whole file found.")
                     .inputType(requireNonNull(typeRef.getType()))
                     .build();
         }
@@ -646,51 +822,58 @@ interface Tools {
             Tools.readFile(),
             Tools.writeFile(),
             Tools.editFile(),
-            Tools.writeTodos()
+            Tools.writeTodos(),
+            Tools.updateTodos()
     );
 
     /**
-     * Create embed_documents tool
-     * Embeds all documents in a directory for semantic search
-     * 
-     * @param embeddingClient The embedding client to use for creating embeddings
-     * @return ToolCallback for embed_documents tool
-     * 
-     * NOTE: This requires Spring AI embedding dependencies.
+     * Create all embedding tools (embed_documents, search_embeddings) sharing the same indexes
+     *
+     * @param embeddingModel the embedding model used for the documents and the queries
      */
-    static ToolCallback embedDocuments(Object embeddingClient) {
-        return new EmbeddingTools(embeddingClient).embedDocuments();
+    static List<ToolCallback> embeddingTools( EmbeddingModel embeddingModel ) {
+        return embeddingTools( embeddingModel, HnswIndex.Options.DEFAULT );
     }
 
     /**
-     * Create search_embeddings tool
-     * Searches embedded documents using semantic similarity
-     * 
-     * @param embeddingClient The embedding client to use for searching
-     * @return ToolCallback for search_embeddings tool
-     * 
-     * NOTE: This requires Spring AI embedding dependencies.
+     * @param embeddingModel the embedding model used for the documents and the queries
+     * @param indexOptions parameters of the vector indexes
      */
-    static ToolCallback searchEmbeddings(Object embeddingClient) {
-        return new EmbeddingTools(embeddingClient).searchEmbeddings();
+    static List<ToolCallback> embeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions ) {
+        return embeddingTools( embeddingModel, indexOptions, null );
     }
 
     /**
-     * Create all embedding tools with EmbeddingClient
-     * @param embeddingClient The embedding client to use for creating embeddings
-     * @return List of embedding-related tools (embed_documents, search_embeddings)
-     * 
-     * NOTE: This requires Spring AI embedding dependencies.
-     * The EmbeddingClient can be obtained from ChatModel configuration.
-     * For example, if using OpenAI:
-     *   - OpenAiChatModel implements EmbeddingModel (which extends EmbeddingClient)
-     *   - Or use OpenAiEmbeddingModel separately
+     * @param embeddingModel the embedding model used for the documents and the queries
+     * @param indexOptions parameters of the vector indexes
+     * @param storageDirectory directory where the indexes are persisted, null to keep them in memory only
      */
-    static List<ToolCallback> embeddingTools(Object embeddingClient) {
+    static List<ToolCallback> embeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory ) {
+        return embeddingTools( embeddingModel, indexOptions, storageDirectory, EmbeddingBatcher.Options.DEFAULT );
+    }
+
+    /**
+     * @param embeddingModel the embedding model used for the documents and the queries
+     * @param indexOptions parameters of the vector indexes
+     * @param storageDirectory directory where the indexes are persisted, null to keep them in memory only
+     * @param batching batch size, concurrency and retries of the embedding calls of the documents
+     */
+    static List<ToolCallback> embeddingTools( EmbeddingModel embeddingModel, HnswIndex.Options indexOptions, Path storageDirectory,
+                                              EmbeddingBatcher.Options batching ) {
+        final var tools = new EmbeddingTools( embeddingModel, indexOptions, storageDirectory, batching );
         return List.of(
-                embedDocuments(embeddingClient),
-                searchEmbeddings(embeddingClient)
+                tools.embedDocuments(),
+                tools.searchEmbeddings()
         );
     }
 
+    /**
+     * Create the semantic_search_files tool, searching the files of the virtual filesystem of the session
+     *
+     * @param embeddingModel the embedding model used for the files and the queries
+     */
+    static ToolCallback semanticSearchFiles( EmbeddingModel embeddingModel ) {
+        return new FileSearchTools( embeddingModel, HnswIndex.Options.DEFAULT ).semanticSearchFiles();
+    }
+
 }
@@ -0,0 +1,129 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fixed size float vectors stored by id in a memory mapped file, so they are kept off-heap and paged in by the OS on access.
+ * <p>
+ * The file is mapped in segments, grown on demand. Vectors of different ids can be written and read concurrently:
+ * a vector must be written before its id is published to the readers.
+ */
+final class VectorFile implements Closeable {
+
+    private static final VectorKernels KERNELS = VectorKernels.INSTANCE;
+    // a mapped buffer is limited to 2GB
+    private static final long SEGMENT_BYTES = 1L << 28;
+
+    private final Path path;
+    private final boolean temporary;
+    private final int dimensions;
+    private final int vectorsPerSegment;
+    private final java.nio.channels.FileChannel channel;
+    private volatile FloatBuffer[] segments = new FloatBuffer[0];
+
+    private VectorFile( Path path, boolean temporary, int dimensions ) throws IOException {
+        this.path = path;
+        this.temporary = temporary;
+        this.dimensions = dimensions;
+        this.vectorsPerSegment = (int)( SEGMENT_BYTES / ( (long)dimensions * Float.BYTES ) );
+        if( vectorsPerSegment == 0 ) {
+            throw new IllegalArgumentException( "dimensions exceed the segment size" );
+        }
+        this.channel = java.nio.channels.FileChannel.open( path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+    }
+
+    /**
+     * Creates a temporary file, deleted on close
+     *
+     * @param directory directory of the file, null for the default temporary directory
+     */
+    static VectorFile createTemp( Path directory, int dimensions ) throws IOException {
+        final var path = ( directory != null ) ?
+                Files.createTempFile( Files.createDirectories( directory ), "vectors-", ".bin" ) :
+                Files.createTempFile( "vectors-", ".bin" );
+        return new VectorFile( path, true, dimensions );
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    void put( int id, float[] vector ) {
+        requireNonNull( vector, "vector cannot be null" );
+        segment( id ).put( offset( id ), vector, 0, dimensions );
+    }
+
+    /**
+     * @return the vector of the given id, copied into the given array
+     */
+    float[] get( int id, float[] into ) {
+        segment( id ).get( offset( id ), into, 0, dimensions );
+        return into;
+    }
+
+    /**
+     * @return dot product of the given vector and the stored one
+     */
+    float dot( float[] vector, int id ) {
+        return KERNELS.dot( vector, segment( id ), offset( id ) );
+    }
+
+    private int offset( int id ) {
+        return ( id % vectorsPerSegment ) * dimensions;
+    }
+
+    private FloatBuffer segment( int id ) {
+        final int index = id / vectorsPerSegment;
+        final var current = segments;
+        if( index < current.length && current[index] != null ) {
+            return current[index];
+        }
+        return map( index );
+    }
+
+    private synchronized FloatBuffer map( int index ) {
+        var current = segments;
+        if( index < current.length && current[index] != null ) {
+            return current[index];
+        }
+        try {
+            // mapping beyond the end of the file grows it
+            final var buffer = channel.map( java.nio.channels.FileChannel.MapMode.READ_WRITE, index * SEGMENT_BYTES, SEGMENT_BYTES )
+                    .order( ByteOrder.nativeOrder() )
+                    .asFloatBuffer();
+            current = Arrays.copyOf( current, Math.max( current.length, index + 1 ) );
+            current[index] = buffer;
+            segments = current;
+            return buffer;
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Closes the file, deleting it when temporary. The mapped segments are released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if( temporary ) {
+            Files.deleteIfExists( path );
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Similarity kernels over dense float vectors, held in arrays or in (off-heap, possibly memory mapped) buffers.
+ * <p>
+ * {@link #INSTANCE} uses the SIMD implementation based on the incubating Vector API when the module is enabled
+ * ({@code --add-modules jdk.incubator.vector}) and the hardware supports vectors of at least 128 bits,
+ * otherwise the scalar implementation. The SIMD kernels can be disabled with {@code -Ddeepagents.vector.simd=false}.
+ */
+interface VectorKernels {
+
+    VectorKernels INSTANCE = load();
+
+    float dot( float[] a, float[] b );
+
+    float cosine( float[] a, float[] b );
+
+    float squareDistance( float[] a, float[] b );
+
+    /**
+     * @param b buffer holding the second vector
+     * @param index index of the first element of the second vector in the buffer
+     */
+    float dot( float[] a, FloatBuffer b, int index );
+
+    float squareDistance( float[] a, FloatBuffer b, int index );
+
+    static VectorKernels scalar() {
+        return ScalarVectorKernels.INSTANCE;
+    }
+
+    private static VectorKernels load() {
+        if( Boolean.parseBoolean( System.getProperty( "deepagents.vector.simd", "true" ) ) &&
+                ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isPresent() ) {
+            try {
+                final var simd = Class.forName( VectorKernels.class.getPackageName() + ".SimdVectorKernels" );
+                if( (boolean)simd.getDeclaredMethod( "isSupported" ).invoke( null ) ) {
+                    return (VectorKernels)simd.getDeclaredConstructor().newInstance();
+                }
+            }
+            catch( ReflectiveOperationException | LinkageError e ) {
+                DeepAgent.log.warn( "vector kernels: SIMD implementation not available, using the scalar one", e );
+            }
+        }
+        return scalar();
+    }
+}
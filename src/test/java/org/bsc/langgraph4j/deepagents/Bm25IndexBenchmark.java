@@ -0,0 +1,71 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the top-k keyword query latency of {@link Bm25Index} over synthetic code chunks: each chunk mixes
+ * words of a small common vocabulary with a few identifiers of a large one, the queries combine both.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.Bm25IndexBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class Bm25IndexBenchmark {
+
+    private static final String[] COMMON = {
+            "the", "return", "value", "of", "public", "static", "final", "string", "list", "map", "for", "if", "new", "int" };
+
+    @Param({ "100000" })
+    public int size;
+
+    @Param({ "10" })
+    public int k;
+
+    private Bm25Index<DocumentChunk> index;
+    private String[] queries;
+
+    private static String identifier( int i ) {
+        return "get" + Integer.toString( i, 36 ) + "Value";
+    }
+
+    @Setup
+    public void setup() {
+        index = new Bm25Index<>( DocumentChunk::text, DocumentChunk::filePath );
+        final long start = System.nanoTime();
+        IntStream.range( 0, size ).parallel().forEach( i -> {
+            final var random = new Random( i );
+            final var text = new StringBuilder();
+            for( int word = 0; word < 150; ++word ) {
+                text.append( ( word % 10 == 0 ) ? identifier( random.nextInt( size ) ) : COMMON[ random.nextInt( COMMON.length ) ] )
+                        .append( ' ' );
+            }
+            index.add( new DocumentChunk( "file" + ( i / 10 ) + ".java", "text", i % 10, text.toString() ) );
+        });
+        System.out.printf( "%nkeyword index of %d chunks built in %d ms%n", size, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+
+        final var random = new Random( -1 );
+        queries = new String[ 1024 ];
+        for( int i = 0; i < queries.length; ++i ) {
+            queries[i] = "return the " + identifier( random.nextInt( size ) );
+        }
+    }
+
+    @Benchmark
+    public List<HnswIndex.Result<DocumentChunk>> search() {
+        return index.search( queries[ ThreadLocalRandom.current().nextInt( queries.length ) ], k );
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { Bm25IndexBenchmark.class.getSimpleName() } );
+    }
+}
@@ -0,0 +1,230 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Case-insensitive search of a text in UTF-8 bytes, e.g. a memory-mapped file, without decoding them to a String.
+ * <p>
+ * The bytes are lower-cased on the fly and fed to a Knuth-Morris-Pratt automaton of the lower-cased text, so a
+ * search allocates nothing and reads each byte once. The ASCII letters are folded in place; the other characters
+ * are decoded and lower-cased as {@link Character#toLowerCase(int)}, except the capital I with dot above that
+ * becomes {@code i} followed by a combining dot above, as {@link String#toLowerCase()} and the {@link TrigramIndex}
+ * do. When the text is made of ASCII bytes only, the only characters decoded are the two whose lower case is ASCII:
+ * the Kelvin sign and the capital I with dot above. Invalid UTF-8 sequences are matched byte by byte.
+ */
+final class CaseInsensitiveMatcher {
+
+    private final byte[] pattern;
+    // length of the longest proper prefix of pattern[0..i] that is also a suffix of it
+    private final int[] failure;
+    private final boolean ascii;
+    // first byte of the text and its ASCII capital
+    private final byte first;
+    private final byte firstUpper;
+
+    private CaseInsensitiveMatcher( byte[] pattern ) {
+        this.pattern = pattern;
+        this.failure = new int[ pattern.length ];
+        for( int i = 1, k = 0; i < pattern.length; ++i ) {
+            while( k > 0 && pattern[i] != pattern[k] ) {
+                k = failure[ k - 1 ];
+            }
+            if( pattern[i] == pattern[k] ) {
+                ++k;
+            }
+            failure[i] = k;
+        }
+        boolean allAscii = true;
+        for( byte b : pattern ) {
+            allAscii &= b >= 0;
+        }
+        this.ascii = allAscii;
+        this.first = ( pattern.length > 0 ) ? pattern[0] : 0;
+        this.firstUpper = ( first >= 'a' && first <= 'z' ) ? (byte)( first & ~0x20 ) : first;
+    }
+
+    /**
+     * @return a matcher of the given text, case-insensitively
+     */
+    static CaseInsensitiveMatcher of( String text ) {
+        final var bytes = requireNonNull( text, "text cannot be null" ).getBytes( StandardCharsets.UTF_8 );
+        final var buffer = ByteBuffer.wrap( bytes );
+        final var folded = new ByteArrayOutputStream( bytes.length );
+        for( int i = 0; i < bytes.length; ) {
+            final long result = fold( buffer, i, bytes.length );
+            for( int k = 0; k < produced( result ); ++k ) {
+                folded.write( output( result, k ) );
+            }
+            i += consumed( result );
+        }
+        return new CaseInsensitiveMatcher( folded.toByteArray() );
+    }
+
+    /**
+     * @return number of bytes of the lower-cased text, the state of a match
+     */
+    int length() {
+        return pattern.length;
+    }
+
+    /**
+     * @return true if the bytes between the position and the limit of the buffer contain the text
+     */
+    boolean matches( ByteBuffer buffer ) {
+        return find( buffer, buffer.position(), buffer.limit(), 0 ) == pattern.length;
+    }
+
+    /**
+     * Feeds the bytes from {@code from} to {@code to} of the buffer to the automaton, stopping at the first match.
+     * A search over several buffers passes the state returned for a buffer to the next one; the buffers must not
+     * split a UTF-8 sequence.
+     *
+     * @param state state returned by the previous call, 0 at the start of the content
+     * @return the state after the bytes, {@link #length()} if the text has been found
+     */
+    int find( ByteBuffer buffer, int from, int to, int state ) {
+        if( state == pattern.length ) {
+            return state;
+        }
+        for( int i = from; i < to; ) {
+            if( state == 0 ) {
+                // skips the bytes that cannot start the text without stepping the automaton
+                while( i < to && !mayStart( buffer.get( i ) ) ) {
+                    ++i;
+                }
+                if( i == to ) {
+                    break;
+                }
+            }
+            final byte b = buffer.get( i );
+            if( b >= 0 ) {
+                state = step( state, ( b >= 'A' && b <= 'Z' ) ? (byte)( b | 0x20 ) : b );
+                ++i;
+                if( state == pattern.length ) {
+                    return state;
+                }
+            }
+            else if( ascii && b != (byte)0xE2 && b != (byte)0xC4 ) {
+                // neither a Kelvin sign nor a capital I with dot above: cannot match an ASCII byte
+                state = 0;
+                ++i;
+            }
+            else {
+                final long result = fold( buffer, i, to );
+                for( int k = 0; k < produced( result ); ++k ) {
+                    state = step( state, (byte)output( result, k ) );
+                    if( state == pattern.length ) {
+                        return state;
+                    }
+                }
+                i += consumed( result );
+            }
+        }
+        return state;
+    }
+
+    private boolean mayStart( byte b ) {
+        if( b >= 0 ) {
+            return b == first || b == firstUpper;
+        }
+        return !ascii || b == (byte)0xE2 || b == (byte)0xC4;
+    }
+
+    private int step( int state, byte b ) {
+        while( state > 0 && pattern[ state ] != b ) {
+            state = failure[ state - 1 ];
+        }
+        return ( pattern[ state ] == b ) ? state + 1 : state;
+    }
+
+    /**
+     * @return length of the UTF-8 sequence starting with the given byte, 1 for a continuation or invalid byte
+     */
+    static int sequenceLength( byte lead ) {
+        final int b = lead & 0xFF;
+        if( b >= 0xF0 && b <= 0xF4 ) {
+            return 4;
+        }
+        if( b >= 0xE0 ) {
+            return ( b <= 0xEF ) ? 3 : 1;
+        }
+        return ( b >= 0xC2 ) ? 2 : 1;
+    }
+
+    /**
+     * Lower-cases the character at the given index
+     *
+     * @return the bytes consumed, the bytes produced (up to 4) and their values, packed as read by
+     * {@link #consumed(long)}, {@link #produced(long)} and {@link #output(long, int)}
+     */
+    private static long fold( ByteBuffer buffer, int i, int limit ) {
+        final byte lead = buffer.get( i );
+        if( lead >= 0 ) {
+            return pack( 1, 1, ( lead >= 'A' && lead <= 'Z' ) ? ( lead | 0x20 ) : lead );
+        }
+        final int length = sequenceLength( lead );
+        if( length == 1 || i + length > limit ) {
+            return pack( 1, 1, lead & 0xFF );
+        }
+        int codePoint = lead & ( 0xFF >> ( length + 1 ) );
+        for( int k = 1; k < length; ++k ) {
+            final byte next = buffer.get( i + k );
+            if( ( next & 0xC0 ) != 0x80 ) {
+                return pack( 1, 1, lead & 0xFF );
+            }
+            codePoint = ( codePoint << 6 ) | ( next & 0x3F );
+        }
+        if( codePoint == 0x130 ) {
+            // i and combining dot above
+            return pack( length, 3, 'i' | ( 0xCC << 8 ) | ( 0x87 << 16 ) );
+        }
+        final int lower = Character.toLowerCase( codePoint );
+        if( lower == codePoint ) {
+            int bytes = 0;
+            for( int k = length - 1; k >= 0; --k ) {
+                bytes = ( bytes << 8 ) | ( buffer.get( i + k ) & 0xFF );
+            }
+            return pack( length, length, bytes );
+        }
+        return encode( length, lower );
+    }
+
+    private static long encode( int consumed, int codePoint ) {
+        if( codePoint < 0x80 ) {
+            return pack( consumed, 1, codePoint );
+        }
+        if( codePoint < 0x800 ) {
+            return pack( consumed, 2, ( 0xC0 | ( codePoint >> 6 ) )
+                    | ( ( 0x80 | ( codePoint & 0x3F ) ) << 8 ) );
+        }
+        if( codePoint < 0x10000 ) {
+            return pack( consumed, 3, ( 0xE0 | ( codePoint >> 12 ) )
+                    | ( ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) ) << 8 )
+                    | ( ( 0x80 | ( codePoint & 0x3F ) ) << 16 ) );
+        }
+        return pack( consumed, 4, ( 0xF0 | ( codePoint >> 18 ) )
+                | ( ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) ) << 8 )
+                | ( ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) ) << 16 )
+                | ( ( 0x80 | ( codePoint & 0x3F ) ) << 24 ) );
+    }
+
+    private static long pack( int consumed, int produced, int bytes ) {
+        return ( (long)consumed << 40 ) | ( (long)produced << 32 ) | ( bytes & 0xFFFFFFFFL );
+    }
+
+    private static int consumed( long result ) {
+        return (int)( result >>> 40 );
+    }
+
+    private static int produced( long result ) {
+        return (int)( result >>> 32 ) & 0xFF;
+    }
+
+    private static int output( long result, int k ) {
+        return (int)( result >>> ( 8 * k ) ) & 0xFF;
+    }
+}
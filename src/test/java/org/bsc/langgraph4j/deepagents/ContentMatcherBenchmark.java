@@ -0,0 +1,115 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the content search of a synthetic source tree, each file decoded to a String and lower-cased, with
+ * the matching of its memory-mapped UTF-8 bytes by a {@link CaseInsensitiveMatcher}. A file in a hundred has
+ * comments with accented letters; the queries are found in a few files only, so most files are read fully.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.ContentMatcherBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ContentMatcherBenchmark {
+
+    private static final String[] WORDS = {
+            "return", "value", "public", "static", "final", "String", "List", "Map", "for", "if", "new", "int", "this" };
+
+    @Param({ "2000" })
+    public int files;
+
+    @Param({ "16384" })
+    public int fileSize;
+
+    // an ASCII identifier and an accented word
+    @Param({ "getMaxValue42", "d\u00e9j\u00e0 vu" })
+    public String query;
+
+    private Path root;
+    private List<Path> sources;
+    private ContentScanner scanner;
+    private CaseInsensitiveMatcher matcher;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory( "content-matcher-benchmark" );
+        sources = new ArrayList<>( files );
+        final var random = new Random( 42 );
+        for( int i = 0; i < files; ++i ) {
+            final var text = new StringBuilder( fileSize + 64 );
+            text.append( "package org.example.p" ).append( i % 50 ).append( ";\n\npublic class Source" ).append( i ).append( " {\n" );
+            while( text.length() < fileSize ) {
+                if( i % 100 == 0 && random.nextInt( 20 ) == 0 ) {
+                    text.append( "    // R\u00e9sum\u00e9 du caf\u00e9, \u00c9T\u00c9\n" );
+                }
+                text.append( "    " );
+                for( int w = 0; w < 8; ++w ) {
+                    text.append( WORDS[ random.nextInt( WORDS.length ) ] ).append( ( w == 3 ) ? " get" + random.nextInt( 10_000 ) + "Value" : "" ).append( ' ' );
+                }
+                text.append( ";\n" );
+            }
+            if( i % 500 == 499 ) {
+                text.append( "    int getMaxValue42() { return 0; } // D\u00c9J\u00c0 VU\n" );
+            }
+            text.append( "}\n" );
+            final var file = root.resolve( "Source" + i + ".java" );
+            Files.writeString( file, text, StandardCharsets.UTF_8 );
+            sources.add( file );
+        }
+        scanner = new ContentScanner( ContentScanner.Options.builder().threads( 1 ).build() );
+        matcher = CaseInsensitiveMatcher.of( query );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        scanner.close();
+        try( Stream<Path> paths = Files.walk( root ) ) {
+            for( var path : paths.sorted( Comparator.reverseOrder() ).toList() ) {
+                Files.delete( path );
+            }
+        }
+    }
+
+    @Benchmark
+    public int decodedStrings() throws IOException {
+        final var lowerQuery = query.toLowerCase();
+        int count = 0;
+        for( var file : sources ) {
+            if( Files.readString( file, StandardCharsets.UTF_8 ).toLowerCase().contains( lowerQuery ) ) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int mappedBytes() throws IOException {
+        int count = 0;
+        for( var file : sources ) {
+            if( scanner.contains( file, matcher, () -> false ) ) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { ContentMatcherBenchmark.class.getSimpleName() } );
+    }
+}
@@ -0,0 +1,188 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parallel scan of a list of files, for the first ones matching a predicate.
+ * <p>
+ * The workers of a bounded work-stealing pool claim the files in list order; once {@code maxResults} files have
+ * matched, the files after the last of them can no longer be in the results, so the workers stop claiming them and
+ * the ones being read are told to give up. The results are the first matching files in list order, whatever the
+ * order in which the workers found them.
+ */
+final class ContentScanner implements Closeable {
+
+    /**
+     * @param threads maximum number of files scanned at once
+     * @param chunkSize number of bytes of a file mapped in memory at a time
+     */
+    record Options( int threads, int chunkSize ) {
+
+        static final Options DEFAULT = builder().build();
+
+        Options {
+            if( threads <= 0 ) {
+                throw new IllegalArgumentException( "threads must be greater than zero" );
+            }
+            if( chunkSize < 4 ) {
+                // the longest UTF-8 sequence
+                throw new IllegalArgumentException( "chunkSize must be at least 4" );
+            }
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        static class Builder {
+            private int threads = Runtime.getRuntime().availableProcessors();
+            private int chunkSize = 4 * 1024 * 1024;
+
+            Builder threads( int threads ) {
+                this.threads = threads;
+                return this;
+            }
+
+            Builder chunkSize( int chunkSize ) {
+                this.chunkSize = chunkSize;
+                return this;
+            }
+
+            Options build() {
+                return new Options( threads, chunkSize );
+            }
+        }
+    }
+
+    private final Options options;
+    private final ForkJoinPool pool;
+
+    ContentScanner( Options options ) {
+        this.options = requireNonNull( options, "options cannot be null" );
+        this.pool = new ForkJoinPool( options.threads() );
+    }
+
+    Options options() {
+        return options;
+    }
+
+    /**
+     * @param matcher tests an item, giving up when the supplier returns true since its result is no longer needed
+     * @return the first {@code maxResults} items matched, in list order
+     */
+    <T> List<T> scan( List<T> items, int maxResults, BiPredicate<T,BooleanSupplier> matcher ) {
+        requireNonNull( items, "items cannot be null" );
+        requireNonNull( matcher, "matcher cannot be null" );
+        if( maxResults <= 0 || items.isEmpty() ) {
+            return List.of();
+        }
+        final var scan = new Scan<>( items, maxResults, matcher );
+        final int workers = Math.min( options.threads(), items.size() );
+        final var tasks = new ArrayList<ForkJoinTask<?>>( workers );
+        for( int i = 0; i < workers; ++i ) {
+            tasks.add( pool.submit( scan::work ) );
+        }
+        tasks.forEach( ForkJoinTask::join );
+        return scan.results();
+    }
+
+    private static final class Scan<T> {
+        private final List<T> items;
+        private final int maxResults;
+        private final BiPredicate<T,BooleanSupplier> matcher;
+        private final AtomicInteger next = new AtomicInteger();
+        private final ConcurrentSkipListSet<Integer> matches = new ConcurrentSkipListSet<>();
+        // index of the last of the first maxResults matches: the items after it cannot be in the results
+        private volatile int bound = Integer.MAX_VALUE;
+
+        Scan( List<T> items, int maxResults, BiPredicate<T,BooleanSupplier> matcher ) {
+            this.items = items;
+            this.maxResults = maxResults;
+            this.matcher = matcher;
+        }
+
+        void work() {
+            for( int i = next.getAndIncrement(); i < items.size() && i < bound; i = next.getAndIncrement() ) {
+                final int index = i;
+                if( matcher.test( items.get( index ), () -> index > bound ) ) {
+                    matches.add( index );
+                    if( matches.size() >= maxResults ) {
+                        updateBound();
+                    }
+                }
+            }
+        }
+
+        private synchronized void updateBound() {
+            int count = 0;
+            for( int index : matches ) {
+                if( ++count == maxResults ) {
+                    bound = Math.min( bound, index );
+                    return;
+                }
+            }
+        }
+
+        List<T> results() {
+            return matches.stream().limit( maxResults ).map( items::get ).toList();
+        }
+    }
+
+    /**
+     * Maps the file in memory, chunk by chunk, and matches its UTF-8 bytes until the text is found
+     *
+     * @param cancelled checked between the chunks, the file is not read further once it returns true
+     * @return true if the file contains the text
+     */
+    boolean contains( Path file, CaseInsensitiveMatcher matcher, BooleanSupplier cancelled ) throws IOException {
+        try( var channel = java.nio.channels.FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final long size = channel.size();
+            int state = 0;
+            for( long start = 0; start < size; ) {
+                if( cancelled.getAsBoolean() ) {
+                    return false;
+                }
+                final int length = (int)Math.min( size - start, options.chunkSize() );
+                final var chunk = channel.map( java.nio.channels.FileChannel.MapMode.READ_ONLY, start, length );
+                // a character across the end of the chunk is matched with the next one
+                final int end = ( start + length < size ) ? lastSequenceEnd( chunk, length ) : length;
+                state = matcher.find( chunk, 0, end, state );
+                if( state == matcher.length() ) {
+                    return true;
+                }
+                start += end;
+            }
+            return matcher.length() == 0;
+        }
+    }
+
+    /**
+     * @return the length of the chunk without the last UTF-8 sequence if it is cut
+     */
+    private static int lastSequenceEnd( ByteBuffer chunk, int length ) {
+        int lead = length - 1;
+        while( lead > 0 && lead > length - 4 && ( chunk.get( lead ) & 0xC0 ) == 0x80 ) {
+            --lead;
+        }
+        return ( lead + CaseInsensitiveMatcher.sequenceLength( chunk.get( lead ) ) > length ) ? lead : length;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,95 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time to embed a directory of small documents with {@link Tools.EmbeddingTools}, offline:
+ * the {@link HashEmbeddingModel} simulates the round trip of a remote model with a fixed latency per call.
+ * Compares chunk by chunk calls with calls batched across files and issued concurrently.
+ * The throughput and queue depths of the pipeline stages are printed after each iteration.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.EmbeddingIngestionBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class EmbeddingIngestionBenchmark {
+
+    @Param({ "200" })
+    public int files;
+
+    @Param({ "10" })
+    public int latencyMillis;
+
+    @Param({ "1", "64" })
+    public int batchSize;
+
+    @Param({ "1", "4" })
+    public int concurrency;
+
+    private Path directory;
+    private HashEmbeddingModel model;
+    private Tools.EmbeddingTools tools;
+    private DocumentIngester.Summary summary;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory( "ingestion-" );
+        for( int i = 0; i < files; ++i ) {
+            final var content = new StringBuilder();
+            for( int line = 0; line < 40; ++line ) {
+                content.append( "document " ).append( i ).append( " line " ).append( line )
+                        .append( " about topic " ).append( ( i * 7 + line ) % 50 ).append( '\n' );
+            }
+            Files.writeString( directory.resolve( "doc" + i + ".md" ), content );
+        }
+        model = new HashEmbeddingModel( 384, Duration.ofMillis( latencyMillis ) );
+    }
+
+    @Setup(Level.Invocation)
+    public void newTools() {
+        // in memory, so every invocation embeds all the files
+        tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, null, EmbeddingBatcher.Options.builder()
+                .batchSize( batchSize )
+                .concurrency( concurrency )
+                .build() );
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStages() {
+        if( summary != null ) {
+            System.out.println();
+            summary.stages().forEach( System.out::println );
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try( Stream<Path> paths = Files.walk( directory ) ) {
+            for( var path : paths.sorted( Comparator.reverseOrder() ).toList() ) {
+                Files.delete( path );
+            }
+        }
+    }
+
+    @Benchmark
+    public DocumentIngester.Summary embedDirectory() throws IOException {
+        summary = tools.embedDirectory( directory, new TextChunker( 100, 20, Tokenizer.heuristic() ) );
+        return summary;
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { EmbeddingIngestionBenchmark.class.getSimpleName() } );
+    }
+}
@@ -11,9 +11,8 @@ import java.util.List;
  * Example: How to use embedding tools with DeepAgent
  * 
  * NOTE: This is a template. You need to:
- * 1. Configure EmbeddingClient bean
- * 2. Uncomment the embedding tools code in Tools.java
- * 3. Add the tools to your agent
+ * 1. Configure an EmbeddingModel bean (e.g. from spring-ai-openai or spring-ai-ollama)
+ * 2. Add the tools to your agent
  */
 @Configuration
 public class EmbeddingToolsExample {
@@ -21,17 +20,17 @@ public class EmbeddingToolsExample {
     /**
      * Example: Create an agent with embedding tools
      * 
-     * Uncomment and modify when EmbeddingClient is available:
+     * Uncomment and modify when an EmbeddingModel bean is available:
      */
     /*
     @Bean
-    public List<ToolCallback> embeddingTools(EmbeddingClient embeddingClient) {
-        return Tools.embeddingTools(embeddingClient);
+    public List<ToolCallback> embeddingTools(EmbeddingModel embeddingModel) {
+        return Tools.embeddingTools(embeddingModel);
     }
 
-    public void exampleUsage(ChatModel chatModel, EmbeddingClient embeddingClient) {
+    public void exampleUsage(ChatModel chatModel, EmbeddingModel embeddingModel) {
         // Get embedding tools
-        List<ToolCallback> embeddingTools = Tools.embeddingTools(embeddingClient);
+        List<ToolCallback> embeddingTools = Tools.embeddingTools(embeddingModel);
         
         // Create agent with embedding tools
         var agent = DeepAgent.builder()
@@ -0,0 +1,291 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-memory snapshot of the files under some root directories: path, size, modification time and whether the file
+ * is binary. The searches read the snapshot instead of walking the directories.
+ * <p>
+ * The snapshot is taken by walking the roots once, then updated incrementally from the events of a {@link WatchService}
+ * registered on every directory: only the created, modified and deleted paths are read again. A periodic rescan makes up
+ * for the events lost (an overflow triggers one at once) and for the directories that cannot be watched,
+ * e.g. on network filesystems or above the limit of watches of the system; it only probes the files whose size
+ * or modification time have changed.
+ */
+final class FileTreeSnapshot implements Closeable {
+
+    // size of the files checked for NUL bytes
+    private static final int BINARY_PROBE_SIZE = 512;
+
+    /**
+     * @param binary true if the first bytes of the file contain a NUL byte
+     */
+    record Entry( String path, long size, long lastModified, boolean binary ) {}
+
+    private final List<Path> roots;
+    // path -> file, in path order. The paths under a directory are the ones between the directory followed by the
+    // separator and the directory followed by the character after the separator, e.g. "src/" and "src0"
+    private final NavigableMap<String,Entry> files = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String,Boolean> directories = new ConcurrentSkipListMap<>();
+    private final Map<WatchKey,Path> watched = new ConcurrentHashMap<>();
+    private final WatchService watchService;
+    private final Thread watcher;
+    private final ScheduledExecutorService rescanner;
+
+    /**
+     * Takes the snapshot of the existing roots and starts watching them
+     *
+     * @param rescanInterval interval of the rescans of the roots, null to never rescan
+     */
+    FileTreeSnapshot( List<Path> roots, Duration rescanInterval ) throws IOException {
+        this.roots = List.copyOf( requireNonNull( roots, "roots cannot be null" ) );
+        this.watchService = FileSystems.getDefault().newWatchService();
+        final long start = System.nanoTime();
+        rescan();
+        DeepAgent.log.info( "file tree: {} files in {} directories scanned in {} ms",
+                files.size(), directories.size(), ( System.nanoTime() - start ) / 1_000_000 );
+
+        watcher = new Thread( this::watch, "file-tree-watcher" );
+        watcher.setDaemon( true );
+        watcher.start();
+
+        if( rescanInterval != null ) {
+            rescanner = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                final var thread = new Thread( runnable, "file-tree-rescanner" );
+                thread.setDaemon( true );
+                return thread;
+            });
+            rescanner.scheduleWithFixedDelay( this::rescanQuietly, rescanInterval.toMillis(), rescanInterval.toMillis(), TimeUnit.MILLISECONDS );
+        }
+        else {
+            rescanner = null;
+        }
+    }
+
+    /**
+     * @return number of files
+     */
+    int size() {
+        return files.size();
+    }
+
+    /**
+     * @return the file of the given path, or null if not in the snapshot
+     */
+    Entry file( Path path ) {
+        return files.get( path.toString() );
+    }
+
+    /**
+     * @return the files under the given directory, in path order
+     */
+    Stream<Entry> files( Path directory ) {
+        return under( files, directory ).values().stream();
+    }
+
+    /**
+     * @return the directories under the given directory, in path order
+     */
+    Stream<String> directories( Path directory ) {
+        return under( directories, directory ).keySet().stream();
+    }
+
+    private static <V> NavigableMap<String,V> under( NavigableMap<String,V> map, Path directory ) {
+        final var separator = directory.getFileSystem().getSeparator();
+        final var path = directory.toString();
+        final var from = path.endsWith( separator ) ? path : path + separator;
+        final int last = from.length() - 1;
+        final var to = from.substring( 0, last ) + (char)( from.charAt( last ) + 1 );
+        return map.subMap( from, true, to, false );
+    }
+
+    /**
+     * Walks the roots again: adds the new files and directories, probes the changed files and removes the deleted ones
+     */
+    synchronized void rescan() throws IOException {
+        final var seenFiles = new HashSet<String>();
+        final var seenDirectories = new HashSet<String>();
+        for( var root : roots ) {
+            if( Files.isDirectory( root ) ) {
+                scan( root, seenFiles, seenDirectories );
+            }
+        }
+        files.keySet().retainAll( seenFiles );
+        directories.keySet().retainAll( seenDirectories );
+    }
+
+    private void rescanQuietly() {
+        try {
+            rescan();
+        }
+        catch( Exception e ) {
+            DeepAgent.log.warn( "file tree: rescan failed", e );
+        }
+    }
+
+    private void scan( Path directory, Set<String> seenFiles, Set<String> seenDirectories ) throws IOException {
+        Files.walkFileTree( directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attributes ) {
+                seenDirectories.add( dir.toString() );
+                if( directories.putIfAbsent( dir.toString(), Boolean.TRUE ) == null ) {
+                    register( dir );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attributes ) {
+                if( attributes.isRegularFile() ) {
+                    seenFiles.add( file.toString() );
+                    update( file, attributes );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( Path file, IOException e ) {
+                DeepAgent.log.debug( "file tree: cannot read '{}'", file, e );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register( Path directory ) {
+        try {
+            watched.put( directory.register( watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY ), directory );
+        }
+        catch( IOException | ClosedWatchServiceException e ) {
+            // kept up to date by the rescans
+            DeepAgent.log.debug( "file tree: cannot watch '{}'", directory, e );
+        }
+    }
+
+    /**
+     * Updates the file, probing it only if it has changed
+     */
+    private void update( Path file, BasicFileAttributes attributes ) {
+        final var key = file.toString();
+        final var previous = files.get( key );
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        if( previous != null && previous.size() == attributes.size() && previous.lastModified() == lastModified ) {
+            return;
+        }
+        files.put( key, new Entry( key, attributes.size(), lastModified, isBinary( file ) ) );
+    }
+
+    /**
+     * @return true if the first bytes of the file contain a NUL byte
+     */
+    static boolean isBinary( Path file ) {
+        try( var in = Files.newInputStream( file ) ) {
+            final var bytes = in.readNBytes( BINARY_PROBE_SIZE );
+            for( byte b : bytes ) {
+                if( b == 0 ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch( IOException e ) {
+            DeepAgent.log.debug( "file tree: cannot probe '{}'", file, e );
+            return false;
+        }
+    }
+
+    private void watch() {
+        try {
+            while( true ) {
+                final var key = watchService.take();
+                final var directory = watched.get( key );
+                for( var event : key.pollEvents() ) {
+                    if( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                        DeepAgent.log.debug( "file tree: events lost, rescanning" );
+                        rescanQuietly();
+                    }
+                    else if( directory != null ) {
+                        changed( directory.resolve( (Path)event.context() ), event.kind() );
+                    }
+                }
+                if( !key.reset() ) {
+                    watched.remove( key );
+                }
+            }
+        }
+        catch( InterruptedException | ClosedWatchServiceException e ) {
+            // closed
+        }
+    }
+
+    /**
+     * Reads again a path created, modified or deleted
+     */
+    private synchronized void changed( Path path, WatchEvent.Kind<?> kind ) {
+        try {
+            final var attributes = Files.readAttributes( path, BasicFileAttributes.class );
+            if( attributes.isDirectory() ) {
+                if( kind == StandardWatchEventKinds.ENTRY_CREATE || !directories.containsKey( path.toString() ) ) {
+                    // its content may have been created before it was watched
+                    scan( path, new HashSet<>(), new HashSet<>() );
+                }
+            }
+            else if( attributes.isRegularFile() ) {
+                update( path, attributes );
+            }
+        }
+        catch( NoSuchFileException e ) {
+            final var key = path.toString();
+            files.remove( key );
+            under( files, path ).clear();
+            directories.remove( key );
+            under( directories, path ).clear();
+        }
+        catch( IOException e ) {
+            DeepAgent.log.debug( "file tree: cannot read '{}'", path, e );
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( rescanner != null ) {
+            rescanner.shutdownNow();
+        }
+        watchService.close();
+        try {
+            watcher.join( 1000 );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the top-k query latency of {@link HnswIndex}. The index is built with concurrent inserts.
+ * The setup reports the estimated heap of the index and the recall@k on a sample of queries,
+ * to compare the quantized indexes with the full precision one.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.HnswIndexBenchmark}
+ * <br>
+ * The 1M chunks case needs a large heap, e.g. {@code -p size=1000000 -jvmArgs -Xmx8g}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HnswIndexBenchmark {
+
+    @Param({ "100000" })
+    public int size;
+
+    @Param({ "384" })
+    public int dimensions;
+
+    @Param({ "10" })
+    public int k;
+
+    @Param({ "NONE", "INT8", "BINARY" })
+    public HnswIndex.Quantization quantization;
+
+    private HnswIndex<Integer> index;
+    private float[][] queries;
+
+    @Setup
+    public void setup() {
+        index = new HnswIndex<>( dimensions, HnswIndex.Options.builder().quantization( quantization ).build() );
+        final var vectors = new float[ size ][];
+        final long start = System.nanoTime();
+        IntStream.range( 0, size ).parallel().forEach( i -> {
+            vectors[i] = TestHnswIndex.randomVectors( 1, dimensions, i )[0];
+            index.add( vectors[i], i );
+        });
+        System.out.printf( "%nindex of %d vectors built in %d ms%n", size, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+
+        queries = TestHnswIndex.randomVectors( 1024, dimensions, -1 );
+
+        final var sample = Arrays.copyOf( queries, 20 );
+        System.out.printf( "%s: heap %d MB, recall@%d %.3f%n", quantization, index.memoryBytes() >> 20, k,
+                TestHnswIndex.recall( index, vectors, sample, k ) );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Benchmark
+    public List<HnswIndex.Result<Integer>> search() {
+        return index.search( queries[ ThreadLocalRandom.current().nextInt( queries.length ) ], k );
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { HnswIndexBenchmark.class.getSimpleName() } );
+    }
+}
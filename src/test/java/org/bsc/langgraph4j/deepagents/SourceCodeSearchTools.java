@@ -10,28 +10,62 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
 
 /**
- * Tools for searching and reading source code from the file system
+ * Tools for searching and reading source code from the file system.
+ * <p>
+ * The content search reads only the files that may contain the query according to a {@link TrigramIndex} of
+ * {@code source.src_target}, stored in {@code source.index_dir}. The index is opened or built in background at startup,
+ * and rebuilt on demand by {@link #rebuildIndex()}; until it is ready, and for the files changed since it was built,
+ * the files are read.
+ * <p>
+ * The files of {@code source.src_target} and {@code source.doc_target} are listed from a {@link FileTreeSnapshot}, taken
+ * at startup and kept up to date by a watch service, so that the tools never walk the directories. The files are
+ * scanned in parallel by a {@link ContentScanner}, which stops once enough files have matched.
  */
 @Component
 public class SourceCodeSearchTools {
 
+    // share of changed files above which the index found at startup is rebuilt
+    private static final double STALE_RATIO = 0.05;
+    // interval of the rescans catching the changes missed by the watch service
+    private static final Duration RESCAN_INTERVAL = Duration.ofMinutes(5);
+
     private final String srcTarget;
     private final String docTarget;
+    private final Path indexFile;
+    private final Object indexLock = new Object();
+    private volatile TrigramIndex index;
+    private final CompletableFuture<FileTreeSnapshot> snapshot = new CompletableFuture<>();
+    private final ContentScanner scanner = new ContentScanner(ContentScanner.Options.DEFAULT);
 
     public SourceCodeSearchTools(
             @Value("${source.src_target:src/main/java}") String srcTarget,
-            @Value("${source.doc_target:docs}") String docTarget) {
+            @Value("${source.doc_target:docs}") String docTarget,
+            @Value("${source.index_dir:}") String indexDir) {
         this.srcTarget = srcTarget;
         this.docTarget = docTarget;
+        final var indexDirectory = ( indexDir == null || indexDir.isBlank() )
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "deepagents-source-index")
+                : Paths.get(indexDir);
+        final var srcKey = Paths.get(srcTarget).toAbsolutePath().normalize().toString();
+        this.indexFile = indexDirectory.resolve("trigrams-" + UUID.nameUUIDFromBytes(srcKey.getBytes(StandardCharsets.UTF_8)) + ".idx");
+
+        final var indexer = new Thread(this::startup, "source-index-startup");
+        indexer.setDaemon(true);
+        indexer.start();
     }
 
     record SearchSourceArgs(
@@ -76,41 +110,38 @@ public class SourceCodeSearchTools {
                         queryWithoutExt = normalizedQuery;
                     }
 
-                    try (Stream<Path> paths = Files.walk(srcPath)) {
-                        // First, try exact filename match
-                        List<Path> exactMatches = paths
-                                .filter(Files::isRegularFile)
-                                .filter(path -> isSourceFile(path))
-                                .filter(path -> {
-                                    String fileName = path.getFileName().toString().toLowerCase();
-                                    return fileName.equals(normalizedQuery) || 
-                                           fileName.startsWith(queryWithoutExt + ".");
-                                })
-                                .limit(input.maxResults())
-                                .collect(Collectors.toList());
-                        
-                        if (!exactMatches.isEmpty()) {
-                            results = exactMatches.stream()
-                                    .map(path -> path.toString())
-                                    .collect(Collectors.toList());
-                            DeepAgent.log.info("Found {} exact filename matches", results.size());
-                            return results;
-                        }
-                        
-                        // If no exact match, try content search
-                        try (Stream<Path> paths2 = Files.walk(srcPath)) {
-                            results = paths2
-                                    .filter(Files::isRegularFile)
-                                    .filter(path -> isSourceFile(path))
-                                    .filter(path -> containsQuery(path, input.query()))
-                                    .limit(input.maxResults())
-                                    .map(path -> path.toString())
-                                    .collect(Collectors.toList());
-                        }
-                    } catch (IOException e) {
-                        DeepAgent.log.error("Error searching source files", e);
-                        return List.of("Error: " + e.getMessage());
+                    final var tree = snapshot();
+
+                    // First, try exact filename match
+                    List<String> exactMatches = tree.files(srcPath)
+                            .filter(file -> isSourceFile(file.path()))
+                            .filter(file -> {
+                                String fileName = Paths.get(file.path()).getFileName().toString().toLowerCase();
+                                return fileName.equals(normalizedQuery) || 
+                                       fileName.startsWith(queryWithoutExt + ".");
+                            })
+                            .limit(input.maxResults())
+                            .map(FileTreeSnapshot.Entry::path)
+                            .collect(Collectors.toList());
+                    
+                    if (!exactMatches.isEmpty()) {
+                        results = exactMatches;
+                        DeepAgent.log.info("Found {} exact filename matches", results.size());
+                        return results;
                     }
+                    
+                    // If no exact match, try content search, reading only the files that may contain the query
+                    final var candidates = contentCandidates(queryWithoutExt);
+                    // the query contains queryWithoutExt
+                    final var contentMatcher = CaseInsensitiveMatcher.of(queryWithoutExt);
+                    final var sourceFiles = tree.files(srcPath)
+                            .filter(file -> isSourceFile(file.path()))
+                            .collect(Collectors.toList());
+                    results = scanner.scan(sourceFiles, input.maxResults(),
+                                    (file, cancelled) -> containsQuery(file, input.query(), candidates, contentMatcher, cancelled))
+                            .stream()
+                            .map(FileTreeSnapshot.Entry::path)
+                            .collect(Collectors.toList());
 
                     DeepAgent.log.info("Found {} source files matching query '{}'", results.size(), input.query());
                     if (results.isEmpty()) {
@@ -122,81 +153,66 @@ public class SourceCodeSearchTools {
                         errorMsg.append("검색 디렉토리: ").append(srcTarget).append("\n\n");
                         
                         // Try to find similar filenames
-                        try (Stream<Path> paths = Files.walk(srcPath)) {
-                            List<String> similarFiles = paths
-                                    .filter(Files::isRegularFile)
-                                    .filter(path -> isSourceFile(path))
-                                    .map(path -> path.getFileName().toString())
-                                    .filter(name -> {
-                                        String lowerName = name.toLowerCase();
-                                        String lowerQuery = queryWithoutExt.toLowerCase();
-                                        return lowerName.contains(lowerQuery.substring(0, Math.min(3, lowerQuery.length()))) ||
-                                               lowerQuery.length() >= 3 && lowerName.contains(lowerQuery.substring(0, 3));
-                                    })
-                                    .limit(10)
-                                    .collect(Collectors.toList());
-                            
-                            if (!similarFiles.isEmpty()) {
-                                errorMsg.append("유사한 파일명:\n");
-                                similarFiles.forEach(file -> errorMsg.append("  - ").append(file).append("\n"));
-                                errorMsg.append("\n");
-                            }
-                            
-                            // Get directory structure for context
-                            try (Stream<Path> dirPaths = Files.walk(srcPath, 3)) {
-                                List<String> topLevelDirs = dirPaths
-                                        .filter(Files::isDirectory)
-                                        .filter(path -> !path.equals(srcPath))
-                                        .map(path -> {
-                                            Path relPath = srcPath.relativize(path);
-                                            return relPath.toString().replace("\\", "/");
-                                        })
-                                        .filter(dir -> !dir.isEmpty() && dir.split("/").length <= 2)
-                                        .distinct()
-                                        .sorted()
-                                        .limit(15)
-                                        .collect(Collectors.toList());
-                                
-                                if (!topLevelDirs.isEmpty()) {
-                                    errorMsg.append("검색 디렉토리 구조 (일부):\n");
-                                    topLevelDirs.forEach(dir -> errorMsg.append("  - ").append(dir).append("/\n"));
-                                    errorMsg.append("\n");
-                                }
-                            }
-                            
-                            // Get sample file list
-                            try (Stream<Path> filePaths = Files.walk(srcPath, 2)) {
-                                List<String> sampleFiles = filePaths
-                                        .filter(Files::isRegularFile)
-                                        .filter(path -> isSourceFile(path))
-                                        .map(path -> {
-                                            Path relPath = srcPath.relativize(path);
-                                            return relPath.toString().replace("\\", "/");
-                                        })
-                                        .sorted()
-                                        .limit(20)
-                                        .collect(Collectors.toList());
-                                
-                                if (!sampleFiles.isEmpty()) {
-                                    errorMsg.append("사용 가능한 파일 예시 (처음 20개):\n");
-                                    sampleFiles.forEach(file -> errorMsg.append("  - ").append(file).append("\n"));
-                                    errorMsg.append("\n");
-                                }
-                            }
-                            
-                            errorMsg.append("제안:\n");
-                            errorMsg.append("1. 다른 검색어를 시도해보세요 (예: 관련 키워드, 파일명의 일부)\n");
-                            errorMsg.append("2. 검색 디렉토리가 올바른지 확인하세요: ").append(srcTarget).append("\n");
-                            errorMsg.append("3. 파일명이나 클래스명을 직접 검색해보세요\n");
-                            
-                            String finalMsg = errorMsg.toString();
-                            DeepAgent.log.info("No files found, providing suggestions to user");
-                            return List.of(finalMsg);
-                        } catch (IOException e) {
-                            DeepAgent.log.debug("Error finding similar files", e);
-                            return List.of("검색 결과가 없습니다: '" + input.query() + "'\n검색 디렉토리: " + srcTarget + 
-                                         "\n\n다른 검색어를 시도하거나, 검색 디렉토리를 확인해주세요.");
+                        List<String> similarFiles = tree.files(srcPath)
+                                .filter(file -> isSourceFile(file.path()))
+                                .map(file -> Paths.get(file.path()).getFileName().toString())
+                                .filter(name -> {
+                                    String lowerName = name.toLowerCase();
+                                    String lowerQuery = queryWithoutExt.toLowerCase();
+                                    return lowerName.contains(lowerQuery.substring(0, Math.min(3, lowerQuery.length()))) ||
+                                           lowerQuery.length() >= 3 && lowerName.contains(lowerQuery.substring(0, 3));
+                                })
+                                .limit(10)
+                                .collect(Collectors.toList());
+                        
+                        if (!similarFiles.isEmpty()) {
+                            errorMsg.append("유사한 파일명:\n");
+                            similarFiles.forEach(file -> errorMsg.append("  - ").append(file).append("\n"));
+                            errorMsg.append("\n");
                         }
+                        
+                        // Get directory structure for context
+                        List<String> topLevelDirs = tree.directories(srcPath)
+                                .map(dir -> {
+                                    Path relPath = srcPath.relativize(Paths.get(dir));
+                                    return relPath.toString().replace("\\", "/");
+                                })
+                                .filter(dir -> !dir.isEmpty() && dir.split("/").length <= 2)
+                                .distinct()
+                                .sorted()
+                                .limit(15)
+                                .collect(Collectors.toList());
+                        
+                        if (!topLevelDirs.isEmpty()) {
+                            errorMsg.append("검색 디렉토리 구조 (일부):\n");
+                            topLevelDirs.forEach(dir -> errorMsg.append("  - ").append(dir).append("/\n"));
+                            errorMsg.append("\n");
+                        }
+                        
+                        // Get sample file list
+                        List<String> sampleFiles = tree.files(srcPath)
+                                .filter(file -> isSourceFile(file.path()))
+                                .map(file -> srcPath.relativize(Paths.get(file.path())))
+                                .filter(relPath -> relPath.getNameCount() <= 2)
+                                .map(relPath -> relPath.toString().replace("\\", "/"))
+                                .sorted()
+                                .limit(20)
+                                .collect(Collectors.toList());
+                        
+                        if (!sampleFiles.isEmpty()) {
+                            errorMsg.append("사용 가능한 파일 예시 (처음 20개):\n");
+                            sampleFiles.forEach(file -> errorMsg.append("  - ").append(file).append("\n"));
+                            errorMsg.append("\n");
+                        }
+                        
+                        errorMsg.append("제안:\n");
+                        errorMsg.append("1. 다른 검색어를 시도해보세요 (예: 관련 키워드, 파일명의 일부)\n");
+                        errorMsg.append("2. 검색 디렉토리가 올바른지 확인하세요: ").append(srcTarget).append("\n");
+                        errorMsg.append("3. 파일명이나 클래스명을 직접 검색해보세요\n");
+                        
+                        String finalMsg = errorMsg.toString();
+                        DeepAgent.log.info("No files found, providing suggestions to user");
+                        return List.of(finalMsg);
                     }
                     return results;
                 })
@@ -309,8 +325,8 @@ public class SourceCodeSearchTools {
                 .build();
     }
 
-    private boolean isSourceFile(Path path) {
-        String fileName = path.getFileName().toString().toLowerCase();
+    private boolean isSourceFile(String path) {
+        String fileName = Paths.get(path).getFileName().toString().toLowerCase();
         return fileName.endsWith(".java") ||
                fileName.endsWith(".kt") ||
                fileName.endsWith(".scala") ||
@@ -324,7 +340,9 @@ public class SourceCodeSearchTools {
                fileName.endsWith(".hpp");
     }
 
-    private boolean containsQuery(Path path, String query) {
+    private boolean containsQuery(FileTreeSnapshot.Entry file, String query, ContentCandidates candidates,
+                                  CaseInsensitiveMatcher contentMatcher, BooleanSupplier cancelled) {
+        Path path = Paths.get(file.path());
         String lowerQuery = query.toLowerCase().trim();
         String fileName = path.getFileName().toString().toLowerCase();
         String fullPath = path.toString().toLowerCase();
@@ -359,21 +377,18 @@ public class SourceCodeSearchTools {
             return true;
         }
         
-        try {
-            // Check if file is binary or text
-            if (isBinaryFile(path)) {
-                // For binary files, only check filename (already checked above)
-                return false;
-            }
-            
-            // Try to read as text file with UTF-8 encoding
-            String content = Files.readString(path, java.nio.charset.StandardCharsets.UTF_8);
-            String lowerContent = content.toLowerCase();
-            return lowerContent.contains(lowerQuery) || lowerContent.contains(queryWithoutExt);
-        } catch (java.nio.charset.MalformedInputException e) {
-            // File is not valid UTF-8, filename already checked above
-            DeepAgent.log.debug("File is not valid UTF-8, filename already checked: {}", path);
+        if (candidates != null && !candidates.mayContain(file)) {
+            return false;
+        }
+
+        // For binary files, only check filename (already checked above)
+        if (file.binary()) {
             return false;
+        }
+
+        try {
+            // Match the UTF-8 bytes of the memory-mapped file, without decoding it
+            return scanner.contains(path, contentMatcher, cancelled);
         } catch (IOException e) {
             DeepAgent.log.debug("Error reading file for search: {}", path, e);
             return false;
@@ -381,48 +396,148 @@ public class SourceCodeSearchTools {
     }
     
     /**
-     * Find a file by name in the source directory
+     * Files of the trigram index that may contain a query
+     *
+     * @param ids ids of the indexed files that may contain the query
      */
-    private Path findFileByName(Path searchDir, String fileName) {
-        try (Stream<Path> paths = Files.walk(searchDir)) {
-            return paths
-                    .filter(Files::isRegularFile)
-                    .filter(path -> path.getFileName().toString().equals(fileName) ||
-                                   path.getFileName().toString().equals(fileName + ".c") ||
-                                   path.getFileName().toString().equals(fileName + ".h") ||
-                                   path.getFileName().toString().equals(fileName + ".cpp") ||
-                                   path.getFileName().toString().equals(fileName + ".java"))
-                    .findFirst()
-                    .orElse(null);
+    private record ContentCandidates(TrigramIndex index, BitSet ids) {
+
+        /**
+         * @return false only if the file is indexed, unchanged since, and cannot contain the query
+         */
+        boolean mayContain(FileTreeSnapshot.Entry file) {
+            final int id = index.id(file.path());
+            return id < 0 || ids.get(id) || isChanged(index.files().get(id), file);
+        }
+    }
+
+    private static boolean isChanged(TrigramIndex.FileEntry entry, FileTreeSnapshot.Entry file) {
+        return file.size() != entry.size() || file.lastModified() != entry.lastModified();
+    }
+
+    /**
+     * @return the files that may contain the given text, or null if the index is not ready or cannot narrow the search
+     */
+    private ContentCandidates contentCandidates(String text) {
+        final var current = index;
+        if (current == null) {
+            return null;
+        }
+        try {
+            final var ids = current.candidates(text);
+            if (ids == null) {
+                return null;
+            }
+            final var result = new BitSet(current.files().size());
+            for (int id : ids) {
+                result.set(id);
+            }
+            DeepAgent.log.debug("Trigram index: {} candidate files of {} for '{}'", ids.length, current.files().size(), text);
+            return new ContentCandidates(current, result);
         } catch (IOException e) {
-            DeepAgent.log.error("Error searching for file: {}", fileName, e);
+            DeepAgent.log.warn("Error reading the trigram index, searching without it", e);
             return null;
         }
     }
-    
+
+    private List<FileTreeSnapshot.Entry> listSourceFiles() {
+        return snapshot().files(Paths.get(srcTarget))
+                .filter(file -> isSourceFile(file.path()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Path> paths(List<FileTreeSnapshot.Entry> files) {
+        return files.stream().map(file -> Paths.get(file.path())).collect(Collectors.toList());
+    }
+
     /**
-     * Check if a file is likely binary by examining first few bytes
+     * @return the snapshot of the files of {@code source.src_target} and {@code source.doc_target}, once taken
      */
-    private boolean isBinaryFile(Path path) {
+    FileTreeSnapshot snapshot() {
+        return snapshot.join();
+    }
+
+    private void startup() {
+        try {
+            snapshot.complete(new FileTreeSnapshot(List.of(Paths.get(srcTarget), Paths.get(docTarget)), RESCAN_INTERVAL));
+        } catch (Exception e) {
+            DeepAgent.log.error("Error taking the snapshot of {} and {}", srcTarget, docTarget, e);
+            snapshot.completeExceptionally(e);
+            return;
+        }
+        openIndex();
+    }
+
+    /**
+     * Opens the index built by a previous run, rebuilt if missing or too many files have changed since
+     */
+    private void openIndex() {
+        if (!Files.isDirectory(Paths.get(srcTarget))) {
+            return;
+        }
         try {
-            // Read first 512 bytes to check for null bytes or binary patterns
-            byte[] bytes = new byte[512];
-            try (var inputStream = Files.newInputStream(path)) {
-                int bytesRead = inputStream.read(bytes);
-                if (bytesRead > 0) {
-                    // Check for null bytes (common in binary files)
-                    for (int i = 0; i < bytesRead; i++) {
-                        if (bytes[i] == 0) {
-                            return true;
+            final var existing = TrigramIndex.open(indexFile);
+            if (existing != null) {
+                final var sources = listSourceFiles();
+                final long changed = sources.stream()
+                        .filter(file -> {
+                            final int id = existing.id(file.path());
+                            return id < 0 || isChanged(existing.files().get(id), file);
+                        })
+                        .count() + Math.max(0, existing.files().size() - sources.size());
+                if (changed <= STALE_RATIO * sources.size()) {
+                    DeepAgent.log.info("Trigram index opened: {} files, {} changed since built", existing.files().size(), changed);
+                    synchronized (indexLock) {
+                        if (index == null) {
+                            index = existing;
+                            return;
                         }
                     }
                 }
+                existing.close();
+            }
+            rebuildIndex();
+        } catch (Exception e) {
+            DeepAgent.log.warn("Error opening the trigram index of {}, searching without it", srcTarget, e);
+        }
+    }
+
+    /**
+     * Indexes again the files of {@code source.src_target}, in parallel, replacing the current index once built
+     */
+    public void rebuildIndex() throws IOException {
+        synchronized (indexLock) {
+            final var previous = index;
+            final var rebuilt = TrigramIndex.build(paths(listSourceFiles()), indexFile, Runtime.getRuntime().availableProcessors());
+            index = rebuilt;
+            if (previous != null) {
+                // the searches still looking up the previous index complete before its file is closed
+                previous.close();
             }
-            return false;
-        } catch (IOException e) {
-            DeepAgent.log.debug("Error checking if file is binary: {}", path, e);
-            return false; // Assume text file if we can't determine
         }
     }
+
+    /**
+     * Find a file by name in the source directory
+     */
+    private Path findFileByName(Path searchDir, String fileName) {
+        return snapshot().files(searchDir)
+                .map(file -> Paths.get(file.path()))
+                .filter(path -> path.getFileName().toString().equals(fileName) ||
+                               path.getFileName().toString().equals(fileName + ".c") ||
+                               path.getFileName().toString().equals(fileName + ".h") ||
+                               path.getFileName().toString().equals(fileName + ".cpp") ||
+                               path.getFileName().toString().equals(fileName + ".java"))
+                .findFirst()
+                .orElse(null);
+    }
+    
+    /**
+     * Check if a file is likely binary, as probed by the snapshot or, if not in it, by examining first few bytes
+     */
+    private boolean isBinaryFile(Path path) {
+        final var file = snapshot().file(path);
+        return file != null ? file.binary() : FileTreeSnapshot.isBinary(path);
+    }
 }
 
@@ -0,0 +1,135 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.serializer.StateSerializer;
+import org.bsc.langgraph4j.spring.ai.serializer.std.SpringAIStateSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Compares throughput and size of the state serializers over a realistic deep agent state.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.StateSerializerBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StateSerializerBenchmark {
+
+    private static final String[] WORDS = {
+            "agent", "graph", "state", "research", "report", "langgraph4j", "java", "model", "tool", "search",
+            "result", "file", "summary", "the", "of", "and", "to", "in", "is", "with", "for", "on", "that", "this"
+    };
+
+    @Param({ "springai", "compact", "compact-uncompressed" })
+    public String serializer;
+
+    @Param({ "20", "200" })
+    public int turns;
+
+    private StateSerializer<DeepAgent.State> stateSerializer;
+    private Map<String,Object> data;
+    private byte[] bytes;
+
+    static String text( Random random, int length ) {
+        var result = new StringBuilder( length + 16 );
+        while( result.length() < length ) {
+            result.append( WORDS[ random.nextInt( WORDS.length ) ] ).append( random.nextInt(10) == 0 ? ".\n" : " " );
+        }
+        return result.toString();
+    }
+
+    /**
+     * State of a research session: every turn performs a search and the results are collected in files
+     */
+    static Map<String,Object> sampleState( int turns ) {
+        final var random = new Random( 42 );
+
+        final var messages = new ArrayList<Message>();
+        messages.add( new UserMessage( "What is langgraph4j project?" ) );
+        for( int i = 0; i < turns; ++i ) {
+            var id = format( "call_%08d", i );
+            messages.add( new AssistantMessage( "", Map.of(),
+                    List.of( new AssistantMessage.ToolCall( id, "function", "internet_search",
+                            format( "{\"query\":\"%s\",\"max_result\":5,\"topic\":\"general\"}", text( random, 40 ) ) ) ) ) );
+            messages.add( new ToolResponseMessage(
+                    List.of( new ToolResponseMessage.ToolResponse( id, "internet_search", text( random, 3_000 ) ) ), Map.of() ) );
+        }
+        messages.add( new AssistantMessage( text( random, 1_000 ) ) );
+
+        final var todos = new ArrayList<DeepAgent.ToDo>();
+        for( int i = 0; i < 8; ++i ) {
+            todos.add( new DeepAgent.ToDo( text( random, 60 ), DeepAgent.ToDo.Status.values()[ i % 3 ] ) );
+        }
+
+        final var files = new LinkedHashMap<String,String>();
+        files.put( "question.txt", "What is langgraph4j project?" );
+        files.put( "final_report.md", text( random, turns * 300 ) );
+        for( int i = 0; i < turns / 10; ++i ) {
+            files.put( format( "notes/topic_%d.md", i ), text( random, 5_000 ) );
+        }
+
+        return Map.of( "messages", messages, "todos", todos, "files", files );
+    }
+
+    static byte[] serialize( StateSerializer<DeepAgent.State> serializer, Map<String,Object> data ) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try( var out = new ObjectOutputStream( bytes ) ) {
+            serializer.writeData( data, out );
+        }
+        return bytes.toByteArray();
+    }
+
+    static Map<String,Object> deserialize( StateSerializer<DeepAgent.State> serializer, byte[] bytes ) throws IOException, ClassNotFoundException {
+        try( var in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) ) {
+            return serializer.readData( in );
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        stateSerializer = switch( serializer ) {
+            case "springai" -> new SpringAIStateSerializer<>( DeepAgent.State::new );
+            case "compact" -> new CompactStateSerializer();
+            case "compact-uncompressed" -> new CompactStateSerializer( 0 );
+            default -> throw new IllegalArgumentException( serializer );
+        };
+        data = sampleState( turns );
+        bytes = serialize( stateSerializer, data );
+
+        System.out.printf( "%n[%s] turns: %d serialized size: %d bytes%n", serializer, turns, bytes.length );
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return serialize( stateSerializer, data );
+    }
+
+    @Benchmark
+    public Map<String,Object> read() throws IOException, ClassNotFoundException {
+        return deserialize( stateSerializer, bytes );
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { StateSerializerBenchmark.class.getSimpleName() } );
+    }
+}
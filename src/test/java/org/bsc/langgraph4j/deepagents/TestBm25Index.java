@@ -0,0 +1,92 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBm25Index {
+
+    private static List<String> terms( String text ) {
+        final var result = new ArrayList<String>();
+        Bm25Index.terms( text, result::add );
+        return result;
+    }
+
+    private static Bm25Index<DocumentChunk> index( String... texts ) {
+        final var index = new Bm25Index<DocumentChunk>( DocumentChunk::text, DocumentChunk::filePath );
+        for( int i = 0; i < texts.length; ++i ) {
+            index.add( new DocumentChunk( "file" + i + ".java", "text", 0, texts[i] ) );
+        }
+        return index;
+    }
+
+    @Test
+    public void testTerms() {
+        assertEquals( List.of( "the", "user", "is", "42" ), terms( "The user, is: 42!" ) );
+        assertEquals( List.of( "getusername", "get", "user", "name" ), terms( "getUserName" ) );
+        assertEquals( List.of( "max_retry_count", "max", "retry", "count" ), terms( "MAX_RETRY_COUNT" ) );
+        assertEquals( List.of( "httpserver2", "http", "server", "2" ), terms( "HTTPServer2" ) );
+        assertEquals( List.of( "java", "util", "list" ), terms( "java.util.List" ) );
+        assertEquals( List.of( "_id" ), terms( "_id" ) );
+        assertTrue( terms( " .;- " ).isEmpty() );
+    }
+
+    @Test
+    public void testSearch() {
+        final var index = index(
+                "the user name is read from the session",
+                "String getUserName() returns the name of the user",
+                "the session stores the user and the user preferences",
+                "nothing relevant here" );
+        assertEquals( 4, index.size() );
+
+        // the exact identifier ranks first
+        var results = index.search( "getUserName", 10 );
+        assertEquals( "file1.java", results.get(0).item().filePath() );
+
+        results = index.search( "user session", 10 );
+        assertEquals( 3, results.size() );
+        for( int i = 1; i < results.size(); ++i ) {
+            assertTrue( results.get( i - 1 ).score() >= results.get(i).score() );
+        }
+        assertEquals( 2, index.search( "user session", 2 ).size() );
+        // the common terms only score the items matched by the rarer ones: same best item and score
+        assertEquals( results.get(0), index.search( "user session", 1 ).get(0) );
+
+        // filtered by key
+        assertEquals( List.of( "file2.java" ), index.search( "user session", 10, "file2.java"::equals ).stream()
+                .map( result -> result.item().filePath() ).toList() );
+        assertTrue( index.search( "user", 10, path -> false ).isEmpty() );
+
+        assertTrue( index.search( "missing", 10 ).isEmpty() );
+        assertTrue( index.search( "...", 10 ).isEmpty() );
+        assertThrows( IllegalArgumentException.class, () -> index.search( "user", 0 ) );
+    }
+
+    @Test
+    public void testDelete() {
+        final var index = index( "alpha beta", "alpha gamma", "alpha delta", "beta" );
+
+        index.delete( Set.of( "file0.java" ) );
+        assertEquals( 3, index.size() );
+        assertEquals( List.of( "file3.java" ),
+                index.search( "beta", 10 ).stream().map( result -> result.item().filePath() ).toList() );
+
+        // the deleted items are the majority: the postings are rebuilt
+        index.delete( Set.of( "file1.java", "file2.java" ) );
+        assertEquals( 1, index.size() );
+        assertTrue( index.search( "alpha", 10 ).isEmpty() );
+        assertEquals( 1, index.search( "beta", 10 ).size() );
+
+        index.add( new DocumentChunk( "file0.java", "text", 0, "alpha" ) );
+        assertEquals( 1, index.search( "alpha", 10 ).size() );
+
+        index.clear();
+        assertEquals( 0, index.size() );
+        assertTrue( index.search( "beta", 10 ).isEmpty() );
+    }
+}
@@ -0,0 +1,83 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCaseInsensitiveMatcher {
+
+    // ASCII, accented, Kelvin sign, capital I with dot above, sharp s, fullwidth, Cyrillic and Deseret (supplementary) letters
+    private static final String[] CHARACTERS = {
+            "a", "A", "b", "B", "k", "K", "i", "I", " ", "\u00e9", "\u00c9", "\u212a", "\u0130", "\u00df",
+            "\uff21", "\uff41", "\u0416", "\u0436", "\ud801\udc00", "\ud801\udc28", "\ud83d\ude00" };
+
+    private static String random( Random random, int length ) {
+        final var result = new StringBuilder();
+        for( int i = 0; i < length; ++i ) {
+            result.append( CHARACTERS[ random.nextInt( CHARACTERS.length ) ] );
+        }
+        return result.toString();
+    }
+
+    private static boolean matches( String text, String content ) {
+        return CaseInsensitiveMatcher.of( text ).matches( ByteBuffer.wrap( content.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+
+    @Test
+    public void testAsString() {
+        final var random = new Random( 42 );
+        for( int i = 0; i < 5000; ++i ) {
+            final var content = random( random, 30 );
+            final var text = ( random.nextBoolean() ) ?
+                    content.substring( random.nextInt( 10 ), 10 + random.nextInt( 10 ) ).toUpperCase( Locale.ROOT ) :
+                    random( random, 1 + random.nextInt( 3 ) );
+            if( Character.isLowSurrogate( text.charAt( 0 ) ) || Character.isHighSurrogate( text.charAt( text.length() - 1 ) ) ) {
+                continue;
+            }
+            final boolean expected = content.toLowerCase( Locale.ROOT ).contains( text.toLowerCase( Locale.ROOT ) );
+            assertEquals( expected, matches( text, content ), text + " in " + content );
+        }
+    }
+
+    @Test
+    public void testFolding() {
+        assertTrue( matches( "maxvalue", "int MAXVALUE = 1;" ) );
+        assertTrue( matches( "MaxValue", "int maxvalue = 1;" ) );
+        // lower-cased to ASCII
+        assertTrue( matches( "kelvin", "300 \u212aelvin" ) );
+        assertTrue( matches( "i\u0307stanbul", "\u0130stanbul" ) );
+        assertTrue( matches( "\u00c9T\u00c9", "caf\u00e9 en \u00e9t\u00e9" ) );
+        assertTrue( matches( "\ud801\udc00", "deseret \ud801\udc28" ) );
+        assertFalse( matches( "cafe", "caf\u00e9" ) );
+        // the automaton falls back to the longest prefix also suffix
+        assertTrue( matches( "aab", "aaab" ) );
+        assertTrue( matches( "abab", "ababcababab" ) );
+        assertTrue( matches( "", "" ) );
+    }
+
+    @Test
+    public void testChunks() {
+        final var content = "// \u00c9t\u00e9 \u212aelvin MaxValue\n".getBytes( StandardCharsets.UTF_8 );
+        final var buffer = ByteBuffer.wrap( content );
+        for( var text : new String[] { "maxvalue", "\u00e9t\u00e9 kelvin", "max\u00e9" } ) {
+            final var matcher = CaseInsensitiveMatcher.of( text );
+            final boolean expected = matcher.matches( buffer );
+            // the state is carried from a chunk to the next one, the chunks ending between two characters
+            int state = 0;
+            for( int from = 0; from < content.length; ) {
+                int to = Math.min( content.length, from + 3 );
+                while( to < content.length && ( content[ to ] & 0xC0 ) == 0x80 ) {
+                    ++to;
+                }
+                state = matcher.find( buffer, from, to, state );
+                from = to;
+            }
+            assertEquals( expected, state == matcher.length(), text );
+        }
+    }
+}
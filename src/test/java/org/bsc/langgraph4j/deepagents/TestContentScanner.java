@@ -0,0 +1,74 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestContentScanner {
+
+    @TempDir
+    Path sources;
+
+    @Test
+    public void testScanOrder() {
+        final var items = IntStream.range( 0, 1000 ).boxed().toList();
+        try( var scanner = new ContentScanner( ContentScanner.Options.builder().threads( 4 ).build() ) ) {
+            for( int run = 0; run < 5; ++run ) {
+                final var tested = new AtomicInteger();
+                final var results = scanner.scan( items, 5, ( item, cancelled ) -> {
+                    tested.incrementAndGet();
+                    // the late matches are found first
+                    if( item < 100 ) {
+                        Thread.yield();
+                    }
+                    return item % 7 == 3;
+                });
+                assertEquals( List.of( 3, 10, 17, 24, 31 ), results );
+                // the workers stop once the first matches are found
+                assertTrue( tested.get() < 100, "tested items: " + tested.get() );
+            }
+            assertEquals( List.of( 3, 10 ), scanner.scan( items.subList( 0, 15 ), 10, ( item, cancelled ) -> item % 7 == 3 ) );
+            assertEquals( List.of(), scanner.scan( items, 0, ( item, cancelled ) -> true ) );
+        }
+    }
+
+    @Test
+    public void testContains() throws IOException {
+        final var file = sources.resolve( "Large.java" );
+        final var text = new StringBuilder();
+        for( int i = 0; i < 200; ++i ) {
+            text.append( "int value" ).append( i ).append( " = " ).append( i ).append( ";\n" );
+        }
+        text.append( "// \u00c9T\u00c9 and \ud83d\ude00 MaxValue\n" );
+        Files.writeString( file, text, StandardCharsets.UTF_8 );
+
+        // chunks smaller than the texts looked for
+        try( var scanner = new ContentScanner( ContentScanner.Options.builder().threads( 1 ).chunkSize( 7 ).build() ) ) {
+            assertTrue( scanner.contains( file, CaseInsensitiveMatcher.of( "value123 = 123;" ), () -> false ) );
+            assertTrue( scanner.contains( file, CaseInsensitiveMatcher.of( "MAXVALUE" ), () -> false ) );
+            assertTrue( scanner.contains( file, CaseInsensitiveMatcher.of( "\u00e9t\u00e9 and \ud83d\ude00" ), () -> false ) );
+            assertFalse( scanner.contains( file, CaseInsensitiveMatcher.of( "value200" ), () -> false ) );
+            assertFalse( scanner.contains( file, CaseInsensitiveMatcher.of( "maxvalue" ), () -> true ) );
+
+            // not valid UTF-8: matched byte by byte
+            final var latin1 = sources.resolve( "Latin1.java" );
+            Files.write( latin1, new byte[] { 'C', 'a', 'f', (byte)0xE9 } );
+            assertTrue( scanner.contains( latin1, CaseInsensitiveMatcher.of( "caf" ), () -> false ) );
+            assertFalse( scanner.contains( latin1, CaseInsensitiveMatcher.of( "caf\u00e9" ), () -> false ) );
+
+            final var empty = sources.resolve( "Empty.java" );
+            Files.write( empty, new byte[0] );
+            assertTrue( scanner.contains( empty, CaseInsensitiveMatcher.of( "" ), () -> false ) );
+            assertFalse( scanner.contains( empty, CaseInsensitiveMatcher.of( "a" ), () -> false ) );
+        }
+    }
+}
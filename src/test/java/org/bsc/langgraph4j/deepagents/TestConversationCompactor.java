@@ -0,0 +1,119 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConversationCompactor {
+
+    private static String text( int tokens ) {
+        return "x".repeat( tokens * 4 );
+    }
+
+    private static List<Message> conversation( int turns ) {
+        var messages = new ArrayList<Message>();
+        messages.add( new SystemMessage( "system" ) );
+        messages.add( new UserMessage( "question" ) );
+        for( int i = 0; i < turns; ++i ) {
+            var id = "call_" + i;
+            messages.add( new AssistantMessage( "", Map.of(),
+                    List.of( new AssistantMessage.ToolCall( id, "function", "internet_search", "{}" ) ) ) );
+            messages.add( new ToolResponseMessage(
+                    List.of( new ToolResponseMessage.ToolResponse( id, "internet_search", text( 100 ) ) ) ) );
+        }
+        return messages;
+    }
+
+    @Test
+    public void testCompaction() {
+
+        final var summaryCalls = new AtomicInteger();
+
+        ChatModel model = prompt -> {
+            summaryCalls.incrementAndGet();
+            return new ChatResponse( List.of( new Generation( new AssistantMessage( "summary" ) ) ) );
+        };
+
+        var compactor = new ConversationCompactor( model, DeepAgent.Compaction.builder()
+                                                        .maxTokens( 1_000 )
+                                                        .keepTokens( 300 )
+                                                        .build() );
+
+        // under the budget: prompt is untouched
+        var small = new Prompt( conversation( 2 ) );
+        assertSame( small, compactor.compact( small ) );
+        assertEquals( 0, summaryCalls.get() );
+
+        var messages = conversation( 20 );
+        var compacted = compactor.compact( new Prompt( messages ) ).getInstructions();
+
+        assertEquals( 1, summaryCalls.get() );
+        assertTrue( compacted.size() < messages.size() );
+        assertInstanceOf( SystemMessage.class, compacted.get(0) );
+        assertTrue( compacted.get(1).getText().startsWith( Prompts.SUMMARY_PREFIX ) );
+        // never two consecutive user messages
+        assertInstanceOf( SystemMessage.class, compacted.get(1) );
+        // tool call / tool response pairs are kept together
+        assertInstanceOf( AssistantMessage.class, compacted.get(2) );
+        assertEquals( messages.get( messages.size() - 1 ), compacted.get( compacted.size() - 1 ) );
+
+        // appending a message reuses the previous summary
+        messages.add( new AssistantMessage( "done" ) );
+        compactor.compact( new Prompt( messages ) );
+        assertEquals( 1, summaryCalls.get() );
+    }
+
+    @Test
+    public void testSummariesOfConversationsWithTheSameRoot() {
+
+        final var summaryCalls = new AtomicInteger();
+
+        // the summary tells the conversation it comes from
+        ChatModel model = prompt -> {
+            summaryCalls.incrementAndGet();
+            var transcript = prompt.getInstructions().get( 1 ).getText();
+            return new ChatResponse( List.of( new Generation( new AssistantMessage( transcript.contains( "first" ) ? "first" : "second" ) ) ) );
+        };
+
+        var compactor = new ConversationCompactor( model, DeepAgent.Compaction.builder()
+                                                        .maxTokens( 1_000 )
+                                                        .keepTokens( 300 )
+                                                        .build() );
+
+        // same system and first user message, different tool results
+        var first = conversation( 20 );
+        var second = conversation( 20 );
+        second.set( 3, new ToolResponseMessage(
+                List.of( new ToolResponseMessage.ToolResponse( "call_0", "internet_search", "second " + text( 100 ) ) ) ) );
+        first.set( 3, new ToolResponseMessage(
+                List.of( new ToolResponseMessage.ToolResponse( "call_0", "internet_search", "first " + text( 100 ) ) ) ) );
+
+        var compacted = compactor.compact( new Prompt( first ) ).getInstructions();
+        assertEquals( Prompts.SUMMARY_PREFIX + "first", compacted.get(1).getText() );
+
+        compacted = compactor.compact( new Prompt( second ) ).getInstructions();
+        assertEquals( Prompts.SUMMARY_PREFIX + "second", compacted.get(1).getText() );
+        assertEquals( 2, summaryCalls.get() );
+
+        // each conversation reuses its own summary
+        first.add( new AssistantMessage( "done" ) );
+        second.add( new AssistantMessage( "done" ) );
+        assertEquals( Prompts.SUMMARY_PREFIX + "first", compactor.compact( new Prompt( first ) ).getInstructions().get(1).getText() );
+        assertEquals( Prompts.SUMMARY_PREFIX + "second", compactor.compact( new Prompt( second ) ).getInstructions().get(1).getText() );
+        assertEquals( 2, summaryCalls.get() );
+    }
+}
@@ -0,0 +1,238 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDocumentExtractor {
+
+    @TempDir
+    Path directory;
+
+    private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    @FunctionalInterface
+    interface PartWriter {
+        void write( Writer writer ) throws IOException;
+    }
+
+    private Path zip( String name, Map<String, PartWriter> parts ) throws IOException {
+        final var file = directory.resolve( name );
+        try( var zip = new ZipOutputStream( Files.newOutputStream( file ) ) ) {
+            final var writer = new OutputStreamWriter( zip, StandardCharsets.UTF_8 );
+            for( var part : parts.entrySet() ) {
+                zip.putNextEntry( new ZipEntry( part.getKey() ) );
+                part.getValue().write( writer );
+                writer.flush();
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static PartWriter text( String text ) {
+        return writer -> writer.write( text );
+    }
+
+    private static String extract( Path file ) throws IOException {
+        final var result = new StringBuilder();
+        DocumentExtractor.DEFAULT.extract( file, result );
+        return result.toString();
+    }
+
+    @Test
+    public void testDocx() throws Exception {
+        final var parts = new LinkedHashMap<String, PartWriter>();
+        parts.put( "word/document.xml", text( """
+                <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+                <w:document xmlns:w="http://schemas.openxmlformats.org/wordprocessingml/2006/main"
+                            xmlns:mc="http://schemas.openxmlformats.org/markup-compatibility/2006">
+                  <w:body>
+                    <w:p><w:pPr><w:tabs><w:tab w:val="left" w:pos="720"/></w:tabs></w:pPr>
+                      <w:r><w:t>Hello</w:t></w:r><w:r><w:tab/><w:t xml:space="preserve">world &amp; more</w:t></w:r></w:p>
+                    <w:p><w:r><w:t>Second</w:t><w:br/><w:t>line</w:t></w:r></w:p>
+                    <w:p><w:r><mc:AlternateContent><mc:Choice><w:t>box</w:t></mc:Choice><mc:Fallback><w:t>box</w:t></mc:Fallback></mc:AlternateContent></w:r></w:p>
+                  </w:body>
+                </w:document>
+                """ ) );
+        final var file = zip( "report.docx", parts );
+        assertEquals( "Hello\tworld & more\nSecond\nline\nbox\n", extract( file ) );
+    }
+
+    @Test
+    public void testXlsx() throws Exception {
+        final var parts = new LinkedHashMap<String, PartWriter>();
+        parts.put( "xl/workbook.xml", text( """
+                <workbook xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main" xmlns:r="%s">
+                  <sheets><sheet name="Budget" sheetId="1" r:id="rId2"/><sheet name="Notes" sheetId="2" r:id="rId1"/></sheets>
+                </workbook>
+                """.formatted( RELATIONSHIPS ) ) );
+        parts.put( "xl/_rels/workbook.xml.rels", text( """
+                <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+                  <Relationship Id="rId1" Target="worksheets/sheet2.xml"/>
+                  <Relationship Id="rId2" Target="/xl/worksheets/sheet1.xml"/>
+                </Relationships>
+                """ ) );
+        parts.put( "xl/sharedStrings.xml", text( """
+                <sst xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main">
+                  <si><t>Item</t></si>
+                  <si><r><t>Co</t></r><r><t>st</t></r><rPh><t>phonetic</t></rPh></si>
+                  <si><t>Rent</t></si>
+                </sst>
+                """ ) );
+        parts.put( "xl/worksheets/sheet1.xml", text( """
+                <worksheet xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main"><sheetData>
+                  <row r="1"><c r="A1" t="s"><v>0</v></c><c r="B1" t="s"><v>1</v></c></row>
+                  <row r="2"><c r="A2" t="s"><v>2</v></c><c r="B2"><v>1200.5</v></c><c r="C2" t="b"><v>1</v></c></row>
+                  <row r="3"><c r="A3"/></row>
+                  <row r="4"><c r="A4" t="inlineStr"><is><t>inline</t></is></c><c r="B4" t="str"><f>A1</f><v>Item</v></c></row>
+                </sheetData></worksheet>
+                """ ) );
+        parts.put( "xl/worksheets/sheet2.xml", text( """
+                <worksheet xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main"><sheetData>
+                  <row r="1"><c r="A1" t="s"><v>2</v></c></row>
+                </sheetData></worksheet>
+                """ ) );
+        final var file = zip( "budget.xlsx", parts );
+        assertEquals( "Sheet: Budget\nItem\tCost\nRent\t1200.5\t1\ninline\tItem\n\nSheet: Notes\nRent\n\n", extract( file ) );
+    }
+
+    @Test
+    public void testLargeXlsx() throws Exception {
+        final int rows = 50_000;
+        final var parts = new LinkedHashMap<String, PartWriter>();
+        parts.put( "xl/workbook.xml", text( """
+                <workbook xmlns="http://schemas.openxmlformats.org/spreadsheetml/2006/main" xmlns:r="%s">
+                  <sheets><sheet name="Data" sheetId="1" r:id="rId1"/></sheets>
+                </workbook>
+                """.formatted( RELATIONSHIPS ) ) );
+        parts.put( "xl/_rels/workbook.xml.rels", text( """
+                <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+                  <Relationship Id="rId1" Target="worksheets/sheet1.xml"/>
+                </Relationships>
+                """ ) );
+        parts.put( "xl/sharedStrings.xml", writer -> {
+            writer.write( "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" );
+            for( int i = 0; i < rows; ++i ) {
+                writer.write( "<si><t>name " + i + "</t></si>" );
+            }
+            writer.write( "</sst>" );
+        });
+        parts.put( "xl/worksheets/sheet1.xml", writer -> {
+            writer.write( "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>" );
+            for( int i = 0; i < rows; ++i ) {
+                writer.write( "<row><c t=\"s\"><v>" + i + "</v></c><c><v>" + i * 2 + "</v></c></row>" );
+            }
+            writer.write( "</sheetData></worksheet>" );
+        });
+        final var file = zip( "large.xlsx", parts );
+
+        // the text is consumed as it is emitted
+        final var lines = new int[1];
+        final var last = new StringBuilder();
+        DocumentExtractor.DEFAULT.extract( file, new Appendable() {
+            @Override
+            public Appendable append( CharSequence text ) {
+                for( int i = 0; i < text.length(); ++i ) {
+                    append( text.charAt(i) );
+                }
+                return this;
+            }
+
+            @Override
+            public Appendable append( CharSequence text, int start, int end ) {
+                return append( text.subSequence( start, end ) );
+            }
+
+            @Override
+            public Appendable append( char c ) {
+                if( c == '\n' ) {
+                    if( !last.isEmpty() ) {
+                        ++lines[0];
+                        if( lines[0] == rows + 1 ) {
+                            assertEquals( "name " + ( rows - 1 ) + "\t" + ( rows - 1 ) * 2, last.toString() );
+                        }
+                    }
+                    last.setLength( 0 );
+                }
+                else {
+                    last.append( c );
+                }
+                return this;
+            }
+        });
+        // header and rows
+        assertEquals( rows + 1, lines[0] );
+    }
+
+    @Test
+    public void testSharedStringsSpill() throws Exception {
+        try( var strings = new OfficeDocumentExtractor.SharedStrings( 10 ) ) {
+            strings.add( "heap" );
+            strings.add( "also" );
+            strings.add( "spilled \u00e8" );
+            strings.add( "" );
+            strings.add( "more" );
+            strings.seal();
+            assertEquals( 5, strings.size() );
+            assertEquals( "heap", strings.get(0) );
+            assertEquals( "spilled \u00e8", strings.get(2) );
+            assertEquals( "", strings.get(3) );
+            assertEquals( "more", strings.get(4) );
+            assertThrows( IOException.class, () -> strings.get(5) );
+        }
+    }
+
+    @Test
+    public void testPptx() throws Exception {
+        final var parts = new LinkedHashMap<String, PartWriter>();
+        parts.put( "ppt/presentation.xml", text( """
+                <p:presentation xmlns:p="http://schemas.openxmlformats.org/presentationml/2006/main" xmlns:r="%s">
+                  <p:sldIdLst><p:sldId id="256" r:id="rId3"/><p:sldId id="257" r:id="rId2"/></p:sldIdLst>
+                </p:presentation>
+                """.formatted( RELATIONSHIPS ) ) );
+        parts.put( "ppt/_rels/presentation.xml.rels", text( """
+                <Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+                  <Relationship Id="rId2" Target="slides/slide2.xml"/>
+                  <Relationship Id="rId3" Target="slides/slide1.xml"/>
+                </Relationships>
+                """ ) );
+        final var slide = """
+                <p:sld xmlns:p="http://schemas.openxmlformats.org/presentationml/2006/main"
+                       xmlns:a="http://schemas.openxmlformats.org/drawingml/2006/main">
+                  <p:cSld><p:spTree><p:sp><p:txBody>
+                    <a:p><a:r><a:t>%s</a:t></a:r><a:r><a:t> title</a:t></a:r></a:p>
+                    <a:p><a:endParaRPr/></a:p>
+                    <a:p><a:r><a:t>bullet</a:t></a:r></a:p>
+                  </p:txBody></p:sp></p:spTree></p:cSld>
+                </p:sld>
+                """;
+        parts.put( "ppt/slides/slide1.xml", text( slide.formatted( "First" ) ) );
+        parts.put( "ppt/slides/slide2.xml", text( slide.formatted( "Second" ) ) );
+        final var file = zip( "deck.pptx", parts );
+        assertEquals( "Slide 1:\nFirst title\nbullet\n\nSlide 2:\nSecond title\nbullet\n\n", extract( file ) );
+    }
+
+    @Test
+    public void testInvalidDocument() throws Exception {
+        final var file = directory.resolve( "broken.docx" );
+        Files.writeString( file, "not a zip" );
+        assertThrows( IOException.class, () -> extract( file ) );
+
+        final var parts = new LinkedHashMap<String, PartWriter>();
+        parts.put( "word/document.xml", text( "<w:document><w:body>" ) );
+        assertThrows( IOException.class, () -> extract( zip( "truncated.docx", parts ) ) );
+    }
+}
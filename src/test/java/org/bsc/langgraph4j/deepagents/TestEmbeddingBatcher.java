@@ -0,0 +1,111 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEmbeddingBatcher {
+
+    /**
+     * Delegates to a {@link HashEmbeddingModel}, tracking the calls and failing the first ones
+     */
+    static class TrackingEmbeddingModel implements EmbeddingModel {
+        final HashEmbeddingModel delegate = new HashEmbeddingModel( 32, Duration.ofMillis( 20 ) );
+        final List<Integer> batchSizes = new ArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger failures;
+
+        TrackingEmbeddingModel( int failures ) {
+            this.failures = new AtomicInteger( failures );
+        }
+
+        @Override
+        public EmbeddingResponse call( EmbeddingRequest request ) {
+            synchronized( batchSizes ) {
+                batchSizes.add( request.getInstructions().size() );
+            }
+            if( failures.getAndDecrement() > 0 ) {
+                throw new IllegalStateException( "rate limited" );
+            }
+            maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+            try {
+                return delegate.call( request );
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public float[] embed( Document document ) {
+            return delegate.embed( document );
+        }
+    }
+
+    private static List<String> texts( int count ) {
+        return IntStream.range( 0, count ).mapToObj( i -> "text number " + i ).toList();
+    }
+
+    @Test
+    public void testBatching() {
+        final var model = new TrackingEmbeddingModel( 0 );
+        final var batcher = new EmbeddingBatcher( model, EmbeddingBatcher.Options.builder()
+                .batchSize( 10 )
+                .concurrency( 3 )
+                .build() );
+
+        final var texts = texts( 95 );
+        final var vectors = batcher.embed( texts );
+        assertEquals( 95, vectors.size() );
+        // in order
+        for( int i : new int[] { 0, 42, 94 } ) {
+            assertArrayEquals( model.delegate.embed( texts.get(i) ), vectors.get(i), 0f );
+        }
+        assertEquals( 10, model.batchSizes.size() );
+        assertEquals( 95, model.batchSizes.stream().mapToInt( Integer::intValue ).sum() );
+        assertTrue( model.batchSizes.stream().allMatch( size -> size <= 10 ) );
+        assertTrue( model.maxInFlight.get() <= 3 );
+    }
+
+    @Test
+    public void testRetry() {
+        final var options = EmbeddingBatcher.Options.builder()
+                .batchSize( 10 )
+                .concurrency( 1 )
+                .maxAttempts( 3 )
+                .backoff( Duration.ofMillis( 1 ) );
+
+        var model = new TrackingEmbeddingModel( 2 );
+        assertEquals( 10, new EmbeddingBatcher( model, options.build() ).embed( texts( 10 ) ).size() );
+        assertEquals( 3, model.batchSizes.size() );
+
+        model = new TrackingEmbeddingModel( 3 );
+        final var batcher = new EmbeddingBatcher( model, options.concurrency( 2 ).build() );
+        assertThrows( IllegalStateException.class, () -> batcher.embed( texts( 10 ) ) );
+    }
+
+    @Test
+    public void testHashEmbeddingModel() {
+        final var model = new HashEmbeddingModel( 64 );
+        assertEquals( 64, model.dimensions() );
+
+        final var vector = model.embed( "The quick brown fox jumps over the lazy dog" );
+        assertArrayEquals( vector, model.embed( "the QUICK brown fox jumps over the lazy dog!" ), 0f );
+        assertEquals( 1.0, VectorKernels.INSTANCE.dot( vector, vector ), 1e-5 );
+
+        final var similar = model.embed( "a quick brown fox jumps over a sleeping dog" );
+        final var unrelated = model.embed( "quarterly revenue grew by ten percent" );
+        assertTrue( VectorKernels.INSTANCE.dot( vector, similar ) > VectorKernels.INSTANCE.dot( vector, unrelated ) );
+    }
+}
@@ -0,0 +1,90 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEmbeddingCache {
+
+    @TempDir
+    Path directory;
+
+    private static float[] vector( int seed ) {
+        return new float[] { seed, seed + 0.5f, -seed, 1f / ( seed + 1 ) };
+    }
+
+    @Test
+    public void testNormalization() {
+        assertEquals( "a b c", EmbeddingCache.normalize( "  a \t b\n\n c \r\n" ) );
+        // composed and decomposed forms of the same letter
+        assertEquals( EmbeddingCache.normalize( "caf\u00e9" ), EmbeddingCache.normalize( "cafe\u0301" ) );
+    }
+
+    @Test
+    public void testMemory() throws IOException {
+        try( var cache = new EmbeddingCache( "model", null, 2 ) ) {
+            cache.put( "one", vector(1) );
+            cache.put( "two", vector(2) );
+            assertArrayEquals( vector(1), cache.get( " one " ), 0f );
+            assertNull( cache.get( "three" ) );
+
+            // the least recently used is evicted
+            cache.put( "three", vector(3) );
+            assertEquals( 2, cache.size() );
+            assertNull( cache.get( "two" ) );
+            assertNotNull( cache.get( "one" ) );
+        }
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        final var file = directory.resolve( EmbeddingCache.NAME );
+        try( var cache = new EmbeddingCache( "model", file, 1 ) ) {
+            for( int i = 0; i < 100; ++i ) {
+                cache.put( "text " + i, vector(i) );
+            }
+            cache.put( "text 7", vector(7) );
+            assertEquals( 100, cache.size() );
+            // read back from the file
+            assertArrayEquals( vector(42), cache.get( "text  42" ), 0f );
+        }
+
+        final long length = Files.size( file );
+        try( var cache = new EmbeddingCache( "model", file, 1 ) ) {
+            assertEquals( 100, cache.size() );
+            assertArrayEquals( vector(0), cache.get( "text 0" ), 0f );
+            assertArrayEquals( vector(99), cache.get( "text 99" ), 0f );
+        }
+        // the model is part of the key
+        try( var cache = new EmbeddingCache( "other-model", file, 1 ) ) {
+            assertNull( cache.get( "text 0" ) );
+            cache.put( "text 0", vector(1000) );
+        }
+        try( var cache = new EmbeddingCache( "model", file, 1 ) ) {
+            assertEquals( 101, cache.size() );
+            assertArrayEquals( vector(0), cache.get( "text 0" ), 0f );
+        }
+
+        // a truncated tail is discarded
+        try( var channel = java.nio.channels.FileChannel.open( file, StandardOpenOption.WRITE ) ) {
+            channel.truncate( length - 3 );
+        }
+        try( var cache = new EmbeddingCache( "model", file, 1 ) ) {
+            assertEquals( 99, cache.size() );
+            assertNull( cache.get( "text 99" ) );
+            cache.put( "text 99", vector(99) );
+        }
+        try( var cache = new EmbeddingCache( "model", file, 1 ) ) {
+            assertArrayEquals( vector(99), cache.get( "text 99" ), 0f );
+        }
+
+        Files.writeString( file, "not a cache" );
+        assertThrows( IOException.class, () -> new EmbeddingCache( "model", file, 1 ) );
+    }
+}
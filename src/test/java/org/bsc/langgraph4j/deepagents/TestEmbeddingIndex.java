@@ -0,0 +1,303 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEmbeddingIndex {
+
+    @TempDir
+    Path directory;
+
+    private EmbeddingIndex<DocumentChunk> open( int flushSize, int maxSegments ) throws IOException {
+        return EmbeddingIndex.<DocumentChunk>builder()
+                .directory( directory )
+                .codec( DocumentChunk.CODEC )
+                .key( DocumentChunk::filePath )
+                .flushSize( flushSize )
+                .maxSegments( maxSegments )
+                .sync( false )
+                .build();
+    }
+
+    private static DocumentChunk chunk( int i ) {
+        return new DocumentChunk( "docs/file" + ( i / 10 ) + ".md", "Markdown", i % 10, "chunk \u00e8 " + i );
+    }
+
+    private long segmentFiles() throws IOException {
+        try( Stream<Path> files = Files.list( directory ) ) {
+            return files.filter( file -> file.getFileName().toString().startsWith( "segment-" ) ).count();
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        final var vectors = TestHnswIndex.randomVectors( 3_000, 16, 11 );
+
+        try( var index = open( 1_000, 8 ) ) {
+            for( int i = 0; i < vectors.length; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            assertEquals( 3, index.segmentCount() );
+            assertEquals( vectors.length, index.size() );
+            assertEquals( chunk(42), index.search( vectors[42], 1 ).get(0).item() );
+        }
+
+        try( var index = open( 1_000, 8 ) ) {
+            assertEquals( 16, index.dimensions() );
+            assertEquals( 3, index.segmentCount() );
+            assertEquals( vectors.length, index.size() );
+
+            // items are decoded from the mapped segments
+            for( int i : new int[] { 0, 999, 1_000, 2_999 } ) {
+                final var result = index.search( vectors[i], 1 ).get(0);
+                assertEquals( chunk(i), result.item() );
+                assertEquals( 1.0, result.score(), 1e-4 );
+            }
+
+            // new inserts are searched along with the segments
+            final var extra = TestHnswIndex.randomVectors( 1, 16, 12 )[0];
+            index.add( extra, chunk( 5_000 ) );
+            assertEquals( chunk( 5_000 ), index.search( extra, 1 ).get(0).item() );
+
+            final var results = index.search( vectors[7], 10 );
+            assertEquals( 10, results.size() );
+            for( int i = 1; i < results.size(); ++i ) {
+                assertTrue( results.get( i - 1 ).score() >= results.get(i).score() );
+            }
+        }
+
+        // closing flushes the last insert
+        try( var index = open( 1_000, 8 ) ) {
+            assertEquals( vectors.length + 1, index.size() );
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final var vectors = TestHnswIndex.randomVectors( 1_200, 16, 13 );
+
+        try( var index = open( 200, 8 ) ) {
+            for( int i = 0; i < vectors.length; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            assertEquals( 6, index.segmentCount() );
+
+            index.compact();
+            assertEquals( 1, index.segmentCount() );
+            assertEquals( 1, segmentFiles() );
+            assertEquals( vectors.length, index.size() );
+            for( int i : new int[] { 0, 600, 1_199 } ) {
+                assertEquals( chunk(i), index.search( vectors[i], 1 ).get(0).item() );
+            }
+        }
+
+        try( var index = open( 200, 8 ) ) {
+            assertEquals( 1, index.segmentCount() );
+            assertEquals( vectors.length, index.size() );
+
+            index.clear();
+            assertEquals( 0, index.size() );
+            assertEquals( 0, segmentFiles() );
+            assertTrue( index.search( vectors[0], 5 ).isEmpty() );
+        }
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        final var vectors = TestHnswIndex.randomVectors( 400, 16, 15 );
+        // chunk(i) has key "docs/file" + i / 10
+        final var deleted = "docs/file3.md";
+
+        try( var index = open( 100, 8 ) ) {
+            for( int i = 0; i < 250; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            assertEquals( 2, index.segmentCount() );
+            assertEquals( 10, index.get( deleted ).size() );
+
+            // file22 is still in memory
+            index.delete( List.of( deleted, "docs/file22.md" ) );
+            assertTrue( index.get( deleted ).isEmpty() );
+            assertTrue( index.get( "docs/file22.md" ).isEmpty() );
+            for( var result : index.search( vectors[35], 20 ) ) {
+                assertNotEquals( deleted, result.item().filePath() );
+            }
+
+            // re-added after the deletion
+            for( int i = 30; i < 40; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            assertEquals( chunk(35), index.search( vectors[35], 1 ).get(0).item() );
+        }
+
+        try( var index = open( 100, 8 ) ) {
+            assertEquals( 10, index.get( deleted ).size() );
+            assertTrue( index.get( "docs/file22.md" ).isEmpty() );
+            assertArrayEquals( HnswIndex.normalize( vectors[31], 16 ), index.get( deleted ).stream()
+                    .filter( entry -> entry.item().index() == 1 )
+                    .findFirst().orElseThrow().vector(), 1e-6f );
+
+            // the compaction drops the deleted items and the tombstones no longer needed
+            index.compact();
+            assertEquals( 1, index.segmentCount() );
+            assertEquals( 240, index.size() );
+            assertFalse( Files.readString( directory.resolve( EmbeddingIndex.MANIFEST ) ).contains( "tombstone" ) );
+        }
+
+        // in memory only
+        try( var index = EmbeddingIndex.<DocumentChunk>builder().codec( DocumentChunk.CODEC ).key( DocumentChunk::filePath ).build() ) {
+            for( int i = 0; i < 100; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            index.delete( List.of( deleted ) );
+            assertTrue( index.get( deleted ).isEmpty() );
+            assertEquals( 10, index.get( "docs/file4.md" ).size() );
+            assertNotEquals( deleted, index.search( vectors[35], 1 ).get(0).item().filePath() );
+        }
+    }
+
+    /**
+     * @return the chunks of the k vectors most similar to the query among the accepted ones
+     */
+    private static Set<DocumentChunk> exactTopK( float[][] vectors, int count, float[] query, int k, Predicate<String> filter ) {
+        return IntStream.range( 0, count )
+                .filter( i -> filter.test( chunk(i).filePath() ) )
+                .boxed()
+                .sorted( Comparator.comparingDouble( ( Integer i ) -> TestHnswIndex.cosine( vectors[i], query ) ).reversed() )
+                .limit( k )
+                .map( TestEmbeddingIndex::chunk )
+                .collect( Collectors.toSet() );
+    }
+
+    @Test
+    public void testFilteredSearch() throws Exception {
+        final int count = 6_500;
+        final var vectors = TestHnswIndex.randomVectors( count, 16, 17 );
+        final var queries = TestHnswIndex.randomVectors( 20, 16, 18 );
+
+        try( var index = open( 3_000, 8 ) ) {
+            for( int i = 0; i < count; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            // two segments and the in-memory index
+            assertEquals( 2, index.segmentCount() );
+
+            // selective: scanned exhaustively, in a segment and in memory
+            for( var selected : List.of( "docs/file42.md", "docs/file640.md" ) ) {
+                final Predicate<String> filter = selected::equals;
+                for( var query : queries ) {
+                    final var results = index.search( query, 5, filter );
+                    assertEquals( exactTopK( vectors, count, query, 5, filter ),
+                            results.stream().map( HnswIndex.Result::item ).collect( Collectors.toSet() ) );
+                }
+            }
+
+            // half the files: searched in the graphs, only the accepted items are returned
+            final Predicate<String> even = path -> Integer.parseInt( path.replaceAll( "\\D", "" ) ) % 2 == 0;
+            int found = 0;
+            for( var query : queries ) {
+                final var expected = exactTopK( vectors, count, query, 10, even );
+                final var results = index.search( query, 10, even );
+                assertEquals( 10, results.size() );
+                for( var result : results ) {
+                    assertTrue( even.test( result.item().filePath() ) );
+                    if( expected.contains( result.item() ) ) {
+                        ++found;
+                    }
+                }
+            }
+            assertTrue( found >= 0.9 * queries.length * 10, "recall " + found );
+
+            // the deleted items are excluded
+            index.delete( List.of( "docs/file42.md" ) );
+            assertTrue( index.search( queries[0], 5, "docs/file42.md"::equals ).isEmpty() );
+            assertTrue( index.search( queries[0], 5, path -> false ).isEmpty() );
+        }
+    }
+
+    @Test
+    public void testHybridSearch() throws Exception {
+        final var vectors = TestHnswIndex.randomVectors( 200, 16, 16 );
+        final var builder = EmbeddingIndex.<DocumentChunk>builder()
+                .directory( directory )
+                .codec( DocumentChunk.CODEC )
+                .key( DocumentChunk::filePath )
+                .text( DocumentChunk::text )
+                .flushSize( 100 )
+                .sync( false );
+
+        try( var index = builder.build() ) {
+            for( int i = 0; i < 150; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+            // the vector is close to chunk 7, the keywords match chunk 42 only
+            assertEquals( chunk(7), index.search( vectors[7], "42", 5, 0 ).get(0).item() );
+            assertEquals( chunk(42), index.search( vectors[7], "42", 5, 1 ).get(0).item() );
+            final var results = index.search( vectors[7], "42", 5, 0.5 );
+            assertEquals( 5, results.size() );
+            assertEquals( Set.of( chunk(7), chunk(42) ), Set.of( results.get(0).item(), results.get(1).item() ) );
+
+            index.delete( List.of( "docs/file4.md" ) );
+            assertTrue( index.search( vectors[7], "42", 5, 1 ).isEmpty() );
+            assertThrows( IllegalArgumentException.class, () -> index.search( vectors[7], "42", 5, 2 ) );
+        }
+
+        // the keyword index is rebuilt from the segments, without the deleted items
+        try( var index = builder.build() ) {
+            assertTrue( index.search( vectors[7], "42", 5, 1 ).isEmpty() );
+            assertEquals( chunk(142), index.search( vectors[7], "142", 5, 1 ).get(0).item() );
+        }
+
+        // without the text of the items
+        try( var index = open( 100, 8 ) ) {
+            assertThrows( IllegalStateException.class, () -> index.search( vectors[7], "42", 5, 0.5 ) );
+        }
+    }
+
+    @Test
+    public void testFuse() {
+        final var vector = List.of( new HnswIndex.Result<>( "a", 0.9f ), new HnswIndex.Result<>( "b", 0.8f ) );
+        final var lexical = List.of( new HnswIndex.Result<>( "b", 12f ), new HnswIndex.Result<>( "c", 3f ) );
+
+        final var fused = EmbeddingIndex.fuse( vector, lexical, 0.5, 10 );
+        assertEquals( List.of( "b", "a", "c" ), fused.stream().map( HnswIndex.Result::item ).toList() );
+        // first in both rankings scores 1
+        assertEquals( 1.0, EmbeddingIndex.fuse( vector, vector, 0.5, 1 ).get(0).score(), 1e-6 );
+
+        assertEquals( List.of( "a", "b" ), EmbeddingIndex.fuse( vector, lexical, 0, 10 ).stream().map( HnswIndex.Result::item ).toList() );
+        assertEquals( 1, EmbeddingIndex.fuse( vector, lexical, 0.5, 1 ).size() );
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final var vectors = TestHnswIndex.randomVectors( 100, 8, 14 );
+        try( var index = open( 50, 8 ) ) {
+            for( int i = 0; i < vectors.length; ++i ) {
+                index.add( vectors[i], chunk(i) );
+            }
+        }
+        // leftovers of an interrupted flush are deleted
+        Files.writeString( directory.resolve( "segment-00000000000000000099.dat.tmp" ), "partial" );
+        try( var index = open( 50, 8 ) ) {
+            assertEquals( 2, index.segmentCount() );
+            assertEquals( 2, segmentFiles() );
+        }
+
+        // unsupported format
+        Files.writeString( directory.resolve( EmbeddingIndex.MANIFEST ), "deepagents-embedding-index 99\n" );
+        assertThrows( IOException.class, () -> open( 50, 8 ) );
+    }
+}
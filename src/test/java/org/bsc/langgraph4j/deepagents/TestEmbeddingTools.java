@@ -0,0 +1,300 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEmbeddingTools {
+
+    @TempDir
+    Path documents;
+
+    @TempDir
+    Path storage;
+
+    /**
+     * Deterministic model counting the embedded texts
+     */
+    static class CountingEmbeddingModel implements EmbeddingModel {
+        final AtomicInteger texts = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call( EmbeddingRequest request ) {
+            calls.incrementAndGet();
+            final var results = new ArrayList<Embedding>();
+            for( var text : request.getInstructions() ) {
+                texts.incrementAndGet();
+                final var vector = new float[16];
+                for( int i = 0; i < text.length(); ++i ) {
+                    vector[ ( text.charAt(i) * 31 + i ) & 15 ] += 1f;
+                }
+                results.add( new Embedding( vector, results.size() ) );
+            }
+            return new EmbeddingResponse( results );
+        }
+
+        @Override
+        public float[] embed( Document document ) {
+            return embed( document.getText() );
+        }
+    }
+
+    private static String lines( String prefix, int count ) {
+        final var result = new StringBuilder();
+        for( int i = 0; i < count; ++i ) {
+            result.append( prefix ).append( " line " ).append( i ).append( '\n' );
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testIncrementalEmbedding() throws Exception {
+        final var model = new CountingEmbeddingModel();
+        final var chunker = new TextChunker( 40, 0, Tokenizer.heuristic() );
+        Files.writeString( documents.resolve( "a.md" ), lines( "alpha", 20 ) );
+        Files.writeString( documents.resolve( "b.md" ), lines( "beta", 20 ) );
+        Files.writeString( documents.resolve( "c.txt" ), lines( "gamma", 20 ) );
+
+        var tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        var summary = tools.embedDirectory( documents, chunker );
+        assertEquals( 3, summary.changedFiles() );
+        assertEquals( summary.chunks(), summary.embeddedChunks() );
+        final int embedded = model.texts.get();
+        assertEquals( summary.chunks(), embedded );
+        // the chunks of the three files fit in one batch
+        assertEquals( 1, model.calls.get() );
+
+        // nothing changed: no file is read, no embedding call
+        summary = tools.embedDirectory( documents, chunker );
+        assertEquals( 0, summary.changedFiles() );
+        assertEquals( embedded, model.texts.get() );
+
+        // touched only
+        Files.setLastModifiedTime( documents.resolve( "a.md" ), FileTime.fromMillis( System.currentTimeMillis() + 10_000 ) );
+        summary = tools.embedDirectory( documents, chunker );
+        assertEquals( 0, summary.changedFiles() );
+        assertEquals( embedded, model.texts.get() );
+
+        // one line appended: only the last chunk is embedded again, a file deleted
+        Files.writeString( documents.resolve( "b.md" ), lines( "beta", 20 ) + "beta appended\n" );
+        Files.delete( documents.resolve( "c.txt" ) );
+        summary = tools.embedDirectory( documents, chunker );
+        assertEquals( 1, summary.changedFiles() );
+        assertEquals( 1, summary.deletedFiles() );
+        assertEquals( 1, summary.embeddedChunks() );
+        assertEquals( embedded + 1, model.texts.get() );
+
+        final var results = tools.search( documents.toString(), "gamma line 3", 50 );
+        assertFalse( results.isEmpty() );
+        assertTrue( results.stream().noneMatch( result -> result.item().filePath().endsWith( "c.txt" ) ) );
+        assertTrue( results.stream().anyMatch( result -> result.item().text().contains( "beta appended" ) ) );
+
+        // restarted: the manifest and the index are loaded from the storage
+        final int queries = model.texts.get();
+        tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        summary = tools.embedDirectory( documents, chunker );
+        assertEquals( 0, summary.changedFiles() );
+        assertEquals( queries, model.texts.get() );
+        assertEquals( results.size(), tools.search( documents.toString(), "gamma line 3", 50 ).size() );
+
+        // other chunking parameters: everything is chunked again, the chunks seen before come from the cache
+        summary = tools.embedDirectory( documents, new TextChunker( 80, 0, Tokenizer.heuristic() ) );
+        assertEquals( 2, summary.changedFiles() );
+        assertEquals( summary.chunks(), summary.embeddedChunks() + summary.cachedChunks() );
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        final var model = new CountingEmbeddingModel();
+        final var chunker = new TextChunker( 40, 0, Tokenizer.heuristic() );
+        final var first = Files.createDirectories( documents.resolve( "first" ) );
+        final var second = Files.createDirectories( documents.resolve( "second" ) );
+        Files.writeString( first.resolve( "a.md" ), lines( "alpha", 20 ) );
+        // the same content, moved and with other line endings
+        Files.writeString( second.resolve( "moved.md" ), lines( "alpha", 20 ).replace( "\n", "\r\n" ) );
+        Files.writeString( second.resolve( "b.md" ), lines( "beta", 20 ) );
+
+        var tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        final var summary = tools.embedDirectory( first, chunker );
+        final int embedded = model.texts.get();
+        assertEquals( summary.chunks(), embedded );
+
+        var secondSummary = tools.embedDirectory( second, chunker );
+        assertEquals( summary.chunks(), secondSummary.cachedChunks() );
+        assertEquals( secondSummary.chunks() - summary.chunks(), secondSummary.embeddedChunks() );
+        assertEquals( embedded + secondSummary.embeddedChunks(), model.texts.get() );
+        assertEquals( "moved.md", Path.of( tools.search( second.toString(), "alpha line 3", 1, 0 ).get(0).item().filePath() )
+                .getFileName().toString() );
+
+        // restarted: the cache is loaded from the storage
+        final int texts = model.texts.get();
+        final var third = Files.createDirectories( documents.resolve( "third" ) );
+        Files.copy( second.resolve( "b.md" ), third.resolve( "b.md" ) );
+        tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        final var thirdSummary = tools.embedDirectory( third, chunker );
+        assertEquals( thirdSummary.chunks(), thirdSummary.cachedChunks() );
+        assertEquals( 0, thirdSummary.embeddedChunks() );
+        assertEquals( texts, model.texts.get() );
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        final var model = new CountingEmbeddingModel();
+        final var src = Files.createDirectories( documents.resolve( "src" ) );
+        Files.writeString( documents.resolve( "notes.md" ), lines( "shared topic", 5 ) );
+        Files.writeString( src.resolve( "Main.java" ), lines( "shared topic", 5 ) + "class Main {}\n" );
+        Files.writeString( src.resolve( "old.txt" ), lines( "shared topic", 5 ) + "old\n" );
+        Files.setLastModifiedTime( src.resolve( "old.txt" ), FileTime.from( Instant.parse( "2020-01-01T00:00:00Z" ) ) );
+        // siblings whose names start with the same characters
+        Files.writeString( Files.createDirectories( documents.resolve( "src2" ) ).resolve( "Other.java" ), lines( "shared topic", 5 ) + "class Other {}\n" );
+        Files.writeString( Files.createDirectories( documents.resolve( "srcold" ) ).resolve( "legacy.txt" ), lines( "shared topic", 5 ) + "legacy\n" );
+
+        final var tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        tools.embedDirectory( documents, new TextChunker( 1000, 0, Tokenizer.heuristic() ) );
+        final var directory = documents.toString();
+        final Function<Predicate<String>, List<String>> search = filter -> {
+            try {
+                return tools.search( directory, "shared topic", 10, 0.5, filter ).stream()
+                        .map( result -> Path.of( result.item().filePath() ).getFileName().toString() )
+                        .sorted()
+                        .toList();
+            }
+            catch( Exception e ) {
+                throw new IllegalStateException( e );
+            }
+        };
+
+        assertNull( tools.fileFilter( directory, null, " ", null, null ) );
+        assertEquals( List.of( "Main.java", "Other.java", "legacy.txt", "notes.md", "old.txt" ), search.apply( null ) );
+        assertEquals( List.of( "notes.md" ), search.apply( tools.fileFilter( directory, "markdown", null, null, null ) ) );
+        assertEquals( List.of( "Main.java", "Other.java" ), search.apply( tools.fileFilter( directory, "JAVA", null, null, null ) ) );
+        assertEquals( List.of( "Main.java", "old.txt" ), search.apply( tools.fileFilter( directory, null, "src", null, null ) ) );
+        assertEquals( List.of( "Other.java" ), search.apply( tools.fileFilter( directory, null, "src2", null, null ) ) );
+        assertEquals( List.of( "Main.java" ), search.apply( tools.fileFilter( directory, null, "src/Main.java", null, null ) ) );
+        assertTrue( search.apply( tools.fileFilter( directory, null, "src/Ma", null, null ) ).isEmpty() );
+        assertEquals( List.of( "Main.java", "Other.java", "legacy.txt", "notes.md" ),
+                search.apply( tools.fileFilter( directory, null, null, Instant.parse( "2021-01-01T00:00:00Z" ), null ) ) );
+        assertEquals( List.of( "old.txt" ),
+                search.apply( tools.fileFilter( directory, "txt", "src/", null, Instant.parse( "2021-01-01T00:00:00Z" ) ) ) );
+        assertTrue( search.apply( tools.fileFilter( directory, "docx", null, null, null ) ).isEmpty() );
+
+        // after a restart the modification times are loaded from the storage
+        final var restarted = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage );
+        assertEquals( 1, restarted.search( directory, "shared topic", 10, 0.5,
+                restarted.fileFilter( directory, null, null, null, Instant.parse( "2021-01-01T00:00:00Z" ) ) ).size() );
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        for( int i = 0; i < 50; ++i ) {
+            Files.writeString( documents.resolve( "doc" + i + ".md" ), lines( "document " + i, 10 ) );
+        }
+        Files.writeString( documents.resolve( "image.png" ), "not a text file" );
+
+        final var model = new CountingEmbeddingModel();
+        final var tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, null,
+                EmbeddingBatcher.Options.builder().batchSize( 16 ).concurrency( 2 ).build(),
+                DocumentIngester.Options.builder()
+                        .extractionThreads( 3 )
+                        .chunkingThreads( 2 )
+                        .indexingThreads( 2 )
+                        .queueCapacity( 2 )
+                        .build() );
+
+        final var summary = tools.embedDirectory( documents, new TextChunker( 40, 0, Tokenizer.heuristic() ) );
+        assertEquals( 50, summary.files() );
+        assertEquals( 50, summary.changedFiles() );
+        assertEquals( summary.chunks(), model.texts.get() );
+        // several files per call
+        assertTrue( model.calls.get() < summary.changedFiles() );
+
+        final var stages = summary.stages();
+        assertEquals( List.of( "discovery", "extraction", "chunking", "embedding", "indexing" ),
+                stages.stream().map( DocumentIngester.StageMetrics::stage ).toList() );
+        for( var stage : stages.subList( 1, stages.size() ) ) {
+            assertEquals( 50L, stage.items(), stage.stage() );
+            // the queues are bounded
+            assertTrue( stage.maxQueueDepth() <= 2, stage.toString() );
+            assertEquals( 0, stage.queueDepth() );
+            assertTrue( stage.throughput() > 0 );
+        }
+        assertEquals( 50, tools.search( documents.toString(), "document 7 line 3", 100 ).stream()
+                .map( result -> result.item().filePath() ).distinct().count() );
+    }
+
+    @Test
+    public void testPipelineFailure() throws Exception {
+        for( int i = 0; i < 20; ++i ) {
+            Files.writeString( documents.resolve( "doc" + i + ".md" ), lines( "document " + i, 10 ) );
+        }
+        final var model = new CountingEmbeddingModel() {
+            @Override
+            public EmbeddingResponse call( EmbeddingRequest request ) {
+                throw new IllegalStateException( "model unavailable" );
+            }
+        };
+        final var tools = new Tools.EmbeddingTools( model, HnswIndex.Options.DEFAULT, storage,
+                EmbeddingBatcher.Options.builder().batchSize( 4 ).maxAttempts( 1 ).build(),
+                DocumentIngester.Options.builder().queueCapacity( 1 ).build() );
+
+        // all the stages stop, the manifest is not written
+        final var error = assertThrows( IllegalStateException.class,
+                () -> tools.embedDirectory( documents, new TextChunker( 40, 0, Tokenizer.heuristic() ) ) );
+        assertEquals( "model unavailable", error.getMessage() );
+        try( var files = Files.walk( storage ) ) {
+            assertTrue( files.noneMatch( file -> file.getFileName().toString().equals( FileManifest.NAME ) ) );
+        }
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        // several text pieces and chunk parts
+        final var content = lines( "a long document", 20_000 );
+        assertTrue( content.length() > 4 * DocumentIngester.PIECE_LENGTH );
+        Files.writeString( documents.resolve( "large.txt" ), content );
+
+        final var chunker = new TextChunker( 60, 10, Tokenizer.heuristic() );
+        final var expected = chunker.split( content );
+        assertTrue( expected.size() > 4 * DocumentIngester.PART_SIZE );
+
+        final var model = new CountingEmbeddingModel();
+        try( var index = EmbeddingIndex.<DocumentChunk>builder().codec( DocumentChunk.CODEC ).key( DocumentChunk::filePath ).build() ) {
+            final var manifest = new FileManifest( "60 10" );
+            final var summary = DocumentIngester.builder()
+                    .index( index )
+                    .manifest( manifest )
+                    .chunker( chunker )
+                    .batcher( new EmbeddingBatcher( model, EmbeddingBatcher.Options.DEFAULT ) )
+                    .options( DocumentIngester.Options.builder().chunkingThreads( 3 ).queueCapacity( 2 ).build() )
+                    .build()
+                    .run( documents );
+            assertEquals( expected.size(), summary.chunks() );
+
+            // the chunks are the same as the ones of the whole content, in order
+            final var path = documents.resolve( "large.txt" ).toString();
+            final var chunks = index.get( path );
+            assertEquals( expected.size(), chunks.size() );
+            final var texts = new String[ expected.size() ];
+            chunks.forEach( entry -> texts[ entry.item().index() ] = entry.item().text() );
+            assertEquals( expected, List.of( texts ) );
+            assertEquals( expected.size(), manifest.get( path ).chunkHashes().size() );
+        }
+    }
+}
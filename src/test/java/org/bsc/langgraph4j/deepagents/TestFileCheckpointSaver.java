@@ -0,0 +1,337 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.bsc.langgraph4j.RunnableConfig;
+import org.bsc.langgraph4j.checkpoint.Checkpoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileCheckpointSaver {
+
+    @TempDir
+    Path directory;
+
+    private FileCheckpointSaver open( long segmentSize ) throws IOException {
+        return open( directory, segmentSize, 1 );
+    }
+
+    private static FileCheckpointSaver open( Path directory, long segmentSize, int snapshotInterval ) throws IOException {
+        return FileCheckpointSaver.builder()
+                .directory( directory )
+                .stateSerializer( new CompactStateSerializer() )
+                .segmentSize( segmentSize )
+                .snapshotInterval( snapshotInterval )
+                .compactionThreshold( 1 )
+                .compactionInterval( null )
+                .sync( false )
+                .build();
+    }
+
+    private static RunnableConfig config( String threadId ) {
+        return RunnableConfig.builder().threadId( threadId ).build();
+    }
+
+    private static Checkpoint checkpoint( String id, int step ) {
+        return Checkpoint.builder()
+                .id( id )
+                .nodeId( "agent" )
+                .nextNodeId( "action" )
+                .state( Map.of( "step", step, "files", Map.of( "notes.md", "x".repeat( 100 * step ) ) ) )
+                .build();
+    }
+
+    private static List<Object> steps( FileCheckpointSaver saver, String threadId ) {
+        return saver.list( config( threadId ) ).stream()
+                .map( checkpoint -> checkpoint.getState().get("step") )
+                .toList();
+    }
+
+    private List<Path> segments() throws IOException {
+        try( Stream<Path> files = Files.list( directory ) ) {
+            return files.filter( path -> path.getFileName().toString().endsWith(".log") ).sorted().toList();
+        }
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        try( var saver = open( 64 * 1024 ) ) {
+            var config = config( "t1" );
+            for( int i = 1; i <= 3; ++i ) {
+                config = saver.put( config( "t1" ), checkpoint( "c" + i, i ) );
+            }
+            assertEquals( "c3", config.checkPointId().orElseThrow() );
+
+            saver.put( config( "t2" ), checkpoint( "d1", 10 ) );
+
+            // replace the last checkpoint of t1
+            saver.put( config, checkpoint( "c3", 30 ) );
+
+            assertEquals( List.of( 30, 2, 1 ), steps( saver, "t1" ) );
+        }
+
+        try( var saver = open( 64 * 1024 ) ) {
+            assertEquals( List.of( 30, 2, 1 ), steps( saver, "t1" ) );
+            assertEquals( List.of( 10 ), steps( saver, "t2" ) );
+
+            var last = saver.get( config( "t1" ) ).orElseThrow();
+            assertEquals( "c3", last.getId() );
+            assertEquals( "agent", last.getNodeId() );
+            assertEquals( "action", last.getNextNodeId() );
+
+            var byId = saver.get( RunnableConfig.builder().threadId("t1").checkPointId("c2").build() ).orElseThrow();
+            assertEquals( 2, byId.getState().get("step") );
+        }
+    }
+
+    @Test
+    public void testTruncatedTail() throws Exception {
+        try( var saver = open( 64 * 1024 ) ) {
+            saver.put( config( "t1" ), checkpoint( "c1", 1 ) );
+            saver.put( config( "t1" ), checkpoint( "c2", 2 ) );
+        }
+
+        // simulate a crash in the middle of a write
+        var segment = segments().get( segments().size() - 1 );
+        Files.write( segment, new byte[] { 0, 0, 1, 0, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND );
+
+        try( var saver = open( 64 * 1024 ) ) {
+            assertEquals( List.of( 2, 1 ), steps( saver, "t1" ) );
+            saver.put( config( "t1" ), checkpoint( "c3", 3 ) );
+        }
+
+        try( var saver = open( 64 * 1024 ) ) {
+            assertEquals( List.of( 3, 2, 1 ), steps( saver, "t1" ) );
+        }
+    }
+
+    @Test
+    public void testClearAndCompaction() throws Exception {
+        try( var saver = open( 2 * 1024 ) ) {
+            for( int i = 1; i <= 20; ++i ) {
+                saver.put( config( "t1" ), checkpoint( format( "c%d", i ), i ) );
+            }
+            for( int i = 1; i <= 10; ++i ) {
+                saver.put( config( "t2" ), checkpoint( format( "d%d", i ), i ) );
+            }
+            assertTrue( segments().size() > 2 );
+
+            assertTrue( saver.clear( config( "t1" ) ) );
+            assertFalse( saver.clear( config( "t1" ) ) );
+
+            var before = segments().size();
+            saver.compact();
+            assertTrue( segments().size() < before );
+
+            assertTrue( saver.list( config( "t1" ) ).isEmpty() );
+            assertEquals( List.of( 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 ), steps( saver, "t2" ) );
+
+            saver.put( config( "t1" ), checkpoint( "e1", 100 ) );
+        }
+
+        try( var saver = open( 2 * 1024 ) ) {
+            assertEquals( List.of( 100 ), steps( saver, "t1" ) );
+            assertEquals( List.of( 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 ), steps( saver, "t2" ) );
+        }
+    }
+
+    @Test
+    public void testTombstoneCompaction() throws Exception {
+        // a record per segment
+        try( var saver = open( 64 ) ) {
+            saver.put( config( "t1" ), checkpoint( "c1", 1 ) );
+            assertTrue( saver.clear( config( "t1" ) ) );
+            saver.put( config( "t2" ), checkpoint( "d1", 1 ) );
+            assertEquals( 3, segments().size() );
+
+            // the segment holding only the tombstone is compacted too, no record of t1 survives
+            saver.compact();
+            assertEquals( 1, segments().size() );
+        }
+
+        try( var saver = open( 64 ) ) {
+            assertTrue( saver.list( config( "t1" ) ).isEmpty() );
+            assertEquals( List.of( 1 ), steps( saver, "t2" ) );
+        }
+    }
+
+    /**
+     * Session state after the given step: a message is appended per step, a file is updated and one is removed
+     */
+    private static Map<String,Object> session( int step ) {
+        final var messages = new ArrayList<String>();
+        final var files = new LinkedHashMap<String,String>();
+        for( int i = 1; i <= step; ++i ) {
+            messages.add( format( "message %d %s", i, "m".repeat( 500 ) ) );
+            files.put( format( "notes_%d.md", i ), "n".repeat( 1_000 + i ) );
+            files.remove( format( "notes_%d.md", i - 3 ) );
+        }
+        files.put( "report.md", format( "report at step %d", step ) );
+        return Map.of( "step", step, "messages", messages, "files", files );
+    }
+
+    private static long size( Path directory ) throws IOException {
+        try( Stream<Path> files = Files.list( directory ) ) {
+            return files.mapToLong( path -> path.toFile().length() ).sum();
+        }
+    }
+
+    @Test
+    public void testDeltaCheckpoints() throws Exception {
+        final var full = Files.createDirectory( directory.resolve( "full" ) );
+        final var delta = Files.createDirectory( directory.resolve( "delta" ) );
+
+        for( var dir : List.of( full, delta ) ) {
+            try( var saver = open( dir, 16 * 1024, dir == full ? 1 : 5 ) ) {
+                for( int step = 1; step <= 30; ++step ) {
+                    saver.put( config( "t1" ), Checkpoint.builder().id( "c" + step ).state( session( step ) ).build() );
+                }
+            }
+        }
+        assertTrue( size( delta ) * 3 < size( full ) );
+
+        try( var saver = open( delta, 16 * 1024, 5 ) ) {
+            final var checkpoints = List.copyOf( saver.list( config( "t1" ) ) );
+            assertEquals( 30, checkpoints.size() );
+            for( int i = 0; i < checkpoints.size(); ++i ) {
+                assertEquals( session( 30 - i ), checkpoints.get( i ).getState() );
+            }
+
+            // replace a checkpoint used as base by the following deltas
+            saver.put( RunnableConfig.builder().threadId( "t1" ).checkPointId( "c12" ).build(),
+                       Checkpoint.builder().id( "c12" ).state( Map.of( "step", -1 ) ).build() );
+            saver.put( config( "t1" ), Checkpoint.builder().id( "c31" ).state( session( 31 ) ).build() );
+
+            saver.compact();
+
+            assertEquals( Map.of( "step", -1 ), saver.get( RunnableConfig.builder().threadId( "t1" ).checkPointId( "c12" ).build() ).orElseThrow().getState() );
+            assertEquals( session( 13 ), saver.get( RunnableConfig.builder().threadId( "t1" ).checkPointId( "c13" ).build() ).orElseThrow().getState() );
+            assertEquals( session( 31 ), saver.get( config( "t1" ) ).orElseThrow().getState() );
+        }
+
+        try( var saver = open( delta, 16 * 1024, 5 ) ) {
+            assertEquals( session( 13 ), saver.get( RunnableConfig.builder().threadId( "t1" ).checkPointId( "c13" ).build() ).orElseThrow().getState() );
+            assertEquals( session( 31 ), saver.get( config( "t1" ) ).orElseThrow().getState() );
+        }
+    }
+
+    /**
+     * Message that counts the comparisons
+     */
+    private record Probe( String text ) implements Serializable {
+        static final AtomicInteger comparisons = new AtomicInteger();
+
+        @Override
+        public boolean equals( Object other ) {
+            comparisons.incrementAndGet();
+            return other instanceof Probe probe && text.equals( probe.text );
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+    }
+
+    @Test
+    public void testDeltaFromReducers() throws Exception {
+        final var serializer = new CompactStateSerializer();
+        final var states = new ArrayList<Map<String,Object>>();
+
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            var messages = MessageList.of( List.of(), null );
+            var files = FileMap.of( Map.of( "readme.md", "readme" ) );
+            Probe.comparisons.set( 0 );
+            for( int step = 1; step <= 12; ++step ) {
+                final var appended = new ArrayList<Object>( messages );
+                appended.add( new Probe( "message " + step ) );
+                messages = MessageList.of( appended, messages );
+                files = files.merge( Map.of( format( "notes_%d.md", step % 3 ), "step " + step ) );
+
+                // the messages and the files are shared by the checkpointed state, the changes found from them
+                final var state = serializer.cloneObject( new DeepAgent.State( Map.of( "step", step, "messages", messages, "files", files ) ) ).data();
+                assertSame( messages, state.get( "messages" ) );
+                assertSame( files, state.get( "files" ) );
+                saver.put( config( "t1" ), Checkpoint.builder().id( "c" + step ).state( state ).build() );
+                states.add( 0, state );
+            }
+            assertEquals( 0, Probe.comparisons.get() );
+        }
+
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            final var checkpoints = List.copyOf( saver.list( config( "t1" ) ) );
+            assertEquals( states.size(), checkpoints.size() );
+            for( int i = 0; i < checkpoints.size(); ++i ) {
+                assertEquals( states.get( i ), checkpoints.get( i ).getState() );
+            }
+        }
+    }
+
+    @Test
+    public void testDeltaWithReplacedMessage() throws Exception {
+        final var serializer = new CompactStateSerializer();
+        final var original = new ArrayList<Object>();
+        for( int i = 1; i <= 5; ++i ) {
+            original.add( new Probe( "message " + i ) );
+        }
+        final var messages = MessageList.of( original, MessageList.of( List.of(), null ) );
+
+        // a message in the middle replaced in place, the first and the last kept, a message appended
+        final var replaced = new ArrayList<Object>( messages );
+        replaced.set( 2, new Probe( "changed" ) );
+        replaced.add( new Probe( "message 6" ) );
+        final var next = MessageList.of( replaced, messages );
+        assertFalse( next.startsWith( messages ) );
+
+        final var first = serializer.cloneObject( new DeepAgent.State( Map.of( "messages", messages ) ) ).data();
+        final var second = serializer.cloneObject( new DeepAgent.State( Map.of( "messages", next ) ) ).data();
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            saver.put( config( "t1" ), Checkpoint.builder().id( "c1" ).state( first ).build() );
+            saver.put( config( "t1" ), Checkpoint.builder().id( "c2" ).state( second ).build() );
+        }
+
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            final var restored = saver.get( config( "t1" ) ).orElseThrow().getState();
+            assertEquals( replaced, restored.get( "messages" ) );
+            assertEquals( new Probe( "changed" ), ((List<?>)restored.get( "messages" )).get( 2 ) );
+        }
+    }
+
+    @Test
+    public void testDeltaWithChangedMessageList() throws Exception {
+        final var serializer = new CompactStateSerializer();
+        final var messages = MessageList.of( List.of( new Probe( "message 1" ), new Probe( "message 2" ), new Probe( "message 3" ) ),
+                                             MessageList.of( List.of(), null ) );
+        final var appended = new ArrayList<Object>( messages );
+        appended.add( new Probe( "message 4" ) );
+        final var next = MessageList.of( appended, messages );
+        assertTrue( next.startsWith( messages ) );
+
+        // the list wrapped by the messages changed after the update, the lineage no longer holds
+        appended.set( 1, new Probe( "changed" ) );
+
+        final var first = serializer.cloneObject( new DeepAgent.State( Map.of( "messages", messages ) ) ).data();
+        final var second = serializer.cloneObject( new DeepAgent.State( Map.of( "messages", next ) ) ).data();
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            saver.put( config( "t1" ), Checkpoint.builder().id( "c1" ).state( first ).build() );
+            saver.put( config( "t1" ), Checkpoint.builder().id( "c2" ).state( second ).build() );
+        }
+
+        try( var saver = open( directory, 64 * 1024, 5 ) ) {
+            assertEquals( appended, saver.get( config( "t1" ) ).orElseThrow().getState().get( "messages" ) );
+        }
+    }
+}
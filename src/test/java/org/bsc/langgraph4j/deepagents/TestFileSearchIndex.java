@@ -0,0 +1,112 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileSearchIndex {
+
+    private static String notes( String topic, int count ) {
+        final var result = new StringBuilder();
+        for( int i = 0; i < count; ++i ) {
+            result.append( format( topic, i ) ).append( '\n' );
+        }
+        return result.toString();
+    }
+
+    private static String format( String topic, int i ) {
+        return String.format( "note %d about the %s of the project, with some details", i, topic );
+    }
+
+    private static FileSearchIndex index( TestEmbeddingTools.CountingEmbeddingModel model ) throws IOException {
+        return new FileSearchIndex( new EmbeddingBatcher( model, EmbeddingBatcher.Options.DEFAULT ),
+                new EmbeddingCache( "model", null, 1000 ),
+                new TextChunker( 50, 10, Tokenizer.heuristic() ),
+                HnswIndex.Options.DEFAULT );
+    }
+
+    private static String search( FileSearchIndex index, String query ) {
+        final var results = index.search( new float[16], query, 1, 1 );
+        return results.isEmpty() ? null : results.get(0).item().filePath();
+    }
+
+    @Test
+    public void testIncrementalSync() throws IOException {
+        final var model = new TestEmbeddingTools.CountingEmbeddingModel();
+        final var index = index( model );
+        final var channel = new FileChannel();
+
+        @SuppressWarnings("unchecked")
+        var files = (Map<String,String>)channel.update( "files", Map.of(), Map.of(
+                "/notes/architecture.md", notes( "architecture", 20 ),
+                "/notes/budget.md", notes( "budget", 20 ) ) );
+        index.sync( files );
+        final int chunks = index.size();
+        assertTrue( chunks > 4 );
+        assertEquals( chunks, index.embeddedChunks() );
+        assertEquals( chunks, model.texts.get() );
+        assertEquals( "/notes/budget.md", search( index, "budget" ) );
+
+        // the unchanged files are skipped, the edited one only embeds the chunks of the edited line
+        final var edited = files.get( "/notes/architecture.md" ).replace( format( "architecture", 17 ), "the database is postgres" );
+        @SuppressWarnings("unchecked")
+        var updated = (Map<String,String>)channel.update( "files", files, Map.of( "/notes/architecture.md", edited ) );
+        index.sync( updated );
+        assertEquals( chunks, index.size() );
+        final long embedded = index.embeddedChunks() - chunks;
+        assertTrue( embedded > 0 && embedded <= 2, "embedded chunks: " + embedded );
+        assertEquals( "/notes/architecture.md", search( index, "postgres" ) );
+
+        // synced again to the same files
+        index.sync( updated );
+        assertEquals( chunks + embedded, index.embeddedChunks() );
+
+        // the files no longer in the state are removed
+        final var remaining = new LinkedHashMap<>( updated );
+        remaining.remove( "/notes/budget.md" );
+        index.sync( remaining );
+        assertNull( search( index, "budget" ) );
+        assertEquals( "/notes/architecture.md", search( index, "postgres" ) );
+
+        // a file written again with a previous content takes its vectors from the cache
+        index.sync( files );
+        assertEquals( "/notes/budget.md", search( index, "budget" ) );
+        assertEquals( chunks + embedded, index.embeddedChunks() );
+
+        index.sync( Map.of() );
+        assertEquals( 0, index.size() );
+        assertTrue( index.search( new float[16], "budget", 1, 0.5 ).isEmpty() );
+    }
+
+    @Test
+    public void testSessions() throws IOException {
+        final var model = new TestEmbeddingTools.CountingEmbeddingModel();
+        final var tools = new Tools.FileSearchTools( model, HnswIndex.Options.DEFAULT );
+        final var channel = new FileChannel();
+
+        @SuppressWarnings("unchecked")
+        final var session1 = (Map<String,String>)channel.update( "files", Map.of(), Map.of( "/todo.md", "buy milk and eggs" ) );
+        @SuppressWarnings("unchecked")
+        final var session2 = (Map<String,String>)channel.update( "files", Map.of(), Map.of( "/plan.md", "deploy the service on friday" ) );
+
+        final var state1 = StateView.of( Map.of( "files", session1 ) );
+        final var index1 = tools.index( state1 );
+        assertEquals( "/todo.md", tools.search( state1, "milk", 1 ).get(0).item().filePath() );
+        assertTrue( tools.search( StateView.of( Map.of( "files", session2 ) ), "milk", 5 ).stream()
+                .noneMatch( result -> result.item().filePath().equals( "/todo.md" ) ) );
+
+        // the maps reduced from the files of a session share its index
+        @SuppressWarnings("unchecked")
+        final var next = (Map<String,String>)channel.update( "files", session1, Map.of( "/done.md", "call the bank" ) );
+        final var state2 = StateView.of( Map.of( "files", next ) );
+        assertSame( index1, tools.index( state2 ) );
+        assertEquals( "/done.md", tools.search( state2, "bank", 1 ).get(0).item().filePath() );
+        assertNotSame( index1, tools.index( StateView.of( Map.of( "files", session2 ) ) ) );
+
+        assertTrue( tools.search( StateView.of( Map.of() ), "milk", 5 ).isEmpty() );
+    }
+}
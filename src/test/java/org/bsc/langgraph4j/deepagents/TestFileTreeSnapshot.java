@@ -0,0 +1,94 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileTreeSnapshot {
+
+    @TempDir
+    Path root;
+
+    /**
+     * Waits for the watch service to report a change
+     */
+    private static void await( BooleanSupplier condition, String message ) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while( !condition.getAsBoolean() ) {
+            assertTrue( System.currentTimeMillis() < deadline, message );
+            Thread.sleep( 50 );
+        }
+    }
+
+    private List<String> files( FileTreeSnapshot snapshot, Path directory ) {
+        return snapshot.files( directory ).map( file -> root.relativize( Path.of( file.path() ) ).toString() ).toList();
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        Files.createDirectories( root.resolve( "src/main" ) );
+        Files.writeString( root.resolve( "src/main/App.java" ), "class App {}" );
+        Files.writeString( root.resolve( "src/Readme.md" ), "readme" );
+        Files.write( root.resolve( "src/main/App.class" ), new byte[] { (byte)0xCA, (byte)0xFE, 0, 0 } );
+        Files.writeString( root.resolve( "src-other.txt" ), "not under src" );
+
+        try( var snapshot = new FileTreeSnapshot( List.of( root.resolve( "src" ), root.resolve( "missing" ) ), null ) ) {
+            assertEquals( 3, snapshot.size() );
+            assertEquals( List.of( "src/Readme.md", "src/main/App.class", "src/main/App.java" ), files( snapshot, root.resolve( "src" ) ) );
+            assertEquals( List.of( "src/main/App.class", "src/main/App.java" ), files( snapshot, root.resolve( "src/main" ) ) );
+            assertEquals( List.of( root.resolve( "src/main" ).toString() ), snapshot.directories( root.resolve( "src" ) ).toList() );
+
+            final var app = snapshot.file( root.resolve( "src/main/App.java" ) );
+            assertEquals( 12, app.size() );
+            assertFalse( app.binary() );
+            assertTrue( snapshot.file( root.resolve( "src/main/App.class" ) ).binary() );
+            assertNull( snapshot.file( root.resolve( "src-other.txt" ) ) );
+
+            // changes picked up by a rescan
+            Files.delete( root.resolve( "src/Readme.md" ) );
+            Files.writeString( root.resolve( "src/main/App.java" ), "class App { int size; }" );
+            snapshot.rescan();
+            assertEquals( List.of( "src/main/App.class", "src/main/App.java" ), files( snapshot, root.resolve( "src" ) ) );
+            assertEquals( 23, snapshot.file( root.resolve( "src/main/App.java" ) ).size() );
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        final var src = root.resolve( "src" );
+        Files.createDirectories( src );
+        Files.writeString( src.resolve( "A.java" ), "class A {}" );
+
+        try( var snapshot = new FileTreeSnapshot( List.of( src ), null ) ) {
+            assertEquals( 1, snapshot.size() );
+
+            Files.writeString( src.resolve( "B.java" ), "class B {}" );
+            await( () -> snapshot.file( src.resolve( "B.java" ) ) != null, "created file" );
+
+            Files.writeString( src.resolve( "A.java" ), "class A { void run() {} }" );
+            await( () -> snapshot.file( src.resolve( "A.java" ) ).size() == 25, "modified file" );
+
+            // the files of a new directory, including the ones written before it is watched
+            Files.createDirectories( src.resolve( "pkg/sub" ) );
+            Files.writeString( src.resolve( "pkg/sub/C.java" ), "class C {}" );
+            await( () -> snapshot.file( src.resolve( "pkg/sub/C.java" ) ) != null, "file of a new directory" );
+
+            Files.delete( src.resolve( "B.java" ) );
+            await( () -> snapshot.file( src.resolve( "B.java" ) ) == null, "deleted file" );
+
+            // a deleted directory removes its subtree
+            Files.delete( src.resolve( "pkg/sub/C.java" ) );
+            Files.delete( src.resolve( "pkg/sub" ) );
+            Files.delete( src.resolve( "pkg" ) );
+            await( () -> snapshot.directories( src ).count() == 0 && snapshot.size() == 1, "deleted directory" );
+            assertEquals( List.of( "src/A.java" ), files( snapshot, src ) );
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHnswIndex {
+
+    static float[][] randomVectors( int count, int dimensions, long seed ) {
+        final var random = new Random( seed );
+        final var result = new float[count][dimensions];
+        for( var vector : result ) {
+            for( int i = 0; i < dimensions; ++i ) {
+                vector[i] = (float)random.nextGaussian();
+            }
+        }
+        return result;
+    }
+
+    static float cosine( float[] a, float[] b ) {
+        double dot = 0, na = 0, nb = 0;
+        for( int i = 0; i < a.length; ++i ) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return (float)( dot / Math.sqrt( na * nb ) );
+    }
+
+    /**
+     * @return the ids of the k vectors most similar to the query, by exhaustive search
+     */
+    static int[] exactTopK( float[][] vectors, float[] query, int k ) {
+        return IntStream.range( 0, vectors.length ).boxed()
+                .sorted( Comparator.comparingDouble( (Integer i) -> cosine( vectors[i], query ) ).reversed() )
+                .limit( k )
+                .mapToInt( Integer::intValue )
+                .toArray();
+    }
+
+    static double recall( HnswIndex<Integer> index, float[][] vectors, float[][] queries, int k ) {
+        int found = 0;
+        for( var query : queries ) {
+            final var expected = new HashSet<Integer>();
+            Arrays.stream( exactTopK( vectors, query, k ) ).forEach( expected::add );
+            for( var result : index.search( query, k ) ) {
+                if( expected.contains( result.item() ) ) {
+                    ++found;
+                }
+            }
+        }
+        return (double)found / ( queries.length * k );
+    }
+
+    @Test
+    public void testRecall() {
+        final var vectors = randomVectors( 3_000, 32, 1 );
+        final var index = new HnswIndex<Integer>( 32, HnswIndex.Options.DEFAULT );
+        for( int i = 0; i < vectors.length; ++i ) {
+            index.add( vectors[i], i );
+        }
+        assertEquals( vectors.length, index.size() );
+
+        final var queries = randomVectors( 50, 32, 2 );
+        assertTrue( recall( index, vectors, queries, 10 ) >= 0.9 );
+
+        // results are sorted by score
+        var results = index.search( queries[0], 10 );
+        assertEquals( 10, results.size() );
+        for( int i = 1; i < results.size(); ++i ) {
+            assertTrue( results.get( i - 1 ).score() >= results.get(i).score() );
+        }
+
+        // a stored vector is its own nearest neighbour
+        assertEquals( 42, (int)index.search( vectors[42], 1 ).get(0).item() );
+    }
+
+    @Test
+    public void testConcurrentInserts() throws Exception {
+        final var vectors = randomVectors( 4_000, 16, 3 );
+        final var index = new HnswIndex<Integer>( 16, HnswIndex.Options.builder().m( 8 ).efConstruction( 100 ).build() );
+
+        final var executor = Executors.newFixedThreadPool( 8 );
+        try {
+            for( int i = 0; i < vectors.length; ++i ) {
+                final int id = i;
+                executor.submit( () -> {
+                    index.add( vectors[id], id );
+                    // searches run while the graph grows
+                    if( id % 100 == 0 ) {
+                        index.search( vectors[id], 5 );
+                    }
+                });
+            }
+        }
+        finally {
+            executor.shutdown();
+            assertTrue( executor.awaitTermination( 1, TimeUnit.MINUTES ) );
+        }
+
+        assertEquals( vectors.length, index.size() );
+        assertTrue( recall( index, vectors, randomVectors( 50, 16, 4 ), 10 ) >= 0.9 );
+    }
+
+    @Test
+    public void testQuantization() throws Exception {
+        final int dimensions = 128;
+        final var vectors = randomVectors( 3_000, dimensions, 5 );
+        final var queries = randomVectors( 50, dimensions, 6 );
+
+        final var recalls = new double[ HnswIndex.Quantization.values().length ];
+        final var memory = new long[ recalls.length ];
+        for( var quantization : HnswIndex.Quantization.values() ) {
+            try( var index = new HnswIndex<Integer>( dimensions, HnswIndex.Options.builder().quantization( quantization ).build() ) ) {
+                for( int i = 0; i < vectors.length; ++i ) {
+                    index.add( vectors[i], i );
+                }
+                recalls[ quantization.ordinal() ] = recall( index, vectors, queries, 10 );
+                memory[ quantization.ordinal() ] = index.memoryBytes();
+                // scores are reranked with the full precision vectors
+                final var result = index.search( vectors[7], 1 ).get(0);
+                assertEquals( 7, (int)result.item() );
+                assertEquals( 1.0, result.score(), 1e-4 );
+            }
+        }
+        final int none = HnswIndex.Quantization.NONE.ordinal();
+        final int int8 = HnswIndex.Quantization.INT8.ordinal();
+        final int binary = HnswIndex.Quantization.BINARY.ordinal();
+        DeepAgent.log.info( "quantization recall@10: {}, memory: {}", Arrays.toString( recalls ), Arrays.toString( memory ) );
+
+        assertTrue( recalls[int8] >= recalls[none] - 0.05 );
+        // random gaussian vectors are the worst case for the sign bits
+        assertTrue( recalls[binary] >= 0.6 );
+        assertTrue( memory[int8] < memory[none] * 0.7 );
+        assertTrue( memory[binary] < memory[int8] );
+    }
+
+    @Test
+    public void testOptions() {
+        assertThrows( IllegalArgumentException.class, () -> HnswIndex.Options.builder().m( 1 ).build() );
+        assertThrows( IllegalArgumentException.class, () -> HnswIndex.Options.builder().m( 16 ).efConstruction( 8 ).build() );
+        assertThrows( IllegalArgumentException.class, () -> new HnswIndex<Integer>( 4, HnswIndex.Options.DEFAULT ).add( new float[3], 0 ) );
+        assertTrue( new HnswIndex<Integer>( 4, HnswIndex.Options.DEFAULT ).search( new float[4], 3 ).isEmpty() );
+    }
+}
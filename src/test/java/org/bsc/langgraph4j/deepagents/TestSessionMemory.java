@@ -0,0 +1,129 @@
+package org.bsc.langgraph4j.deepagents;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSessionMemory {
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,String> updateFiles( FileChannel channel, Map<String,String> files, Map<String,String> update ) {
+        return (Map<String,String>)channel.update( "files", files, update );
+    }
+
+    @Test
+    public void testFilesAccounting() {
+        var channel = new FileChannel();
+
+        Map<String,String> files = Map.of();
+        var expected = new HashMap<String,String>();
+        for( int i = 0; i < 50; ++i ) {
+            var update = Map.of( "file" + (i % 7) + ".txt", "content ".repeat( i + 1 ) );
+            files = updateFiles( channel, files, update );
+            expected.putAll( update );
+        }
+
+        assertInstanceOf( FileMap.class, files );
+        assertEquals( expected, files );
+        assertEquals( MemorySize.ofFiles( expected ), MemorySize.ofFiles( files ) );
+    }
+
+    @Test
+    public void testMessagesAccounting() {
+        var channel = DeepAgent.State.SCHEMA.get( "messages" );
+
+        Object messages = channel.update( "messages", null, new UserMessage( "hello" ) );
+        messages = channel.update( "messages", messages, new AssistantMessage( "hi, how can I help you?" ) );
+        messages = channel.update( "messages", messages, List.of( new UserMessage( "summarize the report" ) ) );
+
+        assertInstanceOf( MessageList.class, messages );
+        assertEquals( 3, ((List<?>)messages).size() );
+        assertEquals( MemorySize.ofMessages( List.copyOf( (List<?>)messages ) ), MemorySize.ofMessages( (List<?>)messages ) );
+
+        var state = new DeepAgent.State( Map.of( "messages", messages ) );
+        var usage = state.memoryUsage();
+        assertEquals( ((MessageList)messages).retainedBytes(), usage.messagesBytes() );
+        assertEquals( 0, usage.filesBytes() );
+        assertEquals( usage.messagesBytes(), usage.totalBytes() );
+    }
+
+    @Test
+    public void testSpill( @TempDir Path directory ) throws Exception {
+        var spillDirectory = directory.resolve( "spill" );
+        var registry = new SimpleMeterRegistry();
+        var guard = new SessionMemoryGuard( DeepAgent.MemoryLimits.builder()
+                .spillFilesBytes( 10_000 )
+                .spillDirectory( spillDirectory )
+                .build(), registry );
+        var channel = new FileChannel( guard );
+
+        var large = "x".repeat( 20_000 );
+        var files = updateFiles( channel, Map.of(), Map.of( "small.txt", "small", "large.txt", large ) );
+
+        assertTrue( MemorySize.ofFiles( files ) <= 10_000 );
+        assertTrue( FileMap.isSpilled( files.get( "large.txt" ) ) );
+        assertEquals( "small", files.get( "small.txt" ) );
+        try( var spilled = Files.list( spillDirectory ) ) {
+            assertEquals( 1, spilled.count() );
+        }
+
+        // spilled contents are loaded by the state
+        var state = new DeepAgent.State( Map.of( "files", files ) );
+        assertEquals( large, state.files().get( "large.txt" ) );
+        assertEquals( Map.of( "small.txt", "small", "large.txt", large ), state.files() );
+
+        // the reference is relative to the spill directory, resolved against the configured one
+        assertFalse( files.get( "large.txt" ).contains( spillDirectory.toString() ) );
+        var relocated = Files.move( spillDirectory, directory.resolve( "relocated" ) );
+        new SessionMemoryGuard( DeepAgent.MemoryLimits.builder()
+                .spillFilesBytes( 10_000 )
+                .spillDirectory( relocated )
+                .build(), null );
+        assertEquals( large, new DeepAgent.State( Map.of( "files", new HashMap<>( files ) ) ).files().get( "large.txt" ) );
+
+        // a spilled file can be replaced
+        files = updateFiles( channel, files, Map.of( "large.txt", "edited" ) );
+        assertEquals( "edited", files.get( "large.txt" ) );
+
+        assertEquals( 1.0, registry.get( DeepAgent.MemoryLimits.LIMIT_METRIC_NAME ).tag( "action", "spill" ).counter().count() );
+        assertEquals( 2, registry.get( DeepAgent.MemoryLimits.METRIC_NAME ).tag( "channel", "files" ).summary().count() );
+    }
+
+    @Test
+    public void testAbort() {
+        var registry = new SimpleMeterRegistry();
+        var guard = new SessionMemoryGuard( DeepAgent.MemoryLimits.builder()
+                .maxMessagesBytes( 1_000 )
+                .maxFilesBytes( 1_000 )
+                .build(), registry );
+        var schema = DeepAgent.State.schema( guard );
+
+        var messages = schema.get( "messages" ).update( "messages", null, new UserMessage( "hello" ) );
+        var ex = assertThrows( SessionMemoryLimitException.class, () ->
+                schema.get( "messages" ).update( "messages", messages, new UserMessage( "x".repeat( 1_000 ) ) ) );
+        assertEquals( "messages", ex.channel() );
+        assertEquals( 1_000, ex.maxBytes() );
+
+        assertThrows( SessionMemoryLimitException.class, () ->
+                schema.get( "files" ).update( "files", Map.of(), Map.of( "report.md", "x".repeat( 1_000 ) ) ) );
+
+        assertEquals( 2.0, registry.get( DeepAgent.MemoryLimits.LIMIT_METRIC_NAME ).tag( "action", "abort" ).counter().count() );
+        assertEquals( 2, registry.get( DeepAgent.MemoryLimits.METRIC_NAME ).tag( "channel", "messages" ).summary().count() );
+    }
+
+    @Test
+    public void testLimitsValidation() {
+        assertThrows( IllegalArgumentException.class, () -> DeepAgent.MemoryLimits.builder().spillFilesBytes( 1_000 ).build() );
+        assertThrows( IllegalArgumentException.class, () -> DeepAgent.MemoryLimits.builder().maxFilesBytes( -1 ).build() );
+    }
+}
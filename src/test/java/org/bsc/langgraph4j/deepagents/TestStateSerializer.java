@@ -0,0 +1,118 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.bsc.langgraph4j.deepagents.StateSerializerBenchmark.deserialize;
+import static org.bsc.langgraph4j.deepagents.StateSerializerBenchmark.sampleState;
+import static org.bsc.langgraph4j.deepagents.StateSerializerBenchmark.serialize;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStateSerializer {
+
+    @SuppressWarnings("unchecked")
+    private static void assertSameState( Map<String,Object> expected, Map<String,Object> actual ) {
+        assertEquals( expected.get("todos"), actual.get("todos") );
+        assertEquals( expected.get("files"), actual.get("files") );
+
+        var expectedMessages = (List<Message>)expected.get("messages");
+        var actualMessages = (List<Message>)actual.get("messages");
+        assertEquals( expectedMessages.size(), actualMessages.size() );
+
+        for( int i = 0; i < expectedMessages.size(); ++i ) {
+            var e = expectedMessages.get(i);
+            var a = actualMessages.get(i);
+            assertEquals( e.getMessageType(), a.getMessageType() );
+            assertEquals( e.getText(), a.getText() );
+            if( e instanceof AssistantMessage assistant ) {
+                assertEquals( assistant.getToolCalls(), ((AssistantMessage)a).getToolCalls() );
+            }
+            if( e instanceof ToolResponseMessage toolResponse ) {
+                assertEquals( toolResponse.getResponses(), ((ToolResponseMessage)a).getResponses() );
+            }
+        }
+    }
+
+    @Test
+    public void testCompactStateSerializer() throws Exception {
+        var data = sampleState( 20 );
+
+        var compressed = new CompactStateSerializer();
+        var uncompressed = new CompactStateSerializer( 0 );
+
+        var compressedBytes = serialize( compressed, data );
+        var uncompressedBytes = serialize( uncompressed, data );
+
+        assertTrue( compressedBytes.length < uncompressedBytes.length );
+
+        assertSameState( data, deserialize( compressed, compressedBytes ) );
+        assertSameState( data, deserialize( uncompressed, uncompressedBytes ) );
+    }
+
+    @Test
+    public void testToolCallWithoutIdAndType() throws Exception {
+        var message = new AssistantMessage( "", Map.of(),
+                List.of( new AssistantMessage.ToolCall( null, null, "internet_search", "{}" ),
+                         new AssistantMessage.ToolCall( "call_1", "function", "write_file", "{}" ) ) );
+        var data = Map.<String,Object>of( "messages", List.of( message ), "todos", List.of(), "files", Map.of() );
+
+        var serializer = new CompactStateSerializer();
+        var restored = deserialize( serializer, serialize( serializer, data ) );
+
+        assertSameState( data, restored );
+        @SuppressWarnings("unchecked")
+        var toolCall = ((AssistantMessage)((List<Message>)restored.get("messages")).get(0)).getToolCalls().get(0);
+        assertNull( toolCall.id() );
+        assertNull( toolCall.type() );
+        assertEquals( "internet_search", toolCall.name() );
+    }
+
+    @Test
+    public void testToolResponseWithoutIdAndName() throws Exception {
+        var message = new ToolResponseMessage(
+                List.of( new ToolResponseMessage.ToolResponse( null, null, "result" ),
+                         new ToolResponseMessage.ToolResponse( "call_1", "write_file", "Updated file /a.txt" ) ),
+                Map.of() );
+        var data = Map.<String,Object>of( "messages", List.of( message ), "todos", List.of(), "files", Map.of() );
+
+        var serializer = new CompactStateSerializer();
+        var restored = deserialize( serializer, serialize( serializer, data ) );
+
+        assertSameState( data, restored );
+        @SuppressWarnings("unchecked")
+        var responses = ((ToolResponseMessage)((List<Message>)restored.get("messages")).get(0)).getResponses();
+        assertNull( responses.get(0).id() );
+        assertNull( responses.get(0).name() );
+        assertEquals( "result", responses.get(0).responseData() );
+        assertEquals( "call_1", responses.get(1).id() );
+        assertEquals( "write_file", responses.get(1).name() );
+    }
+
+    @Test
+    public void testChannelOrder() throws Exception {
+        var data = new java.util.LinkedHashMap<String,Object>();
+        for( var channel : List.of( "todos", "messages", "zeta", "files", "alpha" ) ) {
+            data.put( channel, List.of() );
+        }
+
+        var serializer = new CompactStateSerializer();
+        var restored = deserialize( serializer, serialize( serializer, data ) );
+
+        assertEquals( List.copyOf( data.keySet() ), List.copyOf( restored.keySet() ) );
+    }
+
+    @Test
+    public void testVarInt() throws Exception {
+        for( int value : new int[] { 0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, -1 } ) {
+            var bytes = new java.io.ByteArrayOutputStream();
+            CompactStateSerializer.writeVarInt( new java.io.DataOutputStream( bytes ), value );
+            var in = new java.io.DataInputStream( new java.io.ByteArrayInputStream( bytes.toByteArray() ) );
+            assertEquals( value, CompactStateSerializer.readVarInt( in ) );
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStateView {
+
+    @Test
+    public void testView() {
+        var files = Map.of( "report.md", "# Report", "empty.txt", "" );
+        var messages = List.of( new UserMessage( "hello" ) );
+        var view = StateView.of( new ToolContext( Map.of( "files", files, "messages", messages ) ) );
+
+        // channel values are not copied
+        assertSame( messages, view.messages() );
+        assertSame( files.keySet(), view.fileNames() );
+        assertEquals( "# Report", view.file( "report.md" ) );
+        assertEquals( "", view.file( "empty.txt" ) );
+        assertNull( view.file( "missing.txt" ) );
+        assertTrue( view.hasFile( "empty.txt" ) );
+        assertEquals( List.of(), view.todos() );
+
+        var empty = StateView.of( Map.of() );
+        assertEquals( Map.of(), empty.files() );
+        assertEquals( List.of(), empty.messages() );
+    }
+
+    @Test
+    public void testUnchangedMerge() {
+        var content = "# Report";
+        var files = FileMap.of( Map.of( "report.md", content ) );
+
+        assertSame( files, files.merge( Map.of( "report.md", content ) ) );
+        assertNotSame( files, files.merge( Map.of( "report.md", "# Report v2" ) ) );
+    }
+
+    @Test
+    public void testForgedSpillReference( @TempDir Path directory ) throws IOException {
+        final var secret = Files.writeString( directory.resolve( "secret.txt" ), "secret" );
+        final var spill = Files.createDirectories( directory.resolve( "spill" ) );
+        FileMap.registerSpillDirectory( spill );
+
+        // only the names of the spill files are references, any other content is read as it is
+        for( var content : List.of( "\u0000spilled:" + secret,
+                                    "\u0000spilled:../secret.txt",
+                                    "\u0000spilled:" + "0".repeat( 64 ) + ".txt/../../secret.txt" ) ) {
+            assertTrue( FileMap.isReserved( content ) );
+            assertFalse( FileMap.isSpilled( content ) );
+            assertEquals( content, StateView.of( Map.of( "files", Map.of( "notes.md", content ) ) ).file( "notes.md" ) );
+        }
+
+        // a spill file is looked up in the spill directories only
+        final var name = "a".repeat( 64 ) + ".txt";
+        Files.writeString( directory.resolve( name ), "outside" );
+        final var view = StateView.of( Map.of( "files", Map.of( "notes.md", "\u0000spilled:" + name ) ) );
+        assertThrows( UncheckedIOException.class, () -> view.file( "notes.md" ) );
+        Files.writeString( spill.resolve( name ), "spilled" );
+        assertEquals( "spilled", view.file( "notes.md" ) );
+    }
+}
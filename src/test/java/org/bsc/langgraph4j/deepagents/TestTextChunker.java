@@ -0,0 +1,49 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTextChunker {
+
+    // one token per word, one per line break
+    private static final Tokenizer WORDS = text -> text.isBlank() ? 0 : text.trim().split("\\s+").length;
+
+    @Test
+    public void testSplit() {
+        var chunker = new TextChunker( 8, 5, WORDS );
+
+        var chunks = chunker.split( "a b c\nd e f\ng h\ni j k l\nm" );
+
+        assertEquals( List.of( "a b c\nd e f", "d e f\ng h", "g h\ni j k l", "i j k l\nm" ), chunks );
+        assertEquals( List.of(), chunker.split( "\n\n" ) );
+    }
+
+    @Test
+    public void testLongLine() {
+        var chunker = new TextChunker( 4, 0, Tokenizer.heuristic() );
+
+        var chunks = chunker.split( "word ".repeat( 20 ) );
+
+        assertTrue( chunks.size() > 1 );
+        // the pieces of a long line are separated by line breaks
+        assertEquals( "word ".repeat( 20 ), String.join( "", chunks ).replace( "\n", "" ) );
+    }
+
+    @Test
+    public void testIncremental() {
+        var chunker = new TextChunker( 8, 3, WORDS );
+        var text = "a b c\nd e f\ng h\ni j k l\nm";
+
+        var chunks = new ArrayList<String>();
+        try( var sink = chunker.open( chunks::add ) ) {
+            for( int i = 0; i < text.length(); i += 3 ) {
+                sink.append( text.substring( i, Math.min( text.length(), i + 3 ) ) );
+            }
+        }
+        assertEquals( chunker.split( text ), chunks );
+    }
+}
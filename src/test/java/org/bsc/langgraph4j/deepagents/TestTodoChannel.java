@@ -0,0 +1,68 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.bsc.langgraph4j.deepagents.DeepAgent.ToDo.Status.*;
+import static org.bsc.langgraph4j.deepagents.DeepAgent.ToDo.Update.Action.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTodoChannel {
+
+    private static final List<DeepAgent.ToDo> TODOS = List.of(
+            new DeepAgent.ToDo( "search", COMPLETED ),
+            new DeepAgent.ToDo( "write report", IN_PROGRESS ),
+            new DeepAgent.ToDo( "review report", PENDING ) );
+
+    @Test
+    public void testApply() {
+        var result = TodoChannel.apply( TODOS, List.of(
+                new DeepAgent.ToDo.Update( UPDATE, 1, null, COMPLETED ),
+                new DeepAgent.ToDo.Update( UPDATE, null, "review report", IN_PROGRESS ),
+                new DeepAgent.ToDo.Update( INSERT, 1, "check sources", null ),
+                new DeepAgent.ToDo.Update( REMOVE, 0, null, null ) ), true );
+
+        assertEquals( List.of(
+                new DeepAgent.ToDo( "check sources", PENDING ),
+                new DeepAgent.ToDo( "write report", COMPLETED ),
+                new DeepAgent.ToDo( "review report", IN_PROGRESS ) ), result );
+
+        // the original list is untouched
+        assertEquals( 3, TODOS.size() );
+        assertEquals( IN_PROGRESS, TODOS.get(1).status() );
+    }
+
+    @Test
+    public void testInvalidUpdate() {
+        var updates = List.of(
+                new DeepAgent.ToDo.Update( UPDATE, 0, null, PENDING ),
+                new DeepAgent.ToDo.Update( REMOVE, 5, null, null ) );
+
+        assertThrows( IllegalArgumentException.class, () -> TodoChannel.apply( TODOS, updates, true ) );
+        assertThrows( IllegalArgumentException.class, () -> TodoChannel.apply( TODOS,
+                List.of( new DeepAgent.ToDo.Update( UPDATE, null, "unknown", PENDING ) ), true ) );
+
+        // the channel skips the invalid updates
+        var result = TodoChannel.apply( TODOS, updates, false );
+        assertEquals( PENDING, result.get(0).status() );
+        assertEquals( 3, result.size() );
+    }
+
+    @Test
+    public void testChannel() {
+        var channel = new TodoChannel();
+
+        var patched = channel.update( "todos", TODOS,
+                new TodoChannel.Patch( List.of( new DeepAgent.ToDo.Update( REMOVE, null, "search", null ) ) ) );
+        assertEquals( TODOS.subList( 1, 3 ), patched );
+
+        var fromEmpty = channel.update( "todos", null,
+                new TodoChannel.Patch( List.of( new DeepAgent.ToDo.Update( INSERT, null, "search", null ) ) ) );
+        assertEquals( List.of( new DeepAgent.ToDo( "search", PENDING ) ), fromEmpty );
+
+        // a list replaces the current one
+        var replaced = List.of( new DeepAgent.ToDo( "new plan", PENDING ) );
+        assertEquals( replaced, channel.update( "todos", TODOS, replaced ) );
+    }
+}
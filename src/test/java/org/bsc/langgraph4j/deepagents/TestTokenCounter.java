@@ -0,0 +1,110 @@
+package org.bsc.langgraph4j.deepagents;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTokenCounter {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testHeuristic() {
+        var tokenizer = Tokenizer.heuristic();
+
+        assertEquals( 0, tokenizer.count( "" ) );
+        assertEquals( 100, tokenizer.count( "x".repeat( 400 ) ) );
+        // words, number and punctuation
+        assertEquals( 6, tokenizer.count( "hello world, 2025!" ) );
+    }
+
+    @Test
+    public void testBpe() throws Exception {
+        var ranks = new StringBuilder();
+        int rank = 0;
+        for( var token : List.of( "a", "b", "c", " ", "ab", "abc", " a" ) ) {
+            ranks.append( Base64.getEncoder().encodeToString( token.getBytes( UTF_8 ) ) )
+                 .append( ' ' ).append( rank++ ).append( '\n' );
+        }
+        var file = Files.writeString( directory.resolve( "test.tiktoken" ), ranks );
+
+        var tokenizer = Tokenizer.bpe( file );
+
+        assertEquals( 1, tokenizer.count( "abc" ) );
+        // "abcab" -> "abc" "ab"
+        assertEquals( 2, tokenizer.count( "abcab" ) );
+        // "abc" " a" "b"
+        assertEquals( 3, tokenizer.count( "abc ab" ) );
+    }
+
+    @Test
+    public void testIncrementalCount() {
+        final var calls = new AtomicInteger();
+        final var counter = TokenCounter.builder()
+                .tokenizer( text -> {
+                    calls.incrementAndGet();
+                    return text.length();
+                })
+                .build();
+
+        final var messages = new ArrayList<Message>();
+        messages.add( new SystemMessage( "system" ) );
+        messages.add( new UserMessage( "question" ) );
+        for( int i = 0; i < 100; ++i ) {
+            messages.add( new AssistantMessage( "answer " + i ) );
+        }
+
+        final int total = counter.count( messages );
+        assertEquals( messages.stream().mapToInt( counter::count ).sum(), total );
+
+        // a new state of the conversation: only the appended message is counted
+        final var next = new ArrayList<>( messages );
+        next.add( new UserMessage( "next" ) );
+        calls.set( 0 );
+        assertEquals( total + counter.count( next.get( next.size() - 1 ) ), counter.count( next ) );
+        assertEquals( 2, calls.get() );
+
+        // a rewritten conversation invalidates the totals after the messages in common
+        next.subList( 50, next.size() ).clear();
+        next.add( new AssistantMessage( "changed" ) );
+        calls.set( 0 );
+        assertEquals( next.stream().mapToInt( counter::count ).sum(), counter.count( next ) );
+        assertEquals( 1 + next.size(), calls.get() );
+    }
+
+    @Test
+    public void testTrackedPrompt() {
+        final var registry = new SimpleMeterRegistry();
+        final var counter = TokenCounter.builder()
+                .meterRegistry( registry )
+                .build();
+
+        final var model = new TokenTrackingChatModel(
+                prompt -> new ChatResponse( List.of( new Generation( new AssistantMessage( "done" ) ) ) ),
+                counter );
+
+        final var prompt = new Prompt( List.of( new SystemMessage( "system" ), new UserMessage( "x".repeat( 400 ) ) ) );
+        model.call( prompt );
+
+        assertEquals( counter.count( prompt ), counter.lastPromptTokens() );
+        assertEquals( counter.lastPromptTokens(), (int)registry.get( TokenCounter.METRIC_NAME ).gauge().value() );
+    }
+}
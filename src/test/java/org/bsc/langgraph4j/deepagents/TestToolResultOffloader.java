@@ -0,0 +1,94 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestToolResultOffloader {
+
+    private static ToolCallback tool( String name ) {
+        final var definition = new ToolDefinition() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public String description() {
+                return "returns its input";
+            }
+
+            @Override
+            public String inputSchema() {
+                return "{}";
+            }
+        };
+        return new ToolCallback() {
+            @Override
+            public ToolDefinition getToolDefinition() {
+                return definition;
+            }
+
+            @Override
+            public String call( String toolInput ) {
+                return toolInput;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,String> files( ToolResultOffloader.Offloaded offloaded ) {
+        return (Map<String,String>)offloaded.update().get( "files" );
+    }
+
+    @Test
+    public void testOffload() {
+        final var offloader = new ToolResultOffloader( tool( "search" ), 3_000 );
+
+        // under the threshold
+        assertNull( offloader.offload( "x".repeat( 3_000 ) ) );
+        // would be taken for a spilled file
+        assertNull( offloader.offload( "\u0000spilled:" + "x".repeat( 5_000 ) ) );
+
+        final var result = "a".repeat( 1_500 ) + "b".repeat( 3_000 ) + "\nshort line";
+        final var offloaded = offloader.offload( result );
+        assertNotNull( offloaded );
+        assertTrue( offloaded.path().startsWith( ToolResultOffloader.RESULTS_DIR + "search_" ) );
+        assertTrue( offloaded.message().contains( "(" + result.length() + " characters)" ) );
+        assertTrue( offloaded.message().contains( offloaded.path() ) );
+        assertTrue( offloaded.message().endsWith( "\n\n" + "a".repeat( 1_000 ) ) );
+
+        // the file added to the state holds the whole result, its long lines wrapped
+        final var files = files( offloaded );
+        assertEquals( 1, files.size() );
+        final var content = files.get( offloaded.path() );
+        assertEquals( result, content.replace( "\n", "" ).replace( "short line", "\nshort line" ) );
+        for( var line : content.split( "\n" ) ) {
+            assertTrue( line.length() <= Tools.MAX_LINE_LENGTH );
+        }
+
+        // the file is named after the content: same content same file, different contents different files
+        assertEquals( offloaded.path(), offloader.offload( result ).path() );
+        assertNotEquals( offloaded.path(), offloader.offload( result + "!" ).path() );
+    }
+
+    @Test
+    public void testWithoutContext() {
+        final var offloader = new ToolResultOffloader( tool( "search" ), 10 );
+        final var result = "x".repeat( 100 );
+        assertEquals( result, offloader.call( result ) );
+        assertEquals( result, offloader.call( result, null ) );
+    }
+
+    @Test
+    public void testWrapLines() {
+        final var line = "y".repeat( Tools.MAX_LINE_LENGTH );
+        assertEquals( line, ToolResultOffloader.wrapLines( line ) );
+        assertEquals( line + "\ny", ToolResultOffloader.wrapLines( line + "y" ) );
+        assertEquals( line + "\n" + line, ToolResultOffloader.wrapLines( line + "\n" + line ) );
+    }
+}
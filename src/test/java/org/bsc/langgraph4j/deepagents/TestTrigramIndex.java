@@ -0,0 +1,163 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTrigramIndex {
+
+    @TempDir
+    Path sources;
+
+    @TempDir
+    Path storage;
+
+    private static final String[] WORDS = { "alpha", "Beta", "gamma", "DELTA", "epsilon", "zeta", "eta", "theta", "iota", "kappa" };
+
+    private List<Path> writeSources( int count ) throws IOException {
+        final var random = new Random( 42 );
+        final var result = new ArrayList<Path>();
+        for( int i = 0; i < count; ++i ) {
+            final var text = new StringBuilder();
+            for( int w = 0; w < 20; ++w ) {
+                text.append( WORDS[ random.nextInt( WORDS.length ) ] ).append( random.nextInt( 50 ) ).append( ' ' );
+            }
+            final var file = sources.resolve( "File" + i + ".java" );
+            Files.writeString( file, text );
+            result.add( file );
+        }
+        return result;
+    }
+
+    /**
+     * @return ids of the files whose lower-cased content contains the text, as the search tools match them
+     */
+    private static int[] matching( TrigramIndex index, String text ) throws IOException {
+        final var result = new ArrayList<Integer>();
+        for( int id = 0; id < index.files().size(); ++id ) {
+            if( Files.readString( Path.of( index.files().get( id ).path() ) ).toLowerCase().contains( text.toLowerCase() ) ) {
+                result.add( id );
+            }
+        }
+        return result.stream().mapToInt( Integer::intValue ).toArray();
+    }
+
+    private static boolean containsAll( int[] candidates, int[] ids ) {
+        return Arrays.stream( ids ).allMatch( id -> Arrays.binarySearch( candidates, id ) >= 0 );
+    }
+
+    @Test
+    public void testCandidates() throws IOException {
+        final var files = writeSources( 300 );
+        // runs of a few files, merged
+        try( var index = TrigramIndex.build( files, storage.resolve( "trigrams.idx" ), 3, 500 ) ) {
+            assertEquals( 300, index.files().size() );
+            assertEquals( 300, index.files().stream().map( TrigramIndex.FileEntry::path ).distinct().count() );
+
+            for( var query : List.of( "alpha12", "DELTA4 ", "kappa49 zeta", "eta", "BETA1" ) ) {
+                final var candidates = index.candidates( query );
+                final var expected = matching( index, query );
+                assertTrue( containsAll( candidates, expected ), query );
+            }
+            // the trigrams of a long query are selective, the candidates are few more than the matches
+            assertTrue( index.candidates( "kappa49 zeta" ).length < matching( index, "kappa49 zeta" ).length + 10 );
+            assertEquals( 0, index.candidates( "missing" ).length );
+            // too short to narrow the search
+            assertNull( index.candidates( "ab" ) );
+
+            final var file = files.get( 7 );
+            final int id = index.id( file.toString() );
+            assertEquals( Files.size( file ), index.files().get( id ).size() );
+            assertEquals( Files.getLastModifiedTime( file ).toMillis(), index.files().get( id ).lastModified() );
+            assertEquals( -1, index.id( sources.resolve( "Other.java" ).toString() ) );
+        }
+
+        // reopened from the file, as a single run
+        TrigramIndex.build( files, storage.resolve( "single.idx" ), 1 ).close();
+        try( var merged = TrigramIndex.open( storage.resolve( "trigrams.idx" ) );
+             var single = TrigramIndex.open( storage.resolve( "single.idx" ) ) ) {
+            for( var query : List.of( "alpha12", "theta", "iota3 " ) ) {
+                assertArrayEquals( single.candidates( query ), merged.candidates( query ), query );
+            }
+        }
+        assertNull( TrigramIndex.open( storage.resolve( "missing.idx" ) ) );
+    }
+
+    @Test
+    public void testCloseDuringLookups() throws Exception {
+        final var files = writeSources( 100 );
+        final var index = TrigramIndex.build( files, storage.resolve( "trigrams.idx" ), 2 );
+        final var errors = new AtomicReference<Throwable>();
+        final var lookups = new CountDownLatch( 4 );
+        final var readers = new ArrayList<Thread>();
+        for( int i = 0; i < 4; ++i ) {
+            final var reader = new Thread( () -> {
+                try {
+                    // the lookups in progress when the index is closed complete, the following ones don't narrow the search
+                    for( int n = 0; index.candidates( "alpha1" ) != null; ++n ) {
+                        if( n == 10 ) {
+                            lookups.countDown();
+                        }
+                    }
+                }
+                catch( Throwable e ) {
+                    errors.set( e );
+                    lookups.countDown();
+                }
+            });
+            reader.start();
+            readers.add( reader );
+        }
+        lookups.await();
+        index.close();
+        index.close();
+        for( var reader : readers ) {
+            reader.join( 10_000 );
+        }
+        assertNull( errors.get() );
+        assertNull( index.candidates( "alpha1" ) );
+    }
+
+    @Test
+    public void testCaseFolding() throws IOException {
+        final var ascii = sources.resolve( "ascii.c" );
+        Files.writeString( ascii, "int MaxValue = 1;" );
+        final var kelvin = sources.resolve( "kelvin.c" );
+        Files.writeString( kelvin, "/* 300 \u212Aelvin */", StandardCharsets.UTF_8 );
+        final var binary = sources.resolve( "binary.c" );
+        Files.write( binary, new byte[] { 'm', 'a', 'x', 0, 'v', 'a', 'l' } );
+        final var accented = sources.resolve( "accented.c" );
+        Files.writeString( accented, "// \u00c9T\u00c9 caf\u00e9", StandardCharsets.UTF_8 );
+
+        try( var index = TrigramIndex.build( List.of( ascii, kelvin, binary, accented ), storage.resolve( "trigrams.idx" ), 2 ) ) {
+            assertArrayEquals( new int[] { index.id( ascii.toString() ) }, index.candidates( "maxvalue" ) );
+            assertArrayEquals( new int[] { index.id( ascii.toString() ) }, index.candidates( "MAXVALUE" ) );
+            // lower-cased to an ASCII k by String.toLowerCase()
+            assertArrayEquals( new int[] { index.id( kelvin.toString() ) }, index.candidates( "kelvin" ) );
+            assertEquals( 0, index.candidates( "max\u0000val" ).length );
+            // the non-ASCII trigrams are not looked up: the ASCII ones narrow the search
+            assertArrayEquals( new int[] { index.id( accented.toString() ) }, index.candidates( "\u00e9t\u00e9 CAF\u00c9" ) );
+        }
+    }
+
+    @Test
+    public void testDistinctTrigrams() {
+        final var trigrams = TrigramIndex.distinctTrigrams( "abcABC".getBytes( StandardCharsets.UTF_8 ) );
+        // abc, bca, cab
+        assertEquals( 3, trigrams.length );
+        assertArrayEquals( trigrams, TrigramIndex.queryTrigrams( "ABCabc" ) );
+        assertEquals( 0, TrigramIndex.distinctTrigrams( "ab".getBytes( StandardCharsets.UTF_8 ) ).length );
+    }
+}
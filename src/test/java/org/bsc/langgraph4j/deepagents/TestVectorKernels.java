@@ -0,0 +1,55 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestVectorKernels {
+
+    private static void assertClose( double expected, double actual ) {
+        assertTrue( Math.abs( expected - actual ) <= 1e-3 * Math.max( 1, Math.abs( expected ) ),
+                () -> "expected " + expected + " but was " + actual );
+    }
+
+    @Test
+    public void testKernels() {
+        final var scalar = VectorKernels.scalar();
+        final var kernels = VectorKernels.INSTANCE;
+
+        for( int dimensions : new int[] { 1, 3, 17, 384, 1001 } ) {
+            final var vectors = TestHnswIndex.randomVectors( 2, dimensions, dimensions );
+            final var a = vectors[0];
+            final var b = vectors[1];
+
+            double dot = 0, na = 0, nb = 0, distance = 0;
+            for( int i = 0; i < dimensions; ++i ) {
+                dot += a[i] * b[i];
+                na += a[i] * a[i];
+                nb += b[i] * b[i];
+                distance += ( a[i] - b[i] ) * ( a[i] - b[i] );
+            }
+            final double cosine = dot / Math.sqrt( na * nb );
+
+            for( var k : new VectorKernels[] { scalar, kernels } ) {
+                assertClose( dot, k.dot( a, b ) );
+                assertClose( cosine, k.cosine( a, b ) );
+                assertClose( distance, k.squareDistance( a, b ) );
+            }
+
+            // the second vector stored off-heap after a first one
+            final var buffer = ByteBuffer.allocateDirect( ( dimensions * 2 ) * Float.BYTES )
+                    .order( ByteOrder.LITTLE_ENDIAN )
+                    .asFloatBuffer()
+                    .put( a ).put( b );
+            for( var k : new VectorKernels[] { scalar, kernels } ) {
+                assertClose( dot, k.dot( a, buffer, dimensions ) );
+                assertClose( distance, k.squareDistance( a, buffer, dimensions ) );
+            }
+        }
+
+        assertEquals( 0f, scalar.cosine( new float[3], new float[] { 1, 2, 3 } ) );
+    }
+}
@@ -0,0 +1,76 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Measures the overhead of the built-in tools reading the state from the tool context, comparing
+ * {@link StateView} with a {@link DeepAgent.State} built on each call, under concurrent tool calls.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.ToolDispatchBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+public class ToolDispatchBenchmark {
+
+    @Param({ "20", "200" })
+    public int turns;
+
+    private ToolContext context;
+    private String path;
+    private ToolCallback readFile;
+    private ToolCallback ls;
+    private String readFileInput;
+
+    @Setup
+    public void setup() {
+        final var data = StateSerializerBenchmark.sampleState( turns );
+        // the files channel holds a FileMap once updated by the graph
+        context = new ToolContext( Map.of(
+                "messages", data.get( "messages" ),
+                "todos", data.get( "todos" ),
+                "files", new FileChannel().update( "files", null, data.get( "files" ) ) ) );
+        path = "final_report.md";
+        readFile = Tools.readFile();
+        ls = Tools.ls();
+        readFileInput = format( "{\"filePath\":\"%s\",\"offset\":0,\"limit\":20}", path );
+    }
+
+    /**
+     * Reads a file building the state on each call, as the tools did before {@link StateView}
+     */
+    @Benchmark
+    public String readWithState() {
+        return new DeepAgent.State( context.getContext() ).files().get( path );
+    }
+
+    @Benchmark
+    public String readWithView() {
+        return StateView.of( context ).file( path );
+    }
+
+    @Benchmark
+    public String dispatchReadFile() {
+        return readFile.call( readFileInput, context );
+    }
+
+    @Benchmark
+    public String dispatchLs() {
+        return ls.call( "{}", context );
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { ToolDispatchBenchmark.class.getSimpleName() } );
+    }
+}
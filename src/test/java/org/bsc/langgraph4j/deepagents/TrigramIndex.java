@@ -0,0 +1,599 @@
+package org.bsc.langgraph4j.deepagents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Persistent index of the files of a source tree by the trigrams of their content, to find the few files that may
+ * contain a text without reading all of them: the candidates are the intersection of the posting lists of the trigrams
+ * of the text, then verified by reading the files.
+ * <p>
+ * The trigrams are taken from the UTF-8 bytes of the content, lower-cased as {@link String#toLowerCase()} does for
+ * the characters that lower-case to ASCII (the ASCII letters, the Kelvin sign and the capital I with dot above);
+ * the trigrams of the queried text containing non-ASCII bytes are not looked up, so the candidates are a superset
+ * of the files containing the text, case-insensitively.
+ * <p>
+ * The index is built in parallel in batches, each batch sorted and written as a run of postings, the runs being merged
+ * in the index file: {@code [header][files][postings][trigrams]}. The files (path, size, modification time) and the
+ * trigrams (trigram, count and offset of the postings) are loaded on open, the postings are read on demand.
+ * <p>
+ * An index can be closed while other threads are looking up candidates, e.g. when it is replaced by a rebuilt one:
+ * the file is closed once the lookups in progress are over, the later lookups find no candidates to narrow the search.
+ */
+final class TrigramIndex implements Closeable {
+
+    private static final int MAGIC = 0x44415449; // DATI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + 2 * Long.BYTES;
+    // size of the files checked for NUL bytes, the binary files are indexed without content
+    private static final int BINARY_PROBE_SIZE = 512;
+    // (trigram, file) pairs sorted in memory per run, 64 MB
+    private static final int RUN_PAIRS = 1 << 23;
+
+    /**
+     * Indexed file, its size and modification time tell whether it has changed since
+     */
+    record FileEntry( String path, long size, long lastModified ) {}
+
+    private final Path file;
+    private final java.nio.channels.FileChannel channel;
+    private final List<FileEntry> files;
+    private final Map<String,Integer> ids;
+    private final int[] trigrams;
+    private final int[] counts;
+    // offsets of the postings of each trigram, followed by the end of the postings
+    private final long[] offsets;
+    // lookups in progress, plus one until closed: the file is closed when it drops to zero
+    private final AtomicInteger references = new AtomicInteger( 1 );
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private TrigramIndex( Path file ) throws IOException {
+        this.file = file;
+        this.channel = java.nio.channels.FileChannel.open( file, StandardOpenOption.READ );
+        try {
+            final var header = ByteBuffer.allocate( HEADER_SIZE );
+            while( header.hasRemaining() && channel.read( header, header.position() ) > 0 ) {}
+            header.flip();
+            if( header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION ) {
+                throw new IOException( format( "%s: unsupported trigram index", file ) );
+            }
+            final int fileCount = header.getInt();
+            final int trigramCount = header.getInt();
+            final long postingsOffset = header.getLong();
+            final long trigramsOffset = header.getLong();
+
+            final var in = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel.position( HEADER_SIZE ) ), 1 << 16 ) );
+            files = new ArrayList<>( fileCount );
+            ids = new HashMap<>( fileCount * 2 );
+            for( int id = 0; id < fileCount; ++id ) {
+                final var path = new String( in.readNBytes( in.readInt() ), StandardCharsets.UTF_8 );
+                files.add( new FileEntry( path, in.readLong(), in.readLong() ) );
+                ids.put( path, id );
+            }
+
+            final var trigramsIn = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel.position( trigramsOffset ) ), 1 << 16 ) );
+            trigrams = new int[ trigramCount ];
+            counts = new int[ trigramCount ];
+            offsets = new long[ trigramCount + 1 ];
+            for( int i = 0; i < trigramCount; ++i ) {
+                trigrams[i] = trigramsIn.readInt();
+                counts[i] = trigramsIn.readInt();
+                offsets[i] = postingsOffset + trigramsIn.readLong();
+            }
+            offsets[ trigramCount ] = trigramsOffset;
+        }
+        catch( IOException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the index stored in the given file, or null if missing
+     */
+    static TrigramIndex open( Path file ) throws IOException {
+        return Files.exists( file ) ? new TrigramIndex( file ) : null;
+    }
+
+    /**
+     * Indexes the given files, in parallel, and writes the index to the given file replacing the previous one
+     *
+     * @param threads number of threads reading the files
+     * @return the index, opened
+     */
+    static TrigramIndex build( List<Path> sources, Path file, int threads ) throws IOException {
+        return build( sources, file, threads, RUN_PAIRS );
+    }
+
+    /**
+     * @param runPairs maximum number of (trigram, file) pairs sorted in memory, written as a run when exceeded
+     */
+    static TrigramIndex build( List<Path> sources, Path file, int threads, int runPairs ) throws IOException {
+        requireNonNull( sources, "sources cannot be null" );
+        requireNonNull( file, "file cannot be null" );
+        if( threads <= 0 || runPairs <= 0 ) {
+            throw new IllegalArgumentException( "threads and runPairs must be greater than zero" );
+        }
+        final long start = System.nanoTime();
+        final var sorted = sources.stream().sorted( Comparator.comparing( Path::toString ) ).toList();
+        Files.createDirectories( file.toAbsolutePath().getParent() );
+        final var temporary = file.resolveSibling( file.getFileName() + ".tmp" );
+        final var runs = new ArrayList<Path>();
+        final ExecutorService executor = Executors.newFixedThreadPool( threads, runnable -> {
+            final var thread = new Thread( runnable, "trigram-indexer" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        try {
+            final var entries = new FileEntry[ sorted.size() ];
+            // files read ahead by the threads, a batch at a time
+            final int batchSize = threads * 64;
+            var pairs = new long[ 1024 ];
+            int pairCount = 0;
+            for( int batchStart = 0; batchStart < sorted.size(); batchStart += batchSize ) {
+                final var futures = new ArrayList<Future<int[]>>();
+                for( int id = batchStart; id < Math.min( batchStart + batchSize, sorted.size() ); ++id ) {
+                    final int fileId = id;
+                    futures.add( executor.submit( () -> {
+                        final var source = sorted.get( fileId );
+                        final var content = Files.readAllBytes( source );
+                        entries[ fileId ] = new FileEntry( source.toString(), content.length, Files.getLastModifiedTime( source ).toMillis() );
+                        return isBinary( content, content.length ) ? new int[0] : distinctTrigrams( content );
+                    }));
+                }
+                for( int i = 0; i < futures.size(); ++i ) {
+                    final int[] fileTrigrams;
+                    try {
+                        fileTrigrams = futures.get(i).get();
+                    }
+                    catch( ExecutionException e ) {
+                        // e.g. deleted since listed: indexed without content
+                        DeepAgent.log.debug( "trigram index: cannot read '{}'", sorted.get( batchStart + i ), e.getCause() );
+                        entries[ batchStart + i ] = new FileEntry( sorted.get( batchStart + i ).toString(), -1, -1 );
+                        continue;
+                    }
+                    if( pairCount > 0 && pairCount + fileTrigrams.length > runPairs ) {
+                        runs.add( writeRun( pairs, pairCount, file ) );
+                        pairCount = 0;
+                    }
+                    if( pairCount + fileTrigrams.length > pairs.length ) {
+                        pairs = Arrays.copyOf( pairs, Math.max( pairCount + fileTrigrams.length, Math.min( runPairs, pairs.length * 2 ) ) );
+                    }
+                    for( int trigram : fileTrigrams ) {
+                        pairs[ pairCount++ ] = ( (long)trigram << 32 ) | ( batchStart + i );
+                    }
+                }
+            }
+            if( pairCount > 0 ) {
+                runs.add( writeRun( pairs, pairCount, file ) );
+            }
+            pairs = null;
+            merge( Arrays.asList( entries ), runs, temporary );
+            Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "trigram index build interrupted", e );
+        }
+        finally {
+            executor.shutdownNow();
+            for( var run : runs ) {
+                Files.deleteIfExists( run );
+            }
+            Files.deleteIfExists( temporary );
+        }
+        final var result = new TrigramIndex( file );
+        DeepAgent.log.info( "trigram index: {} files, {} trigrams indexed in {} ms",
+                result.files.size(), result.trigrams.length, ( System.nanoTime() - start ) / 1_000_000 );
+        return result;
+    }
+
+    /**
+     * Sorts the pairs and writes them as a run: for each trigram, its count and its files
+     */
+    private static Path writeRun( long[] pairs, int count, Path file ) throws IOException {
+        Arrays.parallelSort( pairs, 0, count );
+        final var run = Files.createTempFile( file.toAbsolutePath().getParent(), file.getFileName().toString(), ".run" );
+        try( var out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( run ), 1 << 16 ) ) ) {
+            int i = 0;
+            while( i < count ) {
+                final int trigram = (int)( pairs[i] >>> 32 );
+                int end = i;
+                while( end < count && (int)( pairs[end] >>> 32 ) == trigram ) {
+                    ++end;
+                }
+                out.writeInt( trigram );
+                out.writeInt( end - i );
+                int previous = 0;
+                for( ; i < end; ++i ) {
+                    final int id = (int)pairs[i];
+                    writeVarInt( out, id - previous );
+                    previous = id;
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Cursor over the trigrams of a run
+     */
+    private static final class Run {
+        final int order;
+        final DataInputStream in;
+        int trigram;
+        int count;
+
+        Run( int order, Path file ) throws IOException {
+            this.order = order;
+            this.in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), 1 << 16 ) );
+        }
+
+        boolean next() throws IOException {
+            try {
+                trigram = in.readInt();
+            }
+            catch( EOFException e ) {
+                in.close();
+                return false;
+            }
+            count = in.readInt();
+            return true;
+        }
+    }
+
+    /**
+     * Merges the runs, whose files ids increase run after run, in the index file
+     */
+    private static void merge( List<FileEntry> entries, List<Path> runFiles, Path target ) throws IOException {
+        final var trigramsOut = new java.io.ByteArrayOutputStream();
+        final var trigramsData = new DataOutputStream( trigramsOut );
+        int trigramCount = 0;
+        try( var channel = java.nio.channels.FileChannel.open( target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            final var counting = new CountingOutputStream( Channels.newOutputStream( channel.position( HEADER_SIZE ) ) );
+            final var out = new DataOutputStream( new BufferedOutputStream( counting, 1 << 16 ) );
+            for( var entry : entries ) {
+                final var path = entry.path().getBytes( StandardCharsets.UTF_8 );
+                out.writeInt( path.length );
+                out.write( path );
+                out.writeLong( entry.size() );
+                out.writeLong( entry.lastModified() );
+            }
+            out.flush();
+            final long postingsOffset = HEADER_SIZE + counting.count;
+
+            final var queue = new PriorityQueue<Run>( Comparator.<Run>comparingInt( run -> run.trigram ).thenComparingInt( run -> run.order ) );
+            for( int i = 0; i < runFiles.size(); ++i ) {
+                final var run = new Run( i, runFiles.get(i) );
+                if( run.next() ) {
+                    queue.add( run );
+                }
+            }
+            final var sameTrigram = new ArrayList<Run>();
+            while( !queue.isEmpty() ) {
+                final int trigram = queue.peek().trigram;
+                sameTrigram.clear();
+                int count = 0;
+                while( !queue.isEmpty() && queue.peek().trigram == trigram ) {
+                    final var run = queue.poll();
+                    sameTrigram.add( run );
+                    count += run.count;
+                }
+                out.flush();
+                trigramsData.writeInt( trigram );
+                trigramsData.writeInt( count );
+                trigramsData.writeLong( counting.count - ( postingsOffset - HEADER_SIZE ) );
+                ++trigramCount;
+                // the runs in order, so the ids keep increasing
+                int previous = 0;
+                for( var run : sameTrigram ) {
+                    int id = 0;
+                    for( int i = 0; i < run.count; ++i ) {
+                        id += readVarInt( run.in );
+                        writeVarInt( out, id - previous );
+                        previous = id;
+                    }
+                    if( run.next() ) {
+                        queue.add( run );
+                    }
+                }
+            }
+            out.flush();
+            final long postingsSize = counting.count - ( postingsOffset - HEADER_SIZE );
+            trigramsData.flush();
+            out.write( trigramsOut.toByteArray() );
+            out.flush();
+
+            final var header = ByteBuffer.allocate( HEADER_SIZE )
+                    .putInt( MAGIC )
+                    .putInt( VERSION )
+                    .putInt( entries.size() )
+                    .putInt( trigramCount )
+                    .putLong( postingsOffset )
+                    .putLong( postingsOffset + postingsSize )
+                    .flip();
+            long position = 0;
+            while( header.hasRemaining() ) {
+                position += channel.write( header, position );
+            }
+            channel.force( true );
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream( OutputStream out ) {
+            this.out = out;
+        }
+
+        @Override
+        public void write( int b ) throws IOException {
+            out.write( b );
+            ++count;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            out.write( b, off, len );
+            count += len;
+        }
+    }
+
+    private static void writeVarInt( DataOutputStream out, int value ) throws IOException {
+        while( ( value & ~0x7F ) != 0 ) {
+            out.write( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( value );
+    }
+
+    private static int readVarInt( InputStream in ) throws IOException {
+        int result = 0;
+        for( int shift = 0; ; shift += 7 ) {
+            final int b = in.read();
+            if( b < 0 ) {
+                throw new IOException( "truncated trigram postings" );
+            }
+            result |= ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                return result;
+            }
+        }
+    }
+
+    private static int readVarInt( ByteBuffer in ) {
+        int result = 0;
+        for( int shift = 0; ; shift += 7 ) {
+            final int b = in.get();
+            result |= ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return true if the first bytes of the content contain a NUL byte
+     */
+    static boolean isBinary( byte[] content, int length ) {
+        for( int i = 0; i < Math.min( length, BINARY_PROBE_SIZE ); ++i ) {
+            if( content[i] == 0 ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Emits the bytes of the UTF-8 content lower-cased: the ASCII capitals, the Kelvin sign as {@code k}
+     * and the capital I with dot above as {@code i} followed by a combining dot above, as {@link String#toLowerCase()}
+     */
+    static void lowerCase( byte[] content, int length, IntConsumer output ) {
+        for( int i = 0; i < length; ++i ) {
+            final int b = content[i] & 0xFF;
+            if( b >= 'A' && b <= 'Z' ) {
+                output.accept( b | 0x20 );
+            }
+            else if( b == 0xE2 && i + 2 < length && ( content[ i + 1 ] & 0xFF ) == 0x84 && ( content[ i + 2 ] & 0xFF ) == 0xAA ) {
+                output.accept( 'k' );
+                i += 2;
+            }
+            else if( b == 0xC4 && i + 1 < length && ( content[ i + 1 ] & 0xFF ) == 0xB0 ) {
+                output.accept( 'i' );
+                output.accept( 0xCC );
+                output.accept( 0x87 );
+                ++i;
+            }
+            else {
+                output.accept( b );
+            }
+        }
+    }
+
+    /**
+     * @return the distinct trigrams of the lower-cased content, sorted
+     */
+    static int[] distinctTrigrams( byte[] content ) {
+        final var result = new int[][] { new int[ Math.max( 16, content.length ) ] };
+        final var state = new int[3]; // last bytes, their count, trigram count
+        lowerCase( content, content.length, b -> {
+            state[0] = ( ( state[0] << 8 ) | b ) & 0xFFFFFF;
+            if( ++state[1] >= 3 ) {
+                if( state[2] == result[0].length ) {
+                    result[0] = Arrays.copyOf( result[0], state[2] * 2 );
+                }
+                result[0][ state[2]++ ] = state[0];
+            }
+        });
+        final var trigrams = result[0];
+        Arrays.sort( trigrams, 0, state[2] );
+        int distinct = 0;
+        for( int i = 0; i < state[2]; ++i ) {
+            if( distinct == 0 || trigrams[ distinct - 1 ] != trigrams[i] ) {
+                trigrams[ distinct++ ] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf( trigrams, distinct );
+    }
+
+    /**
+     * @return the distinct trigrams of the lower-cased text made of ASCII bytes only
+     */
+    static int[] queryTrigrams( String text ) {
+        final var bytes = text.toLowerCase().getBytes( StandardCharsets.UTF_8 );
+        final var result = new int[ Math.max( 0, bytes.length - 2 ) ];
+        int count = 0;
+        for( int i = 0; i + 2 < bytes.length; ++i ) {
+            if( bytes[i] >= 0 && bytes[ i + 1 ] >= 0 && bytes[ i + 2 ] >= 0 ) {
+                result[ count++ ] = ( bytes[i] << 16 ) | ( bytes[ i + 1 ] << 8 ) | bytes[ i + 2 ];
+            }
+        }
+        return Arrays.stream( result, 0, count ).distinct().toArray();
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * @return the indexed files, by id
+     */
+    List<FileEntry> files() {
+        return files;
+    }
+
+    /**
+     * @return the id of the given path, or -1 if not indexed
+     */
+    int id( String path ) {
+        return ids.getOrDefault( path, -1 );
+    }
+
+    /**
+     * @return ids of the files that may contain the given text case-insensitively, in increasing order,
+     * or null if the text has no trigram to look up or the index has been closed: all the files may contain it
+     */
+    int[] candidates( String text ) throws IOException {
+        final var queryTrigrams = queryTrigrams( text );
+        if( queryTrigrams.length == 0 || !acquire() ) {
+            return null;
+        }
+        try {
+            return candidates( queryTrigrams );
+        }
+        finally {
+            release();
+        }
+    }
+
+    private int[] candidates( int[] queryTrigrams ) throws IOException {
+        final var positions = new int[ queryTrigrams.length ];
+        for( int i = 0; i < queryTrigrams.length; ++i ) {
+            positions[i] = Arrays.binarySearch( trigrams, queryTrigrams[i] );
+            if( positions[i] < 0 ) {
+                return new int[0];
+            }
+        }
+        // the rarest first, the intersection only shrinks
+        final var byCount = Arrays.stream( positions ).boxed().sorted( Comparator.comparingInt( i -> counts[i] ) ).toList();
+        var result = postings( byCount.get(0) );
+        for( int i = 1; i < byCount.size() && result.length > 0; ++i ) {
+            result = intersect( result, postings( byCount.get(i) ) );
+        }
+        return result;
+    }
+
+    private int[] postings( int position ) throws IOException {
+        final var buffer = ByteBuffer.allocate( (int)( offsets[ position + 1 ] - offsets[ position ] ) );
+        while( buffer.hasRemaining() ) {
+            if( channel.read( buffer, offsets[ position ] + buffer.position() ) < 0 ) {
+                throw new IOException( format( "%s: truncated trigram index", file ) );
+            }
+        }
+        buffer.flip();
+        final var result = new int[ counts[ position ] ];
+        int id = 0;
+        for( int i = 0; i < result.length; ++i ) {
+            id += readVarInt( buffer );
+            result[i] = id;
+        }
+        return result;
+    }
+
+    private static int[] intersect( int[] a, int[] b ) {
+        final var result = new int[ Math.min( a.length, b.length ) ];
+        int count = 0;
+        for( int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if( a[i] < b[j] ) {
+                ++i;
+            }
+            else if( a[i] > b[j] ) {
+                ++j;
+            }
+            else {
+                result[ count++ ] = a[i];
+                ++i;
+                ++j;
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    private boolean acquire() {
+        for( int count = references.get(); count > 0; count = references.get() ) {
+            if( references.compareAndSet( count, count + 1 ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release() throws IOException {
+        if( references.decrementAndGet() == 0 ) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the index, the file being closed once the lookups in progress are over
+     */
+    @Override
+    public void close() throws IOException {
+        if( closed.compareAndSet( false, true ) ) {
+            release();
+        }
+    }
+}
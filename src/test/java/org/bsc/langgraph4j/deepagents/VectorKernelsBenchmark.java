@@ -0,0 +1,78 @@
+package org.bsc.langgraph4j.deepagents;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the scalar and SIMD similarity kernels, over arrays and off-heap buffers.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.bsc.langgraph4j.deepagents.VectorKernelsBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VectorKernelsBenchmark {
+
+    @Param({ "scalar", "simd" })
+    public String kernels;
+
+    @Param({ "384", "768", "1024", "1536", "3072" })
+    public int dimensions;
+
+    private VectorKernels impl;
+    private float[] a;
+    private float[] b;
+    private FloatBuffer buffer;
+
+    @Setup
+    public void setup() {
+        impl = switch( kernels ) {
+            case "scalar" -> VectorKernels.scalar();
+            case "simd" -> {
+                if( VectorKernels.INSTANCE == VectorKernels.scalar() ) {
+                    throw new IllegalStateException( "SIMD kernels are not available" );
+                }
+                yield VectorKernels.INSTANCE;
+            }
+            default -> throw new IllegalArgumentException( kernels );
+        };
+        final var vectors = TestHnswIndex.randomVectors( 2, dimensions, 42 );
+        a = vectors[0];
+        b = vectors[1];
+        buffer = ByteBuffer.allocateDirect( dimensions * Float.BYTES )
+                .order( ByteOrder.LITTLE_ENDIAN )
+                .asFloatBuffer()
+                .put( b );
+    }
+
+    @Benchmark
+    public float dot() {
+        return impl.dot( a, b );
+    }
+
+    @Benchmark
+    public float cosine() {
+        return impl.cosine( a, b );
+    }
+
+    @Benchmark
+    public float squareDistance() {
+        return impl.squareDistance( a, b );
+    }
+
+    @Benchmark
+    public float dotOffHeap() {
+        return impl.dot( a, buffer, 0 );
+    }
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main( args.length > 0 ? args : new String[] { VectorKernelsBenchmark.class.getSimpleName() } );
+    }
+}